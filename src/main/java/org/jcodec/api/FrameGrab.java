@@ -7,7 +7,9 @@ import java.nio.ByteBuffer;
 import org.jcodec.api.specific.AVCMP4Adaptor;
 import org.jcodec.api.specific.ContainerAdaptor;
 import org.jcodec.api.specific.GenericAdaptor;
+import org.jcodec.codecs.h264.H264Decoder.Discard;
 import org.jcodec.codecs.vpx.VP8Decoder;
+import org.jcodec.codecs.vpx.vp9.VP9Decoder;
 import org.jcodec.common.Codec;
 import org.jcodec.common.DemuxerTrack;
 import org.jcodec.common.DemuxerTrackMeta;
@@ -200,9 +202,20 @@ public class FrameGrab {
         if (decoder == null)
             decoder = detectDecoder(sdt);
 
-        while (frame.getFrameNo() < curFrame) {
-            decoder.decodeFrame(frame, getBuffer());
-            frame = sdt.nextFrame();
+        // The frames nothing is predicted from don't need to be decoded to
+        // get to the target frame
+        AVCMP4Adaptor avc = decoder instanceof AVCMP4Adaptor ? (AVCMP4Adaptor) decoder : null;
+        Discard skipFrame = avc == null ? null : avc.getSkipFrame();
+        if (skipFrame == Discard.NONE)
+            avc.setSkipFrame(Discard.NONREF);
+        try {
+            while (frame.getFrameNo() < curFrame) {
+                decoder.decodeFrame(frame, getBuffer());
+                frame = sdt.nextFrame();
+            }
+        } finally {
+            if (skipFrame == Discard.NONE)
+                avc.setSkipFrame(skipFrame);
         }
         sdt.gotoFrame(curFrame);
     }
@@ -236,6 +249,8 @@ public class FrameGrab {
         }
         if (Codec.VP8 == meta.getCodec()) {
             return new GenericAdaptor(new VP8Decoder());
+        } else if (Codec.VP9 == meta.getCodec()) {
+            return new GenericAdaptor(new VP9Decoder());
         } else {
             throw new UnsupportedFormatException("Codec is not supported");
         }
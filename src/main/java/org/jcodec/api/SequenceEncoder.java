@@ -77,7 +77,8 @@ public class SequenceEncoder {
 
     /**
      * Allows passing configuration to the codec. Must be called before the first
-     * frame is encoded.
+     * frame is encoded. The keys are the codec names and the values are the
+     * comma separated options, i.e. "h264" -> "preset:fast,keyInterval:50".
      * 
      * @param opts
      */
@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 
 import org.jcodec.api.MediaInfo;
 import org.jcodec.codecs.h264.H264Decoder;
+import org.jcodec.codecs.h264.H264Decoder.Discard;
 import org.jcodec.codecs.h264.H264Utils;
 import org.jcodec.codecs.h264.io.model.NALUnit;
 import org.jcodec.codecs.h264.io.model.NALUnitType;
@@ -31,10 +32,14 @@ public class AVCMP4Adaptor implements ContainerAdaptor {
     private int curENo;
     private Size size;
     private DemuxerTrackMeta meta;
+    private Discard skipFrame;
+    private Discard skipLoopFilter;
 
     public AVCMP4Adaptor(DemuxerTrackMeta meta) {
         this.meta = meta;
         this.curENo = -1;
+        this.skipFrame = Discard.NONE;
+        this.skipLoopFilter = Discard.NONE;
 
         calcBufferSize();
     }
@@ -86,9 +91,37 @@ public class AVCMP4Adaptor implements ContainerAdaptor {
         }
         if(decoder == null) {
             decoder = H264Decoder.createH264DecoderFromCodecPrivate(meta.getCodecPrivate());
+            decoder.setSkipFrame(skipFrame);
+            decoder.setSkipLoopFilter(skipLoopFilter);
         }
     }
 
+    /**
+     * @see H264Decoder#setSkipFrame(Discard)
+     */
+    public void setSkipFrame(Discard skipFrame) {
+        this.skipFrame = skipFrame;
+        if (decoder != null)
+            decoder.setSkipFrame(skipFrame);
+    }
+
+    public Discard getSkipFrame() {
+        return skipFrame;
+    }
+
+    /**
+     * @see H264Decoder#setSkipLoopFilter(Discard)
+     */
+    public void setSkipLoopFilter(Discard skipLoopFilter) {
+        this.skipLoopFilter = skipLoopFilter;
+        if (decoder != null)
+            decoder.setSkipLoopFilter(skipLoopFilter);
+    }
+
+    public Discard getSkipLoopFilter() {
+        return skipLoopFilter;
+    }
+
     @Override
     public boolean canSeek(Packet pkt) {
         updateState(pkt);
@@ -80,6 +80,12 @@ public class SinkImpl implements Sink, PacketSink {
     private ByteBuffer videoCodecPrivate;
     private ByteBuffer audioCodecPrivate;
     private Map<String, String> codecOpts;
+    // The packets of the pictures the video encoder holds back by the number
+    // of the picture, with the B frames it returns them in the coding order
+    private Map<Integer, Packet> heldVideoPackets;
+    private int videoInputNo;
+    private Picture lastVideoFrame;
+    private int lastBufferSize;
 
     @Override
     public void outputVideoPacket(Packet packet, VideoCodecMeta codecMeta) throws IOException {
@@ -138,8 +144,11 @@ public class SinkImpl implements Sink, PacketSink {
     }
 
     public void finish() throws IOException {
-        if (videoEncoder != null)
+        if (videoEncoder != null) {
+            if (heldVideoPackets != null)
+                flushVideo();
             videoEncoder.finish();
+        }
         if (framesOutput) {
             muxer.finish();
         } else {
@@ -201,22 +210,31 @@ public class SinkImpl implements Sink, PacketSink {
             }
         }
         initVideoEncoder();
+        if (videoEncoder instanceof H264Encoder
+                && (((H264Encoder) videoEncoder).isIntraOnly() || ((H264Encoder) videoEncoder).getBFrames() > 0))
+            heldVideoPackets = new HashMap<Integer, Packet>();
     }
 
     private H264Encoder createH264Encoder() {
         Map<String, String> opts = getCodecOpts();
+        boolean cabac = Boolean.parseBoolean(opts.get("cabac"));
         if ("cqp".equals(opts.get("rc"))) {
             int qp = 20;
             if (opts.containsKey("qp"))
                 qp = Integer.parseInt(opts.get("qp"));
-            return new H264Encoder(new CQPRateControl(qp));
+            return new H264Encoder(new CQPRateControl(qp), cabac);
         } else
-            return H264Encoder.createH264Encoder();
+            return H264Encoder.createH264Encoder(cabac);
     }
 
     private void initVideoEncoder() {
-        for (Entry<String, String> entry : getCodecOpts().entrySet()) {
-            setEncoderOption(entry.getKey(), entry.getValue());
+        Map<String, String> opts = getCodecOpts();
+        // The preset first so that the other options override it
+        if (opts.containsKey("preset"))
+            setEncoderOption("preset", opts.get("preset"));
+        for (Entry<String, String> entry : opts.entrySet()) {
+            if (!"preset".equals(entry.getKey()))
+                setEncoderOption(entry.getKey(), entry.getValue());
         }
     }
 
@@ -274,11 +292,22 @@ public class SinkImpl implements Sink, PacketSink {
             return Integer.parseInt(value);
         else if (type == double.class)
             return Double.parseDouble(value);
+        else if (type.isEnum())
+            return parseEnum(type, value);
         else
             Logger.error("Unsupported codec argument type: " + type.getName());
         return null;
     }
 
+    private Object parseEnum(Class<?> type, String value) {
+        for (Object constant : type.getEnumConstants()) {
+            if (((Enum<?>) constant).name().equalsIgnoreCase(value))
+                return constant;
+        }
+        Logger.error("Unknown value " + value + " of " + type.getSimpleName());
+        return null;
+    }
+
     protected EncodedFrame encodeVideo(Picture frame, ByteBuffer _out) {
         if (!outputFormat.isVideo())
             return null;
@@ -321,7 +350,6 @@ public class SinkImpl implements Sink, PacketSink {
     public void outputVideoFrame(VideoFrameWithPacket videoFrame) throws IOException {
         if (!outputFormat.isVideo() || outputVideoCodec == null)
             return;
-        Packet outputVideoPacket;
         ByteBuffer buffer = bufferStore.get();
         int bufferSize = videoEncoder.estimateBufferSize(videoFrame.getFrame().getPicture());
         if (buffer == null || bufferSize < buffer.capacity()) {
@@ -331,12 +359,46 @@ public class SinkImpl implements Sink, PacketSink {
         buffer.clear();
         Picture frame = videoFrame.getFrame().getPicture();
         EncodedFrame enc = encodeVideo(frame, buffer);
-        outputVideoPacket = Packet.createPacketWithData(videoFrame.getPacket(), NIOUtils.clone(enc.getData()));
+        if (heldVideoPackets != null) {
+            heldVideoPackets.put(videoInputNo++, videoFrame.getPacket());
+            lastVideoFrame = frame;
+            lastBufferSize = bufferSize;
+            if (enc.getData().hasRemaining())
+                outputHeldVideo(enc, frame);
+            return;
+        }
+        outputEncodedVideo(videoFrame.getPacket(), enc, frame);
+    }
+
+    private void outputEncodedVideo(Packet packet, EncodedFrame enc, Picture frame) throws IOException {
+        Packet outputVideoPacket = Packet.createPacketWithData(packet, NIOUtils.clone(enc.getData()));
         outputVideoPacket.setFrameType(enc.isKeyFrame() ? FrameType.KEY : FrameType.INTER);
         outputVideoPacket(outputVideoPacket, org.jcodec.common.VideoCodecMeta
                 .createSimpleVideoCodecMeta(new Size(frame.getWidth(), frame.getHeight()), frame.getColor()));
     }
 
+    /**
+     * Outputs the frame with the packet of the picture it is of, the B frames
+     * then keep the pts of their pictures and the muxer stores them in the
+     * coding order
+     */
+    private void outputHeldVideo(EncodedFrame enc, Picture frame) throws IOException {
+        Packet packet = heldVideoPackets.remove(((H264Encoder) videoEncoder).getLastInputNo());
+        outputEncodedVideo(packet, enc, frame);
+    }
+
+    /**
+     * Outputs the frames the video encoder still holds once the input is over
+     */
+    private void flushVideo() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(lastBufferSize);
+        EncodedFrame enc;
+        while (!heldVideoPackets.isEmpty() && (enc = ((H264Encoder) videoEncoder).flush(buffer)) != null) {
+            outputHeldVideo(enc, lastVideoFrame);
+            buffer.clear();
+        }
+    }
+
     @Override
     public void outputAudioFrame(AudioFrameWithPacket audioFrame) throws IOException {
         if (!outputFormat.isAudio() || outputAudioCodec == null)
@@ -8,6 +8,7 @@ import static org.jcodec.common.Codec.PCM;
 import static org.jcodec.common.Codec.PNG;
 import static org.jcodec.common.Codec.PRORES;
 import static org.jcodec.common.Codec.VP8;
+import static org.jcodec.common.Codec.VP9;
 import static org.jcodec.common.Format.DASHURL;
 import static org.jcodec.common.Format.IMG;
 import static org.jcodec.common.Format.MKV;
@@ -46,6 +47,7 @@ import org.jcodec.codecs.prores.ProresToThumb2x2;
 import org.jcodec.codecs.prores.ProresToThumb4x4;
 import org.jcodec.codecs.raw.RAWVideoDecoder;
 import org.jcodec.codecs.vpx.VP8Decoder;
+import org.jcodec.codecs.vpx.vp9.VP9Decoder;
 import org.jcodec.codecs.wav.WavDemuxer;
 import org.jcodec.common.AudioCodecMeta;
 import org.jcodec.common.AudioDecoder;
@@ -127,6 +129,13 @@ public class SourceImpl implements Source, PacketSource {
             return new MPEGDecoder();
     }
 
+    public static H264Decoder createH264Decoder(int downscale, ByteBuffer codecPrivate) {
+        H264Decoder decoder = H264Decoder.createH264DecoderFromCodecPrivate(codecPrivate);
+        if (downscale == 2 || downscale == 4)
+            decoder.setDownscale(downscale);
+        return decoder;
+    }
+
     public static ProresDecoder createProresDecoder(int downscale) {
         if (2 == downscale) {
             return new ProresToThumb4x4();
@@ -337,7 +346,7 @@ public class SourceImpl implements Source, PacketSource {
     private VideoDecoder createVideoDecoder(Codec codec, int downscale, ByteBuffer codecPrivate,
             VideoCodecMeta videoCodecMeta) {
         if (Codec.H264 == codec) {
-            return H264Decoder.createH264DecoderFromCodecPrivate(codecPrivate);
+            return createH264Decoder(downscale, codecPrivate);
         } else if (PNG == codec) {
             return new PNGDecoder();
         } else if (MPEG2 == codec) {
@@ -346,6 +355,8 @@ public class SourceImpl implements Source, PacketSource {
             return createProresDecoder(downscale);
         } else if (VP8 == codec) {
             return new VP8Decoder();
+        } else if (VP9 == codec) {
+            return new VP9Decoder();
         } else if (JPEG == codec) {
             return createJpegDecoder(downscale);
         } else if (MPEG4 == codec) {
@@ -60,6 +60,8 @@ public class TranscodeMain {
 
     private static final Flag FLAG_PROFILE = Flag.flag("profile", null, "Profile to use (supported by some encoders).");
     private static final Flag FLAG_INTERLACED = Flag.flag("interlaced", null, "Encode output as interlaced (supported by Prores encoder).");
+    private static final Flag FLAG_PRESET = Flag.flag("preset", null,
+            "Encoder speed preset, ultrafast, superfast, veryfast, fast, medium or slow (supported by h.264 encoder).");
 
     private static final Flag FLAG_DUMPMV = Flag.flag("dumpMv", null, "Dump motion vectors (supported by h.264 decoder).");
     private static final Flag FLAG_DUMPMVJS = Flag.flag("dumpMvJs", null, "Dump motion vectors in form of JASON file (supported by h.264 decoder).");
@@ -70,7 +72,7 @@ public class TranscodeMain {
             "Contains a comma separated list of video filters with arguments.");
 
     private static final Flag[] ALL_FLAGS = new Flag[] { FLAG_INPUT, FLAG_FORMAT, FLAG_VIDEO_CODEC, FLAG_AUDIO_CODEC,
-            FLAG_SEEK_FRAMES, FLAG_MAX_FRAMES, FLAG_PROFILE, FLAG_INTERLACED, FLAG_DUMPMV, FLAG_DUMPMVJS,
+            FLAG_SEEK_FRAMES, FLAG_MAX_FRAMES, FLAG_PROFILE, FLAG_INTERLACED, FLAG_PRESET, FLAG_DUMPMV, FLAG_DUMPMVJS,
             FLAG_DOWNSCALE, FLAG_MAP_VIDEO, FLAG_MAP_AUDIO, FLAG_VIDEO_FILTER };
 
     private static Map<String, Format> extensionToF = new HashMap<String, Format>();
@@ -170,6 +172,7 @@ public class TranscodeMain {
         supportedDecoders.add(Codec.PRORES);
         supportedDecoders.add(Codec.RAW);
         supportedDecoders.add(Codec.VP8);
+        supportedDecoders.add(Codec.VP9);
         supportedDecoders.add(Codec.MP3);
         supportedDecoders.add(Codec.MP2);
         supportedDecoders.add(Codec.MP1);
@@ -342,7 +345,7 @@ public class TranscodeMain {
             }
 
             Sink sink = new SinkImpl(output, outputFormat, outputCodecVideo, outputCodecAudio);
-            configureSink(sink, cmd);
+            configureSink(sink, cmd, cmd.getStringFlagI(index, FLAG_PRESET));
             sinks.add(sink);
             builder.addSink(sink);
             builder.setAudioMapping(audioMap, sinks.size() - 1, audioCopy);
@@ -370,7 +373,7 @@ public class TranscodeMain {
         transcoder.transcode();
     }
 
-    private static void configureSink(Sink sink, Cmd cmd) {
+    private static void configureSink(Sink sink, Cmd cmd, String preset) {
         Map<String, String> codecOpts = new HashMap<String,String>();
         for (String key : cmd.longFlags.keySet()) {
             if (key.endsWith("Opts")) {
@@ -378,6 +381,10 @@ public class TranscodeMain {
                 codecOpts.put(codec, cmd.longFlags.get(key));
             }
         }
+        if (preset != null) {
+            String h264Opts = codecOpts.get("h264");
+            codecOpts.put("h264", "preset:" + preset + (h264Opts != null ? "," + h264Opts : ""));
+        }
         sink.setCodecOpts(codecOpts);
     }
 
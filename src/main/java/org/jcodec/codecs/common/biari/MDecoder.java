@@ -18,11 +18,30 @@ public class MDecoder {
     private int code;
     private int nBitsPending;
     private int[][] cm;
+    private boolean escaped;
+    // The last two bytes read including the emulation prevention ones
+    private int last2;
 
     public MDecoder(ByteBuffer _in, int[][] cm) {
+        this(_in, cm, false);
+    }
+
+    /**
+     * @param escaped
+     *            The data still contains the emulation prevention bytes ( the
+     *            0x03 in 00 00 03 ) as in a NAL unit, they are skipped as the
+     *            bytes are read. The bytes before the current position of the
+     *            buffer are the NAL unit header and the slice header.
+     */
+    public MDecoder(ByteBuffer _in, int[][] cm, boolean escaped) {
         this._in = _in;
         this.range = 510;
         this.cm = cm;
+        this.escaped = escaped;
+        if (escaped) {
+            int pos = _in.position();
+            last2 = ((pos > 1 ? _in.get(pos - 2) & 0xff : 0xff) << 8) | (pos > 0 ? _in.get(pos - 1) & 0xff : 0xff);
+        }
 
         initCodeRegister();
     }
@@ -45,13 +64,29 @@ public class MDecoder {
     }
 
     protected void readOneByte() {
-        if (!_in.hasRemaining())
+        int b = nextByte();
+        if (b == -1)
             return;
-        int b = _in.get() & 0xff;
         code |= b;
         nBitsPending += 8;
     }
 
+    private int nextByte() {
+        if (!_in.hasRemaining())
+            return -1;
+        int b = _in.get() & 0xff;
+        if (escaped) {
+            if (b == 3 && last2 == 0) {
+                last2 = 3;
+                if (!_in.hasRemaining())
+                    return -1;
+                b = _in.get() & 0xff;
+            }
+            last2 = ((last2 << 8) | b) & 0xffff;
+        }
+        return b;
+    }
+
     /**
      * Decodes one bin from arithmetice code word
      * 
@@ -60,38 +95,37 @@ public class MDecoder {
      * @throws IOException
      */
     public int decodeBin(int m) {
-        int bin;
+        int[] state = cm[0];
+        int[] mps = cm[1];
+        int s = state[m];
 
-        int qIdx = (range >> 6) & 0x3;
-        int rLPS = MConst.rangeLPS[qIdx][cm[0][m]];
+        int rLPS = MConst.rangeLPS[(range >> 6) & 0x3][s];
         range -= rLPS;
         int rs8 = range << 8;
 
         if (code < rs8) {
-            // MPS
-            if (cm[0][m] < 62)
-                cm[0][m]++;
+            // MPS, the range is at least 256 - 240 so at most one shift
+            if (s < 62)
+                state[m] = s + 1;
 
-            renormalize();
+            if (range < 256)
+                shift1();
 
-            bin = cm[1][m];
+            return mps[m];
         } else {
             // LPS
-            range = rLPS;
             code -= rs8;
+            renormalize(rLPS);
 
-            renormalize();
+            int bin = 1 - mps[m];
 
-            bin = 1 - cm[1][m];
+            if (s == 0)
+                mps[m] = bin;
 
-            if (cm[0][m] == 0)
-                cm[1][m] = 1 - cm[1][m];
+            state[m] = MConst.transitLPS[s];
 
-            cm[0][m] = MConst.transitLPS[cm[0][m]];
+            return bin;
         }
-
-//        System.out.println("CABAC BIT [" + m + "]: " + bin);
-        return bin;
     }
 
     /**
@@ -106,11 +140,10 @@ public class MDecoder {
         range -= 2;
 
         if (code < (range << 8)) {
-            renormalize();
-//            System.out.println("CABAC BIT [-2]: 0");
+            if (range < 256)
+                shift1();
             return 0;
         } else {
-//            System.out.println("CABAC BIT [-2]: 1");
             return 1;
         }
     }
@@ -130,15 +163,46 @@ public class MDecoder {
 
         int tmp = code - (range << 8);
         if (tmp < 0) {
-//            System.out.println("CABAC BIT [-1]: 0");
             return 0;
         } else {
-//            System.out.println("CABAC BIT [-1]: 1");
             code = tmp;
             return 1;
         }
     }
 
+    /**
+     * Decodes n bypass bins at once, the first bin ends up in the most
+     * significant bit of the result. Decoding a bypass bin is one step of a
+     * binary long division of the code register by the range, so n bins are
+     * the quotient of the code register extended with n stream bits.
+     * 
+     * @param n
+     *            Number of bins, up to 16
+     * @return
+     */
+    public int decodeBinsBypass(int n) {
+        if (n > 8)
+            return (decodeBinsBypass(n - 8) << 8) | decodeBinsBypass(8);
+
+        int scaledRange = range << 8;
+        if (code >= scaledRange) {
+            // Only in a broken stream, the quotient wouldn't fit
+            int val = 0;
+            for (int i = 0; i < n; i++)
+                val = (val << 1) | decodeBinBypass();
+            return val;
+        }
+
+        code <<= n;
+        nBitsPending -= n;
+        if (nBitsPending <= 0)
+            readByteAt(-nBitsPending);
+
+        int val = code / scaledRange;
+        code -= val * scaledRange;
+        return val;
+    }
+
     /**
      * Shifts the current interval to either 1/2 or 0 (code = (code << 1) &
      * 0x1ffff) and scales it by 2 (range << 1).
@@ -148,15 +212,37 @@ public class MDecoder {
      * 
      * @throws IOException
      */
-    private void renormalize() {
-        while (range < 256) {
-            range <<= 1;
-            code <<= 1;
-            code &= 0x1ffff;
-
-            --nBitsPending;
-            if (nBitsPending <= 0)
-                readOneByte();
-        }
+    private void shift1() {
+        range <<= 1;
+        code = (code << 1) & 0x1ffff;
+
+        if (--nBitsPending <= 0)
+            readOneByte();
+    }
+
+    /**
+     * Sets the new range and scales it together with the code register until
+     * the range is 9 bits again. Equivalent to shifting them bit by bit, the
+     * byte that would be read in the middle is put at its final position. The
+     * smallest LPS range is 6 so the shift never exceeds 6 bits.
+     * 
+     * @param newRange
+     */
+    private void renormalize(int newRange) {
+        int shift = Integer.numberOfLeadingZeros(newRange) - 23;
+        range = newRange << shift;
+        code = (code << shift) & 0x1ffff;
+
+        nBitsPending -= shift;
+        if (nBitsPending <= 0)
+            readByteAt(-nBitsPending);
+    }
+
+    private void readByteAt(int shift) {
+        int b = nextByte();
+        if (b == -1)
+            return;
+        code |= b << shift;
+        nBitsPending += 8;
     }
-}
\ No newline at end of file
+}
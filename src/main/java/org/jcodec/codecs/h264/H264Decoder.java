@@ -6,12 +6,12 @@ import static org.jcodec.common.tools.MathUtil.wrap;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
 
+import org.jcodec.codecs.h264.H264Utils.ColocatedMvs;
 import org.jcodec.codecs.h264.H264Utils.MvList2D;
 import org.jcodec.codecs.h264.decode.DeblockerInput;
 import org.jcodec.codecs.h264.decode.FrameReader;
@@ -20,6 +20,7 @@ import org.jcodec.codecs.h264.decode.SliceHeaderReader;
 import org.jcodec.codecs.h264.decode.SliceReader;
 import org.jcodec.codecs.h264.decode.deblock.DeblockingFilter;
 import org.jcodec.codecs.h264.io.model.Frame;
+import org.jcodec.codecs.h264.io.model.MBType;
 import org.jcodec.codecs.h264.io.model.NALUnit;
 import org.jcodec.codecs.h264.io.model.NALUnitType;
 import org.jcodec.codecs.h264.io.model.PictureParameterSet;
@@ -32,11 +33,15 @@ import org.jcodec.common.IntObjectMap;
 import org.jcodec.common.UsedViaReflection;
 import org.jcodec.common.VideoCodecMeta;
 import org.jcodec.common.VideoDecoder;
+import org.jcodec.common.WorkerPool;
 import org.jcodec.common.io.BitReader;
+import org.jcodec.common.io.NALBitReader;
+import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.logging.Logger;
 import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Rect;
 import org.jcodec.common.model.Size;
+import org.jcodec.common.tools.MathUtil;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
@@ -51,28 +56,208 @@ import org.jcodec.common.model.Size;
  */
 public class H264Decoder extends VideoDecoder {
 
+    /**
+     * Which frames are skipped by the decoder (setSkipFrame) or decoded
+     * without the loop filter (setSkipLoopFilter).
+     */
+    public static enum Discard {
+        /** Nothing is discarded */
+        NONE,
+        /** Frames that are not used for reference, nal_ref_idc == 0 */
+        NONREF,
+        /** All frames except the intra ones, IDR or I */
+        NONINTRA,
+        /** All frames except IDR */
+        NONKEY,
+        /** All frames */
+        ALL
+    }
+
+    /**
+     * Receives the macroblock information of each decoded frame: the
+     * macroblock types and the luma qps in raster order. The motion vectors
+     * with the reference indices are in frame.getMvs() in 4x4 blocks, the
+     * reference pictures the indices point to are in frame.getRefsUsed().
+     * The arrays are only valid for the duration of the call.
+     */
+    public static interface MBInfoListener {
+        void frameParsed(Frame frame, MBType[] mbTypes, int[] mbQps);
+    }
+
     private Frame[] sRefs;
     private IntObjectMap<Frame> lRefs;
     private List<Frame> pictureBuffer;
     private POCManager poc;
     private FrameReader reader;
+    private NALIterator nalUnits;
     private ExecutorService tp;
     private boolean threaded;
+    private boolean pipelinedDeblocking;
+    private int frameThreads;
+    private LinkedList<FrameDecoder> inFlight;
+    private List<byte[][]> frameBuffers;
+    private List<DeblockerInput> deblockerInputs;
+    private List<SliceDecoder> sliceDecoders;
+    private List<Frame> unusedSideInfo;
+    private Discard skipFrame;
+    private Discard skipLoopFilter;
+    private int log2Scale;
+    private boolean syntaxOnly;
+    private MBInfoListener mbInfoListener;
 
     public H264Decoder() {
         pictureBuffer = new ArrayList<Frame>();
         poc = new POCManager();
         this.threaded = Runtime.getRuntime().availableProcessors() > 1;
-        if (threaded) {
-            tp = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
-                public Thread newThread(Runnable r) {
-                    Thread t = Executors.defaultThreadFactory().newThread(r);
-                    t.setDaemon(true);
-                    return t;
-                }
-            });
-        }
+        tp = WorkerPool.getInstance().newJob(Runtime.getRuntime().availableProcessors());
         reader = new FrameReader();
+        nalUnits = new NALIterator();
+        inFlight = new LinkedList<FrameDecoder>();
+        frameBuffers = new ArrayList<byte[][]>();
+        deblockerInputs = new ArrayList<DeblockerInput>();
+        sliceDecoders = new ArrayList<SliceDecoder>();
+        unusedSideInfo = new ArrayList<Frame>();
+        skipFrame = Discard.NONE;
+        skipLoopFilter = Discard.NONE;
+    }
+
+    /**
+     * Limits the number of the worker threads this decoder may occupy on the
+     * shared worker pool at the same time.
+     * 
+     * @param maxThreads
+     */
+    public void setMaxThreads(int maxThreads) {
+        tp = WorkerPool.getInstance().newJob(maxThreads);
+        threaded = maxThreads > 1;
+    }
+
+    /**
+     * Enables frame-level multithreading. With frameThreads > 1 up to
+     * frameThreads pictures are decoded concurrently, each one waiting on the
+     * rows of the reference pictures it needs.
+     * 
+     * In this mode the output is delayed by frameThreads - 1 pictures:
+     * decodeFrame returns the picture submitted frameThreads - 1 calls earlier
+     * (in decoding order) stored into the buffer passed to this call, or null
+     * while the pipeline is filling up. The pictures left in the pipeline at
+     * the end of the stream are retrieved with flush.
+     * 
+     * Must be called before the first frame is decoded.
+     * 
+     * @param frameThreads
+     */
+    public void setFrameThreads(int frameThreads) {
+        this.frameThreads = frameThreads;
+    }
+
+    /**
+     * Enables deblocking that runs on a worker thread while the slices are
+     * still being decoded. Each macroblock row is filtered as soon as it is
+     * reconstructed instead of a separate pass over the whole frame once all
+     * the slices are done. The frame threaded mode always filters row by row.
+     * 
+     * @param pipelinedDeblocking
+     */
+    public void setPipelinedDeblocking(boolean pipelinedDeblocking) {
+        this.pipelinedDeblocking = pipelinedDeblocking;
+    }
+
+    /**
+     * Skips the frames matching the discard level, decodeFrame returns null
+     * for them without touching the decoder state. Skipping NONREF frames
+     * doesn't change the output of the remaining frames, that's what a seek
+     * that decodes the frames leading to the target can use. With NONINTRA
+     * or NONKEY the intra frames are still decoded exactly while the inter
+     * frames that get skipped are the references that are missing.
+     * 
+     * The skipped frames don't enter the frame-threaded pipeline.
+     * 
+     * @param skipFrame
+     */
+    public void setSkipFrame(Discard skipFrame) {
+        this.skipFrame = skipFrame;
+    }
+
+    public Discard getSkipFrame() {
+        return skipFrame;
+    }
+
+    /**
+     * Decodes the frames matching the discard level without the deblocking
+     * filter. Only NONREF keeps the other frames exact, otherwise the
+     * unfiltered reference pictures cause a drift in the frames predicted
+     * from them until the next IDR.
+     * 
+     * @param skipLoopFilter
+     */
+    public void setSkipLoopFilter(Discard skipLoopFilter) {
+        this.skipLoopFilter = skipLoopFilter;
+    }
+
+    public Discard getSkipLoopFilter() {
+        return skipLoopFilter;
+    }
+
+    /**
+     * Makes the decoder output the pictures at 1/2 or 1/4 of the coded
+     * resolution. The reference pictures are stored at the reduced size as
+     * well, the motion compensation samples them with a bilinear filter and
+     * the deblocking filter is skipped. The intra macroblocks are still
+     * reconstructed at the full resolution from the full resolution
+     * neighbours, so intra pictures are exact downscales while the inter
+     * pictures drift until the next intra picture. Good enough for the
+     * thumbnails and the previews of the streams with short GOPs.
+     * 
+     * Must be called before the first frame is decoded.
+     * 
+     * @param downscale
+     *            1, 2 or 4
+     */
+    public void setDownscale(int downscale) {
+        if (downscale != 1 && downscale != 2 && downscale != 4)
+            throw new IllegalArgumentException("Unsupported downscale: " + downscale);
+        this.log2Scale = MathUtil.log2(downscale);
+    }
+
+    public int getDownscale() {
+        return 1 << log2Scale;
+    }
+
+    /**
+     * Makes the decoder only parse the macroblocks and derive their side
+     * information (types, qps, motion vectors and reference indices) skipping
+     * the prediction, the transform and the deblocking. The pixels of the
+     * returned frames are not touched. Meant for the compressed domain
+     * analysis with the MBInfoListener.
+     * 
+     * Must be called before the first frame is decoded.
+     * 
+     * @param syntaxOnly
+     */
+    public void setSyntaxOnly(boolean syntaxOnly) {
+        this.syntaxOnly = syntaxOnly;
+    }
+
+    public boolean isSyntaxOnly() {
+        return syntaxOnly;
+    }
+
+    public void setMBInfoListener(MBInfoListener mbInfoListener) {
+        this.mbInfoListener = mbInfoListener;
+    }
+
+    /**
+     * Returns the next picture still in the frame-threaded pipeline, null when
+     * there's nothing left.
+     * 
+     * @param buffer
+     * @return
+     */
+    public Frame flush(byte[][] buffer) {
+        if (inFlight.size() == 0)
+            return null;
+        return outputFrame(buffer);
     }
 
     /**
@@ -84,7 +269,9 @@ public class H264Decoder extends VideoDecoder {
      */
     public static H264Decoder createH264DecoderFromCodecPrivate(ByteBuffer codecPrivate) {
         H264Decoder d = new H264Decoder();
-        for (ByteBuffer bb : H264Utils.splitFrame(codecPrivate.duplicate())) {
+        NALIterator nalUnits = new NALIterator().reset(codecPrivate.duplicate());
+        ByteBuffer bb;
+        while ((bb = nalUnits.next()) != null) {
             NALUnit nu = NALUnit.read(bb);
             if (nu.type == NALUnitType.SPS) {
                 d.reader.addSps(bb);
@@ -95,15 +282,188 @@ public class H264Decoder extends VideoDecoder {
         return d;
     }
 
+    /**
+     * Decodes the next frame into the buffer provided. The motion vectors and
+     * the references used by the macroblocks of the returned frame are only
+     * valid until the next call to the decoder, the decoder reuses this
+     * memory for the frames that follow.
+     * 
+     * The NAL units are read in place, the data is not modified.
+     */
     @Override
     public Frame decodeFrame(ByteBuffer data, byte[][] buffer) {
-        return decodeFrameFromNals(H264Utils.splitFrame(data), buffer);
+        return decodeFrame(nalUnits.reset(data), buffer);
     }
 
     public Frame decodeFrameFromNals(List<ByteBuffer> nalUnits, byte[][] buffer) {
+        return decodeFrame(this.nalUnits.reset(nalUnits), buffer);
+    }
+
+    private Frame decodeFrame(NALIterator nalUnits, byte[][] buffer) {
+        if (skipFrame != Discard.NONE) {
+            if (skipFrame(nalUnits))
+                return null;
+            nalUnits.rewind();
+        }
+        if (frameThreads > 1)
+            return decodeFrameThreaded(nalUnits, buffer);
         return new FrameDecoder(this).decodeFrame(nalUnits, buffer);
     }
 
+    /**
+     * Checks the NAL unit headers and the slice types against the skip
+     * level. The parameter sets carried by a skipped frame are still read.
+     */
+    private boolean skipFrame(NALIterator nalUnits) {
+        boolean slices = false, ref = false, idr = false, intra = true;
+        ByteBuffer nalUnit;
+        while ((nalUnit = nalUnits.next()) != null) {
+            NALUnit nu = NALUnit.read(nalUnit);
+            if (nu.type == NALUnitType.IDR_SLICE || nu.type == NALUnitType.NON_IDR_SLICE) {
+                slices = true;
+                ref |= nu.nal_ref_idc != 0;
+                idr |= nu.type == NALUnitType.IDR_SLICE;
+                if (skipFrame == Discard.NONINTRA && intra)
+                    intra = sliceType(nalUnit).isIntra();
+            }
+        }
+        if (!slices || !discards(skipFrame, ref, idr, intra))
+            return false;
+
+        nalUnits.rewind();
+        while ((nalUnit = nalUnits.next()) != null) {
+            NALUnit nu = NALUnit.read(nalUnit);
+            if (nu.type == NALUnitType.SPS)
+                reader.addSps(nalUnit);
+            else if (nu.type == NALUnitType.PPS)
+                reader.addPps(nalUnit);
+        }
+        return true;
+    }
+
+    private static SliceType sliceType(ByteBuffer nalUnit) {
+        return SliceHeaderReader.readPart1(NALBitReader.createNALBitReader(nalUnit)).sliceType;
+    }
+
+    static boolean discards(Discard discard, boolean ref, boolean idr, boolean intra) {
+        if (discard == Discard.NONE)
+            return false;
+        if (discard == Discard.NONREF)
+            return !ref;
+        if (discard == Discard.NONINTRA)
+            return !intra && !idr;
+        if (discard == Discard.NONKEY)
+            return !idr;
+        return true;
+    }
+
+    private Frame decodeFrameThreaded(NALIterator nalUnits, byte[][] buffer) {
+        // The slices are read asynchronously, the caller may reuse the packet
+        List<ByteBuffer> copy = new ArrayList<ByteBuffer>();
+        ByteBuffer nalUnit;
+        while ((nalUnit = nalUnits.next()) != null) {
+            copy.add(NIOUtils.clone(nalUnit));
+        }
+        FrameDecoder fdec = new FrameDecoder(this);
+        if (fdec.submitFrame(nalUnits.reset(copy)))
+            inFlight.add(fdec);
+
+        if (inFlight.size() < frameThreads)
+            return null;
+        return outputFrame(buffer);
+    }
+
+    private Frame outputFrame(byte[][] buffer) {
+        FrameDecoder fdec = inFlight.removeFirst();
+        WorkerPool.join(fdec.future);
+        Frame decoded = fdec.result;
+
+        Frame result = createScaledFrame(fdec.activeSps, buffer, decoded.getFrameNo(), decoded.getFrameType(),
+                decoded.getMvs(), decoded.getRefsUsed(), decoded.getPOC(), log2Scale);
+        result.copyFromFrame(decoded);
+        if (mbInfoListener != null)
+            mbInfoListener.frameParsed(result, fdec.di.mbTypes, fdec.di.mbQps[0]);
+
+        // Everything submitted up to this frame is done, so are the readers
+        // of the pictures it released
+        for (Frame frame : fdec.released) {
+            frameBuffers.add(frame.getData());
+            unusedSideInfo.add(frame);
+        }
+        if (fdec.firstNu.nal_ref_idc == 0) {
+            frameBuffers.add(decoded.getData());
+        } else {
+            // The side info stays with the reference picture
+            Frame unused = unusedSideInfo.size() > 0 ? unusedSideInfo.remove(unusedSideInfo.size() - 1) : null;
+            fdec.di.recycleSideInfo(unused == null ? null : unused.getColocatedMvs(),
+                    unused == null ? null : unused.getRefsUsed());
+        }
+        releaseDeblockerInput(fdec.di);
+
+        return result;
+    }
+
+    private void waitForInFlight() {
+        for (FrameDecoder fdec : inFlight) {
+            WorkerPool.join(fdec.future);
+        }
+    }
+
+    private byte[][] getFrameBuffer(SeqParameterSet sps, int border) {
+        int width = sps.picWidthInMbsMinus1 + 1 << 4 - log2Scale;
+        int height = SeqParameterSet.getPicHeightInMbs(sps) << 4 - log2Scale;
+        while (frameBuffers.size() > 0) {
+            byte[][] buf = frameBuffers.remove(frameBuffers.size() - 1);
+            if (buf[0].length == (width + 2 * border) * (height + 2 * border))
+                return buf;
+        }
+        return Frame.createPlanes(width, height, ColorSpace.YUV420, border);
+    }
+
+    /**
+     * @return Border the references are allocated with, the motion
+     *         compensation of the downscaled and the syntax only decoding does
+     *         not use it
+     */
+    private int getRefBorder() {
+        return log2Scale == 0 && !syntaxOnly ? Frame.PADDING : 0;
+    }
+
+    private synchronized DeblockerInput getDeblockerInput(SeqParameterSet sps) {
+        while (deblockerInputs.size() > 0) {
+            DeblockerInput di = deblockerInputs.remove(deblockerInputs.size() - 1);
+            if (di.fits(sps)) {
+                di.reset();
+                return di;
+            }
+        }
+        return new DeblockerInput(sps);
+    }
+
+    private synchronized void releaseDeblockerInput(DeblockerInput di) {
+        deblockerInputs.add(di);
+    }
+
+    private SliceDecoder getSliceDecoder(FrameDecoder fdec, Frame[] sRefs, IntObjectMap<Frame> lRefs, Frame result) {
+        synchronized (sliceDecoders) {
+            if (sliceDecoders.size() > 0) {
+                SliceDecoder sliceDecoder = sliceDecoders.remove(sliceDecoders.size() - 1);
+                sliceDecoder.init(fdec.activeSps, sRefs, lRefs, fdec.di, result);
+                return sliceDecoder;
+            }
+        }
+        SliceDecoder sliceDecoder = new SliceDecoder(fdec.activeSps, sRefs, lRefs, fdec.di, result);
+        sliceDecoder.setLog2Scale(log2Scale);
+        sliceDecoder.setSyntaxOnly(syntaxOnly);
+        return sliceDecoder;
+    }
+
+    private void releaseSliceDecoder(SliceDecoder sliceDecoder) {
+        synchronized (sliceDecoders) {
+            sliceDecoders.add(sliceDecoder);
+        }
+    }
+
     private static final class SliceDecoderRunnable implements Runnable {
         private final SliceReader sliceReader;
         private final Frame result;
@@ -116,12 +476,15 @@ public class H264Decoder extends VideoDecoder {
         }
 
         public void run() {
-            new SliceDecoder(fdec.activeSps, fdec.dec.sRefs, fdec.dec.lRefs, fdec.di, result)
-                    .decodeFromReader(sliceReader);
+            SliceDecoder sliceDecoder = fdec.dec.getSliceDecoder(fdec, fdec.dec.sRefs, fdec.dec.lRefs, result);
+            if (fdec.deblockAsync)
+                sliceDecoder.setListener(fdec);
+            sliceDecoder.decodeFromReader(sliceReader);
+            fdec.dec.releaseSliceDecoder(sliceDecoder);
         }
     }
 
-    static class FrameDecoder {
+    static class FrameDecoder implements Runnable, SliceDecoder.MBListener {
         private SeqParameterSet activeSps;
         private DeblockingFilter filter;
         private SliceHeader firstSliceHeader;
@@ -129,15 +492,133 @@ public class H264Decoder extends VideoDecoder {
         private H264Decoder dec;
         private DeblockerInput di;
 
+        // Frame-threaded decoding state
+        private List<SliceReader> sliceReaders;
+        private Frame result;
+        private Frame[] sRefs;
+        private IntObjectMap<Frame> lRefs;
+        private Future<?> future;
+        private int[] mbsInRow;
+        private int nextRow;
+        private List<Frame> released;
+        private boolean padRefs;
+        private int extendedLines;
+
+        private boolean skipDeblocking;
+
+        // Pipelined deblocking state
+        private boolean deblockAsync;
+        private boolean deblockScheduled;
+        private Future<?> deblocking;
+
         public FrameDecoder(H264Decoder decoder) {
             this.dec = decoder;
         }
 
-        public Frame decodeFrame(List<ByteBuffer> nalUnits, byte[][] buffer) {
+        /**
+         * Starts decoding of a frame on the thread pool. The reference marking
+         * is performed right away on the calling thread, the frame being
+         * decoded works with a snapshot of the reference lists.
+         */
+        public boolean submitFrame(NALIterator nalUnits) {
+            sliceReaders = dec.reader.readFrame(nalUnits);
+            if (sliceReaders == null || sliceReaders.size() == 0)
+                return false;
+            SliceReader first = sliceReaders.get(0);
+            // The frame is the reference itself, decoded with the border in
+            // place
+            int border = dec.getRefBorder();
+            result = init(first, dec.getFrameBuffer(first.getSliceHeader().sps, border), border);
+            result.startDecoding();
+
+            sRefs = dec.sRefs.clone();
+            lRefs = new IntObjectMap<Frame>();
+            int[] keys = dec.lRefs.keys();
+            for (int i = 0; i < keys.length; i++)
+                lRefs.put(keys[i], dec.lRefs.get(keys[i]));
+
+            mbsInRow = new int[SeqParameterSet.getPicHeightInMbs(activeSps)];
+            released = new ArrayList<Frame>();
+
+            future = dec.tp.submit(this);
+
+            if (convertsToLongTerm()) {
+                // Long term conversion changes the state of the pictures that
+                // the frames in flight may be reading
+                dec.waitForInFlight();
+                WorkerPool.join(future);
+            }
+            updateReferences(result);
+
+            return true;
+        }
+
+        public void run() {
+            try {
+                SliceDecoder sliceDecoder = dec.getSliceDecoder(this, sRefs, lRefs, result);
+                for (SliceReader sliceReader : sliceReaders) {
+                    sliceDecoder.setListener(this);
+                    sliceDecoder.decodeFromReader(sliceReader);
+                }
+                dec.releaseSliceDecoder(sliceDecoder);
+                // Missing macroblocks
+                while (nextRow < mbsInRow.length)
+                    deblockMbRow(nextRow++);
+                extendEdges(result.getHeight());
+            } finally {
+                result.setDecodedLines(Integer.MAX_VALUE);
+            }
+        }
+
+        public void macroblockDecoded(int mbX, int mbY) {
+            int mbWidth = activeSps.picWidthInMbsMinus1 + 1;
+            if (deblockAsync) {
+                synchronized (this) {
+                    if (++mbsInRow[mbY] != mbWidth || deblockScheduled)
+                        return;
+                    deblockScheduled = true;
+                    deblocking = dec.tp.submit(new Runnable() {
+                        public void run() {
+                            deblockRows();
+                        }
+                    });
+                }
+                return;
+            }
+            if (++mbsInRow[mbY] != mbWidth)
+                return;
+            while (nextRow < mbsInRow.length && mbsInRow[nextRow] >= mbWidth) {
+                deblockMbRow(nextRow);
+                // The rows above the one just filtered are final
+                extendEdges(nextRow << 4);
+                result.setDecodedLines((nextRow << 4) >> dec.log2Scale);
+                nextRow++;
+            }
+        }
+
+        private boolean convertsToLongTerm() {
+            if (firstNu.nal_ref_idc == 0 || firstNu.type == NALUnitType.IDR_SLICE
+                    || firstSliceHeader.refPicMarkingNonIDR == null)
+                return false;
+            RefPicMarking.Instruction[] instructions = firstSliceHeader.refPicMarkingNonIDR.getInstructions();
+            for (int i = 0; i < instructions.length; i++) {
+                if (instructions[i].getType() == RefPicMarking.InstrType.CONVERT_INTO_LONG)
+                    return true;
+            }
+            return false;
+        }
+
+        public Frame decodeFrame(NALIterator nalUnits, byte[][] buffer) {
             List<SliceReader> sliceReaders = dec.reader.readFrame(nalUnits);
             if (sliceReaders == null || sliceReaders.size() == 0)
                 return null;
-            final Frame result = init(sliceReaders.get(0), buffer);
+            final Frame result = init(sliceReaders.get(0), buffer, 0);
+            this.result = result;
+
+            if (dec.pipelinedDeblocking) {
+                deblockAsync = true;
+                mbsInRow = new int[SeqParameterSet.getPicHeightInMbs(activeSps)];
+            }
             if (dec.threaded && sliceReaders.size() > 1) {
                 List<Future<?>> futures = new ArrayList<Future<?>>();
                 for (SliceReader sliceReader : sliceReaders) {
@@ -145,33 +626,77 @@ public class H264Decoder extends VideoDecoder {
                 }
 
                 for (Future<?> future : futures) {
-                    waitForSure(future);
+                    WorkerPool.join(future);
                 }
 
             } else {
+                SliceDecoder sliceDecoder = dec.getSliceDecoder(this, dec.sRefs, dec.lRefs, result);
+                if (deblockAsync)
+                    sliceDecoder.setListener(this);
                 for (SliceReader sliceReader : sliceReaders) {
-                    new SliceDecoder(activeSps, dec.sRefs, dec.lRefs, di, result).decodeFromReader(sliceReader);
+                    sliceDecoder.decodeFromReader(sliceReader);
                 }
+                dec.releaseSliceDecoder(sliceDecoder);
             }
 
-            filter.deblockFrame(result);
+            if (deblockAsync) {
+                Future<?> last;
+                synchronized (this) {
+                    last = deblocking;
+                }
+                if (last != null)
+                    WorkerPool.join(last);
+                // Rows with the missing macroblocks
+                while (nextRow < mbsInRow.length)
+                    deblockMbRow(nextRow++);
+            } else if (!skipDeblocking) {
+                filter.deblockFrame(result);
+            }
 
+            if (dec.mbInfoListener != null)
+                dec.mbInfoListener.frameParsed(result, di.mbTypes, di.mbQps[0]);
             updateReferences(result);
+            dec.releaseDeblockerInput(di);
 
             return result;
         }
 
-        private void waitForSure(Future<?> future) {
+        /**
+         * Filters the macroblock rows in order as they get reconstructed by
+         * the slice decoders. Never waits for a row, returns as soon as the
+         * next row is incomplete, it will be rescheduled by the slice decoder
+         * that completes it.
+         */
+        private void deblockRows() {
+            int mbWidth = activeSps.picWidthInMbsMinus1 + 1;
             while (true) {
-                try {
-                    future.get();
-                    break;
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
+                synchronized (this) {
+                    if (nextRow == mbsInRow.length || mbsInRow[nextRow] < mbWidth) {
+                        deblockScheduled = false;
+                        return;
+                    }
                 }
+                deblockMbRow(nextRow++);
             }
         }
 
+        private void deblockMbRow(int mbY) {
+            if (!skipDeblocking)
+                filter.deblockMbRow(result, mbY);
+        }
+
+        /**
+         * Extends the edges of the lines of a frame-threaded reference into its
+         * border as they become final, the frames in flight read them right
+         * away.
+         */
+        private void extendEdges(int lines) {
+            if (!padRefs)
+                return;
+            result.extendEdges(extendedLines, lines);
+            extendedLines = lines;
+        }
+
         private void updateReferences(Frame picture) {
             if (firstNu.nal_ref_idc != 0) {
                 if (firstNu.type == NALUnitType.IDR_SLICE) {
@@ -182,7 +707,7 @@ public class H264Decoder extends VideoDecoder {
             }
         }
 
-        private Frame init(SliceReader sliceReader, byte[][] buffer) {
+        private Frame init(SliceReader sliceReader, byte[][] buffer, int border) {
             firstNu = sliceReader.getNALUnit();
 
             firstSliceHeader = sliceReader.getSliceHeader();
@@ -197,12 +722,18 @@ public class H264Decoder extends VideoDecoder {
                 dec.lRefs = new IntObjectMap<Frame>();
             }
 
-            di = new DeblockerInput(activeSps);
+            di = dec.getDeblockerInput(activeSps);
 
-            Frame result = createFrame(activeSps, buffer, firstSliceHeader.frameNum, firstSliceHeader.sliceType,
-                    di.mvs, di.refsUsed, dec.poc.calcPOC(firstSliceHeader, firstNu));
+            Frame result = createScaledFrame(activeSps, buffer, firstSliceHeader.frameNum,
+                    firstSliceHeader.sliceType, di.mvs, di.refsUsed, dec.poc.calcPOC(firstSliceHeader, firstNu),
+                    dec.log2Scale, border);
+            result.setColocatedMvs(di.colMvs);
 
             filter = new DeblockingFilter(picWidthInMbs, activeSps.bitDepthChromaMinus8 + 8, di);
+            padRefs = firstNu.nal_ref_idc != 0 && dec.getRefBorder() > 0;
+            // The filter needs the full resolution picture
+            skipDeblocking = dec.syntaxOnly || dec.log2Scale > 0 || discards(dec.skipLoopFilter, firstNu.nal_ref_idc != 0,
+                    firstNu.type == NALUnitType.IDR_SLICE, firstSliceHeader.sliceType.isIntra());
 
             return result;
         }
@@ -228,7 +759,6 @@ public class H264Decoder extends VideoDecoder {
 
         public void performIDRMarking(RefPicMarkingIDR refPicMarkingIDR, Frame picture) {
             clearAll();
-            dec.pictureBuffer.clear();
 
             Frame saved = saveRef(picture);
             if (refPicMarkingIDR.isUseForlongTerm()) {
@@ -239,15 +769,40 @@ public class H264Decoder extends VideoDecoder {
         }
 
         private Frame saveRef(Frame decoded) {
-            Frame frame = dec.pictureBuffer.size() > 0 ? dec.pictureBuffer.remove(0) : Frame.createFrame(decoded);
+            if (released != null)
+                return decoded;
+            Frame frame = copyRef(decoded, padRefs ? dec.getRefBorder() : 0);
+            if (padRefs)
+                frame.extendEdges(0, frame.getHeight());
+            return frame;
+        }
+
+        private Frame copyRef(Frame decoded, int border) {
+            while (dec.pictureBuffer.size() > 0) {
+                Frame frame = dec.pictureBuffer.remove(0);
+                if (frame.getWidth() != decoded.getWidth() || frame.getHeight() != decoded.getHeight()
+                        || frame.getBorder(0) != border)
+                    continue;
+                ColocatedMvs unusedColMvs = frame.getColocatedMvs();
+                Frame[][][] unusedRefs = frame.getRefsUsed();
+                frame.copyFromFrame(decoded);
+                // The side info now belongs to the reference
+                di.recycleSideInfo(unusedColMvs, unusedRefs);
+                return frame;
+            }
+            Frame frame = Frame.createFrame(decoded, border);
             frame.copyFromFrame(decoded);
+            di.recycleSideInfo(null, null);
             return frame;
         }
 
         private void releaseRef(Frame picture) {
-            if (picture != null) {
+            if (picture == null)
+                return;
+            if (released != null)
+                released.add(picture);
+            else
                 dec.pictureBuffer.add(picture);
-            }
         }
 
         public void clearAll() {
@@ -366,18 +921,33 @@ public class H264Decoder extends VideoDecoder {
 
     public static Frame createFrame(SeqParameterSet sps, byte[][] buffer, int frameNum, SliceType frameType,
             MvList2D mvs, Frame[][][] refsUsed, int POC) {
-        int width = sps.picWidthInMbsMinus1 + 1 << 4;
-        int height = SeqParameterSet.getPicHeightInMbs(sps) << 4;
+        return createScaledFrame(sps, buffer, frameNum, frameType, mvs, refsUsed, POC, 0);
+    }
+
+    /**
+     * Creates a frame downscaled by 1 << log2Scale, the cropping is scaled
+     * accordingly.
+     */
+    public static Frame createScaledFrame(SeqParameterSet sps, byte[][] buffer, int frameNum, SliceType frameType,
+            MvList2D mvs, Frame[][][] refsUsed, int POC, int log2Scale) {
+        return createScaledFrame(sps, buffer, frameNum, frameType, mvs, refsUsed, POC, log2Scale, 0);
+    }
+
+    private static Frame createScaledFrame(SeqParameterSet sps, byte[][] buffer, int frameNum, SliceType frameType,
+            MvList2D mvs, Frame[][][] refsUsed, int POC, int log2Scale, int border) {
+        int width = sps.picWidthInMbsMinus1 + 1 << 4 - log2Scale;
+        int height = SeqParameterSet.getPicHeightInMbs(sps) << 4 - log2Scale;
 
         Rect crop = null;
         if (sps.frameCroppingFlag) {
-            int sX = sps.frameCropLeftOffset << 1;
-            int sY = sps.frameCropTopOffset << 1;
-            int w = width - (sps.frameCropRightOffset << 1) - sX;
-            int h = height - (sps.frameCropBottomOffset << 1) - sY;
+            int sX = (sps.frameCropLeftOffset << 1) >> log2Scale;
+            int sY = (sps.frameCropTopOffset << 1) >> log2Scale;
+            int w = width - ((sps.frameCropRightOffset << 1) >> log2Scale) - sX;
+            int h = height - ((sps.frameCropBottomOffset << 1) >> log2Scale) - sY;
             crop = new Rect(sX, sY, w, h);
         }
-        return new Frame(width, height, buffer, ColorSpace.YUV420, crop, frameNum, frameType, mvs, refsUsed, POC);
+        return new Frame(width, height, buffer, ColorSpace.YUV420, crop, frameNum, frameType, mvs, refsUsed, POC,
+                border);
     }
 
     public void addSps(List<ByteBuffer> spsList) {
@@ -391,16 +961,18 @@ public class H264Decoder extends VideoDecoder {
     @UsedViaReflection
     public static int probe(ByteBuffer data) {
         boolean validSps = false, validPps = false, validSh = false;
-        for (ByteBuffer nalUnit : H264Utils.splitFrame(data.duplicate())) {
+        NALIterator nalUnits = new NALIterator().reset(data.duplicate());
+        ByteBuffer nalUnit;
+        while ((nalUnit = nalUnits.next()) != null) {
             NALUnit marker = NALUnit.read(nalUnit);
             if (marker.type == NALUnitType.IDR_SLICE || marker.type == NALUnitType.NON_IDR_SLICE) {
-                BitReader reader = BitReader.createBitReader(nalUnit);
+                BitReader reader = NALBitReader.createNALBitReader(nalUnit);
                 validSh = validSh(SliceHeaderReader.readPart1(reader));
                 break;
             } else if (marker.type == NALUnitType.SPS) {
-                validSps = validSps(SeqParameterSet.read(nalUnit));
+                validSps = validSps(SeqParameterSet.read(NALBitReader.createNALBitReader(nalUnit)));
             } else if (marker.type == NALUnitType.PPS) {
-                validPps = validPps(PictureParameterSet.read(nalUnit));
+                validPps = validPps(PictureParameterSet.read(NALBitReader.createNALBitReader(nalUnit)));
             }
         }
 
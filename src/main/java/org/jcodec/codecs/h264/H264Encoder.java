@@ -5,19 +5,30 @@ import static org.jcodec.codecs.h264.H264Utils.escapeNAL;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import org.jcodec.codecs.h264.encode.CABACSliceWriter;
 import org.jcodec.codecs.h264.encode.CQPRateControl;
 import org.jcodec.codecs.h264.encode.EncodedMB;
 import org.jcodec.codecs.h264.encode.EncodingContext;
+import org.jcodec.codecs.h264.encode.H264EncoderUtils;
+import org.jcodec.codecs.h264.encode.H264Preset;
 import org.jcodec.codecs.h264.encode.IntraPredEstimator;
+import org.jcodec.codecs.h264.encode.LookaheadAnalysis;
 import org.jcodec.codecs.h264.encode.MBDeblocker;
 import org.jcodec.codecs.h264.encode.MBEncoderHelper;
+import org.jcodec.codecs.h264.encode.MBSyntax;
+import org.jcodec.codecs.h264.encode.MBWriterB16x16;
 import org.jcodec.codecs.h264.encode.MBWriterI16x16;
 import org.jcodec.codecs.h264.encode.MBWriterINxN;
 import org.jcodec.codecs.h264.encode.MBWriterP16x16;
 import org.jcodec.codecs.h264.encode.MotionEstimator;
+import org.jcodec.codecs.h264.encode.MotionSearch;
 import org.jcodec.codecs.h264.encode.RateControl;
 import org.jcodec.codecs.h264.io.CAVLC;
 import org.jcodec.codecs.h264.io.model.Frame;
@@ -32,8 +43,10 @@ import org.jcodec.codecs.h264.io.model.SliceType;
 import org.jcodec.codecs.h264.io.write.CAVLCWriter;
 import org.jcodec.codecs.h264.io.write.SliceHeaderWriter;
 import org.jcodec.codecs.png.PNGEncoder;
+import org.jcodec.common.IntArrayList;
 import org.jcodec.common.Tuple._3;
 import org.jcodec.common.VideoEncoder;
+import org.jcodec.common.WorkerPool;
 import org.jcodec.common.io.BitWriter;
 import org.jcodec.common.io.FileChannelWrapper;
 import org.jcodec.common.io.NIOUtils;
@@ -61,15 +74,26 @@ public class H264Encoder extends VideoEncoder {
     // private static final int QP = 20;
     private static final int KEY_INTERVAL_DEFAULT = 25;
     private static final int MOTION_SEARCH_RANGE_DEFAULT = 16;
+    private static final int B_QP_OFFSET = 2;
 
     public static H264Encoder createH264Encoder() {
-        return new H264Encoder(new CQPRateControl(24));
+        return createH264Encoder(false);
+    }
+
+    public static H264Encoder createH264Encoder(boolean cabac) {
+        return new H264Encoder(new CQPRateControl(24), cabac);
     }
 
     private RateControl rc;
     private int frameNumber;
     private int keyInterval;
     private int motionSearchRange;
+    private MotionSearch motionSearch;
+    private boolean hierarchicalSearch;
+    private int intra4x4Modes;
+    private boolean rdoIntraInP;
+    private boolean earlySkip;
+    private boolean earlyIntraTermination;
 
     private int maxPOC;
 
@@ -79,29 +103,71 @@ public class H264Encoder extends VideoEncoder {
 
     private PictureParameterSet pps;
 
-    private MBWriterI16x16 mbEncoderI16x16;
-    private MBWriterINxN mbEncoderINxN;
-    private MBWriterP16x16 mbEncoderP16x16;
-
     private Picture ref;
+    private int[] refMvs;
+    private Picture refLowRes;
+    private Picture prevRef;
+    private Picture prevRefLowRes;
+    private boolean[] colZero;
     private Picture picOut;
-    private EncodedMB[] topEncoded;
+
+    private int bFrames;
+    // The pictures which types are not decided yet in the display order, the
+    // decided ones in the coding order
+    private List<LookaheadFrame> lookahead = new ArrayList<LookaheadFrame>();
+    private LinkedList<LookaheadFrame> codingQueue = new LinkedList<LookaheadFrame>();
+    private Picture lastLowRes;
+    // How far the first picture of the lookahead is from the last IDR
+    private int sinceIdr;
+    private int refFrameNum;
+    // Consecutive IDR pictures must differ in idr_pic_id
+    private int idrPicId;
+    // Pictures passed to encodeFrame() so far and the number of the one the
+    // last returned frame is of
+    private int inputCount;
+    private int lastInputNo;
+
+    private boolean intraOnly;
+    // The frames being encoded concurrently in the intra only mode, in order
+    private LinkedList<IntraFrame> intraFrames = new LinkedList<IntraFrame>();
 
     private boolean psnrEn;
     private long[] sum_se = new long[3];
     private long[] g_sum_se = new long[3];
     private int frameCount;
     private long totalSize;
-    private EncodingContext context;
     private H264Decoder decoder;
     private boolean enableRdo;
     private String decodedDump;
     private FileChannelWrapper dumpOut;
+    private int numSlices;
+    private boolean wavefront;
+    private boolean cabac;
+    private ExecutorService tp;
+    private int maxThreads;
 
     public H264Encoder(RateControl rc) {
+        this(rc, false);
+    }
+
+    /**
+     * @param rc
+     * @param cabac
+     *            Entropy codes the slices with CABAC, the stream is then Main
+     *            profile instead of Baseline. The macroblocks are still decided
+     *            on their CAVLC sizes.
+     */
+    public H264Encoder(RateControl rc, boolean cabac) {
         this.rc = rc;
+        this.cabac = cabac;
         this.keyInterval = KEY_INTERVAL_DEFAULT;
         this.motionSearchRange = MOTION_SEARCH_RANGE_DEFAULT;
+        this.motionSearch = MotionSearch.DIAMOND;
+        this.intra4x4Modes = 9;
+        this.rdoIntraInP = true;
+        this.numSlices = 1;
+        this.maxThreads = Runtime.getRuntime().availableProcessors();
+        this.tp = WorkerPool.getInstance().newJob(maxThreads);
     }
 
     public int getKeyInterval() {
@@ -120,6 +186,115 @@ public class H264Encoder extends VideoEncoder {
         this.motionSearchRange = motionSearchRange;
     }
 
+    public MotionSearch getMotionSearch() {
+        return motionSearch;
+    }
+
+    /**
+     * The full pixel motion search algorithm, the predictive ones ( HEXAGON,
+     * EPZS and UMH ) check far fewer positions than the default DIAMOND for a
+     * little worse prediction.
+     * 
+     * @param motionSearch
+     */
+    public void setMotionSearch(MotionSearch motionSearch) {
+        this.motionSearch = motionSearch;
+    }
+
+    public boolean isHierarchicalSearch() {
+        return hierarchicalSearch;
+    }
+
+    /**
+     * Adds the best match of a full search in the reference picture downscaled
+     * to the quarter of its size to the candidates of the motion search, finds
+     * the large motion the predictive searches would miss. Has no effect with
+     * MotionSearch.DIAMOND.
+     * 
+     * @param hierarchicalSearch
+     */
+    public void setHierarchicalSearch(boolean hierarchicalSearch) {
+        this.hierarchicalSearch = hierarchicalSearch;
+    }
+
+    public int getIntra4x4Modes() {
+        return intra4x4Modes;
+    }
+
+    /**
+     * How many of the 9 prediction modes are tried for each 4x4 block of the
+     * I_NxN macroblocks, at least the vertical, horizontal and DC ones. With 0
+     * I_NxN is not tried by RDO.
+     * 
+     * @param intra4x4Modes
+     */
+    public void setIntra4x4Modes(int intra4x4Modes) {
+        this.intra4x4Modes = intra4x4Modes == 0 ? 0 : MathUtil.clip(intra4x4Modes, 3, 9);
+    }
+
+    public boolean isRdoIntraInP() {
+        return rdoIntraInP;
+    }
+
+    /**
+     * Whether RDO tries the intra macroblocks in the P slices, when it doesn't
+     * the intra prediction is not estimated for them at all.
+     * 
+     * @param rdoIntraInP
+     */
+    public void setRdoIntraInP(boolean rdoIntraInP) {
+        this.rdoIntraInP = rdoIntraInP;
+    }
+
+    public boolean isEarlySkip() {
+        return earlySkip;
+    }
+
+    /**
+     * Encodes the macroblock of a P slice as P_Skip right away when the
+     * residual of the skip motion vector prediction quantizes to zero, the
+     * motion search and the trial encodes are not done for it.
+     * 
+     * The last macroblock of each row is never skipped so that the rows are
+     * independent of each other's skip runs and QPs.
+     * 
+     * @param earlySkip
+     */
+    public void setEarlySkip(boolean earlySkip) {
+        this.earlySkip = earlySkip;
+    }
+
+    public boolean isEarlyIntraTermination() {
+        return earlyIntraTermination;
+    }
+
+    /**
+     * Makes RDO skip the intra trials in the P slices when the SAD of the
+     * motion compensated prediction is already low for the QP.
+     * 
+     * @param earlyIntraTermination
+     */
+    public void setEarlyIntraTermination(boolean earlyIntraTermination) {
+        this.earlyIntraTermination = earlyIntraTermination;
+    }
+
+    /**
+     * Sets the motion search, RDO and the macroblock decision options of the
+     * preset, the options can be changed after that one by one.
+     * 
+     * @param preset
+     */
+    public void setPreset(H264Preset preset) {
+        motionSearch = preset.motionSearch;
+        motionSearchRange = preset.motionSearchRange;
+        hierarchicalSearch = preset.hierarchicalSearch;
+        enableRdo = preset.enableRdo;
+        intra4x4Modes = preset.intra4x4Modes;
+        rdoIntraInP = preset.rdoIntraInP;
+        earlySkip = preset.earlySkip;
+        earlyIntraTermination = preset.earlyIntraTermination;
+    }
+
     public boolean isPsnrEn() {
         return psnrEn;
     }
@@ -140,6 +315,121 @@ public class H264Encoder extends VideoEncoder {
         this.decodedDump = decodedDump;
     }
 
+    public int getNumSlices() {
+        return numSlices;
+    }
+
+    /**
+     * Splits each picture into numSlices slices of whole macroblock rows that
+     * are encoded concurrently on the shared worker pool. The deblocking and
+     * the reconstruction of the reference picture run once the slices are
+     * done.
+     * 
+     * With more then one slice the QP of each macroblock is decided by the
+     * rate control upfront and the sizes of the encoded macroblocks are
+     * reported to it afterwards, the rate control can't ask for a macroblock to
+     * be encoded again.
+     * 
+     * @param numSlices
+     */
+    public void setNumSlices(int numSlices) {
+        this.numSlices = numSlices;
+    }
+
+    public boolean isCabac() {
+        return cabac;
+    }
+
+    public boolean isWavefront() {
+        return wavefront;
+    }
+
+    /**
+     * Encodes the macroblock rows of a slice concurrently, a row follows the
+     * one above it two macroblocks behind so that the top right neighbour is
+     * always ready. The estimation, the trial encodes and the reconstruction
+     * of the rows run in parallel, only the rows' bits are put together in
+     * order, so the stream is the same as without this mode.
+     * 
+     * The rate control works as with the multiple slices.
+     * 
+     * @param wavefront
+     */
+    public void setWavefront(boolean wavefront) {
+        this.wavefront = wavefront;
+    }
+
+    public int getBFrames() {
+        return bFrames;
+    }
+
+    /**
+     * Puts up to bFrames B frames between the reference frames. The pictures
+     * then go through a lookahead of bFrames + 1 pictures that decides their
+     * types, an IDR is put at each scene cut it finds. encodeFrame() returns
+     * the frames in the coding order, an empty frame while the lookahead is
+     * filling up, flush() returns the frames left once the input is over.
+     * The lookahead only decides the frame types, the QPs still come from the
+     * rate control: a B frame gets B_QP_OFFSET over the QP of a P frame.
+     * 
+     * The B frames are not used as the references, their macroblocks are
+     * B_Skip, B_Direct_16x16 with the spatial direct prediction or one of the
+     * 16x16 partitions predicted from the reference frames before and after.
+     * The stream is then Main profile.
+     * 
+     * @param bFrames
+     */
+    public void setBFrames(int bFrames) {
+        this.bFrames = bFrames;
+    }
+
+    /**
+     * The most slices, wavefront rows, intra-only frames and lookahead
+     * analyses this encoder runs on the shared worker pool at once.
+     * 
+     * @param maxThreads
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+        tp = WorkerPool.getInstance().newJob(maxThreads);
+    }
+
+    /**
+     * With B frames or in the intra only mode the frames don't come out of
+     * encodeFrame() one for one with the pictures going in.
+     * 
+     * @return The number, counting from 0, of the picture passed to
+     *         encodeFrame() that the frame returned last by encodeFrame() or
+     *         flush() is of
+     */
+    public int getLastInputNo() {
+        return lastInputNo;
+    }
+
+    public boolean isIntraOnly() {
+        return intraOnly;
+    }
+
+    /**
+     * Encodes every frame as an IDR, for the editing proxies. The frames are
+     * then independent of each other and are encoded concurrently on the worker
+     * pool, as many at once as the encoder may occupy threads. encodeFrame()
+     * returns them in the input order through a window of the frames in
+     * flight, an empty frame while the window fills up, flush() returns the
+     * rest once the input is over.
+     * 
+     * The rate control decides the QPs of a frame as it comes in and gets the
+     * sizes of its macroblocks once it is done, as with the multiple slices.
+     * The sizes of the frames in flight are not known yet when the next frame
+     * starts, so the stream is the same as the one of a serial encoder with
+     * the key interval of 1 only with a constant QP rate control.
+     * 
+     * @param intraOnly
+     */
+    public void setIntraOnly(boolean intraOnly) {
+        this.intraOnly = intraOnly;
+    }
+
     /**
      * Encode this picture into h.264 frame. Frame type will be selected by encoder.
      */
@@ -147,6 +437,21 @@ public class H264Encoder extends VideoEncoder {
         if (pic.getColor() != ColorSpace.YUV420J)
             throw new IllegalArgumentException("Input picture color is not supported: " + pic.getColor());
 
+        int inputNo = inputCount++;
+        if (intraOnly) {
+            submitIntraFrame(pic, _out, inputNo);
+            if (intraFrames.size() < maxThreads)
+                return emptyFrame(_out);
+            return intraFrameDone(_out);
+        }
+
+        if (bFrames > 0) {
+            addToLookahead(pic, inputNo);
+            if (codingQueue.isEmpty() && lookahead.size() > bFrames)
+                decideFrameTypes();
+            return encodeQueued(_out);
+        }
+
         if (frameNumber >= keyInterval) {
             frameNumber = 0;
         }
@@ -155,6 +460,29 @@ public class H264Encoder extends VideoEncoder {
         boolean idr = frameNumber == 0;
 
         ByteBuffer data = doEncodeFrame(pic, _out, idr, frameNumber++, sliceType);
+        lastInputNo = inputNo;
+        return frameDone(data, idr);
+    }
+
+    /**
+     * Encodes the pictures left in the lookahead once there is no more input
+     * with B frames or the frames still in flight in the intra only mode, one
+     * frame a call.
+     * 
+     * @return The next frame in the coding order or null when all the
+     *         pictures are encoded
+     */
+    public EncodedFrame flush(ByteBuffer _out) {
+        if (!intraFrames.isEmpty())
+            return intraFrameDone(_out);
+        if (codingQueue.isEmpty() && !lookahead.isEmpty())
+            decideFrameTypes();
+        if (codingQueue.isEmpty())
+            return null;
+        return encodeQueued(_out);
+    }
+
+    private EncodedFrame frameDone(ByteBuffer data, boolean idr) {
         if (psnrEn) {
             savePsnrStats(data.remaining());
         }
@@ -168,6 +496,170 @@ public class H264Encoder extends VideoEncoder {
         return new EncodedFrame(data, idr);
     }
 
+    /**
+     * Keeps a copy of the picture in the lookahead and starts looking for a
+     * scene cut between it and the previous one
+     */
+    private void addToLookahead(Picture pic, int inputNo) {
+        LookaheadFrame frame = new LookaheadFrame();
+        frame.inputNo = inputNo;
+        frame.pic = pic.createCompatible();
+        frame.pic.copyFrom(pic);
+        frame.pic.setCrop(pic.getCrop());
+        final Picture prevLowRes = lastLowRes;
+        final Picture lowRes = MotionEstimator.downscale(pic);
+        if (prevLowRes != null) {
+            frame.sceneCut = tp.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return LookaheadAnalysis.isSceneCut(prevLowRes, lowRes);
+                }
+            });
+        }
+        lastLowRes = lowRes;
+        lookahead.add(frame);
+    }
+
+    /**
+     * Decides the types of the pictures at the start of the lookahead up to
+     * the next reference frame and queues them in the coding order: an IDR
+     * alone, or a P followed by the B frames before it in the display order.
+     * The frame before an IDR is always a P so that the B frames never
+     * reference across it.
+     */
+    private void decideFrameTypes() {
+        int idrAt = -1;
+        for (int i = 0; i < lookahead.size() && idrAt < 0; i++) {
+            LookaheadFrame frame = lookahead.get(i);
+            if (sinceIdr + i == 0 || sinceIdr + i >= keyInterval
+                    || (frame.sceneCut != null && WorkerPool.join(frame.sceneCut)))
+                idrAt = i;
+        }
+        if (idrAt == 0) {
+            LookaheadFrame frame = lookahead.remove(0);
+            frame.type = SliceType.I;
+            frame.idr = true;
+            refFrameNum = 0;
+            codingQueue.add(frame);
+            sinceIdr = 1;
+            return;
+        }
+        int anchor = idrAt > 0 ? idrAt - 1 : lookahead.size() - 1;
+        // The P goes first in the coding order, the B frames that follow it
+        // are not used for reference and have the frame_num after it
+        int anchorFrameNum = ++refFrameNum;
+        for (int i = 0; i <= anchor; i++) {
+            LookaheadFrame frame = lookahead.get(i);
+            frame.poc = (sinceIdr + i) << 1;
+            if (i == anchor) {
+                frame.type = SliceType.P;
+                frame.frameNum = anchorFrameNum;
+                codingQueue.addFirst(frame);
+            } else {
+                frame.type = SliceType.B;
+                frame.frameNum = anchorFrameNum + 1;
+                codingQueue.add(frame);
+            }
+        }
+        lookahead.subList(0, anchor + 1).clear();
+        sinceIdr += anchor + 1;
+    }
+
+    private EncodedFrame encodeQueued(ByteBuffer _out) {
+        if (codingQueue.isEmpty())
+            return emptyFrame(_out);
+        LookaheadFrame frame = codingQueue.removeFirst();
+        ByteBuffer data = doEncodeFrame(frame.pic, _out, frame.idr, frame.frameNum, frame.poc, frame.type);
+        lastInputNo = frame.inputNo;
+        return frameDone(data, frame.idr);
+    }
+
+    private static EncodedFrame emptyFrame(ByteBuffer _out) {
+        ByteBuffer empty = _out.duplicate();
+        empty.limit(empty.position());
+        return new EncodedFrame(empty, false);
+    }
+
+    /**
+     * Starts encoding the picture as an IDR on the worker pool with an
+     * encoder of its own, the QPs of the macroblocks are decided by the rate
+     * control right away
+     */
+    private void submitIntraFrame(Picture pic, ByteBuffer _out, int inputNo) {
+        final Picture copy = pic.createCompatible();
+        copy.copyFrom(pic);
+        copy.setCrop(pic.getCrop());
+        final int bufferSize = _out.remaining();
+        int maxSize = Math.min(bufferSize, pic.getWidth() * pic.getHeight());
+        maxSize -= (maxSize >>> 6); // 1.5% to account for escaping
+        int mbWidth = (pic.getCroppedWidth() + 15) >> 4;
+        int mbHeight = (pic.getCroppedHeight() + 15) >> 4;
+        int qp = rc.startPicture(pic.getSize(), maxSize, SliceType.I);
+        int[] mbQps = initMbQps(copy, qp, mbWidth, mbHeight);
+
+        final IntraFrame frame = new IntraFrame();
+        frame.inputNo = inputNo;
+        frame.rc = new FrameRateControl(qp, mbQps, mbWidth);
+        frame.encoder = new H264Encoder(frame.rc, cabac);
+        copyConfig(frame.encoder);
+        frame.encoder.keyInterval = 1;
+        frame.encoder.bFrames = 0;
+        frame.encoder.intraOnly = false;
+        frame.encoder.idrPicId = idrPicId;
+        idrPicId = (idrPicId + 1) & 0xffff;
+        frame.data = tp.submit(new Callable<ByteBuffer>() {
+            public ByteBuffer call() {
+                return frame.encoder.doEncodeFrame(copy, ByteBuffer.allocate(bufferSize), true, 0, SliceType.I);
+            }
+        });
+        intraFrames.add(frame);
+    }
+
+    /**
+     * Copies the settings of this encoder to the one encoding a frame of the
+     * intra only mode. The encoded frames are checked against the decoder,
+     * dumped and counted for the PSNR stats by this encoder as they come out.
+     */
+    private void copyConfig(H264Encoder to) {
+        to.keyInterval = keyInterval;
+        to.motionSearchRange = motionSearchRange;
+        to.motionSearch = motionSearch;
+        to.hierarchicalSearch = hierarchicalSearch;
+        to.intra4x4Modes = intra4x4Modes;
+        to.rdoIntraInP = rdoIntraInP;
+        to.earlySkip = earlySkip;
+        to.earlyIntraTermination = earlyIntraTermination;
+        to.bFrames = bFrames;
+        to.intraOnly = intraOnly;
+        to.psnrEn = psnrEn;
+        to.enableRdo = enableRdo;
+        to.numSlices = numSlices;
+        to.wavefront = wavefront;
+        to.maxThreads = maxThreads;
+        // The slices and the rows of the frame go to the same job
+        to.tp = tp;
+    }
+
+    /**
+     * Waits for the first of the frames in flight and reports the sizes of
+     * its macroblocks to the rate control
+     */
+    private EncodedFrame intraFrameDone(ByteBuffer _out) {
+        IntraFrame frame = intraFrames.removeFirst();
+        ByteBuffer data = WorkerPool.join(frame.data);
+        lastInputNo = frame.inputNo;
+        for (int i = 0; i < frame.rc.bits.size(); i++)
+            rc.accept(frame.rc.bits.get(i));
+
+        sps = frame.encoder.sps;
+        picOut = frame.encoder.picOut;
+        for (int p = 0; p < 3; p++)
+            sum_se[p] += frame.encoder.sum_se[p];
+        ByteBuffer dup = _out.duplicate();
+        dup.put(data);
+        dup.flip();
+        return frameDone(dup, true);
+    }
+
     private void dumpDecoded() {
         try {
             if (decodedDump.endsWith(".png")) {
@@ -253,10 +745,21 @@ public class H264Encoder extends VideoEncoder {
     }
 
     public ByteBuffer doEncodeFrame(Picture pic, ByteBuffer _out, boolean idr, int frameNumber, SliceType frameType) {
+        return doEncodeFrame(pic, _out, idr, frameNumber, frameNumber << 1, frameType);
+    }
+
+    private ByteBuffer doEncodeFrame(Picture pic, ByteBuffer _out, boolean idr, int frameNumber, int poc,
+            SliceType frameType) {
         ByteBuffer dup = _out.duplicate();
         int maxSize = Math.min(dup.remaining(), pic.getWidth() * pic.getHeight());
         maxSize -= (maxSize >>> 6); // 1.5% to account for escaping
-        int qp = rc.startPicture(pic.getSize(), maxSize, frameType);
+        // The rate controls only know of I and P, a B frame is a few QPs
+        // above the P frames
+        int qp;
+        if (frameType == SliceType.B)
+            qp = Math.min(rc.startPicture(pic.getSize(), maxSize, SliceType.P) + B_QP_OFFSET, 51);
+        else
+            qp = rc.startPicture(pic.getSize(), maxSize, frameType);
 
         if (idr) {
             sps = initSPS(new Size(pic.getCroppedWidth(), pic.getCroppedHeight()));
@@ -279,22 +782,138 @@ public class H264Encoder extends VideoEncoder {
         int mbWidth = sps.picWidthInMbsMinus1 + 1;
         int mbHeight = sps.picHeightInMapUnitsMinus1 + 1;
 
-        context = new EncodingContext(mbWidth, mbHeight);
-
         picOut = Picture.create(mbWidth << 4, mbHeight << 4, ColorSpace.YUV420J);
 
-        topEncoded = new EncodedMB[mbWidth];
+        if (idr && frameType != SliceType.I) {
+            idr = false;
+            Logger.warn("Illegal value of idr = true when sliceType != I");
+        }
 
-        encodeSlice(sps, pps, pic, dup, idr, frameNumber, frameType, qp);
+        EncodedMB[] encoded = new EncodedMB[mbWidth * mbHeight];
+        int nSlices = Math.min(numSlices, mbHeight);
+        int[] mbQps = null;
+        int[] mbBits = null;
+        if (nSlices > 1 || wavefront) {
+            mbQps = initMbQps(pic, qp, mbWidth, mbHeight);
+            mbBits = new int[mbWidth * mbHeight];
+        }
+        List<SliceEncoder> slices = new ArrayList<SliceEncoder>();
+        for (int i = 0; i < nSlices; i++) {
+            slices.add(new SliceEncoder(pic, idr, frameNumber, poc, frameType, qp, mbHeight * i / nSlices,
+                    mbHeight * (i + 1) / nSlices, encoded, mbQps, mbBits));
+        }
 
-        putLastMBLine();
+        if (nSlices > 1) {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (SliceEncoder slice : slices)
+                futures.add(tp.submit(slice));
+            for (Future<?> future : futures)
+                WorkerPool.join(future);
+        } else {
+            slices.get(0).run();
+        }
+        if (mbBits != null) {
+            // The same order as the macroblocks were decided in
+            for (int mbAddr = 0; mbAddr < mbBits.length; mbAddr++) {
+                if (mbBits[mbAddr] >= 0)
+                    rc.accept(mbBits[mbAddr]);
+            }
+        }
 
-        ref = picOut;
+        for (SliceEncoder slice : slices) {
+            dup.putInt(0x1);
+            new NALUnit(idr ? NALUnitType.IDR_SLICE : NALUnitType.NON_IDR_SLICE, frameType == SliceType.B ? 0 : 3)
+                    .write(dup);
+            escapeNAL(slice.getData(), dup);
+        }
+
+        reconstruct(pic, encoded, mbWidth, mbHeight);
+
+        if (idr)
+            idrPicId = (idrPicId + 1) & 0xffff;
+        if (frameType != SliceType.B) {
+            prevRef = ref;
+            prevRefLowRes = refLowRes;
+            ref = picOut;
+            refMvs = frameType == SliceType.P ? saveMvs(encoded) : null;
+            refLowRes = hierarchicalSearch && motionSearch != MotionSearch.DIAMOND ? MotionEstimator.downscale(ref)
+                    : null;
+            colZero = bFrames > 0 ? saveColZero(encoded) : null;
+        }
 
         dup.flip();
         return dup;
     }
 
+    /**
+     * The motion vectors of the macroblocks for the temporal prediction in the
+     * next picture, zero for the intra ones
+     */
+    private static int[] saveMvs(EncodedMB[] encoded) {
+        int[] mvs = new int[encoded.length << 1];
+        for (int mbAddr = 0; mbAddr < encoded.length; mbAddr++) {
+            EncodedMB mb = encoded[mbAddr];
+            if (!mb.getType().isIntra()) {
+                mvs[mbAddr << 1] = mb.getMx()[0];
+                mvs[(mbAddr << 1) + 1] = mb.getMy()[0];
+            }
+        }
+        return mvs;
+    }
+
+    /**
+     * Whether each macroblock is predicted from the first reference with a
+     * motion vector of at most one quarter pixel, for the direct prediction of
+     * the B frames that have this picture as the first reference of list 1
+     */
+    private static boolean[] saveColZero(EncodedMB[] encoded) {
+        boolean[] colZero = new boolean[encoded.length];
+        for (int mbAddr = 0; mbAddr < encoded.length; mbAddr++) {
+            EncodedMB mb = encoded[mbAddr];
+            colZero[mbAddr] = !mb.getType().isIntra() && mb.getMr()[0] == 1 && MathUtil.abs(mb.getMx()[0]) <= 1
+                    && MathUtil.abs(mb.getMy()[0]) <= 1;
+        }
+        return colZero;
+    }
+
+    /**
+     * The QP of each macroblock as the rate control decides it going in the
+     * raster order, for the macroblocks encoded in parallel
+     */
+    private int[] initMbQps(Picture pic, int sliceQp, int mbWidth, int mbHeight) {
+        int[] mbQps = new int[mbWidth * mbHeight];
+        int qp = sliceQp;
+        for (int mbY = 0, mbAddr = 0; mbY < mbHeight; mbY++) {
+            for (int mbX = 0; mbX < mbWidth; mbX++, mbAddr++) {
+                qp += rc.initialQpDelta(pic, mbX, mbY);
+                mbQps[mbAddr] = qp;
+            }
+        }
+        return mbQps;
+    }
+
+    /**
+     * Deblocks the encoded macroblocks of the whole picture across the slice
+     * boundaries and puts them into the reference picture
+     */
+    private void reconstruct(Picture pic, EncodedMB[] encoded, int mbWidth, int mbHeight) {
+        MBDeblocker deblocker = new MBDeblocker();
+        for (int mbY = 0, mbAddr = 0; mbY < mbHeight; mbY++) {
+            for (int mbX = 0; mbX < mbWidth; mbX++, mbAddr++) {
+                EncodedMB outMB = encoded[mbAddr];
+                if (psnrEn)
+                    calcMse(pic, outMB, mbX, mbY, sum_se);
+
+                EncodedMB topMB = mbY > 0 ? encoded[mbAddr - mbWidth] : null;
+                deblocker.deblockMBP(outMB, mbX > 0 ? encoded[mbAddr - 1] : null, topMB);
+                if (topMB != null)
+                    MBEncoderHelper.putBlkPic(picOut, topMB.getPixels(), mbX << 4, (mbY - 1) << 4);
+            }
+        }
+        for (int mbX = 0, mbAddr = mbWidth * (mbHeight - 1); mbX < mbWidth; mbX++, mbAddr++)
+            MBEncoderHelper.putBlkPic(picOut, encoded[mbAddr].getPixels(), mbX << 4, (mbHeight - 1) << 4);
+    }
+
     private void writePPS(ByteBuffer dup, PictureParameterSet pps) {
         ByteBuffer tmp = ByteBuffer.allocate(1024);
         pps.write(tmp);
@@ -312,6 +931,7 @@ public class H264Encoder extends VideoEncoder {
     public PictureParameterSet initPPS() {
         PictureParameterSet pps = new PictureParameterSet();
         pps.picInitQpMinus26 = 0; // start with qp = 26
+        pps.entropyCodingModeFlag = cabac;
         return pps;
     }
 
@@ -320,11 +940,18 @@ public class H264Encoder extends VideoEncoder {
         sps.picWidthInMbsMinus1 = ((sz.getWidth() + 15) >> 4) - 1;
         sps.picHeightInMapUnitsMinus1 = ((sz.getHeight() + 15) >> 4) - 1;
         sps.chromaFormatIdc = ColorSpace.YUV420J;
-        sps.profileIdc = 66;
+        sps.profileIdc = cabac || bFrames > 0 ? 77 : 66;
         sps.levelIdc = 40;
         sps.numRefFrames = 1;
         sps.frameMbsOnlyFlag = true;
         sps.log2MaxFrameNumMinus4 = Math.max(0, MathUtil.log2(keyInterval) - 3);
+        if (bFrames > 0) {
+            // The references before and after the B frames
+            sps.numRefFrames = 2;
+            sps.direct8x8InferenceFlag = true;
+            // The display order goes up to twice the key interval
+            sps.log2MaxPicOrderCntLsbMinus4 = Math.max(0, MathUtil.log2(keyInterval) - 2);
+        }
 
         int codedWidth = (sps.picWidthInMbsMinus1 + 1) << 4;
         int codedHeight = (sps.picHeightInMapUnitsMinus1 + 1) << 4;
@@ -335,87 +962,420 @@ public class H264Encoder extends VideoEncoder {
         return sps;
     }
 
-    private void encodeSlice(SeqParameterSet sps, PictureParameterSet pps, Picture pic, ByteBuffer dup, boolean idr,
-            int frameNum, SliceType sliceType, int sliceQp) {
-        if (idr && sliceType != SliceType.I) {
-            idr = false;
-            Logger.warn("Illegal value of idr = true when sliceType != I");
+    /**
+     * Encodes a run of macroblock rows as one slice
+     */
+    private class SliceEncoder implements Runnable {
+        private Picture pic;
+        private boolean idr;
+        private int frameNum;
+        private int poc;
+        private SliceType sliceType;
+        private int sliceQp;
+        private int firstMbY;
+        private int lastMbY;
+        private EncodedMB[] encoded;
+        private int[] mbQps;
+        private int[] mbBits;
+        private ByteBuffer data;
+
+        public SliceEncoder(Picture pic, boolean idr, int frameNum, int poc, SliceType sliceType, int sliceQp,
+                int firstMbY, int lastMbY, EncodedMB[] encoded, int[] mbQps, int[] mbBits) {
+            this.pic = pic;
+            this.idr = idr;
+            this.frameNum = frameNum;
+            this.poc = poc;
+            this.sliceType = sliceType;
+            this.sliceQp = sliceQp;
+            this.firstMbY = firstMbY;
+            this.lastMbY = lastMbY;
+            this.encoded = encoded;
+            this.mbQps = mbQps;
+            this.mbBits = mbBits;
         }
-        context.cavlc = new CAVLC[] { new CAVLC(sps, pps, 2, 2), new CAVLC(sps, pps, 1, 1), new CAVLC(sps, pps, 1, 1) };
-        mbEncoderI16x16 = new MBWriterI16x16();
-        mbEncoderINxN = new MBWriterINxN();
-        mbEncoderP16x16 = new MBWriterP16x16(sps, ref);
 
-        dup.putInt(0x1);
-        new NALUnit(idr ? NALUnitType.IDR_SLICE : NALUnitType.NON_IDR_SLICE, 3).write(dup);
-        SliceHeader sh = new SliceHeader();
-        sh.sliceType = sliceType;
-        if (idr)
-            sh.refPicMarkingIDR = new RefPicMarkingIDR(false, false);
-        sh.pps = pps;
-        sh.sps = sps;
-        sh.picOrderCntLsb = (frameNum << 1) % maxPOC;
-        sh.frameNum = frameNum % maxFrameNumber;
-        sh.sliceQpDelta = sliceQp - (pps.picInitQpMinus26 + 26);
-
-        ByteBuffer buf = ByteBuffer.allocate(pic.getWidth() * pic.getHeight());
-        BitWriter sliceData = new BitWriter(buf);
-        SliceHeaderWriter.write(sh, idr, 2, sliceData);
-        MotionEstimator estimator = new MotionEstimator(ref, sps, motionSearchRange);
-        context.prevQp = sliceQp;
+        /**
+         * @return The slice data, not escaped
+         */
+        public ByteBuffer getData() {
+            return data;
+        }
 
-        int mbWidth = sps.picWidthInMbsMinus1 + 1;
-        int mbHeight = sps.picHeightInMapUnitsMinus1 + 1;
-        int oldQp = sliceQp;
-        for (int mbY = 0, mbAddr = 0; mbY < mbHeight; mbY++) {
-            for (int mbX = 0; mbX < mbWidth; mbX++, mbAddr++) {
-                if (sliceType == SliceType.P) {
-                    CAVLCWriter.writeUE(sliceData, 0); // number of skipped mbs
+        public void run() {
+            int mbWidth = sps.picWidthInMbsMinus1 + 1;
+
+            SliceHeader sh = new SliceHeader();
+            sh.sliceType = sliceType;
+            if (idr) {
+                sh.refPicMarkingIDR = new RefPicMarkingIDR(false, false);
+                sh.idrPicId = idrPicId;
+            }
+            sh.pps = pps;
+            sh.sps = sps;
+            sh.firstMbInSlice = firstMbY * mbWidth;
+            sh.picOrderCntLsb = poc % maxPOC;
+            sh.frameNum = frameNum % maxFrameNumber;
+            sh.sliceQpDelta = sliceQp - (pps.picInitQpMinus26 + 26);
+            sh.directSpatialMvPredFlag = sliceType == SliceType.B;
+
+            ByteBuffer buf = ByteBuffer.allocate(pic.getWidth() * ((lastMbY - firstMbY) << 4));
+            BitWriter sliceData = new BitWriter(buf);
+            SliceHeaderWriter.write(sh, idr, sliceType == SliceType.B ? 0 : 2, sliceData);
+            // With CABAC the CAVLC bits are only the sizes for the RDO and the
+            // rate control, the slice is entropy coded once it's all decided
+            BitWriter mbData = cabac ? new BitWriter(ByteBuffer.allocate(buf.capacity())) : sliceData;
+
+            if (wavefront && lastMbY - firstMbY > 1) {
+                List<MacroblockEncoder> rows = new ArrayList<MacroblockEncoder>();
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                MacroblockEncoder above = null;
+                for (int mbY = firstMbY; mbY < lastMbY; mbY++) {
+                    int prevQp = mbY == firstMbY ? sliceQp : mbQps[mbY * mbWidth - 1];
+                    MacroblockEncoder row = new MacroblockEncoder(
+                            new BitWriter(ByteBuffer.allocate(pic.getWidth() << 4)), prevQp, above, mbY);
+                    rows.add(row);
+                    futures.add(tp.submit(row));
+                    above = row;
+                }
+                for (int i = 0; i < rows.size(); i++) {
+                    WorkerPool.join(futures.get(i));
+                    mbData.writeOther(rows.get(i).out);
+                }
+            } else {
+                MacroblockEncoder mbEncoder = new MacroblockEncoder(mbData, sliceQp, null, -1);
+                for (int mbY = firstMbY; mbY < lastMbY; mbY++)
+                    mbEncoder.encodeRow(mbY);
+                mbData = mbEncoder.out;
+            }
+            if (cabac) {
+                data = new CABACSliceWriter(sps, sliceType, sliceQp, firstMbY, lastMbY).write(sliceData, encoded);
+                return;
+            }
+            sliceData = mbData;
+            sliceData.write1Bit(1);
+            sliceData.flush();
+            data = sliceData.getBuffer();
+            data.flip();
+        }
+
+        /**
+         * Encodes the macroblocks one after another keeping the state of their
+         * neighbours, either all the rows of the slice or one row of the
+         * wavefront. A row of the wavefront takes the state of the top
+         * neighbours from the row above as soon as it gets there.
+         */
+        private class MacroblockEncoder implements Runnable {
+            private BitWriter out;
+            private EncodingContext context;
+            private MotionEstimator estimator;
+            // List 1 of the B slices
+            private MotionEstimator estimatorL1;
+            private int oldQp;
+            private MacroblockEncoder above;
+            private int mbY;
+            private int mbsDone;
+            private EncodingContext doneContext;
+            private int skipRun;
+
+            private MBWriterI16x16 mbEncoderI16x16;
+            private MBWriterINxN mbEncoderINxN;
+            private MBWriterP16x16 mbEncoderP16x16;
+            private MBWriterB16x16 mbEncoderB16x16;
+
+            public MacroblockEncoder(BitWriter out, int prevQp, MacroblockEncoder above, int mbY) {
+                int mbWidth = sps.picWidthInMbsMinus1 + 1;
+                int mbHeight = sps.picHeightInMapUnitsMinus1 + 1;
+                this.out = out;
+                this.above = above;
+                this.mbY = mbY;
+                context = new EncodingContext(mbWidth, mbHeight);
+                context.firstMbY = firstMbY;
+                context.cavlc = new CAVLC[] { new CAVLC(sps, pps, 2, 2), new CAVLC(sps, pps, 1, 1),
+                        new CAVLC(sps, pps, 1, 1) };
+                for (CAVLC cavlc : context.cavlc)
+                    cavlc.setFirstMbY(firstMbY);
+                context.prevQp = prevQp;
+                oldQp = prevQp;
+                mbEncoderI16x16 = new MBWriterI16x16();
+                mbEncoderINxN = new MBWriterINxN();
+                if (sliceType == SliceType.B) {
+                    estimator = new MotionEstimator(prevRef, sps, motionSearchRange, motionSearch, null,
+                            prevRefLowRes);
+                    estimatorL1 = new MotionEstimator(ref, sps, motionSearchRange, motionSearch, null, refLowRes);
+                    mbEncoderB16x16 = new MBWriterB16x16(sps, prevRef, ref, colZero);
+                } else {
+                    estimator = new MotionEstimator(ref, sps, motionSearchRange, motionSearch, refMvs, refLowRes);
+                    mbEncoderP16x16 = new MBWriterP16x16(sps, pps, ref);
+                }
+            }
+
+            public void run() {
+                try {
+                    encodeRow(mbY);
+                } finally {
+                    // So that the rows below never wait forever
+                    setMbsDone(Integer.MAX_VALUE);
+                }
+            }
+
+            public void encodeRow(int mbY) {
+                int mbWidth = sps.picWidthInMbsMinus1 + 1;
+                for (int mbX = 0; mbX < mbWidth; mbX++) {
+                    if (above != null) {
+                        // Up to the top right neighbour
+                        int n = Math.min(2, mbWidth - mbX);
+                        EncodingContext top = above.waitForMbs(mbX + n);
+                        context.copyTop(top, mbX, n);
+                        estimator.copyTop(above.estimator, mbX, n);
+                        if (estimatorL1 != null)
+                            estimatorL1.copyTop(above.estimatorL1, mbX, n);
+                    }
+                    encodeMacroblock(mbX, mbY);
+                    setMbsDone(mbX + 1);
+                }
+            }
+
+            private synchronized void setMbsDone(int mbsDone) {
+                this.mbsDone = Math.max(this.mbsDone, mbsDone);
+                this.doneContext = context;
+                notifyAll();
+            }
+
+            /**
+             * Blocks until the first n macroblocks of this row are encoded
+             * 
+             * @return The context with the state of these macroblocks as the
+             *         top neighbours
+             */
+            private synchronized EncodingContext waitForMbs(int n) {
+                while (mbsDone < n) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
+                return doneContext;
+            }
 
-                int qpDelta = rc.initialQpDelta(pic, mbX, mbY);
+            private void encodeMacroblock(int mbX, int mbY) {
+                int mbAddr = mbY * (sps.picWidthInMbsMinus1 + 1) + mbX;
+                int qpDelta = mbQps != null ? mbQps[mbAddr] - oldQp : rc.initialQpDelta(pic, mbX, mbY);
                 int mbQp = oldQp + qpDelta;
 
+                if (sliceType == SliceType.P && earlySkip && mbX < sps.picWidthInMbsMinus1) {
+                    EncodedMB outMB = new EncodedMB();
+                    outMB.setPos(mbX, mbY);
+                    outMB.setSyntax(cabac ? new MBSyntax() : null);
+                    if (mbEncoderP16x16.encodeSkip(context, pic, mbX, mbY, outMB, mbQp)) {
+                        skipRun++;
+                        // Nothing to report to the rate control
+                        skipDone(outMB, mbX, mbY, mbAddr, mbQp);
+                        return;
+                    }
+                }
+                if (sliceType == SliceType.B && mbX < sps.picWidthInMbsMinus1) {
+                    EncodedMB outMB = new EncodedMB();
+                    outMB.setPos(mbX, mbY);
+                    outMB.setSyntax(cabac ? new MBSyntax() : null);
+                    if (mbEncoderB16x16.encodeSkip(context, pic, mbX, mbY, outMB, mbQp)) {
+                        skipRun++;
+                        skipDone(outMB, mbX, mbY, mbAddr, mbQp);
+                        return;
+                    }
+                }
+                if (sliceType.isInter()) {
+                    CAVLCWriter.writeUE(out, skipRun); // number of skipped mbs
+                    skipRun = 0;
+                }
+
                 int[] mv = null;
                 if (ref != null)
                     mv = estimator.mvEstimate(pic, mbX, mbY);
-
-                NonRdVector params = new NonRdVector(mv, IntraPredEstimator.getLumaMode(pic, context, mbX, mbY),
-                        IntraPredEstimator.getLumaPred4x4(pic, context, mbX, mbY, mbQp),
-                        IntraPredEstimator.getChromaMode(pic, context, mbX, mbY));
-
-                EncodedMB outMB = new EncodedMB();
-                outMB.setPos(mbX, mbY);
+                int[] mvL1 = estimatorL1 != null ? estimatorL1.mvEstimate(pic, mbX, mbY) : null;
+
+                // Only the modes of the macroblock types that will be tried
+                boolean intra = sliceType == SliceType.I || (enableRdo && rdoIntraInP);
+                boolean intraNxN = intra && enableRdo && intra4x4Modes > 0;
+                int lumaPred16x16 = intra ? IntraPredEstimator.getLumaMode(pic, context, mbX, mbY) : 0;
+                int[] lumaPred4x4 = intraNxN
+                        ? IntraPredEstimator.getLumaPred4x4(pic, context, mbX, mbY, mbQp, intra4x4Modes)
+                        : null;
+                int chrPred = intra ? IntraPredEstimator.getChromaMode(pic, context, mbX, mbY) : 0;
+                NonRdVector params = new NonRdVector(mv, mvL1, lumaPred16x16, lumaPred4x4, chrPred);
+
+                EncodedMB outMB;
                 BitWriter candidate;
                 EncodingContext fork;
                 do {
-                    candidate = sliceData.fork();
+                    // Nothing of the previous try is kept if the type changes
+                    outMB = new EncodedMB();
+                    outMB.setPos(mbX, mbY);
+                    candidate = out.fork();
                     fork = context.fork();
+                    outMB.setSyntax(cabac ? new MBSyntax() : null);
                     rdMacroblock(fork, outMB, sliceType, pic, mbX, mbY, candidate, sliceQp, mbQp, params);
-                    qpDelta = rc.accept(candidate.position() - sliceData.position());
+                    int bits = candidate.position() - out.position();
+                    if (mbBits != null) {
+                        mbBits[mbAddr] = bits;
+                        qpDelta = 0;
+                    } else {
+                        qpDelta = rc.accept(bits);
+                    }
                     if (qpDelta != 0)
                         mbQp += qpDelta;
                 } while (qpDelta != 0);
-                estimator.mvSave(mbX, mbY, new int[] { outMB.mx[0], outMB.my[0], outMB.mr[0] });
-                sliceData = candidate;
+                saveMotion(outMB, mbX, mbY);
+                out = candidate;
                 context = fork;
                 oldQp = mbQp;
 
                 context.update(outMB);
-                if (psnrEn)
-                    calcMse(pic, outMB, mbX, mbY, sum_se);
+                encoded[mbAddr] = outMB;
+            }
 
-                new MBDeblocker().deblockMBP(outMB, mbX > 0 ? topEncoded[mbX - 1] : null,
-                        mbY > 0 ? topEncoded[mbX] : null);
-                addToReference(outMB, mbX, mbY);
+            private void skipDone(EncodedMB outMB, int mbX, int mbY, int mbAddr, int mbQp) {
+                // Nothing to report to the rate control
+                if (mbBits != null)
+                    mbBits[mbAddr] = -1;
+                saveMotion(outMB, mbX, mbY);
+                // The rate control deltas are relative to its own QP
+                oldQp = mbQp;
+                context.update(outMB);
+                encoded[mbAddr] = outMB;
+            }
+
+            private void saveMotion(EncodedMB outMB, int mbX, int mbY) {
+                estimator.mvSave(mbX, mbY, new int[] { outMB.mx[0], outMB.my[0], outMB.mr[0] });
+                if (estimatorL1 != null)
+                    estimatorL1.mvSave(mbX, mbY, new int[] { outMB.mx1[0], outMB.my1[0], outMB.mr1[0] });
+            }
+
+            private void rdMacroblock(EncodingContext ctx, EncodedMB outMB, SliceType sliceType, Picture pic, int mbX,
+                    int mbY, BitWriter candidate, int sliceQp, int mbQp, NonRdVector params) {
+                if (!enableRdo) {
+                    RdVector vector;
+                    if (sliceType == SliceType.P)
+                        vector = new RdVector(MBType.P_16x16, mbQp);
+                    else if (sliceType == SliceType.B)
+                        vector = new RdVector(decideB(ctx, pic, mbX, mbY, mbQp, params), mbQp);
+                    else
+                        vector = new RdVector(MBType.I_16x16, mbQp);
+                    encodeCand(ctx, outMB, sliceType, pic, mbX, mbY, candidate, params, vector);
+                    return;
+                }
+
+                List<RdVector> cands = new LinkedList<RdVector>();
+                boolean intra = sliceType == SliceType.I || rdoIntraInP;
+                if (intra && sliceType.isInter() && earlyIntraTermination) {
+                    // Intra hardly ever beats the prediction this good
+                    int sad = sliceType == SliceType.P ? mbEncoderP16x16.predictionSad(pic, mbX, mbY, params.mv)
+                            : mbEncoderB16x16.predictionSad(ctx, pic, mbX, mbY, MBType.B_Bi_16x16, params);
+                    intra = sad > H264EncoderUtils.sadThreshold(mbQp) >> 1;
+                }
+                if (intra) {
+                    cands.add(new RdVector(MBType.I_16x16, mbQp));
+                    if (intra4x4Modes > 0)
+                        cands.add(new RdVector(MBType.I_NxN, mbQp));
+                }
+                if (sliceType == SliceType.P) {
+                    cands.add(new RdVector(MBType.P_16x16, mbQp));
+                }
+                if (sliceType == SliceType.B) {
+                    if (mbEncoderB16x16.directMotion(ctx, mbX, mbY) != null)
+                        cands.add(new RdVector(MBType.B_Direct_16x16, mbQp));
+                    cands.add(new RdVector(MBType.B_L0_16x16, mbQp));
+                    cands.add(new RdVector(MBType.B_L1_16x16, mbQp));
+                    cands.add(new RdVector(MBType.B_Bi_16x16, mbQp));
+                }
+                long bestRd = Long.MAX_VALUE;
+                RdVector bestVector = null;
+
+                for (RdVector rdVector : cands) {
+                    EncodingContext candCtx = ctx.fork();
+                    BitWriter candBits = candidate.fork();
+                    long rdCost = tryVector(candCtx, sliceType, pic, mbX, mbY, candBits, sliceQp, params, rdVector);
+                    if (rdCost < bestRd) {
+                        bestRd = rdCost;
+                        bestVector = rdVector;
+                    }
+                }
+                encodeCand(ctx, outMB, sliceType, pic, mbX, mbY, candidate, params, bestVector);
+            }
+
+            /**
+             * The B macroblock type of the best prediction SAD without RDO,
+             * each motion vector difference to code counts as a part of the
+             * SAD the QP leaves in anyway
+             */
+            private MBType decideB(EncodingContext ctx, Picture pic, int mbX, int mbY, int mbQp, NonRdVector params) {
+                int mvdCost = H264EncoderUtils.sadThreshold(mbQp) >> 4;
+                MBType best = null;
+                int bestCost = Integer.MAX_VALUE;
+                if (mbEncoderB16x16.directMotion(ctx, mbX, mbY) != null) {
+                    best = MBType.B_Direct_16x16;
+                    bestCost = mbEncoderB16x16.predictionSad(ctx, pic, mbX, mbY, best, params);
+                }
+                MBType[] types = { MBType.B_L0_16x16, MBType.B_L1_16x16, MBType.B_Bi_16x16 };
+                for (int i = 0; i < types.length; i++) {
+                    int cost = mbEncoderB16x16.predictionSad(ctx, pic, mbX, mbY, types[i], params)
+                            + mvdCost * (i == 2 ? 2 : 1);
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        best = types[i];
+                    }
+                }
+                return best;
+            }
+
+            private long tryVector(EncodingContext ctx, SliceType sliceType, Picture pic, int mbX, int mbY,
+                    BitWriter candidate, int sliceQp, NonRdVector params, RdVector vector) {
+                int start = candidate.position();
+                EncodedMB outMB = new EncodedMB();
+                outMB.setPos(mbX, mbY);
+                encodeCand(ctx, outMB, sliceType, pic, mbX, mbY, candidate, params, vector);
+
+                long[] se = new long[3];
+                calcMse(pic, outMB, mbX, mbY, se);
+                long mse = (se[0] + se[1] + se[2]) / 384;
+                int bits = candidate.position() - start;
+                return rdCost(mse, bits, H264Const.lambda[sliceQp]);
+            }
+
+            private void encodeCand(EncodingContext ctx, EncodedMB outMB, SliceType sliceType, Picture pic, int mbX,
+                    int mbY, BitWriter candidate, NonRdVector params, RdVector vector) {
+                if (vector.mbType == MBType.I_16x16) {
+                    BitWriter tmp = new BitWriter(ByteBuffer.allocate(1024));
+                    boolean cbpLuma = mbEncoderI16x16.encodeMacroblock(ctx, pic, mbX, mbY, tmp, outMB, vector.qp,
+                            params);
+                    int cbpChroma = mbEncoderI16x16.getCbpChroma(pic, mbX, mbY);
+
+                    int i16x16TypeOffset = (cbpLuma ? 12 : 0) + cbpChroma * 4 + params.lumaPred16x16;
+                    int mbTypeOffset = intraMbTypeOffset(sliceType);
+
+                    CAVLCWriter.writeUE(candidate, mbTypeOffset + vector.mbType.code() + i16x16TypeOffset);
+                    candidate.writeOther(tmp);
+                } else if (vector.mbType == MBType.P_16x16) {
+                    CAVLCWriter.writeUE(candidate, vector.mbType.code());
+                    mbEncoderP16x16.encodeMacroblock(ctx, pic, mbX, mbY, candidate, outMB, vector.qp, params);
+                } else if (vector.mbType == MBType.I_NxN) {
+                    CAVLCWriter.writeUE(candidate, intraMbTypeOffset(sliceType));
+                    mbEncoderINxN.encodeMacroblock(ctx, pic, mbX, mbY, candidate, outMB, vector.qp, params);
+                } else if (sliceType == SliceType.B && !vector.mbType.isIntra()) {
+                    CAVLCWriter.writeUE(candidate, vector.mbType.code());
+                    mbEncoderB16x16.encodeMacroblock(ctx, pic, mbX, mbY, candidate, outMB, vector.qp, vector.mbType,
+                            params);
+                } else
+                    throw new RuntimeException("Macroblock of type " + vector.mbType + " is not supported.");
             }
         }
-        sliceData.write1Bit(1);
-        sliceData.flush();
-        buf = sliceData.getBuffer();
-        buf.flip();
+    }
 
-        escapeNAL(buf, dup);
+    /**
+     * Where the intra macroblock types start in the mb_type of the slice type
+     */
+    private static int intraMbTypeOffset(SliceType sliceType) {
+        return sliceType == SliceType.P ? 5 : (sliceType == SliceType.B ? 23 : 0);
     }
 
     private void calcMse(Picture pic, EncodedMB out, int mbX, int mbY, long[] out_se) {
@@ -444,101 +1404,90 @@ public class H264Encoder extends VideoEncoder {
 
     public static class NonRdVector {
         public int[] mv;
+        // List 1 of the B macroblocks
+        public int[] mvL1;
         public int lumaPred16x16;
         public int[] lumaPred4x4;
         public int chrPred;
 
         public NonRdVector(int[] mv, int lumaPred16x16, int[] lumaPred4x4, int chrPred) {
+            this(mv, null, lumaPred16x16, lumaPred4x4, chrPred);
+        }
+
+        public NonRdVector(int[] mv, int[] mvL1, int lumaPred16x16, int[] lumaPred4x4, int chrPred) {
             this.mv = mv;
+            this.mvL1 = mvL1;
             this.lumaPred16x16 = lumaPred16x16;
             this.lumaPred4x4 = lumaPred4x4;
             this.chrPred = chrPred;
         }
     }
 
-    private void rdMacroblock(EncodingContext ctx, EncodedMB outMB, SliceType sliceType, Picture pic, int mbX, int mbY,
-            BitWriter candidate, int sliceQp, int mbQp, NonRdVector params) {
-        if (!enableRdo) {
-            RdVector vector = sliceType == SliceType.P ? new RdVector(MBType.P_16x16, mbQp)
-                    : new RdVector(MBType.I_16x16, mbQp);
-            encodeCand(ctx, outMB, sliceType, pic, mbX, mbY, candidate, params, vector);
-            return;
+    /**
+     * A frame of the intra only mode in flight
+     */
+    private static class IntraFrame {
+        private int inputNo;
+        private H264Encoder encoder;
+        private FrameRateControl rc;
+        private Future<ByteBuffer> data;
+    }
+
+    /**
+     * The rate control of a frame encoded on its own, gives the QPs decided
+     * for it upfront and keeps the sizes of the macroblocks in the order they
+     * are reported
+     */
+    private static class FrameRateControl implements RateControl {
+        private int sliceQp;
+        private int[] mbQps;
+        private int mbWidth;
+        private IntArrayList bits;
+
+        public FrameRateControl(int sliceQp, int[] mbQps, int mbWidth) {
+            this.sliceQp = sliceQp;
+            this.mbQps = mbQps;
+            this.mbWidth = mbWidth;
+            this.bits = IntArrayList.createIntArrayList();
         }
 
-        List<RdVector> cands = new LinkedList<RdVector>();
-        cands.add(new RdVector(MBType.I_16x16, mbQp));
-        cands.add(new RdVector(MBType.I_NxN, mbQp));
-        if (sliceType == SliceType.P) {
-            cands.add(new RdVector(MBType.P_16x16, mbQp));
+        @Override
+        public int startPicture(Size sz, int maxSize, SliceType sliceType) {
+            return sliceQp;
         }
-        long bestRd = Long.MAX_VALUE;
-        RdVector bestVector = null;
 
-        for (RdVector rdVector : cands) {
-            EncodingContext candCtx = ctx.fork();
-            BitWriter candBits = candidate.fork();
-            long rdCost = tryVector(candCtx, sliceType, pic, mbX, mbY, candBits, sliceQp, params, rdVector);
-            if (rdCost < bestRd) {
-                bestRd = rdCost;
-                bestVector = rdVector;
-            }
+        @Override
+        public int initialQpDelta(Picture pic, int mbX, int mbY) {
+            int mbAddr = mbY * mbWidth + mbX;
+            return mbQps[mbAddr] - (mbAddr == 0 ? sliceQp : mbQps[mbAddr - 1]);
         }
-        encodeCand(ctx, outMB, sliceType, pic, mbX, mbY, candidate, params, bestVector);
-    }
 
-    private long tryVector(EncodingContext ctx, SliceType sliceType, Picture pic, int mbX, int mbY, BitWriter candidate,
-            int sliceQp, NonRdVector params, RdVector vector) {
-        int start = candidate.position();
-        EncodedMB outMB = new EncodedMB();
-        outMB.setPos(mbX, mbY);
-        encodeCand(ctx, outMB, sliceType, pic, mbX, mbY, candidate, params, vector);
+        @Override
+        public int accept(int bits) {
+            this.bits.add(bits);
+            return 0;
+        }
+    }
 
-        long[] se = new long[3];
-        calcMse(pic, outMB, mbX, mbY, se);
-        long mse = (se[0] + se[1] + se[2]) / 384;
-        int bits = candidate.position() - start;
-        return rdCost(mse, bits, H264Const.lambda[sliceQp]);
+    /**
+     * A picture in the lookahead, the type and the numbering are set once
+     * decided
+     */
+    private static class LookaheadFrame {
+        private int inputNo;
+        private Picture pic;
+        // Null for the first picture
+        private Future<Boolean> sceneCut;
+        private SliceType type;
+        private boolean idr;
+        private int frameNum;
+        private int poc;
     }
 
     private long rdCost(long mse, int bits, int lambda) {
         return mse + ((lambda * bits) >> 8);
     }
 
-    private void encodeCand(EncodingContext ctx, EncodedMB outMB, SliceType sliceType, Picture pic, int mbX, int mbY,
-            BitWriter candidate, NonRdVector params, RdVector vector) {
-        if (vector.mbType == MBType.I_16x16) {
-            BitWriter tmp = new BitWriter(ByteBuffer.allocate(1024));
-            boolean cbpLuma = mbEncoderI16x16.encodeMacroblock(ctx, pic, mbX, mbY, tmp, outMB, vector.qp, params);
-            int cbpChroma = mbEncoderI16x16.getCbpChroma(pic, mbX, mbY);
-
-            int i16x16TypeOffset = (cbpLuma ? 12 : 0) + cbpChroma * 4 + params.lumaPred16x16;
-            int mbTypeOffset = sliceType == SliceType.P ? 5 : 0;
-
-            CAVLCWriter.writeUE(candidate, mbTypeOffset + vector.mbType.code() + i16x16TypeOffset);
-            candidate.writeOther(tmp);
-        } else if (vector.mbType == MBType.P_16x16) {
-            CAVLCWriter.writeUE(candidate, vector.mbType.code());
-            mbEncoderP16x16.encodeMacroblock(ctx, pic, mbX, mbY, candidate, outMB, vector.qp, params);
-        } else if (vector.mbType == MBType.I_NxN) {
-            CAVLCWriter.writeUE(candidate, sliceType == SliceType.P ? 5 : 0);
-            mbEncoderINxN.encodeMacroblock(ctx, pic, mbX, mbY, candidate, outMB, vector.qp, params);
-        } else
-            throw new RuntimeException("Macroblock of type " + vector.mbType + " is not supported.");
-    }
-
-    private void addToReference(EncodedMB outMB, int mbX, int mbY) {
-        if (mbY > 0)
-            MBEncoderHelper.putBlkPic(picOut, topEncoded[mbX].getPixels(), mbX << 4, (mbY - 1) << 4);
-        topEncoded[mbX] = outMB;
-    }
-
-    private void putLastMBLine() {
-        int mbWidth = sps.picWidthInMbsMinus1 + 1;
-        int mbHeight = sps.picHeightInMapUnitsMinus1 + 1;
-        for (int mbX = 0; mbX < mbWidth; mbX++)
-            MBEncoderHelper.putBlkPic(picOut, topEncoded[mbX].getPixels(), mbX << 4, (mbHeight - 1) << 4);
-    }
-
     @Override
     public ColorSpace[] getSupportedColorSpaces() {
         return new ColorSpace[] { ColorSpace.YUV420J };
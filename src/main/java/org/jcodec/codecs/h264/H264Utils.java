@@ -1114,4 +1114,100 @@ public class H264Utils {
             return width;
         }
     }
+
+    /**
+     * The motion a reference picture keeps for the direct prediction of the
+     * pictures that use it as the co-located one. One vector per block: the
+     * list 0 one, or the list 1 one when the block doesn't use list 0. It is
+     * packed together with its reference index and the list, the reference
+     * indices of a frame are below 16.
+     * 
+     * With direct_8x8_inference only the corner 4x4 block of each 8x8 block is
+     * used, so one vector is kept per 8x8 block, otherwise one per 4x4 block.
+     * 
+     */
+    public static class ColocatedMvs {
+        private int[] list;
+        private int log2BlkSize;
+        private int stride;
+        private int width;
+        private int height;
+        private static final int NA = Mv.packMv(0, 0, -1);
+
+        /**
+         * @param width
+         *            Width of the picture in 4x4 blocks
+         * @param height
+         *            Height of the picture in 4x4 blocks
+         */
+        public ColocatedMvs(int width, int height, boolean direct8x8Inference) {
+            this.log2BlkSize = direct8x8Inference ? 1 : 0;
+            this.stride = width >> log2BlkSize;
+            this.width = width;
+            this.height = height;
+            list = new int[stride * (height >> log2BlkSize)];
+            clear();
+        }
+
+        public void clear() {
+            Arrays.fill(list, NA);
+        }
+
+        /**
+         * Keeps the co-located vectors of a decoded macroblock
+         */
+        public void saveMacroblock(MvList2D mvs, int mbX, int mbY) {
+            // The corners of the macroblock are the corners of its 8x8 blocks
+            int step = log2BlkSize == 1 ? 3 : 1;
+            for (int j = 0; j < 4; j += step) {
+                for (int i = 0; i < 4; i += step) {
+                    int blkX = (mbX << 2) + i;
+                    int blkY = (mbY << 2) + j;
+                    int mv = mvs.getMv(blkX, blkY, 0);
+                    if (Mv.mvRef(mv) < 0) {
+                        mv = mvs.getMv(blkX, blkY, 1);
+                        if (Mv.mvRef(mv) >= 0)
+                            mv = Mv.packMv(Mv.mvX(mv), Mv.mvY(mv), Mv.mvRef(mv) | 16);
+                    }
+                    list[(blkX >> log2BlkSize) + (blkY >> log2BlkSize) * stride] = mv;
+                }
+            }
+        }
+
+        /**
+         * @return The co-located vector of a 4x4 block, the reference is -1
+         *         for an intra block
+         */
+        public int getMv(int blkX, int blkY) {
+            return list[(blkX >> log2BlkSize) + (blkY >> log2BlkSize) * stride];
+        }
+
+        /**
+         * @return The reference list of a co-located vector
+         */
+        public static int refList(int mv) {
+            return (Mv.mvRef(mv) >> 4) & 1;
+        }
+
+        /**
+         * @return The reference index of a co-located vector in its list, -1
+         *         for an intra block
+         */
+        public static int refIdx(int mv) {
+            int ref = Mv.mvRef(mv);
+            return ref < 0 ? -1 : ref & 15;
+        }
+
+        public boolean isDirect8x8Inference() {
+            return log2BlkSize == 1;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package org.jcodec.codecs.h264;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Iterates over the NAL units of a frame, either AnnexB delimited (00 00 00
+ * 01) in one buffer or already split into a list. Reused from frame to frame
+ * in place of the list H264Utils.splitFrame creates.
+ *
+ * The returned NAL units are views of the original data, the data is not
+ * modified.
+ *
+ * @author The JCodec project
+ *
+ */
+public class NALIterator {
+    private ByteBuffer frame;
+    private int start;
+    private List<ByteBuffer> nalUnits;
+    private int index;
+
+    public NALIterator reset(ByteBuffer frame) {
+        this.frame = frame;
+        this.start = frame.position();
+        this.nalUnits = null;
+        return this;
+    }
+
+    public NALIterator reset(List<ByteBuffer> nalUnits) {
+        this.nalUnits = nalUnits;
+        this.index = 0;
+        this.frame = null;
+        return this;
+    }
+
+    /**
+     * Goes back to the first NAL unit
+     */
+    public void rewind() {
+        if (nalUnits != null)
+            index = 0;
+        else
+            frame.position(start);
+    }
+
+    /**
+     * @return The next NAL unit, null when there are no more
+     */
+    public ByteBuffer next() {
+        if (nalUnits != null)
+            return index < nalUnits.size() ? nalUnits.get(index++).duplicate() : null;
+        return H264Utils.nextNALUnit(frame);
+    }
+}
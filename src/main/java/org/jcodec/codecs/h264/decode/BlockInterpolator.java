@@ -2,6 +2,7 @@ package org.jcodec.codecs.h264.decode;
 import static java.lang.System.arraycopy;
 import static org.jcodec.common.tools.MathUtil.clip;
 
+import org.jcodec.codecs.h264.io.model.Frame;
 import org.jcodec.common.model.Picture;
 
 /**
@@ -29,20 +30,53 @@ public class BlockInterpolator {
         this.unsafe = initUnsafe(); 
     }
     /**
-     * Get block of ( possibly interpolated ) luma pixels
+     * Get block of ( possibly interpolated ) luma pixels. With the border of
+     * the reference frame any motion vector reaching up to Frame.PADDING
+     * pixels out of the picture takes the safe path.
      */
     public void getBlockLuma(Picture pic, Picture out, int off, int x, int y, int w, int h) {
+        byte[] pels = pic.getPlaneData(0);
+        int picW = pic.getWidth();
+        int picH = pic.getHeight();
+        if (pic instanceof Frame) {
+            Frame frame = (Frame) pic;
+            // The reference may still be in flight when decoding is frame-threaded,
+            // 6-tap filter reaches 3 lines below the block. The top border is
+            // there once the first line is.
+            frame.waitForLines(Math.max((y >> 2) + h + 3, 1));
+            int border = frame.getBorder(0);
+            picW += 2 * border;
+            picH += 2 * border;
+            x += border << 2;
+            y += border << 2;
+        }
         int xInd = x & 0x3;
         int yInd = y & 0x3;
 
         int xFp = x >> 2;
         int yFp = y >> 2;
-        if (xFp < 2 || yFp < 2 || xFp > pic.getWidth() - w - 5 || yFp > pic.getHeight() - h - 5) {
-            unsafe[(yInd << 2) + xInd].getLuma(pic.getData()[0], pic.getWidth(), pic.getHeight(), out.getPlaneData(0),
-                    off, out.getPlaneWidth(0), xFp, yFp, w, h);
+        if (xFp < 2 || yFp < 2 || xFp > picW - w - 5 || yFp > picH - h - 5) {
+            unsafe[(yInd << 2) + xInd].getLuma(pels, picW, picH, out.getPlaneData(0), off, out.getPlaneWidth(0), xFp,
+                    yFp, w, h);
+        } else {
+            safe[(yInd << 2) + xInd].getLuma(pels, picW, picH, out.getPlaneData(0), off, out.getPlaneWidth(0), xFp,
+                    yFp, w, h);
+        }
+    }
+
+    /**
+     * Get block of ( possibly interpolated ) chroma pixels of the component
+     * comp, x and y are in 1/8 of a chroma pixel
+     */
+    public void getBlockChroma(Picture pic, Picture out, int comp, int off, int x, int y, int w, int h) {
+        if (pic instanceof Frame) {
+            int border = ((Frame) pic).getBorder(comp);
+            getBlockChroma(pic.getPlaneData(comp), pic.getPlaneWidth(comp) + 2 * border, pic.getPlaneHeight(comp)
+                    + 2 * border, out.getPlaneData(comp), off, out.getPlaneWidth(comp), x + (border << 3),
+                    y + (border << 3), w, h);
         } else {
-            safe[(yInd << 2) + xInd].getLuma(pic.getData()[0], pic.getWidth(), pic.getHeight(), out.getPlaneData(0),
-                    off, out.getPlaneWidth(0), xFp, yFp, w, h);
+            getBlockChroma(pic.getPlaneData(comp), pic.getPlaneWidth(comp), pic.getPlaneHeight(comp),
+                    out.getPlaneData(comp), off, out.getPlaneWidth(comp), x, y, w, h);
         }
     }
 
@@ -22,15 +22,14 @@ public class CAVLCReader {
     public static int readNBit(BitReader bits, int n, String message)  {
         int val = bits.readNBit(n);
 
-        trace(message, val);
+        if (Debug.debug)
+            trace(message, val);
 
         return val;
     }
 
     public static int readUE(BitReader bits)  {
-        int cnt = 0;
-        while (bits.read1Bit() == 0 && cnt < 32)
-            cnt++;
+        int cnt = leadingZeros(bits);
 
         int res = 0;
         if (cnt > 0) {
@@ -45,7 +44,8 @@ public class CAVLCReader {
     public static int readUEtrace(BitReader bits, String message)  {
         int res = readUE(bits);
 
-        trace(message, res);
+        if (Debug.debug)
+            trace(message, res);
 
         return res;
     }
@@ -55,7 +55,8 @@ public class CAVLCReader {
 
         val = H264Utils2.golomb2Signed(val);
 
-        trace(message, val);
+        if (Debug.debug)
+            trace(message, val);
 
         return val;
     }
@@ -64,7 +65,8 @@ public class CAVLCReader {
 
         boolean res = bits.read1Bit() == 0 ? false : true;
 
-        trace(message, res ? 1 : 0);
+        if (Debug.debug)
+            trace(message, res ? 1 : 0);
 
         return res;
     }
@@ -84,9 +86,7 @@ public class CAVLCReader {
     }
 
     public static int readZeroBitCount(BitReader bits, String message)  {
-        int count = 0;
-        while (bits.read1Bit() == 0 && count < 32)
-            count++;
+        int count = leadingZeros(bits);
 
         if (Debug.debug)
             trace(message, String.valueOf(count));
@@ -94,6 +94,23 @@ public class CAVLCReader {
         return count;
     }
 
+    /**
+     * Counts and skips the zero bits before the next '1' including the '1'
+     * itself. The prefixes of up to 15 zeros are resolved with one peek.
+     */
+    private static int leadingZeros(BitReader bits) {
+        int peek = bits.checkNBit(16);
+        if (peek != 0) {
+            int cnt = Integer.numberOfLeadingZeros(peek) - 16;
+            bits.skip(cnt + 1);
+            return cnt;
+        }
+        int cnt = 0;
+        while (bits.read1Bit() == 0 && cnt < 32)
+            cnt++;
+        return cnt;
+    }
+
     public static boolean moreRBSPData(BitReader bits)  {
         return !(bits.remaining() < 32 && bits.checkNBit(1) == 1 && (bits.checkNBit(24) << 9) == 0);
     }
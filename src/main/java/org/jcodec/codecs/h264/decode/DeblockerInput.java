@@ -2,6 +2,8 @@ package org.jcodec.codecs.h264.decode;
 
 import static org.jcodec.codecs.h264.io.model.SeqParameterSet.getPicHeightInMbs;
 
+import java.util.Arrays;
+
 import org.jcodec.codecs.h264.H264Utils;
 import org.jcodec.codecs.h264.io.model.Frame;
 import org.jcodec.codecs.h264.io.model.MBType;
@@ -25,6 +27,10 @@ public class DeblockerInput {
     public boolean[] tr8x8Used;
     public Frame[][][] refsUsed;
     public SliceHeader[] shs;
+    /**
+     * The motion kept by the frame while it's referenced
+     */
+    public H264Utils.ColocatedMvs colMvs;
 
     public DeblockerInput(SeqParameterSet activeSps) {
         int picWidthInMbs = activeSps.picWidthInMbsMinus1 + 1;
@@ -37,5 +43,58 @@ public class DeblockerInput {
         mbQps = new int[3][picHeightInMbs * picWidthInMbs];
         shs = new SliceHeader[picHeightInMbs * picWidthInMbs];
         refsUsed = new Frame[picHeightInMbs * picWidthInMbs][][];
+        colMvs = new H264Utils.ColocatedMvs(picWidthInMbs << 2, picHeightInMbs << 2,
+                activeSps.direct8x8InferenceFlag);
+    }
+
+    /**
+     * Clears this input for the decoding of the next frame of the same size.
+     */
+    public void reset() {
+        for (int i = 0; i < nCoeff.length; i++)
+            Arrays.fill(nCoeff[i], 0);
+        mvs.clear();
+        Arrays.fill(mbTypes, null);
+        Arrays.fill(tr8x8Used, false);
+        for (int i = 0; i < mbQps.length; i++)
+            Arrays.fill(mbQps[i], 0);
+        Arrays.fill(shs, null);
+        Arrays.fill(refsUsed, null);
+        colMvs.clear();
+    }
+
+    /**
+     * Called once the co-located motion vectors and the references used by
+     * this input were handed over to a reference frame, the input continues
+     * with the ones released by a frame that is no longer referenced. When
+     * there are none (or they are of a different layout) new ones are
+     * allocated. The full motion vectors stay with the input.
+     * 
+     * @param unusedColMvs
+     *            Co-located motion vectors of a frame no longer referenced or
+     *            null
+     * @param unusedRefs
+     *            References used by a frame no longer referenced or null
+     */
+    public void recycleSideInfo(H264Utils.ColocatedMvs unusedColMvs, Frame[][][] unusedRefs) {
+        if (unusedRefs != null && unusedRefs != refsUsed && unusedRefs.length == refsUsed.length
+                && unusedColMvs != colMvs && unusedColMvs.getWidth() == colMvs.getWidth()
+                && unusedColMvs.getHeight() == colMvs.getHeight()
+                && unusedColMvs.isDirect8x8Inference() == colMvs.isDirect8x8Inference()) {
+            colMvs = unusedColMvs;
+            refsUsed = unusedRefs;
+        } else {
+            colMvs = new H264Utils.ColocatedMvs(colMvs.getWidth(), colMvs.getHeight(), colMvs.isDirect8x8Inference());
+            refsUsed = new Frame[refsUsed.length][][];
+        }
+    }
+
+    /**
+     * @return True if this input fits the pictures of the given sequence
+     */
+    public boolean fits(SeqParameterSet sps) {
+        return mvs.getWidth() == (sps.picWidthInMbsMinus1 + 1) << 2
+                && mvs.getHeight() == getPicHeightInMbs(sps) << 2
+                && colMvs.isDirect8x8Inference() == sps.direct8x8InferenceFlag;
     }
 }
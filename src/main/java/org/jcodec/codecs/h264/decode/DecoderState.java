@@ -1,5 +1,7 @@
 package org.jcodec.codecs.h264.decode;
 
+import java.util.Arrays;
+
 import org.jcodec.codecs.h264.H264Utils;
 import org.jcodec.codecs.h264.io.model.SliceHeader;
 import org.jcodec.common.model.ColorSpace;
@@ -28,8 +30,7 @@ public class DecoderState {
 
     public DecoderState(SliceHeader sh) {
         int mbWidth = sh.sps.picWidthInMbsMinus1 + 1;
-        chromaQpOffset = new int[] { sh.pps.chromaQpIndexOffset,
-                sh.pps.extended != null ? sh.pps.extended.secondChromaQpIndexOffset : sh.pps.chromaQpIndexOffset };
+        chromaQpOffset = new int[2];
 
         chromaFormat = sh.sps.chromaFormatIdc;
 
@@ -41,6 +42,30 @@ public class DecoderState {
         topLeft = new byte[3][4];
         topLine = new byte[3][mbWidth << 4];
 
+        init(sh);
+    }
+
+    /**
+     * Resets this state to the beginning of a slice, the slice must be of the
+     * same width and chroma format as the one this state was created for.
+     * 
+     * @param sh
+     */
+    public void init(SliceHeader sh) {
+        chromaQpOffset[0] = sh.pps.chromaQpIndexOffset;
+        chromaQpOffset[1] = sh.pps.extended != null ? sh.pps.extended.secondChromaQpIndexOffset
+                : sh.pps.chromaQpIndexOffset;
+
+        mvTop.clear();
+        mvLeft.clear();
+        mvTopLeft.clear();
+
+        for (int i = 0; i < 3; i++) {
+            Arrays.fill(leftRow[i], (byte) 0);
+            Arrays.fill(topLeft[i], (byte) 0);
+            Arrays.fill(topLine[i], (byte) 0);
+        }
+
         qp = sh.pps.picInitQpMinus26 + 26 + sh.sliceQpDelta;
     }
 }
@@ -1,11 +1,11 @@
 package org.jcodec.codecs.h264.decode;
-import static org.jcodec.codecs.h264.H264Utils.unescapeNAL;
 import static org.jcodec.codecs.h264.io.model.NALUnitType.IDR_SLICE;
 import static org.jcodec.codecs.h264.io.model.NALUnitType.NON_IDR_SLICE;
 import static org.jcodec.codecs.h264.io.model.NALUnitType.PPS;
 import static org.jcodec.codecs.h264.io.model.NALUnitType.SPS;
 
 import org.jcodec.codecs.common.biari.MDecoder;
+import org.jcodec.codecs.h264.NALIterator;
 import org.jcodec.codecs.h264.decode.aso.MapManager;
 import org.jcodec.codecs.h264.decode.aso.Mapper;
 import org.jcodec.codecs.h264.io.CABAC;
@@ -16,7 +16,7 @@ import org.jcodec.codecs.h264.io.model.SeqParameterSet;
 import org.jcodec.codecs.h264.io.model.SliceHeader;
 import org.jcodec.common.IntObjectMap;
 import org.jcodec.common.io.BitReader;
-import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.NALBitReader;
 import org.jcodec.common.logging.Logger;
 
 import java.nio.ByteBuffer;
@@ -44,17 +44,25 @@ public class FrameReader {
     }
 
     public List<SliceReader> readFrame(List<ByteBuffer> nalUnits) {
+        return readFrame(new NALIterator().reset(nalUnits));
+    }
+
+    /**
+     * Reads the parameter sets and the slice headers of a frame. The NAL units
+     * are read as they are, the slice readers keep referencing their data.
+     */
+    public List<SliceReader> readFrame(NALIterator nalUnits) {
         List<SliceReader> result = new ArrayList<SliceReader>();
 
-        for (ByteBuffer nalData : nalUnits) {
+        ByteBuffer nalData;
+        while ((nalData = nalUnits.next()) != null) {
             NALUnit nalUnit = NALUnit.read(nalData);
 
-            unescapeNAL(nalData);
             if (SPS == nalUnit.type) {
-                SeqParameterSet _sps = SeqParameterSet.read(nalData);
+                SeqParameterSet _sps = SeqParameterSet.read(NALBitReader.createNALBitReader(nalData));
                 sps.put(_sps.seqParameterSetId, _sps);
             } else if (PPS == nalUnit.type) {
-                PictureParameterSet _pps = PictureParameterSet.read(nalData);
+                PictureParameterSet _pps = PictureParameterSet.read(NALBitReader.createNALBitReader(nalData));
                 pps.put(_pps.picParameterSetId, _pps);
             } else if (IDR_SLICE == nalUnit.type || NON_IDR_SLICE == nalUnit.type) {
                 if (sps.size() == 0 || pps.size() == 0) {
@@ -69,7 +77,7 @@ public class FrameReader {
     }
 
     private SliceReader createSliceReader(ByteBuffer segment, NALUnit nalUnit) {
-        BitReader _in = BitReader.createBitReader(segment);
+        BitReader _in = NALBitReader.createNALBitReader(segment);
         SliceHeader sh = SliceHeaderReader.readPart1(_in);
         sh.pps = pps.get(sh.picParameterSetId);
         sh.sps = sps.get(sh.pps.seqParameterSetId);
@@ -89,7 +97,7 @@ public class FrameReader {
             int[][] cm = new int[2][1024];
             int qp = sh.pps.picInitQpMinus26 + 26 + sh.sliceQpDelta;
             cabac.initModels(cm, sh.sliceType, sh.cabacInitIdc, qp);
-            mDecoder = new MDecoder(segment, cm);
+            mDecoder = new MDecoder(segment, cm, true);
         }
 
         return new SliceReader(sh.pps, cabac, cavlc, mDecoder, _in, mapper, sh, nalUnit);
@@ -102,9 +110,7 @@ public class FrameReader {
     }
 
     public void addSps(ByteBuffer byteBuffer) {
-        ByteBuffer clone = NIOUtils.clone(byteBuffer);
-        unescapeNAL(clone);
-        SeqParameterSet s = SeqParameterSet.read(clone);
+        SeqParameterSet s = SeqParameterSet.read(NALBitReader.createNALBitReader(byteBuffer.duplicate()));
         sps.put(s.seqParameterSetId, s);
     }
 
@@ -115,9 +121,7 @@ public class FrameReader {
     }
 
     public void addPps(ByteBuffer byteBuffer) {
-        ByteBuffer clone = NIOUtils.clone(byteBuffer);
-        unescapeNAL(clone);
-        PictureParameterSet p = PictureParameterSet.read(clone);
+        PictureParameterSet p = PictureParameterSet.read(NALBitReader.createNALBitReader(byteBuffer.duplicate()));
         pps.put(p.picParameterSetId, p);
     }
 }
\ No newline at end of file
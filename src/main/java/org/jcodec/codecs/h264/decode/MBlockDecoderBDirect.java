@@ -19,6 +19,7 @@ import static org.jcodec.codecs.h264.H264Utils.Mv.mvY;
 import static org.jcodec.codecs.h264.H264Utils.Mv.packMv;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.calcMVPredictionMedian;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.collectPredictors;
+import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.debug;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.debugPrint;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.mergeResidual;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.saveMvs;
@@ -29,6 +30,7 @@ import static org.jcodec.common.tools.MathUtil.clip;
 
 import org.jcodec.codecs.h264.H264Const;
 import org.jcodec.codecs.h264.H264Const.PartPred;
+import org.jcodec.codecs.h264.H264Utils.ColocatedMvs;
 import org.jcodec.codecs.h264.H264Utils.MvList;
 import org.jcodec.codecs.h264.decode.aso.Mapper;
 import org.jcodec.codecs.h264.io.model.Frame;
@@ -43,7 +45,6 @@ import org.jcodec.common.tools.MathUtil;
  * @author The JCodec project
  */
 public class MBlockDecoderBDirect extends MBlockDecoderBase {
-    private Mapper mapper;
 
     public MBlockDecoderBDirect(Mapper mapper, SliceHeader sh, DeblockerInput di, int poc, DecoderState decoderState) {
         super(sh, di, poc, decoderState);
@@ -116,8 +117,9 @@ public class MBlockDecoderBDirect extends MBlockDecoderBase {
                     int blkIndX = blk4x4 & 3;
                     int blkIndY = blk4x4 >> 2;
 
-                    debugPrint("DIRECT_4x4 [%d, %d]: (%d,%d,%d), (%d,%d,%d)", blkIndY, blkIndX, x.mv0X(blk4x4),
-                            x.mv0Y(blk4x4), x.mv0R(blk4x4), x.mv1X(blk4x4), x.mv1Y(blk4x4), x.mv1R(blk4x4));
+                    if (debug)
+                        debugPrint("DIRECT_4x4 [%d, %d]: (%d,%d,%d), (%d,%d,%d)", blkIndY, blkIndX, x.mv0X(blk4x4),
+                                x.mv0Y(blk4x4), x.mv0R(blk4x4), x.mv1X(blk4x4), x.mv1Y(blk4x4), x.mv1R(blk4x4));
 
                     int blkPredX = (mbX << 6) + (blkIndX << 4);
                     int blkPredY = (mbY << 6) + (blkIndY << 4);
@@ -135,8 +137,9 @@ public class MBlockDecoderBDirect extends MBlockDecoderBase {
                 int blkIndX = blk4x4_0 & 3;
                 int blkIndY = blk4x4_0 >> 2;
 
-                debugPrint("DIRECT_8x8 [%d, %d]: (%d,%d,%d), (%d,%d)", blkIndY, blkIndX, x.mv0X(blk4x4_0),
-                        x.mv0Y(blk4x4_0), x.mv0R(blk4x4_0), x.mv1X(blk4x4_0), x.mv1Y(blk4x4_0), x.mv1R(blk4x4_0));
+                if (debug)
+                    debugPrint("DIRECT_8x8 [%d, %d]: (%d,%d,%d), (%d,%d)", blkIndY, blkIndX, x.mv0X(blk4x4_0),
+                            x.mv0Y(blk4x4_0), x.mv0R(blk4x4_0), x.mv1X(blk4x4_0), x.mv1Y(blk4x4_0), x.mv1R(blk4x4_0));
 
                 int blkPredX = (mbX << 6) + (blkIndX << 4);
                 int blkPredY = (mbY << 6) + (blkIndY << 4);
@@ -161,20 +164,15 @@ public class MBlockDecoderBDirect extends MBlockDecoderBase {
         int blkPosX = (mbX << 2) + blkIndX;
         int blkPosY = (mbY << 2) + blkIndY;
 
-        int mvCol = picCol.getMvs().getMv(blkPosX, blkPosY, 0);
+        int mvCol = picCol.getColocatedMvs().getMv(blkPosX, blkPosY);
         Frame refL0;
         int refIdxL0;
-        if (mvRef(mvCol) == -1) {
-            mvCol = picCol.getMvs().getMv(blkPosX, blkPosY, 1);
-            if (mvRef(mvCol) == -1) {
-                refIdxL0 = 0;
-                refL0 = refs[0][0];
-            } else {
-                refL0 = picCol.getRefsUsed()[mbY * mbWidth + mbX][1][mvRef(mvCol)];
-                refIdxL0 = findPic(refs[0], refL0);
-            }
+        if (ColocatedMvs.refIdx(mvCol) == -1) {
+            refIdxL0 = 0;
+            refL0 = refs[0][0];
         } else {
-            refL0 = picCol.getRefsUsed()[mbY * mbWidth + mbX][0][mvRef(mvCol)];
+            refL0 = picCol.getRefsUsed()[mbY * mbWidth + mbX][ColocatedMvs.refList(mvCol)][ColocatedMvs
+                    .refIdx(mvCol)];
             refIdxL0 = findPic(refs[0], refL0);
         }
         
@@ -229,7 +227,8 @@ public class MBlockDecoderBDirect extends MBlockDecoderBase {
                         (mbY << 6) + blkOffY, 8, 8);
                 PredictionMerger.mergePrediction(sh, 0, 0, PartPred.Bi, 0, mbb[0].getPlaneData(0), mbb[1].getPlaneData(0),
                         BLK_8x8_MB_OFF_LUMA[blk8x8], 16, 8, 8, mb.getPlaneData(0), refs, poc);
-                debugPrint("DIRECT_8x8 [%d, %d]: (0,0,0), (0,0,0)", (blk8x8 & 2), ((blk8x8 << 1) & 2));
+                if (debug)
+                    debugPrint("DIRECT_8x8 [%d, %d]: (0,0,0), (0,0,0)", (blk8x8 & 2), ((blk8x8 << 1) & 2));
             }
             return;
         }
@@ -253,8 +252,9 @@ public class MBlockDecoderBDirect extends MBlockDecoderBase {
                     int blkIndX = blk4x4 & 3;
                     int blkIndY = blk4x4 >> 2;
 
-                    debugPrint("DIRECT_4x4 [%d, %d]: (%d,%d,%d), (%d,%d," + refIdxL1 + ")", blkIndY, blkIndX,
-                            x.mv0X(blk4x4), x.mv0Y(blk4x4), refIdxL0, x.mv1X(blk4x4), x.mv1Y(blk4x4));
+                    if (debug)
+                        debugPrint("DIRECT_4x4 [%d, %d]: (%d,%d,%d), (%d,%d," + refIdxL1 + ")", blkIndY, blkIndX,
+                                x.mv0X(blk4x4), x.mv0Y(blk4x4), refIdxL0, x.mv1X(blk4x4), x.mv1Y(blk4x4));
 
                     int blkPredX = (mbX << 6) + (blkIndX << 4);
                     int blkPredY = (mbY << 6) + (blkIndY << 4);
@@ -274,8 +274,9 @@ public class MBlockDecoderBDirect extends MBlockDecoderBase {
                 int blkIndX = blk4x4_0 & 3;
                 int blkIndY = blk4x4_0 >> 2;
 
-                debugPrint("DIRECT_8x8 [%d, %d]: (%d,%d,%d), (%d,%d,%d)", blkIndY, blkIndX, x.mv0X(blk4x4_0),
-                        x.mv0Y(blk4x4_0), refIdxL0, x.mv1X(blk4x4_0), x.mv1Y(blk4x4_0), refIdxL1);
+                if (debug)
+                    debugPrint("DIRECT_8x8 [%d, %d]: (%d,%d,%d), (%d,%d,%d)", blkIndY, blkIndX, x.mv0X(blk4x4_0),
+                            x.mv0Y(blk4x4_0), refIdxL0, x.mv1X(blk4x4_0), x.mv1Y(blk4x4_0), refIdxL1);
 
                 int blkPredX = (mbX << 6) + (blkIndX << 4);
                 int blkPredY = (mbY << 6) + (blkIndY << 4);
@@ -317,11 +318,9 @@ public class MBlockDecoderBDirect extends MBlockDecoderBase {
         int blkPosX = (mbX << 2) + blkIndX;
         int blkPosY = (mbY << 2) + blkIndY;
 
-        int mvCol = col.getMvs().getMv(blkPosX, blkPosY, 0);
-        if (mvRef(mvCol) == -1)
-            mvCol = col.getMvs().getMv(blkPosX, blkPosY, 1);
+        int mvCol = col.getColocatedMvs().getMv(blkPosX, blkPosY);
 
-        boolean colZero = col.isShortTerm() && mvRef(mvCol) == 0 && (abs(mvX(mvCol)) >> 1) == 0
+        boolean colZero = col.isShortTerm() && ColocatedMvs.refIdx(mvCol) == 0 && (abs(mvX(mvCol)) >> 1) == 0
                 && (abs(mvY(mvCol)) >> 1) == 0;
 
         int x0 = packMv(0, 0, refL0), x1 = packMv(0, 0, refL1);
@@ -14,6 +14,7 @@ import java.util.Arrays;
 import org.jcodec.codecs.h264.H264Const;
 import org.jcodec.codecs.h264.H264Const.PartPred;
 import org.jcodec.codecs.h264.H264Utils.MvList;
+import org.jcodec.codecs.h264.decode.aso.Mapper;
 import org.jcodec.codecs.h264.io.model.Frame;
 import org.jcodec.codecs.h264.io.model.MBType;
 import org.jcodec.codecs.h264.io.model.SliceHeader;
@@ -37,6 +38,8 @@ public class MBlockDecoderBase {
     protected BlockInterpolator interpolator;
     protected Picture[] mbb;
     protected int[][] scalingMatrix;
+    protected Mapper mapper;
+    protected boolean syntaxOnly;
 
     public MBlockDecoderBase(SliceHeader sh, DeblockerInput di, int poc, DecoderState decoderState) {
         this.interpolator = new BlockInterpolator();
@@ -48,8 +51,49 @@ public class MBlockDecoderBase {
         scalingMatrix = initScalingMatrix(sh);
     }
 
+    /**
+     * Prepares this decoder for the next slice keeping the interpolator and
+     * the prediction buffers.
+     */
+    void init(Mapper mapper, SliceHeader sh, DeblockerInput di, int poc) {
+        if (sh.sps != this.sh.sps || sh.pps != this.sh.pps)
+            scalingMatrix = initScalingMatrix(sh);
+        this.mapper = mapper;
+        this.sh = sh;
+        this.di = di;
+        this.poc = poc;
+    }
+
+    /**
+     * Replaces the motion compensation, used by the downscaled decoding
+     */
+    void setInterpolator(BlockInterpolator interpolator) {
+        this.interpolator = interpolator;
+    }
+
+    /**
+     * Makes this decoder only derive the side information of the macroblocks
+     * (motion vectors, qps, types) leaving out the motion compensation, the
+     * intra prediction and the residual transform. The pixels it outputs are
+     * undefined.
+     */
+    void setSyntaxOnly(boolean syntaxOnly) {
+        this.syntaxOnly = syntaxOnly;
+        if (syntaxOnly) {
+            this.interpolator = new BlockInterpolator() {
+                public void getBlockLuma(Picture pic, Picture out, int off, int x, int y, int w, int h) {
+                }
+
+                public void getBlockChroma(Picture pic, Picture out, int comp, int off, int x, int y, int w, int h) {
+                }
+            };
+        }
+    }
+
     void residualLuma(MBlock mBlock, boolean leftAvailable, boolean topAvailable, int mbX, int mbY) {
-        if (!mBlock.transform8x8Used) {
+        if (syntaxOnly) {
+            return;
+        } else if (!mBlock.transform8x8Used) {
             residualLuma4x4(mBlock);
         } else if (sh.pps.entropyCodingModeFlag) {
             residualLuma8x8CABAC(mBlock);
@@ -151,6 +195,8 @@ public class MBlockDecoderBase {
         int addr = mbY * (sh.sps.picWidthInMbsMinus1 + 1) + mbX;
         di.mbQps[1][addr] = qp1;
         di.mbQps[2][addr] = qp2;
+        if (syntaxOnly)
+            return;
         ChromaPredictionBuilder.predictWithMode(mBlock.ac[1], mBlock.chromaPredictionMode, mbX, leftAvailable,
                 topAvailable, s.leftRow[1], s.topLine[1], s.topLeft[1], mb.getPlaneData(1));
         ChromaPredictionBuilder.predictWithMode(mBlock.ac[2], mBlock.chromaPredictionMode, mbX, leftAvailable,
@@ -159,7 +205,7 @@ public class MBlockDecoderBase {
 
     void decodeChromaResidual(MBlock mBlock, boolean leftAvailable, boolean topAvailable, int mbX, int mbY, int crQp1,
             int crQp2) {
-        if (mBlock.cbpChroma() != 0) {
+        if (mBlock.cbpChroma() != 0 && !syntaxOnly) {
             if ((mBlock.cbpChroma() & 3) > 0) {
                 chromaDC(mbX, leftAvailable, topAvailable, mBlock.dc1, 1, crQp1, mBlock.curMbType);
                 chromaDC(mbX, leftAvailable, topAvailable, mBlock.dc2, 2, crQp2, mBlock.curMbType);
@@ -198,6 +244,8 @@ public class MBlockDecoderBase {
 
     public void predictChromaInter(Frame[][] refs, MvList vectors, int x, int y, int comp, Picture mb,
             PartPred[] predType) {
+        if (syntaxOnly)
+            return;
 
         for (int blk8x8 = 0; blk8x8 < 4; blk8x8++) {
             for (int list = 0; list < 2; list++) {
@@ -214,9 +262,8 @@ public class MBlockDecoderBase {
                     int xx = ((x + blkPox) << 3) + mvX(mv);
                     int yy = ((y + blkPoy) << 3) + mvY(mv);
 
-                    BlockInterpolator.getBlockChroma(ref.getPlaneData(comp), ref.getPlaneWidth(comp),
-                            ref.getPlaneHeight(comp), mbb[list].getPlaneData(comp), blkPoy * mb.getPlaneWidth(comp)
-                                    + blkPox, mb.getPlaneWidth(comp), xx, yy, 2, 2);
+                    interpolator.getBlockChroma(ref, mbb[list], comp, blkPoy * mb.getPlaneWidth(comp) + blkPox, xx,
+                            yy, 2, 2);
                 }
             }
 
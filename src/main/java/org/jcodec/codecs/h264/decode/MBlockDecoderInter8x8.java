@@ -16,6 +16,7 @@ import static org.jcodec.codecs.h264.H264Utils.Mv.packMv;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.NULL_VECTOR;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.calcMVPredictionMedian;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.collectPredictors;
+import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.debug;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.debugPrint;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.mergeResidual;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.saveMvs;
@@ -40,7 +41,6 @@ import org.jcodec.common.model.Picture;
  * @author The JCodec project
  */
 public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
-    private Mapper mapper;
     private MBlockDecoderBDirect bDirectDecoder;
 
     public MBlockDecoderInter8x8(Mapper mapper, MBlockDecoderBDirect bDirectDecoder, SliceHeader sh, DeblockerInput di,
@@ -223,8 +223,9 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         x.setMv(i10, list, mv);
         x.setMv(i11, list, mv);
 
-        debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX, mvpY, mBlock.pb8x8.mvdX1[list][partNo],
-                mBlock.pb8x8.mvdY1[list][partNo], mvX(mv), mvY(mv), refIdx);
+        if (debug)
+            debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX, mvpY, mBlock.pb8x8.mvdX1[list][partNo],
+                    mBlock.pb8x8.mvdY1[list][partNo], mvX(mv), mvY(mv), refIdx);
         
         interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv), offY + mvY(mv), 8, 8);
     }
@@ -241,8 +242,9 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         x.setMv(i00, list, mv1);
         x.setMv(i01, list, mv1);
         
-        debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX1, mvpY1, mBlock.pb8x8.mvdX1[list][partNo],
-                mBlock.pb8x8.mvdY1[list][partNo], mvX(mv1), mvY(mv1), refIdx);
+        if (debug)
+            debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX1, mvpY1, mBlock.pb8x8.mvdX1[list][partNo],
+                    mBlock.pb8x8.mvdY1[list][partNo], mvX(mv1), mvY(mv1), refIdx);
 
         int mvpX2 = calcMVPredictionMedian(l1, mv1, NULL_VECTOR, l0, lAvb, true, false, lAvb, refIdx, 0);
         int mvpY2 = calcMVPredictionMedian(l1, mv1, NULL_VECTOR, l0, lAvb, true, false, lAvb, refIdx, 1);
@@ -251,8 +253,9 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         x.setMv(i10, list, mv2);
         x.setMv(i11, list, mv2);
 
-        debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX2, mvpY2, mBlock.pb8x8.mvdX2[list][partNo],
-                mBlock.pb8x8.mvdY2[list][partNo], mvX(mv2), mvY(mv2), refIdx);
+        if (debug)
+            debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX2, mvpY2, mBlock.pb8x8.mvdX2[list][partNo],
+                    mBlock.pb8x8.mvdY2[list][partNo], mvX(mv2), mvY(mv2), refIdx);
 
         interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 8, 4);
         interpolator.getBlockLuma(references[refIdx], mb, off + mb.getWidth() * 4, offX + mvX(mv2),
@@ -270,8 +273,9 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         x.setMv(i00, list, mv1);
         x.setMv(i10, list, mv1);
 
-        debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX1, mvpY1, mBlock.pb8x8.mvdX1[list][partNo],
-                mBlock.pb8x8.mvdY1[list][partNo], mvX(mv1), mvY(mv1), refIdx);
+        if (debug)
+            debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX1, mvpY1, mBlock.pb8x8.mvdX1[list][partNo],
+                    mBlock.pb8x8.mvdY1[list][partNo], mvX(mv1), mvY(mv1), refIdx);
 
         int mvpX2 = calcMVPredictionMedian(mv1, t1, tr, t0, true, tAvb, trAvb, tAvb, refIdx, 0);
         int mvpY2 = calcMVPredictionMedian(mv1, t1, tr, t0, true, tAvb, trAvb, tAvb, refIdx, 1);
@@ -281,8 +285,9 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         x.setMv(i01, list, mv2);
         x.setMv(i11, list, mv2);
 
-        debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX2, mvpY2, mBlock.pb8x8.mvdX2[list][partNo],
-                mBlock.pb8x8.mvdY2[list][partNo], mvX(mv2), mvY(mv2), refIdx);
+        if (debug)
+            debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX2, mvpY2, mBlock.pb8x8.mvdX2[list][partNo],
+                    mBlock.pb8x8.mvdY2[list][partNo], mvX(mv2), mvY(mv2), refIdx);
 
         interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 4, 8);
         interpolator.getBlockLuma(references[refIdx], mb, off + 4, offX + mvX(mv2) + 16, offY + mvY(mv2), 4, 8);
@@ -297,8 +302,9 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
 
         int mv1 = packMv(mBlock.pb8x8.mvdX1[list][partNo] + mvpX1, mBlock.pb8x8.mvdY1[list][partNo] + mvpY1, refIdx);
         x.setMv(i00, list, mv1);
-        debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX1, mvpY1, mBlock.pb8x8.mvdX1[list][partNo],
-                mBlock.pb8x8.mvdY1[list][partNo], mvX(mv1), mvY(mv1), refIdx);
+        if (debug)
+            debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX1, mvpY1, mBlock.pb8x8.mvdX1[list][partNo],
+                    mBlock.pb8x8.mvdY1[list][partNo], mvX(mv1), mvY(mv1), refIdx);
 
         int mvpX2 = calcMVPredictionMedian(mv1, t1, tr, t0, true, tAvb, trAvb, tAvb, refIdx, 0);
         int mvpY2 = calcMVPredictionMedian(mv1, t1, tr, t0, true, tAvb, trAvb, tAvb, refIdx, 1);
@@ -306,8 +312,9 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         int mv2 = packMv(mBlock.pb8x8.mvdX2[list][partNo] + mvpX2, mBlock.pb8x8.mvdY2[list][partNo] + mvpY2, refIdx);
         x.setMv(i01, list, mv2);
         
-        debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX2, mvpY2, mBlock.pb8x8.mvdX2[list][partNo],
-                mBlock.pb8x8.mvdY2[list][partNo], mvX(mv2), mvY(mv2), refIdx);
+        if (debug)
+            debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX2, mvpY2, mBlock.pb8x8.mvdX2[list][partNo],
+                    mBlock.pb8x8.mvdY2[list][partNo], mvX(mv2), mvY(mv2), refIdx);
 
         int mvpX3 = calcMVPredictionMedian(l1, mv1, mv2, l0, lAvb, true, true, lAvb, refIdx, 0);
         int mvpY3 = calcMVPredictionMedian(l1, mv1, mv2, l0, lAvb, true, true, lAvb, refIdx, 1);
@@ -315,8 +322,9 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         int mv3 = packMv(mBlock.pb8x8.mvdX3[list][partNo] + mvpX3, mBlock.pb8x8.mvdY3[list][partNo] + mvpY3, refIdx);
         x.setMv(i10, list, mv3);
 
-        debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX3, mvpY3, mBlock.pb8x8.mvdX3[list][partNo],
-                mBlock.pb8x8.mvdY3[list][partNo], mvX(mv3), mvY(mv3), refIdx);
+        if (debug)
+            debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX3, mvpY3, mBlock.pb8x8.mvdX3[list][partNo],
+                    mBlock.pb8x8.mvdY3[list][partNo], mvX(mv3), mvY(mv3), refIdx);
 
         int mvpX4 = calcMVPredictionMedian(mv3, mv2, NULL_VECTOR, mv1, true, true, false, true, refIdx, 0);
         int mvpY4 = calcMVPredictionMedian(mv3, mv2, NULL_VECTOR, mv1, true, true, false, true, refIdx, 1);
@@ -324,8 +332,9 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         int mv4 = packMv(mBlock.pb8x8.mvdX4[list][partNo] + mvpX4, mBlock.pb8x8.mvdY4[list][partNo] + mvpY4, refIdx);
         x.setMv(i11, list, mv4);
 
-        debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX4, mvpY4, mBlock.pb8x8.mvdX4[list][partNo],
-                mBlock.pb8x8.mvdY4[list][partNo], mvX(mv4), mvY(mv4), refIdx);
+        if (debug)
+            debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX4, mvpY4, mBlock.pb8x8.mvdX4[list][partNo],
+                    mBlock.pb8x8.mvdY4[list][partNo], mvX(mv4), mvY(mv4), refIdx);
 
         interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 4, 4);
         interpolator.getBlockLuma(references[refIdx], mb, off + 4, offX + mvX(mv2) + 16, offY + mvY(mv2), 4, 4);
@@ -16,8 +16,6 @@ import org.jcodec.common.model.Picture;
  */
 public class MBlockDecoderIntra16x16 extends MBlockDecoderBase {
 
-    private Mapper mapper;
-
     public MBlockDecoderIntra16x16(Mapper mapper, SliceHeader sh, DeblockerInput di, int poc,
             DecoderState decoderState) {
         super(sh, di, poc, decoderState);
@@ -33,10 +31,12 @@ public class MBlockDecoderIntra16x16 extends MBlockDecoderBase {
         s.qp = (s.qp + mBlock.mbQPDelta + 52) % 52;
         di.mbQps[0][address] = s.qp;
 
-        residualLumaI16x16(mBlock, leftAvailable, topAvailable, mbX, mbY);
+        if (!syntaxOnly) {
+            residualLumaI16x16(mBlock, leftAvailable, topAvailable, mbX, mbY);
 
-        Intra16x16PredictionBuilder.predictWithMode(mBlock.luma16x16Mode, mBlock.ac[0], leftAvailable, topAvailable,
-                s.leftRow[0], s.topLine[0], s.topLeft[0], mbX << 4, mb.getPlaneData(0));
+            Intra16x16PredictionBuilder.predictWithMode(mBlock.luma16x16Mode, mBlock.ac[0], leftAvailable,
+                    topAvailable, s.leftRow[0], s.topLine[0], s.topLeft[0], mbX << 4, mb.getPlaneData(0));
+        }
 
         decodeChroma(mBlock, mbX, mbY, leftAvailable, topAvailable, mb, s.qp);
         di.mbTypes[address] = mBlock.curMbType;
@@ -11,7 +11,6 @@ import org.jcodec.common.model.Picture;
  * @author The JCodec project
  */
 public class MBlockDecoderIntraNxN extends MBlockDecoderBase {
-    private Mapper mapper;
     private Intra8x8PredictionBuilder prediction8x8Builder;
 
     public MBlockDecoderIntraNxN(Mapper mapper, SliceHeader sh, DeblockerInput di, int poc,
@@ -39,6 +38,22 @@ public class MBlockDecoderIntraNxN extends MBlockDecoderBase {
 
         residualLuma(mBlock, leftAvailable, topAvailable, mbX, mbY);
 
+        if (!syntaxOnly)
+            predictLuma(mBlock, mb, mbX, leftAvailable, topAvailable, topLeftAvailable, topRightAvailable);
+
+        decodeChroma(mBlock, mbX, mbY, leftAvailable, topAvailable, mb, s.qp);
+
+        di.mbTypes[mbAddr] = mBlock.curMbType;
+        di.tr8x8Used[mbAddr] = mBlock.transform8x8Used;
+
+        MBlockDecoderUtils.collectChromaPredictors(s, mb, mbX);
+
+        MBlockDecoderUtils.saveMvsIntra(di, mbX, mbY);
+        MBlockDecoderUtils.saveVectIntra(s, mapper.getMbX(mBlock.mbIdx));
+    }
+
+    private void predictLuma(MBlock mBlock, Picture mb, int mbX, boolean leftAvailable, boolean topAvailable,
+            boolean topLeftAvailable, boolean topRightAvailable) {
         if (!mBlock.transform8x8Used) {
             for (int bInd = 0; bInd < 16; bInd++) {
                 int dInd = H264Const.BLK_DISP_MAP[bInd];
@@ -67,15 +82,5 @@ public class MBlockDecoderIntraNxN extends MBlockDecoderBase {
                         s.leftRow[0], s.topLine[0], s.topLeft[0], (mbX << 4), blkX << 2, blkY << 2, mb.getPlaneData(0));
             }
         }
-
-        decodeChroma(mBlock, mbX, mbY, leftAvailable, topAvailable, mb, s.qp);
-
-        di.mbTypes[mbAddr] = mBlock.curMbType;
-        di.tr8x8Used[mbAddr] = mBlock.transform8x8Used;
-
-        MBlockDecoderUtils.collectChromaPredictors(s, mb, mbX);
-
-        MBlockDecoderUtils.saveMvsIntra(di, mbX, mbY);
-        MBlockDecoderUtils.saveVectIntra(s, mapper.getMbX(mBlock.mbIdx));
     }
 }
@@ -11,7 +11,7 @@ import org.jcodec.common.logging.Logger;
 import org.jcodec.common.model.Picture;
 
 public class MBlockDecoderUtils {
-    private static boolean debug;
+    static boolean debug;
     public static final int NULL_VECTOR = packMv(0, 0, -1);
 
     public static void debugPrint(Object... arguments) {
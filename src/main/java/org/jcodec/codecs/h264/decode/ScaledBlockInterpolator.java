@@ -0,0 +1,93 @@
+package org.jcodec.codecs.h264.decode;
+
+import static org.jcodec.common.tools.MathUtil.clip;
+
+import org.jcodec.codecs.h264.io.model.Frame;
+import org.jcodec.common.model.Picture;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Motion compensation from the reference pictures stored at 1/2 or 1/4 of
+ * the coded resolution. The motion vectors are scaled down with the
+ * reference, the sub-pixel positions are interpolated with the bilinear
+ * filter instead of the 6-tap one. The predicted block is returned in the
+ * full resolution so that the residual is added to it as usual.
+ *
+ * @author The JCodec project
+ *
+ */
+public class ScaledBlockInterpolator extends BlockInterpolator {
+
+    private int log2Scale;
+
+    public ScaledBlockInterpolator(int log2Scale) {
+        this.log2Scale = log2Scale;
+    }
+
+    @Override
+    public void getBlockLuma(Picture pic, Picture out, int off, int x, int y, int w, int h) {
+        if (pic instanceof Frame) {
+            // Bilinear filter reaches one line below the block
+            ((Frame) pic).waitForLines(((y >> 2) + h >> log2Scale) + 2);
+        }
+        predict(pic.getPlaneData(0), pic.getPlaneWidth(0), pic.getPlaneHeight(0), out.getPlaneData(0), off,
+                out.getPlaneWidth(0), x, y, w, h, 2);
+    }
+
+    @Override
+    public void getBlockChroma(Picture pic, Picture out, int comp, int off, int x, int y, int w, int h) {
+        predict(pic.getPlaneData(comp), pic.getPlaneWidth(comp), pic.getPlaneHeight(comp), out.getPlaneData(comp),
+                off, out.getPlaneWidth(comp), x, y, w, h, 3);
+    }
+
+    /**
+     * Predicts the downscaled block and replicates each of its pixels over
+     * the square of the full resolution pixels it covers. The macroblock
+     * buffer is downscaled by averaging these squares so the prediction comes
+     * out intact.
+     * 
+     * @param x
+     *            Position of the block in the full resolution, in 1 <<
+     *            fracBits units
+     */
+    private void predict(byte[] pels, int picW, int picH, byte[] blk, int blkOff, int blkStride, int x, int y,
+            int w, int h, int fracBits) {
+        int shift = fracBits + log2Scale;
+        int one = 1 << shift;
+        int mask = one - 1;
+        int round = 1 << (2 * shift - 1);
+        int cellMask = (1 << log2Scale) - 1;
+
+        // The squares are aligned to the macroblock
+        int col = blkOff % blkStride;
+        int row = blkOff / blkStride;
+        for (int j = 0; j < h; j++, blkOff += blkStride) {
+            int cellY = (row + j) & cellMask;
+            if (cellY != 0 && j > 0) {
+                System.arraycopy(blk, blkOff - blkStride, blk, blkOff, w);
+                continue;
+            }
+            int py = y + ((j - cellY) << fracBits);
+            int fy = py & mask;
+            int row0 = clip(py >> shift, 0, picH - 1) * picW;
+            int row1 = clip((py >> shift) + 1, 0, picH - 1) * picW;
+            for (int i = 0; i < w; i++) {
+                int cellX = (col + i) & cellMask;
+                if (cellX != 0 && i > 0) {
+                    blk[blkOff + i] = blk[blkOff + i - 1];
+                    continue;
+                }
+                int px = x + ((i - cellX) << fracBits);
+                int fx = px & mask;
+                int col0 = clip(px >> shift, 0, picW - 1);
+                int col1 = clip((px >> shift) + 1, 0, picW - 1);
+
+                int top = pels[row0 + col0] * (one - fx) + pels[row0 + col1] * fx;
+                int bottom = pels[row1 + col0] * (one - fx) + pels[row1 + col1] * fx;
+                blk[blkOff + i] = (byte) ((top * (one - fy) + bottom * fy + round) >> (2 * shift));
+            }
+        }
+    }
+}
@@ -50,14 +50,71 @@ public class SliceDecoder {
     private DeblockerInput di;
     private IntObjectMap<Frame> lRefs;
     private Frame[] sRefs;
+    private MBListener listener;
+    private MBlock mBlock;
+    private Picture mb;
+    private int log2Scale;
+    private boolean syntaxOnly;
+
+    /**
+     * Gets notified every time a macroblock is fully reconstructed and all its
+     * side information (mvs, coefficient counts, qps) is available to the
+     * deblocking filter.
+     */
+    public static interface MBListener {
+        void macroblockDecoded(int mbX, int mbY);
+    }
 
     public SliceDecoder(SeqParameterSet activeSps, Frame[] sRefs,
             IntObjectMap<Frame> lRefs, DeblockerInput di, Frame result) {
+        init(activeSps, sRefs, lRefs, di, result);
+    }
+
+    /**
+     * Binds this slice decoder to the next frame. The macroblock decoders,
+     * the decoder state and the macroblock buffers are kept between the frames
+     * and the slices, they are only reallocated when the picture geometry
+     * changes.
+     */
+    public void init(SeqParameterSet activeSps, Frame[] sRefs, IntObjectMap<Frame> lRefs, DeblockerInput di,
+            Frame result) {
+        if (this.activeSps == null || this.activeSps.picWidthInMbsMinus1 != activeSps.picWidthInMbsMinus1
+                || this.activeSps.chromaFormatIdc != activeSps.chromaFormatIdc)
+            decoderState = null;
         this.di = di;
         this.activeSps = activeSps;
         this.frameOut = result;
         this.sRefs = sRefs;
         this.lRefs = lRefs;
+        this.listener = null;
+    }
+
+    /**
+     * Makes this slice decoder output the macroblocks downscaled by 1 <<
+     * log2Scale into the frame and predict them from the references of the
+     * same size. Only takes effect on the next allocation of the macroblock
+     * decoders so must be set before the first slice.
+     * 
+     * @param log2Scale
+     */
+    public void setLog2Scale(int log2Scale) {
+        this.log2Scale = log2Scale;
+    }
+
+    /**
+     * Makes this slice decoder only derive the side information of the
+     * macroblocks: types, qps, motion vectors and reference indices. The
+     * pixels of the frame are left untouched. Must be set before the first
+     * slice.
+     * 
+     * @param syntaxOnly
+     */
+    public void setSyntaxOnly(boolean syntaxOnly) {
+        this.syntaxOnly = syntaxOnly;
+    }
+
+    public void setListener(MBListener listener) {
+        this.listener = listener;
     }
 
     public void decodeFromReader(SliceReader sliceReader) {
@@ -77,39 +134,86 @@ public class SliceDecoder {
         
         SliceHeader sh = parser.getSliceHeader();
         
-        decoderState = new DecoderState(sh);
         mapper = new MapManager(sh.sps, sh.pps).getMapper(sh);
 
-        decoderIntra16x16 = new MBlockDecoderIntra16x16(mapper, sh, di, frameOut.getPOC(), decoderState);
-        decoderIntraNxN = new MBlockDecoderIntraNxN(mapper, sh, di, frameOut.getPOC(), decoderState);
-        decoderInter = new MBlockDecoderInter(mapper, sh, di, frameOut.getPOC(), decoderState);
-        decoderBDirect = new MBlockDecoderBDirect(mapper, sh, di, frameOut.getPOC(), decoderState);
-        decoderInter8x8 = new MBlockDecoderInter8x8(mapper, decoderBDirect, sh, di, frameOut.getPOC(), decoderState);
-        skipDecoder = new MBlockSkipDecoder(mapper, decoderBDirect, sh, di, frameOut.getPOC(), decoderState);
-        decoderIPCM = new MBlockDecoderIPCM(mapper, decoderState);
+        if (decoderState == null) {
+            decoderState = new DecoderState(sh);
+
+            decoderIntra16x16 = new MBlockDecoderIntra16x16(mapper, sh, di, frameOut.getPOC(), decoderState);
+            decoderIntraNxN = new MBlockDecoderIntraNxN(mapper, sh, di, frameOut.getPOC(), decoderState);
+            decoderInter = new MBlockDecoderInter(mapper, sh, di, frameOut.getPOC(), decoderState);
+            decoderBDirect = new MBlockDecoderBDirect(mapper, sh, di, frameOut.getPOC(), decoderState);
+            decoderInter8x8 = new MBlockDecoderInter8x8(mapper, decoderBDirect, sh, di, frameOut.getPOC(),
+                    decoderState);
+            skipDecoder = new MBlockSkipDecoder(mapper, decoderBDirect, sh, di, frameOut.getPOC(), decoderState);
+            decoderIPCM = new MBlockDecoderIPCM(mapper, decoderState);
+            if (log2Scale > 0) {
+                decoderInter.setInterpolator(new ScaledBlockInterpolator(log2Scale));
+                decoderBDirect.setInterpolator(new ScaledBlockInterpolator(log2Scale));
+                decoderInter8x8.setInterpolator(new ScaledBlockInterpolator(log2Scale));
+                skipDecoder.setInterpolator(new ScaledBlockInterpolator(log2Scale));
+            }
+            if (syntaxOnly) {
+                decoderIntra16x16.setSyntaxOnly(true);
+                decoderIntraNxN.setSyntaxOnly(true);
+                decoderInter.setSyntaxOnly(true);
+                decoderBDirect.setSyntaxOnly(true);
+                decoderInter8x8.setSyntaxOnly(true);
+                skipDecoder.setSyntaxOnly(true);
+            }
+
+            mb = Picture.create(16, 16, activeSps.chromaFormatIdc);
+            mBlock = new MBlock(activeSps.chromaFormatIdc);
+        } else {
+            decoderState.init(sh);
+
+            decoderIntra16x16.init(mapper, sh, di, frameOut.getPOC());
+            decoderIntraNxN.init(mapper, sh, di, frameOut.getPOC());
+            decoderInter.init(mapper, sh, di, frameOut.getPOC());
+            decoderBDirect.init(mapper, sh, di, frameOut.getPOC());
+            decoderInter8x8.init(mapper, sh, di, frameOut.getPOC());
+            skipDecoder.init(mapper, sh, di, frameOut.getPOC());
+            decoderIPCM.init(mapper);
+
+            mb.fill(0);
+            mBlock.clear();
+        }
 
         refListManager = new RefListManager(sh, sRefs, lRefs, frameOut);
     }
 
     private void decodeMacroblocks(Frame[][] refList) {
-        Picture mb = Picture.create(16, 16, activeSps.chromaFormatIdc);
         int mbWidth = activeSps.picWidthInMbsMinus1 + 1;
 
-        MBlock mBlock = new MBlock(activeSps.chromaFormatIdc);
         while (parser.readMacroblock(mBlock)) {
             int mbAddr = mapper.getAddress(mBlock.mbIdx);
             int mbX = mbAddr % mbWidth;
             int mbY = mbAddr / mbWidth;
+            if (refList != null && refList[1] != null && refList[1][0] != null) {
+                // Co-located motion for direct prediction
+                refList[1][0].waitForLines(((mbY + 1) << 4) >> log2Scale);
+            }
             decode(mBlock, parser.getSliceHeader().sliceType, mb, refList);
-            putMacroblock(frameOut, mb, mbX, mbY);
+            if (!syntaxOnly)
+                storeMacroblock(mbX, mbY);
             di.shs[mbAddr] = parser.getSliceHeader();
             di.refsUsed[mbAddr] = refList;
+            di.colMvs.saveMacroblock(di.mvs, mbX, mbY);
             fillCoeff(mBlock, mbX, mbY);
             mb.fill(0);
             mBlock.clear();
+            if (listener != null)
+                listener.macroblockDecoded(mbX, mbY);
         }
     }
 
+    private void storeMacroblock(int mbX, int mbY) {
+        if (log2Scale > 0)
+            putMacroblockScaled(frameOut, mb, mbX, mbY, log2Scale);
+        else
+            putMacroblock(frameOut, mb, mbX, mbY);
+    }
+
     private void fillCoeff(MBlock mBlock, int mbX, int mbY) {
         for (int i = 0; i < 16; i++) {
             int blkOffLeft = H264Const.MB_DISP_OFF_LEFT[i];
@@ -186,18 +290,20 @@ public class SliceDecoder {
 
     private static void putMacroblock(Picture tgt, Picture decoded, final int mbX, final int mbY) {
         byte[] luma = tgt.getPlaneData(0);
-        int stride = tgt.getPlaneWidth(0);
+        int stride = Frame.getStride(tgt, 0);
+        int origin = Frame.getOrigin(tgt, 0);
 
         byte[] cb = tgt.getPlaneData(1);
         byte[] cr = tgt.getPlaneData(2);
-        int strideChroma = tgt.getPlaneWidth(1);
+        int strideChroma = Frame.getStride(tgt, 1);
+        int originChroma = Frame.getOrigin(tgt, 1);
 
         int dOff = 0;
         final int mbx16 = mbX * 16;
         final int mby16 = mbY * 16;
         final byte[] decodedY = decoded.getPlaneData(0);
         for (int i = 0; i < 16; i++) {
-            arraycopy(decodedY, dOff, luma, (mby16 + i) * stride + mbx16, 16);
+            arraycopy(decodedY, dOff, luma, origin + (mby16 + i) * stride + mbx16, 16);
             dOff += 16;
         }
 
@@ -207,9 +313,36 @@ public class SliceDecoder {
         final byte[] decodedCr = decoded.getPlaneData(2);
         for (int i = 0; i < 8; i++) {
             int decodePos = i << 3;
-            int chromaPos = (mby8 + i) * strideChroma + mbx8;
+            int chromaPos = originChroma + (mby8 + i) * strideChroma + mbx8;
             arraycopy(decodedCb, decodePos, cb, chromaPos, 8);
             arraycopy(decodedCr, decodePos, cr, chromaPos, 8);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Stores the macroblock averaging each square of 1 << log2Scale pixels
+     */
+    private static void putMacroblockScaled(Picture tgt, Picture decoded, int mbX, int mbY, int log2Scale) {
+        int shift = 2 * log2Scale;
+        int round = 1 << (shift - 1);
+        for (int comp = 0; comp < 3; comp++) {
+            byte[] src = decoded.getPlaneData(comp);
+            byte[] dst = tgt.getPlaneData(comp);
+            int srcSize = decoded.getPlaneWidth(comp);
+            int dstSize = srcSize >> log2Scale;
+            int stride = tgt.getPlaneWidth(comp);
+            int dstOff = mbY * dstSize * stride + mbX * dstSize;
+            for (int j = 0; j < dstSize; j++, dstOff += stride) {
+                for (int i = 0; i < dstSize; i++) {
+                    int srcOff = ((j * srcSize + i) << log2Scale);
+                    int sum = 0;
+                    for (int y = 0; y < 1 << log2Scale; y++, srcOff += srcSize) {
+                        for (int x = 0; x < 1 << log2Scale; x++)
+                            sum += src[srcOff + x];
+                    }
+                    dst[dstOff + i] = (byte) ((sum + round) >> shift);
+                }
+            }
+        }
+    }
+}
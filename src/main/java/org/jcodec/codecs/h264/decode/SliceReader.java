@@ -3,8 +3,6 @@ package org.jcodec.codecs.h264.decode;
 import static org.jcodec.codecs.h264.H264Const.bPartPredModes;
 import static org.jcodec.codecs.h264.H264Const.bSubMbTypes;
 import static org.jcodec.codecs.h264.H264Const.identityMapping16;
-import static org.jcodec.codecs.h264.H264Const.last_sig_coeff_map_8x8;
-import static org.jcodec.codecs.h264.H264Const.sig_coeff_map_8x8;
 import static org.jcodec.codecs.h264.H264Const.PartPred.Direct;
 import static org.jcodec.codecs.h264.H264Const.PartPred.L0;
 import static org.jcodec.codecs.h264.decode.CAVLCReader.moreRBSPData;
@@ -13,12 +11,15 @@ import static org.jcodec.codecs.h264.decode.CAVLCReader.readNBit;
 import static org.jcodec.codecs.h264.decode.CAVLCReader.readSE;
 import static org.jcodec.codecs.h264.decode.CAVLCReader.readTE;
 import static org.jcodec.codecs.h264.decode.CAVLCReader.readUEtrace;
+import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.debug;
 import static org.jcodec.codecs.h264.decode.MBlockDecoderUtils.debugPrint;
 import static org.jcodec.codecs.h264.io.model.MBType.B_8x8;
 import static org.jcodec.codecs.h264.io.model.MBType.I_16x16;
 import static org.jcodec.codecs.h264.io.model.MBType.P_8x8;
 import static org.jcodec.common.model.ColorSpace.MONO;
 
+import java.util.Arrays;
+
 import org.jcodec.codecs.common.biari.MDecoder;
 import org.jcodec.codecs.h264.H264Const;
 import org.jcodec.codecs.h264.H264Const.PartPred;
@@ -73,6 +74,8 @@ public class SliceReader {
     int[] i4x4PredLeft;
     PartPred[] predModeLeft;
     PartPred[] predModeTop;
+    PartPred[] subMbPred;
+    int[] ac16;
 
     public SliceReader(PictureParameterSet activePps, CABAC cabac, CAVLC[] cavlc, MDecoder mDecoder, BitReader reader,
             Mapper mapper, SliceHeader sh, NALUnit nalUnit) {
@@ -102,6 +105,9 @@ public class SliceReader {
 
         i4x4PredLeft = new int[4];
         i4x4PredTop = new int[mbWidth << 2];
+
+        subMbPred = new PartPred[4];
+        ac16 = new int[16];
     }
 
     public boolean readMacroblock(MBlock mBlock) {
@@ -128,8 +134,9 @@ public class SliceReader {
                 int mbAddr = mapper.getAddress(mbIdx);
                 prevMbSkipped = true;
                 prevMBType = null;
-                debugPrint("---------------------- MB (%d,%d) ---------------------", (mbAddr % mbWidth),
-                        (mbAddr / mbWidth));
+                if (debug)
+                    debugPrint("---------------------- MB (%d,%d) ---------------------", (mbAddr % mbWidth),
+                            (mbAddr / mbWidth));
                 mBlock.skipped = true;
                 int mbX = mapper.getMbX(mBlock.mbIdx);
                 topMBType[mbX] = leftMBType = null;
@@ -145,7 +152,8 @@ public class SliceReader {
         int mbAddr = mapper.getAddress(mbIdx);
         int mbX = mbAddr % mbWidth;
         int mbY = mbAddr / mbWidth;
-        debugPrint("---------------------- MB (%d,%d) ---------------------", mbX, mbY);
+        if (debug)
+            debugPrint("---------------------- MB (%d,%d) ---------------------", mbX, mbY);
 
         if (sh.sliceType.isIntra()
                 || (!activePps.entropyCodingModeFlag || !readMBSkipFlag(sh.sliceType, mapper.leftAvailable(mbIdx),
@@ -283,8 +291,7 @@ public class SliceReader {
         else {
             if (cabac.readCodedBlockFlagLumaDC(mDecoder, mbX, leftMBType, topMBType[mbX], leftAvailable, topAvailable,
                     MBType.I_16x16) == 1)
-                cabac.readCoeffs(mDecoder, BlockType.LUMA_16_DC, dc, 0, 16, CoeffTransformer.zigzag4x4,
-                        identityMapping16, identityMapping16);
+                cabac.readCoeffs4x4(mDecoder, BlockType.LUMA_16_DC, dc, 0, 16, CoeffTransformer.zigzag4x4);
         }
     }
 
@@ -303,8 +310,7 @@ public class SliceReader {
         } else {
             if (cabac.readCodedBlockFlagLumaAC(mDecoder, BlockType.LUMA_15_AC, blkX, blkOffTop, 0, leftMBType,
                     topMBType[mbX], leftAvailable, topAvailable, leftCBPLuma, topCBPLuma[mbX], cbpLuma, MBType.I_16x16) == 1)
-                return cabac.readCoeffs(mDecoder, BlockType.LUMA_15_AC, ac, 1, 15, CoeffTransformer.zigzag4x4,
-                        identityMapping16, identityMapping16);
+                return cabac.readCoeffs4x4(mDecoder, BlockType.LUMA_15_AC, ac, 1, 15, CoeffTransformer.zigzag4x4);
         }
         return 0;
     }
@@ -325,8 +331,7 @@ public class SliceReader {
         } else {
             if (cabac.readCodedBlockFlagLumaAC(mDecoder, BlockType.LUMA_16, blkX, blkOffTop, 0, leftMBType,
                     topMBType[mbX], leftAvailable, topAvailable, leftCBPLuma, topCBPLuma[mbX], cbpLuma, curMbType) == 1)
-                return cabac.readCoeffs(mDecoder, BlockType.LUMA_16, ac, 0, 16, CoeffTransformer.zigzag4x4,
-                        identityMapping16, identityMapping16);
+                return cabac.readCoeffs4x4(mDecoder, BlockType.LUMA_16, ac, 0, 16, CoeffTransformer.zigzag4x4);
         }
         return 0;
     }
@@ -354,8 +359,7 @@ public class SliceReader {
      * @return
      */
     public int readLumaAC8x8(int blkX, int blkY, int[] ac) {
-        int readCoeffs = cabac.readCoeffs(mDecoder, BlockType.LUMA_64, ac, 0, 64, CoeffTransformer.zigzag8x8,
-                sig_coeff_map_8x8, last_sig_coeff_map_8x8);
+        int readCoeffs = cabac.readCoeffs8x8(mDecoder, BlockType.LUMA_64, ac, CoeffTransformer.zigzag8x8);
         cabac.setCodedBlock(blkX, blkY);
         cabac.setCodedBlock(blkX + 1, blkY);
         cabac.setCodedBlock(blkX, blkY + 1);
@@ -384,8 +388,7 @@ public class SliceReader {
         else {
             if (cabac.readCodedBlockFlagChromaDC(mDecoder, mbX, comp, leftMBType, topMBType[mbX], leftAvailable,
                     topAvailable, leftCBPChroma, topCBPChroma[mbX], curMbType) == 1)
-                cabac.readCoeffs(mDecoder, BlockType.CHROMA_DC, dc, 0, 4, identityMapping16, identityMapping16,
-                        identityMapping16);
+                cabac.readCoeffs4x4(mDecoder, BlockType.CHROMA_DC, dc, 0, 4, identityMapping16);
         }
     }
 
@@ -400,8 +403,7 @@ public class SliceReader {
         } else {
             if (cabac.readCodedBlockFlagChromaAC(mDecoder, blkX, blkOffTop, comp, leftMBType, topMBType[mbX],
                     leftAvailable, topAvailable, leftCBPChroma, topCBPChroma[mbX], curMbType) == 1)
-                cabac.readCoeffs(mDecoder, BlockType.CHROMA_AC, ac, 1, 15, CoeffTransformer.zigzag4x4,
-                        identityMapping16, identityMapping16);
+                cabac.readCoeffs4x4(mDecoder, BlockType.CHROMA_AC, ac, 1, 15, CoeffTransformer.zigzag4x4);
         }
     }
 
@@ -691,7 +693,7 @@ public class SliceReader {
     }
 
     private void readPrediction8x8B(MBlock mBlock, int mbX, boolean leftAvailable, boolean topAvailable) {
-        PartPred[] p = new PartPred[4];
+        PartPred[] p = subMbPred;
         for (int i = 0; i < 4; i++) {
             mBlock.pb8x8.subMbTypes[i] = readSubMBTypeB();
             p[i] = bPartPredModes[mBlock.pb8x8.subMbTypes[i]];
@@ -714,7 +716,8 @@ public class SliceReader {
                         list);
         }
 
-        debugPrint("Pred: " + p[0] + ", " + p[1] + ", " + p[2] + ", " + p[3]);
+        if (debug)
+            debugPrint("Pred: " + p[0] + ", " + p[1] + ", " + p[2] + ", " + p[3]);
 
         int blk8x8X = mbX << 1;
         for (int list = 0; list < 2; list++) {
@@ -771,7 +774,8 @@ public class SliceReader {
                 mbX, blk8x8X, blk8x8Y, 2, 2, list);
         mBlock.pb8x8.mvdY1[list][partNo] = readMVD(1, lAvb, tAvb, leftMBType, topMBType, leftPred, topPred, partPred,
                 mbX, blk8x8X, blk8x8Y, 2, 2, list);
-        debugPrint("mvd: (%d, %d)", mBlock.pb8x8.mvdX1[list][partNo], mBlock.pb8x8.mvdY1[list][partNo]);
+        if (debug)
+            debugPrint("mvd: (%d, %d)", mBlock.pb8x8.mvdX1[list][partNo], mBlock.pb8x8.mvdY1[list][partNo]);
     }
 
     private void readSub8x4(MBlock mBlock, int partNo, boolean tAvb, boolean lAvb, int blk8x8X, int blk8x8Y, int mbX,
@@ -930,7 +934,7 @@ public class SliceReader {
             }
             int coeffs = 0;
             for (int j = 0; j < 4; j++) {
-                int[] ac16 = new int[16];
+                Arrays.fill(ac16, 0);
                 int blkOffLeft = blk8x8OffLeft + (j & 1);
                 int blkOffTop = blk8x8OffTop + (j >> 1);
                 coeffs += readLumaAC(leftAvailable, topAvailable, mbX, mBlock.curMbType, blkX, j, ac16, blkOffLeft,
@@ -9,6 +9,7 @@ import static org.jcodec.common.tools.MathUtil.clip;
 import org.jcodec.codecs.h264.decode.DeblockerInput;
 import org.jcodec.codecs.h264.encode.EncodedMB;
 import org.jcodec.codecs.h264.encode.MBEncoderHelper;
+import org.jcodec.codecs.h264.io.model.Frame;
 import org.jcodec.codecs.h264.io.model.SliceHeader;
 import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Picture;
@@ -62,9 +63,27 @@ public class DeblockingFilter {
     }
 
     public void deblockFrame(Picture result) {
+        deblockMbs(result, 0, di.shs.length);
+    }
+
+    /**
+     * Deblocks one row of macroblocks. Rows must be deblocked in order, the
+     * result is then identical to the one of deblockFrame. Filtering row mbY
+     * modifies the bottom lines of the row mbY - 1, so after this call all the
+     * rows above mbY are final.
+     * 
+     * @param result
+     * @param mbY
+     */
+    public void deblockMbRow(Picture result, int mbY) {
+        int mbWidth = di.nCoeff[0].length >> 2;
+        deblockMbs(result, mbY * mbWidth, (mbY + 1) * mbWidth);
+    }
+
+    private void deblockMbs(Picture result, int from, int to) {
         ColorSpace color = result.getColor();
         int[][] bsV = new int[4][4], bsH = new int[4][4];
-        for (int i = 0; i < di.shs.length; i++) {
+        for (int i = from; i < to; i++) {
             calcBsH(result, i, bsH);
             calcBsV(result, i, bsV);
 
@@ -289,8 +308,8 @@ public class DeblockingFilter {
     private void filterBlockEdgeHoris(Picture pic, int comp, int x, int y, int indexAlpha, int indexBeta, int bs,
             int blkW) {
 
-        int stride = pic.getPlaneWidth(comp);
-        int offset = y * stride + x;
+        int stride = Frame.getStride(pic, comp);
+        int offset = Frame.getOrigin(pic, comp) + y * stride + x;
 
         for (int pixOff = 0; pixOff < blkW; pixOff++) {
             int p2Idx = offset - 3 * stride + pixOff;
@@ -317,9 +336,10 @@ public class DeblockingFilter {
     private void filterBlockEdgeVert(Picture pic, int comp, int x, int y, int indexAlpha, int indexBeta, int bs,
             int blkH) {
 
-        int stride = pic.getPlaneWidth(comp);
+        int stride = Frame.getStride(pic, comp);
+        int origin = Frame.getOrigin(pic, comp);
         for (int i = 0; i < blkH; i++) {
-            int offsetQ = (y + i) * stride + x;
+            int offsetQ = origin + (y + i) * stride + x;
             int p2Idx = offsetQ - 3;
             int p1Idx = offsetQ - 2;
             int p0Idx = offsetQ - 1;
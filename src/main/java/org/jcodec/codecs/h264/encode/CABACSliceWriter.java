@@ -0,0 +1,269 @@
+package org.jcodec.codecs.h264.encode;
+
+import static org.jcodec.codecs.h264.H264Const.MB_DISP_OFF_LEFT;
+import static org.jcodec.codecs.h264.H264Const.MB_DISP_OFF_TOP;
+import static org.jcodec.codecs.h264.H264Const.PartPred.Bi;
+import static org.jcodec.codecs.h264.H264Const.PartPred.Direct;
+import static org.jcodec.codecs.h264.H264Const.PartPred.L0;
+import static org.jcodec.codecs.h264.H264Const.PartPred.L1;
+import static org.jcodec.codecs.h264.H264Const.identityMapping16;
+import static org.jcodec.codecs.h264.decode.CoeffTransformer.zigzag4x4;
+
+import java.nio.ByteBuffer;
+
+import org.jcodec.codecs.common.biari.MEncoder;
+import org.jcodec.codecs.h264.H264Const.PartPred;
+import org.jcodec.codecs.h264.io.CABAC;
+import org.jcodec.codecs.h264.io.CABAC.BlockType;
+import org.jcodec.codecs.h264.io.model.MBType;
+import org.jcodec.codecs.h264.io.model.SeqParameterSet;
+import org.jcodec.codecs.h264.io.model.SliceType;
+import org.jcodec.common.io.BitWriter;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Writes the slice data with CABAC. The macroblocks are coded one after
+ * another once all of them are encoded, from the syntax elements the
+ * macroblock writers keep in EncodedMB.syntax. The neighbour state follows
+ * the one of SliceReader.
+ *
+ * @author The JCodec project
+ */
+public class CABACSliceWriter {
+    private SliceType sliceType;
+    private int sliceQp;
+    private int firstMbY;
+    private int lastMbY;
+    private int mbWidth;
+
+    private CABAC cabac;
+    private MEncoder encoder;
+
+    private MBType prevMBType;
+    private MBType leftMBType;
+    private MBType[] topMBType;
+    private int leftCBPLuma;
+    private int[] topCBPLuma;
+    private int leftCBPChroma;
+    private int[] topCBPChroma;
+    // The prediction of the neighbours for the motion vector differences of
+    // the B slices, not changed by the intra macroblocks
+    private PartPred predModeLeft;
+    private PartPred[] predModeTop;
+
+    public CABACSliceWriter(SeqParameterSet sps, SliceType sliceType, int sliceQp, int firstMbY, int lastMbY) {
+        this.sliceType = sliceType;
+        this.sliceQp = sliceQp;
+        this.firstMbY = firstMbY;
+        this.lastMbY = lastMbY;
+        this.mbWidth = sps.picWidthInMbsMinus1 + 1;
+        this.cabac = new CABAC(mbWidth);
+        this.topMBType = new MBType[mbWidth];
+        this.topCBPLuma = new int[mbWidth];
+        this.topCBPChroma = new int[mbWidth];
+        this.predModeTop = new PartPred[mbWidth];
+    }
+
+    /**
+     * Writes the macroblocks of the slice after the slice header
+     *
+     * @return The slice data with the trailing bits, not escaped
+     */
+    public ByteBuffer write(BitWriter sliceData, EncodedMB[] encoded) {
+        // cabac_alignment_one_bit
+        while (sliceData.curBit() != 0)
+            sliceData.write1Bit(1);
+        sliceData.flush();
+        ByteBuffer buf = sliceData.getBuffer();
+
+        int[][] cm = new int[2][1024];
+        cabac.initModels(cm, sliceType, 0, sliceQp);
+        encoder = new MEncoder(buf, cm);
+        for (int mbY = firstMbY; mbY < lastMbY; mbY++) {
+            for (int mbX = 0; mbX < mbWidth; mbX++) {
+                writeMacroblock(encoded[mbY * mbWidth + mbX], mbX, mbY);
+                // end_of_slice_flag
+                encoder.encodeBinFinal(mbY == lastMbY - 1 && mbX == mbWidth - 1 ? 1 : 0);
+            }
+        }
+        encoder.finishEncoding();
+        buf.flip();
+        return buf;
+    }
+
+    private void writeMacroblock(EncodedMB mb, int mbX, int mbY) {
+        MBSyntax syntax = mb.getSyntax();
+        boolean leftAvailable = mbX > 0;
+        boolean topAvailable = mbY > firstMbY;
+        if (sliceType.isInter()) {
+            cabac.writeMBSkipFlag(encoder, sliceType, leftAvailable, topAvailable, mbX, syntax.skip);
+            if (syntax.skip) {
+                prevMBType = leftMBType = topMBType[mbX] = null;
+                predModeLeft = predModeTop[mbX] = L0;
+                return;
+            }
+        }
+
+        MBType type = mb.getType();
+        int mbTypeOffset = sliceType == SliceType.P ? 5 : (sliceType == SliceType.B ? 23 : 0);
+        if (type == MBType.I_16x16) {
+            int i16x16TypeOffset = ((syntax.cbp & 15) != 0 ? 12 : 0) + (syntax.cbp >> 4) * 4 + syntax.lumaPred16x16;
+            writeMBType(mbTypeOffset + type.code() + i16x16TypeOffset, mbX, leftAvailable, topAvailable);
+            writeIntra16x16(syntax, mbX, leftAvailable, topAvailable);
+        } else if (type == MBType.I_NxN) {
+            writeMBType(mbTypeOffset, mbX, leftAvailable, topAvailable);
+            writeIntraNxN(syntax, mbX, leftAvailable, topAvailable);
+        } else if (type == MBType.P_16x16) {
+            cabac.writeMBTypeP(encoder, type.code());
+            writeInter16x16(syntax, mbX, leftAvailable, topAvailable);
+        } else if (type == MBType.B_Direct_16x16) {
+            writeMBType(type.code(), mbX, leftAvailable, topAvailable);
+            writeResidual(syntax, type, mbX, leftAvailable, topAvailable);
+            predModeLeft = predModeTop[mbX] = Direct;
+        } else if (type == MBType.B_L0_16x16 || type == MBType.B_L1_16x16 || type == MBType.B_Bi_16x16) {
+            writeMBType(type.code(), mbX, leftAvailable, topAvailable);
+            writeInterB16x16(syntax, type, mbX, leftAvailable, topAvailable);
+        } else
+            throw new RuntimeException("Macroblock of type " + type + " is not supported.");
+
+        leftCBPLuma = topCBPLuma[mbX] = syntax.cbp & 15;
+        leftCBPChroma = topCBPChroma[mbX] = syntax.cbp >> 4;
+        prevMBType = leftMBType = topMBType[mbX] = type;
+    }
+
+    private void writeMBType(int mbType, int mbX, boolean leftAvailable, boolean topAvailable) {
+        if (sliceType == SliceType.P)
+            cabac.writeMBTypeP(encoder, mbType);
+        else if (sliceType == SliceType.B)
+            cabac.writeMBTypeB(encoder, leftMBType, topMBType[mbX], leftAvailable, topAvailable, mbType);
+        else
+            cabac.writeMBTypeI(encoder, leftMBType, topMBType[mbX], leftAvailable, topAvailable, mbType);
+    }
+
+    private void writeIntra16x16(MBSyntax syntax, int mbX, boolean leftAvailable, boolean topAvailable) {
+        cabac.writeIntraChromaPredMode(encoder, mbX, leftMBType, topMBType[mbX], leftAvailable, topAvailable,
+                syntax.chrPred);
+        cabac.writeMBQpDelta(encoder, prevMBType, syntax.qpDelta);
+
+        int coded = codedBlockFlag(syntax.lumaDC);
+        cabac.writeCodedBlockFlagLumaDC(encoder, mbX, leftMBType, topMBType[mbX], leftAvailable, topAvailable,
+                MBType.I_16x16, coded);
+        if (coded == 1)
+            cabac.writeCoeffs(encoder, BlockType.LUMA_16_DC, syntax.lumaDC, 0, 16, zigzag4x4);
+        writeLuma(syntax, MBType.I_16x16, BlockType.LUMA_15_AC, 1, 15, mbX, leftAvailable, topAvailable);
+
+        writeChroma(syntax, MBType.I_16x16, mbX, leftAvailable, topAvailable);
+    }
+
+    private void writeIntraNxN(MBSyntax syntax, int mbX, boolean leftAvailable, boolean topAvailable) {
+        for (int bInd = 0; bInd < 16; bInd++) {
+            int mode = syntax.i4x4Modes[bInd];
+            cabac.writePrev4x4PredModeFlag(encoder, mode == -1);
+            if (mode != -1)
+                cabac.writeRem4x4PredMode(encoder, mode);
+        }
+        cabac.writeIntraChromaPredMode(encoder, mbX, leftMBType, topMBType[mbX], leftAvailable, topAvailable,
+                syntax.chrPred);
+
+        writeResidual(syntax, MBType.I_NxN, mbX, leftAvailable, topAvailable);
+    }
+
+    private void writeInter16x16(MBSyntax syntax, int mbX, boolean leftAvailable, boolean topAvailable) {
+        cabac.writeMVD(encoder, 0, leftAvailable, topAvailable, leftMBType, topMBType[mbX], L0, L0, L0, mbX, 0, 0, 4,
+                4, 0, syntax.mvdX);
+        cabac.writeMVD(encoder, 1, leftAvailable, topAvailable, leftMBType, topMBType[mbX], L0, L0, L0, mbX, 0, 0, 4,
+                4, 0, syntax.mvdY);
+
+        writeResidual(syntax, MBType.P_16x16, mbX, leftAvailable, topAvailable);
+        predModeLeft = predModeTop[mbX] = L0;
+    }
+
+    private void writeInterB16x16(MBSyntax syntax, MBType type, int mbX, boolean leftAvailable,
+            boolean topAvailable) {
+        PartPred pred = type == MBType.B_L0_16x16 ? L0 : (type == MBType.B_L1_16x16 ? L1 : Bi);
+        if (pred != L1) {
+            cabac.writeMVD(encoder, 0, leftAvailable, topAvailable, leftMBType, topMBType[mbX], predModeLeft,
+                    predModeTop[mbX], pred, mbX, 0, 0, 4, 4, 0, syntax.mvdX);
+            cabac.writeMVD(encoder, 1, leftAvailable, topAvailable, leftMBType, topMBType[mbX], predModeLeft,
+                    predModeTop[mbX], pred, mbX, 0, 0, 4, 4, 0, syntax.mvdY);
+        }
+        if (pred != L0) {
+            cabac.writeMVD(encoder, 0, leftAvailable, topAvailable, leftMBType, topMBType[mbX], predModeLeft,
+                    predModeTop[mbX], pred, mbX, 0, 0, 4, 4, 1, syntax.mvdX1);
+            cabac.writeMVD(encoder, 1, leftAvailable, topAvailable, leftMBType, topMBType[mbX], predModeLeft,
+                    predModeTop[mbX], pred, mbX, 0, 0, 4, 4, 1, syntax.mvdY1);
+        }
+
+        writeResidual(syntax, type, mbX, leftAvailable, topAvailable);
+        predModeLeft = predModeTop[mbX] = pred;
+    }
+
+    /**
+     * coded_block_pattern, mb_qp_delta and the residual blocks of the
+     * macroblocks other than I_16x16
+     */
+    private void writeResidual(MBSyntax syntax, MBType type, int mbX, boolean leftAvailable, boolean topAvailable) {
+        cabac.writeCodedBlockPattern(encoder, leftAvailable, topAvailable, leftCBPLuma | (leftCBPChroma << 4),
+                topCBPLuma[mbX] | (topCBPChroma[mbX] << 4), leftMBType, topMBType[mbX], syntax.cbp);
+        if (syntax.cbp != 0)
+            cabac.writeMBQpDelta(encoder, prevMBType, syntax.qpDelta);
+
+        writeLuma(syntax, type, BlockType.LUMA_16, 0, 16, mbX, leftAvailable, topAvailable);
+        cabac.setPrevCBP(syntax.cbp);
+
+        writeChroma(syntax, type, mbX, leftAvailable, topAvailable);
+    }
+
+    private void writeLuma(MBSyntax syntax, MBType type, BlockType blockType, int first, int num, int mbX,
+            boolean leftAvailable, boolean topAvailable) {
+        int cbpLuma = syntax.cbp & 15;
+        for (int bInd = 0; bInd < 16; bInd++) {
+            if ((cbpLuma & (1 << (bInd >> 2))) == 0)
+                continue;
+            int[] ac = syntax.lumaAC[bInd];
+            int coded = codedBlockFlag(ac);
+            cabac.writeCodedBlockFlagLumaAC(encoder, blockType, (mbX << 2) + MB_DISP_OFF_LEFT[bInd],
+                    MB_DISP_OFF_TOP[bInd], 0, leftMBType, topMBType[mbX], leftAvailable, topAvailable, leftCBPLuma,
+                    topCBPLuma[mbX], cbpLuma, type, coded);
+            if (coded == 1)
+                cabac.writeCoeffs(encoder, blockType, ac, first, num, zigzag4x4);
+        }
+    }
+
+    private void writeChroma(MBSyntax syntax, MBType type, int mbX, boolean leftAvailable, boolean topAvailable) {
+        int cbpChroma = syntax.cbp >> 4;
+        if (cbpChroma == 0)
+            return;
+        for (int comp = 1; comp < 3; comp++) {
+            int[] dc = syntax.chromaDC[comp - 1];
+            int coded = codedBlockFlag(dc);
+            cabac.writeCodedBlockFlagChromaDC(encoder, mbX, comp, leftMBType, topMBType[mbX], leftAvailable,
+                    topAvailable, leftCBPChroma, topCBPChroma[mbX], type, coded);
+            if (coded == 1)
+                cabac.writeCoeffs(encoder, BlockType.CHROMA_DC, dc, 0, 4, identityMapping16);
+        }
+        if ((cbpChroma & 2) == 0)
+            return;
+        for (int comp = 1; comp < 3; comp++) {
+            for (int bInd = 0; bInd < 4; bInd++) {
+                int[] ac = syntax.chromaAC[comp - 1][bInd];
+                int coded = codedBlockFlag(ac);
+                cabac.writeCodedBlockFlagChromaAC(encoder, (mbX << 1) + MB_DISP_OFF_LEFT[bInd], MB_DISP_OFF_TOP[bInd],
+                        comp, leftMBType, topMBType[mbX], leftAvailable, topAvailable, leftCBPChroma,
+                        topCBPChroma[mbX], type, coded);
+                if (coded == 1)
+                    cabac.writeCoeffs(encoder, BlockType.CHROMA_AC, ac, 1, 15, zigzag4x4);
+            }
+        }
+    }
+
+    private static int codedBlockFlag(int[] coeffs) {
+        for (int i = 0; i < coeffs.length; i++) {
+            if (coeffs[i] != 0)
+                return 1;
+        }
+        return 0;
+    }
+}
@@ -18,8 +18,14 @@ public class EncodedMB {
     public int[] mx;
     public int[] my;
     public int[] mr;
+    // The list 1 motion of the B macroblocks, mr1 is 0 when list 1 is not used
+    public int[] mx1;
+    public int[] my1;
+    public int[] mr1;
     public int mbX;
     public int mbY;
+    // Only when the slice is entropy coded after the macroblocks are decided
+    public MBSyntax syntax;
 
     public EncodedMB() {
         pixels = Picture.create(16, 16, ColorSpace.YUV420J);
@@ -27,6 +33,9 @@ public class EncodedMB {
         mx = new int[16];
         my = new int[16];
         mr = new int[16];
+        mx1 = new int[16];
+        my1 = new int[16];
+        mr1 = new int[16];
     }
 
     public Picture getPixels() {
@@ -69,4 +78,24 @@ public class EncodedMB {
     public int[] getMr() {
         return mr;
     }
+
+    public int[] getMx1() {
+        return mx1;
+    }
+
+    public int[] getMy1() {
+        return my1;
+    }
+
+    public int[] getMr1() {
+        return mr1;
+    }
+
+    public MBSyntax getSyntax() {
+        return syntax;
+    }
+
+    public void setSyntax(MBSyntax syntax) {
+        this.syntax = syntax;
+    }
 }
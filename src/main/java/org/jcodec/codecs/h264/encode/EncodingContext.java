@@ -19,9 +19,22 @@ public class EncodingContext {
     public int mvTopLeftX;
     public int mvTopLeftY;
     public int mvTopLeftR;
+    // The list 1 motion of the neighbours in the B slices
+    public int[] mvTopX1;
+    public int[] mvTopY1;
+    public int[] mvTopR1;
+    public int[] mvLeftX1;
+    public int[] mvLeftY1;
+    public int[] mvLeftR1;
+    public int mvTopLeftX1;
+    public int mvTopLeftY1;
+    public int mvTopLeftR1;
     public int mbHeight;
     public int mbWidth;
     public int prevQp;
+    // The first macroblock row of the slice, the rows above it are not
+    // available for the prediction
+    public int firstMbY;
     
     public int[] i4x4PredTop;
     public int[] i4x4PredLeft;
@@ -41,6 +54,12 @@ public class EncodingContext {
         mvLeftX = new int[4];
         mvLeftY = new int[4];
         mvLeftR = new int[4];
+        mvTopX1 = new int[mbWidth << 2];
+        mvTopY1 = new int[mbWidth << 2];
+        mvTopR1 = new int[mbWidth << 2];
+        mvLeftX1 = new int[4];
+        mvLeftY1 = new int[4];
+        mvLeftR1 = new int[4];
         i4x4PredTop = new int[mbWidth << 2];
         i4x4PredLeft = new int[4];
         topMBType = new MBType[mbWidth];
@@ -63,6 +82,9 @@ public class EncodingContext {
         mvTopLeftX = mvTopX[mb.mbX << 2];
         mvTopLeftY = mvTopY[mb.mbX << 2];
         mvTopLeftR = mvTopR[mb.mbX << 2];
+        mvTopLeftX1 = mvTopX1[mb.mbX << 2];
+        mvTopLeftY1 = mvTopY1[mb.mbX << 2];
+        mvTopLeftR1 = mvTopR1[mb.mbX << 2];
         for (int i = 0; i < 4; i++) {
             mvTopX[(mb.mbX << 2) + i] = mb.mx[12 + i];
             mvTopY[(mb.mbX << 2) + i] = mb.my[12 + i];
@@ -70,10 +92,36 @@ public class EncodingContext {
             mvLeftX[i] = mb.mx[(i << 2)];
             mvLeftY[i] = mb.my[(i << 2)];
             mvLeftR[i] = mb.mr[(i << 2)];
+            mvTopX1[(mb.mbX << 2) + i] = mb.mx1[12 + i];
+            mvTopY1[(mb.mbX << 2) + i] = mb.my1[12 + i];
+            mvTopR1[(mb.mbX << 2) + i] = mb.mr1[12 + i];
+            mvLeftX1[i] = mb.mx1[(i << 2)];
+            mvLeftY1[i] = mb.my1[(i << 2)];
+            mvLeftR1[i] = mb.mr1[(i << 2)];
         }
         topMBType[mb.mbX] = leftMBType = mb.getType();
     }
 
+    /**
+     * Takes the state of the top neighbours of n macroblocks starting at mbX
+     * from the context of the row above
+     */
+    public void copyTop(EncodingContext above, int mbX, int n) {
+        arraycopy(above.topLine[0], mbX << 4, topLine[0], mbX << 4, n << 4);
+        arraycopy(above.topLine[1], mbX << 3, topLine[1], mbX << 3, n << 3);
+        arraycopy(above.topLine[2], mbX << 3, topLine[2], mbX << 3, n << 3);
+        arraycopy(above.mvTopX, mbX << 2, mvTopX, mbX << 2, n << 2);
+        arraycopy(above.mvTopY, mbX << 2, mvTopY, mbX << 2, n << 2);
+        arraycopy(above.mvTopR, mbX << 2, mvTopR, mbX << 2, n << 2);
+        arraycopy(above.mvTopX1, mbX << 2, mvTopX1, mbX << 2, n << 2);
+        arraycopy(above.mvTopY1, mbX << 2, mvTopY1, mbX << 2, n << 2);
+        arraycopy(above.mvTopR1, mbX << 2, mvTopR1, mbX << 2, n << 2);
+        arraycopy(above.i4x4PredTop, mbX << 2, i4x4PredTop, mbX << 2, n << 2);
+        arraycopy(above.topMBType, mbX, topMBType, mbX, n);
+        for (int i = 0; i < 3; i++)
+            cavlc[i].copyTop(above.cavlc[i], mbX, n);
+    }
+
     private void copyCol(byte[] planeData, int off, int stride, byte[] out) {
         for (int i = 0; i < out.length; i++) {
             out[i] = planeData[off];
@@ -99,7 +147,17 @@ public class EncodingContext {
         ret.mvTopLeftX = mvTopLeftX;
         ret.mvTopLeftY = mvTopLeftY;
         ret.mvTopLeftR = mvTopLeftR;
+        System.arraycopy(mvTopX1, 0, ret.mvTopX1, 0, ret.mvTopX1.length);
+        System.arraycopy(mvTopY1, 0, ret.mvTopY1, 0, ret.mvTopY1.length);
+        System.arraycopy(mvTopR1, 0, ret.mvTopR1, 0, ret.mvTopR1.length);
+        System.arraycopy(mvLeftX1, 0, ret.mvLeftX1, 0, ret.mvLeftX1.length);
+        System.arraycopy(mvLeftY1, 0, ret.mvLeftY1, 0, ret.mvLeftY1.length);
+        System.arraycopy(mvLeftR1, 0, ret.mvLeftR1, 0, ret.mvLeftR1.length);
+        ret.mvTopLeftX1 = mvTopLeftX1;
+        ret.mvTopLeftY1 = mvTopLeftY1;
+        ret.mvTopLeftR1 = mvTopLeftR1;
         ret.prevQp = prevQp;
+        ret.firstMbY = firstMbY;
         
         for (int i = 0; i < mbWidth; i++)
             ret.topMBType[i] = topMBType[i];
@@ -52,4 +52,15 @@ public class H264EncoderUtils {
         }
         return sum / (w * h);
     }
+
+    // The quantizer step of the QPs 0-5 multiplied by 16
+    private static final int[] QSTEP16 = { 10, 11, 13, 14, 16, 18 };
+
+    /**
+     * The luma SAD of a 16x16 macroblock that averages one quantizer step per
+     * pixel, the residual above it hardly ever quantizes to zero
+     */
+    public static int sadThreshold(int qp) {
+        return (QSTEP16[qp % 6] << (qp / 6)) << 4;
+    }
 }
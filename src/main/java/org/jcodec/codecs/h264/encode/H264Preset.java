@@ -0,0 +1,59 @@
+package org.jcodec.codecs.h264.encode;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Speed presets of the H.264 encoder, from the fastest to the best compressing
+ * one. Set with H264Encoder.setPreset() or with the 'preset' codec option.
+ *
+ * @author The JCodec project
+ *
+ */
+public enum H264Preset {
+    /**
+     * No RDO, the intra modes are only estimated for the I slices
+     */
+    ULTRAFAST(MotionSearch.HEXAGON, 8, false, false, 0, false, true, true),
+
+    SUPERFAST(MotionSearch.EPZS, 16, false, false, 0, false, true, true),
+
+    /**
+     * RDO between I_16x16 and P_16x16
+     */
+    VERYFAST(MotionSearch.EPZS, 16, false, true, 0, true, true, true),
+
+    /**
+     * RDO with I_NxN as well, three 4x4 prediction modes
+     */
+    FAST(MotionSearch.EPZS, 16, false, true, 3, true, true, true),
+
+    /**
+     * All the intra trials
+     */
+    MEDIUM(MotionSearch.UMH, 16, false, true, 9, true, true, false),
+
+    SLOW(MotionSearch.UMH, 32, true, true, 9, true, true, false);
+
+    public final MotionSearch motionSearch;
+    public final int motionSearchRange;
+    public final boolean hierarchicalSearch;
+    public final boolean enableRdo;
+    public final int intra4x4Modes;
+    public final boolean rdoIntraInP;
+    public final boolean earlySkip;
+    public final boolean earlyIntraTermination;
+
+    private H264Preset(MotionSearch motionSearch, int motionSearchRange, boolean hierarchicalSearch,
+            boolean enableRdo, int intra4x4Modes, boolean rdoIntraInP, boolean earlySkip,
+            boolean earlyIntraTermination) {
+        this.motionSearch = motionSearch;
+        this.motionSearchRange = motionSearchRange;
+        this.hierarchicalSearch = hierarchicalSearch;
+        this.enableRdo = enableRdo;
+        this.intra4x4Modes = intra4x4Modes;
+        this.rdoIntraInP = rdoIntraInP;
+        this.earlySkip = earlySkip;
+        this.earlyIntraTermination = earlyIntraTermination;
+    }
+}
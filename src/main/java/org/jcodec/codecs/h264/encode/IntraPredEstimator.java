@@ -21,6 +21,15 @@ import org.jcodec.common.tools.MathUtil;
  */
 public class IntraPredEstimator {
     public static int[] getLumaPred4x4(Picture pic, EncodingContext ctx, int mbX, int mbY, int qp) {
+        return getLumaPred4x4(pic, ctx, mbX, mbY, qp, 9);
+    }
+
+    /**
+     * @param nModes
+     *            How many of the 4x4 prediction modes are tried, starting with
+     *            the vertical, horizontal and DC ones
+     */
+    public static int[] getLumaPred4x4(Picture pic, EncodingContext ctx, int mbX, int mbY, int qp, int nModes) {
         byte[] patch = new byte[256];
         MBEncoderHelper.take(pic.getPlaneData(0), pic.getPlaneWidth(0), pic.getPlaneHeight(0), mbX << 4, mbY << 4,
                 patch, 16, 16);
@@ -39,14 +48,14 @@ public class IntraPredEstimator {
 
             int dInd = BLK_DISP_MAP[bInd];
             boolean hasLeft = (dInd & 0x3) != 0 || mbX != 0;
-            boolean hasTop = dInd >= 4 || mbY != 0;
-            boolean hasTr = ((bInd == 0 || bInd == 1 || bInd == 4) && mbY != 0) || (bInd == 5 && mbX < ctx.mbWidth - 1)
-                    || bInd == 2 || bInd == 6 || bInd == 8 || bInd == 9 || bInd == 10 || bInd == 12 || bInd == 14;
+            boolean hasTop = dInd >= 4 || mbY > ctx.firstMbY;
+            boolean hasTr = ((bInd == 0 || bInd == 1 || bInd == 4) && mbY > ctx.firstMbY)
+                    || (bInd == 5 && mbX < ctx.mbWidth - 1) || bInd == 2 || bInd == 6 || bInd == 8 || bInd == 9 || bInd == 10 || bInd == 12 || bInd == 14;
             predModes[bInd] = 2;
             int blkX = (dInd & 0x3) << 2;
             int blkY = (dInd >> 2) << 2;
 
-            for (int predType = 0; predType < 9; predType++) {
+            for (int predType = 0; predType < nModes; predType++) {
                 boolean available = Intra4x4PredictionBuilder.lumaPred(predType, hasLeft, hasTop, hasTr, predLeft,
                         predTop, predTopLeft[dInd >> 2], blkX, blkY, pred);
 
@@ -89,7 +98,7 @@ public class IntraPredEstimator {
         int minSad = Integer.MAX_VALUE;
         int predMode = -1;
         for (int predType = 0; predType < 4; predType++) {
-            int sad = Intra16x16PredictionBuilder.lumaPredSAD(predType, mbX != 0, mbY != 0, ctx.leftRow[0],
+            int sad = Intra16x16PredictionBuilder.lumaPredSAD(predType, mbX != 0, mbY > ctx.firstMbY, ctx.leftRow[0],
                     ctx.topLine[0], ctx.topLeft[0], mbX << 4, patch);
             if (sad < minSad) {
                 minSad = sad;
@@ -109,11 +118,11 @@ public class IntraPredEstimator {
         int minSad = Integer.MAX_VALUE;
         int predMode = -1;
         for (int predType = 0; predType < 4; predType++) {
-            if(!ChromaPredictionBuilder.predAvb(predType, mbX != 0, mbY != 0))
+            if(!ChromaPredictionBuilder.predAvb(predType, mbX != 0, mbY > ctx.firstMbY))
                 continue;
-            int sad0 = ChromaPredictionBuilder.predSAD(predType, mbX, mbX != 0, mbY != 0, ctx.leftRow[1],
+            int sad0 = ChromaPredictionBuilder.predSAD(predType, mbX, mbX != 0, mbY > ctx.firstMbY, ctx.leftRow[1],
                     ctx.topLine[1], ctx.topLeft[1], patch0);
-            int sad1 = ChromaPredictionBuilder.predSAD(predType, mbX, mbX != 0, mbY != 0, ctx.leftRow[2],
+            int sad1 = ChromaPredictionBuilder.predSAD(predType, mbX, mbX != 0, mbY > ctx.firstMbY, ctx.leftRow[2],
                     ctx.topLine[2], ctx.topLeft[2], patch1);
             if (sad0 + sad1 < minSad) {
                 minSad = sad0 + sad1;
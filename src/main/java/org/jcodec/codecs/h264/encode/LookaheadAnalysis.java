@@ -0,0 +1,83 @@
+package org.jcodec.codecs.h264.encode;
+
+import org.jcodec.common.model.Picture;
+import org.jcodec.common.tools.MathUtil;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * The analysis of the pictures in the lookahead of the encoder, done on the
+ * luma downscaled with MotionEstimator.downscale().
+ *
+ * A picture is a scene cut when the motion compensated prediction from the
+ * previous picture is hardly any better than the intra one: the inter cost of
+ * each 8x8 block is the SAD of a small full pixel search, the intra cost is the
+ * sum of the deviations from the block's mean.
+ *
+ * @author The JCodec project
+ */
+public class LookaheadAnalysis {
+    private static final int SEARCH_RANGE = 4;
+    // Scene cut when the inter cost is above 7/10 of the intra one
+    private static final int SCENE_CUT_NUM = 7;
+    private static final int SCENE_CUT_DEN = 10;
+
+    public static boolean isSceneCut(Picture prevLowRes, Picture curLowRes) {
+        int width = curLowRes.getPlaneWidth(0);
+        int height = curLowRes.getPlaneHeight(0);
+        byte[] prev = prevLowRes.getPlaneData(0);
+        byte[] cur = curLowRes.getPlaneData(0);
+        long intraCost = 0;
+        long interCost = 0;
+        for (int y = 0; y + 8 <= height; y += 8) {
+            for (int x = 0; x + 8 <= width; x += 8) {
+                int intra = intraCost(cur, width, x, y);
+                int inter = interCost(prev, cur, width, height, x, y, intra);
+                intraCost += intra;
+                interCost += Math.min(intra, inter);
+            }
+        }
+        return interCost * SCENE_CUT_DEN > intraCost * SCENE_CUT_NUM;
+    }
+
+    private static int intraCost(byte[] cur, int stride, int x, int y) {
+        int sum = 0;
+        for (int j = 0, off = y * stride + x; j < 8; j++, off += stride) {
+            for (int i = 0; i < 8; i++)
+                sum += cur[off + i];
+        }
+        int mean = sum >> 6;
+        int cost = 0;
+        for (int j = 0, off = y * stride + x; j < 8; j++, off += stride) {
+            for (int i = 0; i < 8; i++)
+                cost += MathUtil.abs(cur[off + i] - mean);
+        }
+        return cost;
+    }
+
+    private static int interCost(byte[] prev, byte[] cur, int width, int height, int x, int y, int limit) {
+        int best = limit;
+        int minY = Math.max(0, y - SEARCH_RANGE), maxY = Math.min(height - 8, y + SEARCH_RANGE);
+        int minX = Math.max(0, x - SEARCH_RANGE), maxX = Math.min(width - 8, x + SEARCH_RANGE);
+        for (int refY = minY; refY <= maxY; refY++) {
+            for (int refX = minX; refX <= maxX; refX++)
+                best = Math.min(best, sad(prev, cur, width, refX, refY, x, y, best));
+        }
+        return best;
+    }
+
+    /**
+     * SAD of the 8x8 blocks, stops counting once it reaches the limit
+     */
+    private static int sad(byte[] prev, byte[] cur, int stride, int refX, int refY, int x, int y, int limit) {
+        int score = 0, refOff = refY * stride + refX, off = y * stride + x;
+        for (int j = 0; j < 8 && score < limit; j++) {
+            for (int i = 0; i < 8; i++)
+                score += MathUtil.abs(prev[refOff + i] - cur[off + i]);
+            refOff += stride;
+            off += stride;
+        }
+        return score;
+    }
+}
@@ -378,21 +378,17 @@ public class MBDeblocker {
         if (other != null) {
             boolean otherIntra = other.getType().isIntra();
             for (int i = 0; i < 4; ++i) {
-                int bsMvx = strengthMv(other.getMx()[LOOKUP_IDX_P[0][i]], cur.getMx()[LOOKUP_IDX_Q[0][i]]);
-                int bsMvy = strengthMv(other.getMy()[LOOKUP_IDX_P[0][i]], cur.getMy()[LOOKUP_IDX_Q[0][i]]);
+                int bsMv = strengthMv(other, LOOKUP_IDX_P[0][i], cur, LOOKUP_IDX_Q[0][i]);
                 int bsNc = strengthNc(other.getNc()[LOOKUP_IDX_P[0][i]], cur.getNc()[LOOKUP_IDX_Q[0][i]]);
-                int max3 = MathUtil.max3(bsMvx, bsMvy, bsNc);
-                outStrength[0][i] = (otherIntra || thisIntra) ? 4 : max3;
+                outStrength[0][i] = (otherIntra || thisIntra) ? 4 : Math.max(bsMv, bsNc);
             }
         }
 
         for (int i = 1; i < 4; i++) {
             for (int j = 0; j < 4; ++j) {
-                int bsMvx = strengthMv(cur.getMx()[LOOKUP_IDX_P[i][j]], cur.getMx()[LOOKUP_IDX_Q[i][j]]);
-                int bsMvy = strengthMv(cur.getMy()[LOOKUP_IDX_P[i][j]], cur.getMy()[LOOKUP_IDX_Q[i][j]]);
+                int bsMv = strengthMv(cur, LOOKUP_IDX_P[i][j], cur, LOOKUP_IDX_Q[i][j]);
                 int bsNc = strengthNc(cur.getNc()[LOOKUP_IDX_P[i][j]], cur.getNc()[LOOKUP_IDX_Q[i][j]]);
-                int max3 = MathUtil.max3(bsMvx, bsMvy, bsNc);
-                outStrength[i][j] = thisIntra ? 3 : max3;
+                outStrength[i][j] = thisIntra ? 3 : Math.max(bsMv, bsNc);
             }
         }
     }
@@ -401,8 +397,26 @@ public class MBDeblocker {
         return ncA > 0 || ncB > 0 ? 2 : 0;
     }
 
-    private static int strengthMv(int v0, int v1) {
-        return abs(v0 - v1) >= 4 ? 1 : 0;
+    /**
+     * The strength of the edge between two inter blocks as given by their
+     * references and motion vectors, the same as in DeblockingFilter. There is
+     * one reference picture per list so the list tells the picture, 0 stands
+     * for the unused list.
+     */
+    private static int strengthMv(EncodedMB a, int ia, EncodedMB b, int ib) {
+        int ra0 = a.getMr()[ia] > 0 ? 1 : 0;
+        int ra1 = a.getMr1()[ia] > 0 ? 2 : 0;
+        int rb0 = b.getMr()[ib] > 0 ? 1 : 0;
+        int rb1 = b.getMr1()[ib] > 0 ? 2 : 0;
+
+        if (ra0 != rb0 || ra1 != rb1)
+            return 1;
+        return ra0 != 0 && mvThresh(a.getMx()[ia], a.getMy()[ia], b.getMx()[ib], b.getMy()[ib])
+                || ra1 != 0 && mvThresh(a.getMx1()[ia], a.getMy1()[ia], b.getMx1()[ib], b.getMy1()[ib]) ? 1 : 0;
+    }
+
+    private static boolean mvThresh(int ax, int ay, int bx, int by) {
+        return abs(ax - bx) >= 4 || abs(ay - by) >= 4;
     }
 
     private static int[][] P_POS_V = buildPPosV();
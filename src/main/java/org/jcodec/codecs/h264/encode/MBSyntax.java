@@ -0,0 +1,51 @@
+package org.jcodec.codecs.h264.encode;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * The syntax elements of an encoded macroblock as the macroblock writers
+ * decide them, for the entropy coding that is done once all the macroblocks
+ * of the slice are encoded ( CABAC ).
+ *
+ * The coefficients are quantized, the blocks are in the order they are coded
+ * in.
+ *
+ * @author The JCodec project
+ */
+public class MBSyntax {
+    public boolean skip;
+    public int lumaPred16x16;
+    // -1 for prev_intra4x4_pred_mode_flag, rem_intra4x4_pred_mode otherwise
+    public int[] i4x4Modes;
+    public int chrPred;
+    public int cbp;
+    public int qpDelta;
+    // List 0, list 1 of the B macroblocks below
+    public int mvdX;
+    public int mvdY;
+    public int mvdX1;
+    public int mvdY1;
+    public int[] lumaDC;
+    public int[][] lumaAC;
+    public int[][] chromaDC;
+    public int[][][] chromaAC;
+
+    public MBSyntax() {
+        chromaDC = new int[2][];
+        chromaAC = new int[2][][];
+    }
+
+    static int[] copy(int[] src) {
+        int[] dst = new int[src.length];
+        System.arraycopy(src, 0, dst, 0, src.length);
+        return dst;
+    }
+
+    static int[][] copy(int[][] src) {
+        int[][] dst = new int[src.length][];
+        for (int i = 0; i < src.length; i++)
+            dst[i] = copy(src[i]);
+        return dst;
+    }
+}
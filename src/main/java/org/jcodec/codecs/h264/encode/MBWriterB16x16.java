@@ -0,0 +1,299 @@
+package org.jcodec.codecs.h264.encode;
+
+import static org.jcodec.codecs.h264.encode.H264EncoderUtils.median;
+
+import java.util.Arrays;
+
+import org.jcodec.codecs.h264.H264Const;
+import org.jcodec.codecs.h264.H264Encoder.NonRdVector;
+import org.jcodec.codecs.h264.decode.BlockInterpolator;
+import org.jcodec.codecs.h264.io.model.MBType;
+import org.jcodec.codecs.h264.io.model.SeqParameterSet;
+import org.jcodec.codecs.h264.io.write.CAVLCWriter;
+import org.jcodec.common.io.BitWriter;
+import org.jcodec.common.model.Picture;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Encodes macroblock of a B slice as B_L0_16x16, B_L1_16x16, B_Bi_16x16,
+ * B_Direct_16x16 or B_Skip. There is one reference picture in each list, the
+ * direct prediction is the spatial one.
+ *
+ * The motion of a macroblock is kept as { mvX L0, mvY L0, ref L0, mvX L1, mvY
+ * L1, ref L1 } with the reference index plus one, 0 for the unused list.
+ *
+ * @author The JCodec project
+ */
+public class MBWriterB16x16 {
+    private SeqParameterSet sps;
+    private Picture ref0;
+    private Picture ref1;
+    private boolean[] colZero;
+
+    private BlockInterpolator interpolator;
+
+    /**
+     * @param ref0
+     *            The reference picture of list 0, the one before in the
+     *            display order
+     * @param ref1
+     *            The reference picture of list 1, the one after
+     * @param colZero
+     *            For each macroblock of ref1 whether it is predicted from its
+     *            own first reference with a motion vector of at most one
+     *            quarter pixel, the direct prediction is then zero motion
+     */
+    public MBWriterB16x16(SeqParameterSet sps, Picture ref0, Picture ref1, boolean[] colZero) {
+        this.sps = sps;
+        this.ref0 = ref0;
+        this.ref1 = ref1;
+        this.colZero = colZero;
+        interpolator = new BlockInterpolator();
+    }
+
+    /**
+     * Writes the macroblock after the mb_type. The motion vectors of L0, L1
+     * and Bi are the ones in params, the ones of B_Direct_16x16 are derived
+     * and must be available ( see directMotion() ).
+     */
+    public void encodeMacroblock(EncodingContext ctx, Picture pic, int mbX, int mbY, BitWriter out, EncodedMB outMB,
+            int qp, MBType type, NonRdVector params) {
+        int[] motion = motion(ctx, mbX, mbY, type, params);
+        MBSyntax syntax = outMB.getSyntax();
+        if (type != MBType.B_Direct_16x16) {
+            for (int list = 0; list < 2; list++) {
+                if (motion[list * 3 + 2] == 0)
+                    continue;
+                int[] mvp = predictMv(ctx, mbX, mbY, list);
+                int mvdX = motion[list * 3] - mvp[0];
+                int mvdY = motion[list * 3 + 1] - mvp[1];
+                CAVLCWriter.writeSE(out, mvdX);
+                CAVLCWriter.writeSE(out, mvdY);
+                if (syntax != null && list == 0) {
+                    syntax.mvdX = mvdX;
+                    syntax.mvdY = mvdY;
+                } else if (syntax != null) {
+                    syntax.mvdX1 = mvdX;
+                    syntax.mvdY1 = mvdY;
+                }
+            }
+        }
+
+        Picture mbRef = predict(mbX, mbY, motion);
+        int[][] mb = MBWriterP16x16.residual(pic, mbX, mbY, mbRef);
+
+        int codedBlockPattern = 47;
+        CAVLCWriter.writeUE(out, H264Const.CODED_BLOCK_PATTERN_INTER_COLOR_INV[codedBlockPattern]);
+
+        CAVLCWriter.writeSE(out, qp - ctx.prevQp);
+
+        MBWriterP16x16.luma(ctx, mb[0], mbX, mbY, out, qp, outMB.getNc(), syntax);
+        MBWriterP16x16.chroma(ctx, mb[1], mb[2], mbX, mbY, out, qp, syntax);
+        if (syntax != null) {
+            syntax.cbp = codedBlockPattern;
+            syntax.qpDelta = qp - ctx.prevQp;
+        }
+
+        MBEncoderHelper.putBlk(outMB.getPixels().getPlaneData(0), mb[0], mbRef.getPlaneData(0), 4, 0, 0, 16, 16);
+        MBEncoderHelper.putBlk(outMB.getPixels().getPlaneData(1), mb[1], mbRef.getPlaneData(1), 3, 0, 0, 8, 8);
+        MBEncoderHelper.putBlk(outMB.getPixels().getPlaneData(2), mb[2], mbRef.getPlaneData(2), 3, 0, 0, 8, 8);
+
+        saveMotion(outMB, motion);
+        outMB.setType(type);
+        outMB.setQp(qp);
+        ctx.prevQp = qp;
+    }
+
+    /**
+     * Encodes the macroblock as B_Skip if the direct prediction is available
+     * and its residual quantizes to zero. Nothing is written for the skipped
+     * macroblock, only the skip run is counted.
+     *
+     * @return Whether the macroblock is skipped
+     */
+    public boolean encodeSkip(EncodingContext ctx, Picture pic, int mbX, int mbY, EncodedMB outMB, int qp) {
+        int[] motion = directMotion(ctx, mbX, mbY);
+        if (motion == null)
+            return false;
+        Picture mbRef = predict(mbX, mbY, motion);
+        int[][] mb = MBWriterP16x16.residual(pic, mbX, mbY, mbRef);
+        if (MBWriterP16x16.sad(mb[0]) > H264EncoderUtils.sadThreshold(qp)
+                || !MBWriterP16x16.quantizesToZero(mb, qp))
+            return false;
+
+        for (int p = 0; p < 3; p++)
+            System.arraycopy(mbRef.getPlaneData(p), 0, outMB.getPixels().getPlaneData(p), 0,
+                    mbRef.getPlaneData(p).length);
+        for (int blkY = 0; blkY < 4; blkY++) {
+            for (int blkX = 0; blkX < 4; blkX++)
+                ctx.cavlc[0].setZeroCoeff((mbX << 2) + blkX, (mbY << 2) + blkY);
+        }
+        for (int comp = 1; comp < 3; comp++) {
+            for (int blkY = 0; blkY < 2; blkY++) {
+                for (int blkX = 0; blkX < 2; blkX++)
+                    ctx.cavlc[comp].setZeroCoeff((mbX << 1) + blkX, (mbY << 1) + blkY);
+            }
+        }
+        Arrays.fill(outMB.getNc(), 0);
+        saveMotion(outMB, motion);
+        outMB.setType(MBType.B_Direct_16x16);
+        // Keeps the QP of the previous macroblock
+        outMB.setQp(ctx.prevQp);
+        if (outMB.getSyntax() != null)
+            outMB.getSyntax().skip = true;
+        return true;
+    }
+
+    /**
+     * SAD of the luma prediction of the macroblock type, for the decision
+     * without RDO
+     */
+    public int predictionSad(EncodingContext ctx, Picture pic, int mbX, int mbY, MBType type, NonRdVector params) {
+        int[] motion = motion(ctx, mbX, mbY, type, params);
+        Picture mbRef = Picture.create(16, 16, sps.chromaFormatIdc);
+        Picture tmp = motion[2] != 0 && motion[5] != 0 ? Picture.create(16, 16, sps.chromaFormatIdc) : null;
+        if (motion[2] != 0)
+            interpolator.getBlockLuma(ref0, mbRef, 0, (mbX << 6) + motion[0], (mbY << 6) + motion[1], 16, 16);
+        if (motion[5] != 0) {
+            interpolator.getBlockLuma(ref1, tmp != null ? tmp : mbRef, 0, (mbX << 6) + motion[3],
+                    (mbY << 6) + motion[4], 16, 16);
+        }
+        if (tmp != null)
+            average(mbRef.getPlaneData(0), tmp.getPlaneData(0));
+        int[] resi = new int[256];
+        MBEncoderHelper.takeSubtract(pic.getPlaneData(0), pic.getPlaneWidth(0), pic.getPlaneHeight(0), mbX << 4,
+                mbY << 4, resi, mbRef.getPlaneData(0), 16, 16);
+        return MBWriterP16x16.sad(resi);
+    }
+
+    /**
+     * The motion of B_Direct_16x16 and B_Skip as the spatial direct prediction
+     * derives it
+     *
+     * @return The motion or null when the prediction uses only one of the
+     *         lists, the neighbours' vectors of the unused list would then
+     *         have to be kept as the decoder keeps them, so direct is not used
+     *         for such macroblocks
+     */
+    public int[] directMotion(EncodingContext ctx, int mbX, int mbY) {
+        boolean lAvb = mbX > 0;
+        boolean tAvb = mbY > ctx.firstMbY;
+        boolean trAvb = tAvb && mbX < sps.picWidthInMbsMinus1;
+        boolean tlAvb = lAvb && tAvb;
+
+        int refIdxL0 = directRef(ctx.mvLeftR[0], ctx.mvTopR[mbX << 2],
+                trAvb ? ctx.mvTopR[(mbX << 2) + 4] : ctx.mvTopLeftR, lAvb, tAvb, trAvb || tlAvb);
+        int refIdxL1 = directRef(ctx.mvLeftR1[0], ctx.mvTopR1[mbX << 2],
+                trAvb ? ctx.mvTopR1[(mbX << 2) + 4] : ctx.mvTopLeftR1, lAvb, tAvb, trAvb || tlAvb);
+        if (refIdxL0 < 0 && refIdxL1 < 0)
+            return new int[] { 0, 0, 1, 0, 0, 1 };
+        if (refIdxL0 < 0 || refIdxL1 < 0)
+            return null;
+        if (colZero[mbY * (sps.picWidthInMbsMinus1 + 1) + mbX])
+            return new int[] { 0, 0, 1, 0, 0, 1 };
+
+        int[] mv0 = predictMv(ctx, mbX, mbY, 0);
+        int[] mv1 = predictMv(ctx, mbX, mbY, 1);
+        return new int[] { mv0[0], mv0[1], 1, mv1[0], mv1[1], 1 };
+    }
+
+    /**
+     * The smallest of the neighbours' reference indices, -1 when none of them
+     * uses the list
+     */
+    private static int directRef(int a, int b, int c, boolean aAvb, boolean bAvb, boolean cAvb) {
+        return minPos(minPos(aAvb ? a - 1 : -1, bAvb ? b - 1 : -1), cAvb ? c - 1 : -1);
+    }
+
+    private static int minPos(int a, int b) {
+        return a >= 0 && b >= 0 ? Math.min(a, b) : Math.max(a, b);
+    }
+
+    private int[] motion(EncodingContext ctx, int mbX, int mbY, MBType type, NonRdVector params) {
+        if (type == MBType.B_Direct_16x16)
+            return directMotion(ctx, mbX, mbY);
+        boolean l0 = type == MBType.B_L0_16x16 || type == MBType.B_Bi_16x16;
+        boolean l1 = type == MBType.B_L1_16x16 || type == MBType.B_Bi_16x16;
+        return new int[] { l0 ? params.mv[0] : 0, l0 ? params.mv[1] : 0, l0 ? 1 : 0, l1 ? params.mvL1[0] : 0,
+                l1 ? params.mvL1[1] : 0, l1 ? 1 : 0 };
+    }
+
+    private static void saveMotion(EncodedMB outMB, int[] motion) {
+        Arrays.fill(outMB.getMx(), motion[0]);
+        Arrays.fill(outMB.getMy(), motion[1]);
+        Arrays.fill(outMB.getMr(), motion[2]);
+        Arrays.fill(outMB.getMx1(), motion[3]);
+        Arrays.fill(outMB.getMy1(), motion[4]);
+        Arrays.fill(outMB.getMr1(), motion[5]);
+    }
+
+    private int[] predictMv(EncodingContext ctx, int mbX, int mbY, int list) {
+        int partBlkSize = 4; // 16x16
+        int refIdx = 1;
+        int[] mvTopX = list == 0 ? ctx.mvTopX : ctx.mvTopX1;
+        int[] mvTopY = list == 0 ? ctx.mvTopY : ctx.mvTopY1;
+        int[] mvTopR = list == 0 ? ctx.mvTopR : ctx.mvTopR1;
+        int[] mvLeftX = list == 0 ? ctx.mvLeftX : ctx.mvLeftX1;
+        int[] mvLeftY = list == 0 ? ctx.mvLeftY : ctx.mvLeftY1;
+        int[] mvLeftR = list == 0 ? ctx.mvLeftR : ctx.mvLeftR1;
+
+        boolean topAvb = mbY > ctx.firstMbY;
+        boolean trAvb = topAvb && mbX < sps.picWidthInMbsMinus1;
+        boolean tlAvb = mbX > 0 && topAvb;
+        int ax = mvLeftX[0];
+        int ay = mvLeftY[0];
+        boolean ar = mvLeftR[0] == refIdx;
+
+        int bx = mvTopX[mbX << 2];
+        int by = mvTopY[mbX << 2];
+        boolean br = mvTopR[mbX << 2] == refIdx;
+
+        int cx = trAvb ? mvTopX[(mbX << 2) + partBlkSize] : 0;
+        int cy = trAvb ? mvTopY[(mbX << 2) + partBlkSize] : 0;
+        boolean cr = trAvb ? mvTopR[(mbX << 2) + partBlkSize] == refIdx : false;
+
+        int dx = tlAvb ? (list == 0 ? ctx.mvTopLeftX : ctx.mvTopLeftX1) : 0;
+        int dy = tlAvb ? (list == 0 ? ctx.mvTopLeftY : ctx.mvTopLeftY1) : 0;
+        boolean dr = tlAvb ? (list == 0 ? ctx.mvTopLeftR : ctx.mvTopLeftR1) == refIdx : false;
+
+        int mvpx = median(ax, ar, bx, br, cx, cr, dx, dr, mbX > 0, topAvb, trAvb, tlAvb);
+        int mvpy = median(ay, ar, by, br, cy, cr, dy, dr, mbX > 0, topAvb, trAvb, tlAvb);
+        return new int[] { mvpx, mvpy };
+    }
+
+    private Picture predict(int mbX, int mbY, int[] motion) {
+        Picture mbRef = null;
+        if (motion[2] != 0)
+            mbRef = predict(ref0, mbX, mbY, motion[0], motion[1]);
+        if (motion[5] != 0) {
+            Picture mbRef1 = predict(ref1, mbX, mbY, motion[3], motion[4]);
+            if (mbRef == null)
+                return mbRef1;
+            for (int p = 0; p < 3; p++)
+                average(mbRef.getPlaneData(p), mbRef1.getPlaneData(p));
+        }
+        return mbRef;
+    }
+
+    private Picture predict(Picture ref, int mbX, int mbY, int mvX, int mvY) {
+        Picture mbRef = Picture.create(16, 16, sps.chromaFormatIdc);
+
+        interpolator.getBlockLuma(ref, mbRef, 0, (mbX << 6) + mvX, (mbY << 6) + mvY, 16, 16);
+
+        BlockInterpolator.getBlockChroma(ref.getPlaneData(1), ref.getPlaneWidth(1), ref.getPlaneHeight(1),
+                mbRef.getPlaneData(1), 0, mbRef.getPlaneWidth(1), (mbX << 6) + mvX, (mbY << 6) + mvY, 8, 8);
+        BlockInterpolator.getBlockChroma(ref.getPlaneData(2), ref.getPlaneWidth(2), ref.getPlaneHeight(2),
+                mbRef.getPlaneData(2), 0, mbRef.getPlaneWidth(2), (mbX << 6) + mvX, (mbY << 6) + mvY, 8, 8);
+        return mbRef;
+    }
+
+    /**
+     * The default weighted prediction of the bi-predicted blocks
+     */
+    private static void average(byte[] dst, byte[] src) {
+        for (int i = 0; i < dst.length; i++)
+            dst[i] = (byte) ((dst[i] + src[i] + 1) >> 1);
+    }
+}
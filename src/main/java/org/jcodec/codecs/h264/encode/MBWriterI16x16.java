@@ -38,13 +38,20 @@ public class MBWriterI16x16 {
         outMB.setType(MBType.I_16x16);
         outMB.setQp(qp);
 
+        MBSyntax syntax = outMB.getSyntax();
         boolean cbp = false;
         int[] nc = new int[16];
-        luma(ctx, pic, mbX, mbY, out, qp, outMB.getPixels(), params.lumaPred16x16, nc);
+        luma(ctx, pic, mbX, mbY, out, qp, outMB.getPixels(), params.lumaPred16x16, nc, syntax);
         for (int dInd = 0; dInd < 16; dInd++) {
             cbp |= nc[dInd] != 0;
         }
-        chroma(ctx, pic, mbX, mbY, I_16x16, out, qp, outMB.getPixels(), params.chrPred);
+        chroma(ctx, pic, mbX, mbY, I_16x16, out, qp, outMB.getPixels(), params.chrPred, syntax);
+        if (syntax != null) {
+            syntax.lumaPred16x16 = params.lumaPred16x16;
+            syntax.chrPred = params.chrPred;
+            syntax.qpDelta = qp - ctx.prevQp;
+            syntax.cbp = (cbp ? 15 : 0) | (getCbpChroma(pic, mbX, mbY) << 4);
+        }
         ctx.prevQp = qp;
         return cbp;
     }
@@ -56,7 +63,7 @@ public class MBWriterI16x16 {
     }
 
     public static void chroma(EncodingContext ctx, Picture pic, int mbX, int mbY, MBType curMBType, BitWriter out,
-            int qp, Picture outMB, int chrPred) {
+            int qp, Picture outMB, int chrPred, MBSyntax syntax) {
         int x = mbX << 3;
         int y = mbY << 3;
         int[][] ac1 = new int[4][16];
@@ -68,14 +75,14 @@ public class MBWriterI16x16 {
         predictChroma(ctx, pic, ac2, pred2, 2, x, y, chrPred);
 
         chromaResidual(mbX, mbY, out, qp, ac1, ac2, ctx.cavlc[1], ctx.cavlc[2], ctx.leftMBType, ctx.topMBType[mbX],
-                curMBType);
+                curMBType, syntax);
 
         putChroma(outMB.getData()[1], 1, x, y, ac1, pred1);
         putChroma(outMB.getData()[2], 2, x, y, ac2, pred2);
     }
 
     public static void chromaResidual(int mbX, int mbY, BitWriter out, int qp, int[][] ac1, int[][] ac2, CAVLC cavlc1,
-            CAVLC cavlc2, MBType leftMBType, MBType topMBType, MBType curMBType) {
+            CAVLC cavlc2, MBType leftMBType, MBType topMBType, MBType curMBType, MBSyntax syntax) {
         int crQpOffset = 0;
         int chrQp = calcQpChroma(qp, crQpOffset);
 
@@ -91,19 +98,26 @@ public class MBWriterI16x16 {
         writeAC(cavlc1, mbX, mbY, out, mbX << 1, mbY << 1, ac1, chrQp, leftMBType, topMBType, curMBType, DUMMY);
         writeAC(cavlc2, mbX, mbY, out, mbX << 1, mbY << 1, ac2, chrQp, leftMBType, topMBType, curMBType, DUMMY);
 
+        if (syntax != null) {
+            syntax.chromaDC[0] = MBSyntax.copy(dc1);
+            syntax.chromaDC[1] = MBSyntax.copy(dc2);
+            syntax.chromaAC[0] = MBSyntax.copy(ac1);
+            syntax.chromaAC[1] = MBSyntax.copy(ac2);
+        }
+
         restorePlane(dc1, ac1, chrQp);
         restorePlane(dc2, ac2, chrQp);
     }
 
     private void luma(EncodingContext ctx, Picture pic, int mbX, int mbY, BitWriter out, int qp, Picture outMB,
-            int predType, int[] nc) {
+            int predType, int[] nc, MBSyntax syntax) {
         int x = mbX << 4;
         int y = mbY << 4;
         int[][] ac = new int[16][16];
         byte[][] pred = new byte[16][16];
 
-        Intra16x16PredictionBuilder.lumaPred(predType, x != 0, y != 0, ctx.leftRow[0], ctx.topLine[0], ctx.topLeft[0],
-                x, pred);
+        Intra16x16PredictionBuilder.lumaPred(predType, x != 0, mbY > ctx.firstMbY, ctx.leftRow[0], ctx.topLine[0],
+                ctx.topLeft[0], x, pred);
 
         transform(pic, 0, ac, pred, x, y);
         int[] dc = extractDC(ac);
@@ -111,6 +125,11 @@ public class MBWriterI16x16 {
         writeACLum(ctx.cavlc[0], mbX, mbY, out, mbX << 2, mbY << 2, ac, qp, ctx.leftMBType, ctx.topMBType[mbX], I_16x16,
                 nc);
 
+        if (syntax != null) {
+            syntax.lumaDC = MBSyntax.copy(dc);
+            syntax.lumaAC = MBSyntax.copy(ac);
+        }
+
         restorePlane(dc, ac, qp);
 
         for (int blk = 0; blk < ac.length; blk++) {
@@ -229,7 +248,7 @@ public class MBWriterI16x16 {
 
     private static void predictChroma(EncodingContext ctx, Picture pic, int[][] ac, byte[][] pred, int comp, int x,
             int y, int mode) {
-        ChromaPredictionBuilder.buildPred(mode, x >> 3, x != 0, y != 0, ctx.leftRow[comp], ctx.topLine[comp], ctx.topLeft[comp], pred);
+        ChromaPredictionBuilder.buildPred(mode, x >> 3, x != 0, (y >> 3) > ctx.firstMbY, ctx.leftRow[comp], ctx.topLine[comp], ctx.topLeft[comp], pred);
 
         MBEncoderHelper.takeSubtract(pic.getPlaneData(comp), pic.getPlaneWidth(comp), pic.getPlaneHeight(comp), x, y,
                 ac[0], pred[0], 4, 4);
@@ -24,11 +24,13 @@ import org.jcodec.common.model.Picture;
 public class MBWriterINxN {
     public void encodeMacroblock(EncodingContext ctx, Picture pic, int mbX, int mbY, BitWriter out, EncodedMB outMB,
             int qp, NonRdVector params) {
+        MBSyntax syntax = outMB.getSyntax();
+        int[] modes = new int[16];
         for (int bInd = 0; bInd < 16; bInd++) {
             int blkX = H264Const.MB_DISP_OFF_LEFT[bInd];
             int blkY = H264Const.MB_DISP_OFF_TOP[bInd];
-            writePredictionI4x4Block(out, mbX > 0, mbY > 0, ctx.leftMBType, ctx.topMBType[mbX], blkX, blkY, mbX,
-                    ctx.i4x4PredTop, ctx.i4x4PredLeft, params.lumaPred4x4[bInd]);
+            modes[bInd] = writePredictionI4x4Block(out, mbX > 0, mbY > ctx.firstMbY, ctx.leftMBType,
+                    ctx.topMBType[mbX], blkX, blkY, mbX, ctx.i4x4PredTop, ctx.i4x4PredLeft, params.lumaPred4x4[bInd]);
         }
 
         int[][] coeff = new int[16][16];
@@ -44,11 +46,23 @@ public class MBWriterINxN {
         outMB.setQp(qp);
 
         lumaCode(ctx, pic, mbX, mbY, out, qp, outMB, params.lumaPred4x4, coeff, cbpLuma);
-        MBWriterI16x16.chroma(ctx, pic, mbX, mbY, MBType.I_NxN, out, qp, outMB.getPixels(), params.chrPred);
+        MBWriterI16x16.chroma(ctx, pic, mbX, mbY, MBType.I_NxN, out, qp, outMB.getPixels(), params.chrPred, syntax);
+        if (syntax != null) {
+            syntax.i4x4Modes = modes;
+            syntax.chrPred = params.chrPred;
+            syntax.cbp = cbp;
+            syntax.qpDelta = qp - ctx.prevQp;
+            // Not changed after the quantization
+            syntax.lumaAC = coeff;
+        }
         ctx.prevQp = qp;
     }
 
-    private void writePredictionI4x4Block(BitWriter out, boolean leftAvailable, boolean topAvailable, MBType leftMBType,
+    /**
+     * @return -1 when the mode is the predicted one, rem_intra4x4_pred_mode
+     *         otherwise
+     */
+    private int writePredictionI4x4Block(BitWriter out, boolean leftAvailable, boolean topAvailable, MBType leftMBType,
             MBType topMBType, int blkX, int blkY, int mbX, int[] i4x4PredTop, int[] i4x4PredLeft, int mode) {
         int predMode = 2;
         if ((leftAvailable || blkX > 0) && (topAvailable || blkY > 0)) {
@@ -58,11 +72,13 @@ public class MBWriterINxN {
         }
         boolean prev4x4PredMode = mode == predMode;
         out.write1Bit(prev4x4PredMode ? 1 : 0);
+        int wrMode = -1;
         if (!prev4x4PredMode) {
-            int wrMode = mode - (mode > predMode ? 1 : 0);
+            wrMode = mode - (mode > predMode ? 1 : 0);
             out.writeNBit(wrMode, 3);
         }
         i4x4PredTop[(mbX << 2) + blkX] = i4x4PredLeft[blkY] = mode;
+        return wrMode;
     }
 
     private int lumaAnal(EncodingContext ctx, Picture pic, int mbX, int mbY, BitWriter out, int qp, EncodedMB outMB,
@@ -82,8 +98,8 @@ public class MBWriterINxN {
 
                 int dIdx = BLK_DISP_MAP[bIdx];
                 boolean hasLeft = (dIdx & 0x3) != 0 || mbX != 0;
-                boolean hasTop = dIdx >= 4 || mbY != 0;
-                boolean hasTr = ((bIdx == 0 || bIdx == 1 || bIdx == 4) && mbY != 0)
+                boolean hasTop = dIdx >= 4 || mbY > ctx.firstMbY;
+                boolean hasTr = ((bIdx == 0 || bIdx == 1 || bIdx == 4) && mbY > ctx.firstMbY)
                         || (bIdx == 5 && mbX < ctx.mbWidth - 1) || bIdx == 2 || bIdx == 6 || bIdx == 8 || bIdx == 9
                         || bIdx == 10 || bIdx == 12 || bIdx == 14;
 
@@ -12,10 +12,12 @@ import org.jcodec.codecs.h264.H264Encoder.NonRdVector;
 import org.jcodec.codecs.h264.decode.BlockInterpolator;
 import org.jcodec.codecs.h264.decode.CoeffTransformer;
 import org.jcodec.codecs.h264.io.model.MBType;
+import org.jcodec.codecs.h264.io.model.PictureParameterSet;
 import org.jcodec.codecs.h264.io.model.SeqParameterSet;
 import org.jcodec.codecs.h264.io.write.CAVLCWriter;
 import org.jcodec.common.io.BitWriter;
 import org.jcodec.common.model.Picture;
+import org.jcodec.common.tools.MathUtil;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
@@ -27,27 +29,120 @@ import org.jcodec.common.model.Picture;
  */
 public class MBWriterP16x16 {
     private SeqParameterSet sps;
+    private PictureParameterSet pps;
     private Picture ref;
 
     private BlockInterpolator interpolator;
 
-    public MBWriterP16x16(SeqParameterSet sps, Picture ref) {
+    public MBWriterP16x16(SeqParameterSet sps, PictureParameterSet pps, Picture ref) {
         this.sps = sps;
+        this.pps = pps;
         this.ref = ref;
         interpolator = new BlockInterpolator();
     }
 
     public void encodeMacroblock(EncodingContext ctx, Picture pic, int mbX, int mbY, BitWriter out, EncodedMB outMB,
             int qp, NonRdVector params) {
-        if (sps.numRefFrames > 1) {
+        // ref_idx_l0 only when more than one of the reference pictures is active
+        if (pps.numRefIdxActiveMinus1[0] > 0) {
             int refIdx = decideRef();
-            CAVLCWriter.writeTE(out, refIdx, sps.numRefFrames - 1);
+            CAVLCWriter.writeTE(out, refIdx, pps.numRefIdxActiveMinus1[0]);
         }
+        int refIdx = 1;
+        int[] mvp = predictMv(ctx, mbX, mbY);
+
+        // Motion estimation for the current macroblock
+        CAVLCWriter.writeSE(out, params.mv[0] - mvp[0]); // mvdx
+        CAVLCWriter.writeSE(out, params.mv[1] - mvp[1]); // mvdy
+
+        Picture mbRef = predict(mbX, mbY, params.mv);
+        int[][] mb = residual(pic, mbX, mbY, mbRef);
+
+        int codedBlockPattern = getCodedBlockPattern();
+        CAVLCWriter.writeUE(out, H264Const.CODED_BLOCK_PATTERN_INTER_COLOR_INV[codedBlockPattern]);
+
+        CAVLCWriter.writeSE(out, qp - ctx.prevQp);
+
+        MBSyntax syntax = outMB.getSyntax();
+        luma(ctx, mb[0], mbX, mbY, out, qp, outMB.getNc(), syntax);
+        chroma(ctx, mb[1], mb[2], mbX, mbY, out, qp, syntax);
+        if (syntax != null) {
+            syntax.mvdX = params.mv[0] - mvp[0];
+            syntax.mvdY = params.mv[1] - mvp[1];
+            syntax.cbp = codedBlockPattern;
+            syntax.qpDelta = qp - ctx.prevQp;
+        }
+
+        MBEncoderHelper.putBlk(outMB.getPixels().getPlaneData(0), mb[0], mbRef.getPlaneData(0), 4, 0, 0, 16, 16);
+        MBEncoderHelper.putBlk(outMB.getPixels().getPlaneData(1), mb[1], mbRef.getPlaneData(1), 3, 0, 0, 8, 8);
+        MBEncoderHelper.putBlk(outMB.getPixels().getPlaneData(2), mb[2], mbRef.getPlaneData(2), 3, 0, 0, 8, 8);
+
+        Arrays.fill(outMB.getMx(), params.mv[0]);
+        Arrays.fill(outMB.getMy(), params.mv[1]);
+        Arrays.fill(outMB.getMr(), refIdx);
+        outMB.setType(MBType.P_16x16);
+        outMB.setQp(qp);
+        ctx.prevQp = qp;
+    }
+
+    /**
+     * Encodes the macroblock as P_Skip if the residual of the prediction with
+     * the skip motion vector quantizes to zero. Nothing is written for the
+     * skipped macroblock, only the skip run is counted.
+     * 
+     * @return Whether the macroblock is skipped
+     */
+    public boolean encodeSkip(EncodingContext ctx, Picture pic, int mbX, int mbY, EncodedMB outMB, int qp) {
+        int[] mv = skipMv(ctx, mbX, mbY);
+        Picture mbRef = predict(mbX, mbY, mv);
+        int[][] mb = residual(pic, mbX, mbY, mbRef);
+        if (sad(mb[0]) > H264EncoderUtils.sadThreshold(qp) || !quantizesToZero(mb, qp))
+            return false;
+
+        for (int p = 0; p < 3; p++)
+            System.arraycopy(mbRef.getPlaneData(p), 0, outMB.getPixels().getPlaneData(p), 0,
+                    mbRef.getPlaneData(p).length);
+        for (int blkY = 0; blkY < 4; blkY++) {
+            for (int blkX = 0; blkX < 4; blkX++)
+                ctx.cavlc[0].setZeroCoeff((mbX << 2) + blkX, (mbY << 2) + blkY);
+        }
+        for (int comp = 1; comp < 3; comp++) {
+            for (int blkY = 0; blkY < 2; blkY++) {
+                for (int blkX = 0; blkX < 2; blkX++)
+                    ctx.cavlc[comp].setZeroCoeff((mbX << 1) + blkX, (mbY << 1) + blkY);
+            }
+        }
+        Arrays.fill(outMB.getNc(), 0);
+        Arrays.fill(outMB.getMx(), mv[0]);
+        Arrays.fill(outMB.getMy(), mv[1]);
+        Arrays.fill(outMB.getMr(), 1);
+        outMB.setType(MBType.P_16x16);
+        // Keeps the QP of the previous macroblock
+        outMB.setQp(ctx.prevQp);
+        if (outMB.getSyntax() != null)
+            outMB.getSyntax().skip = true;
+        return true;
+    }
+
+    /**
+     * SAD of the luma prediction with the motion vector
+     */
+    public int predictionSad(Picture pic, int mbX, int mbY, int[] mv) {
+        Picture mbRef = Picture.create(16, 16, sps.chromaFormatIdc);
+        interpolator.getBlockLuma(ref, mbRef, 0, (mbX << 6) + mv[0], (mbY << 6) + mv[1], 16, 16);
+        int[] resi = new int[256];
+        MBEncoderHelper.takeSubtract(pic.getPlaneData(0), pic.getPlaneWidth(0), pic.getPlaneHeight(0), mbX << 4,
+                mbY << 4, resi, mbRef.getPlaneData(0), 16, 16);
+        return sad(resi);
+    }
+
+    private int[] predictMv(EncodingContext ctx, int mbX, int mbY) {
         int partBlkSize = 4; // 16x16
         int refIdx = 1;
 
-        boolean trAvb = mbY > 0 && mbX < sps.picWidthInMbsMinus1;
-        boolean tlAvb = mbX > 0 && mbY > 0;
+        boolean topAvb = mbY > ctx.firstMbY;
+        boolean trAvb = topAvb && mbX < sps.picWidthInMbsMinus1;
+        boolean tlAvb = mbX > 0 && topAvb;
         int ax = ctx.mvLeftX[0];
         int ay = ctx.mvLeftY[0];
         boolean ar = ctx.mvLeftR[0] == refIdx;
@@ -64,50 +159,97 @@ public class MBWriterP16x16 {
         int dy = tlAvb ? ctx.mvTopLeftY : 0;
         boolean dr = tlAvb ? (ctx.mvTopLeftR == refIdx) : false;
 
-        int mvpx = median(ax, ar, bx, br, cx, cr, dx, dr, mbX > 0, mbY > 0, trAvb, tlAvb);
-        int mvpy = median(ay, ar, by, br, cy, cr, dy, dr, mbX > 0, mbY > 0, trAvb, tlAvb);
+        int mvpx = median(ax, ar, bx, br, cx, cr, dx, dr, mbX > 0, topAvb, trAvb, tlAvb);
+        int mvpy = median(ay, ar, by, br, cy, cr, dy, dr, mbX > 0, topAvb, trAvb, tlAvb);
+        return new int[] { mvpx, mvpy };
+    }
 
-        // Motion estimation for the current macroblock
-        CAVLCWriter.writeSE(out, params.mv[0] - mvpx); // mvdx
-        CAVLCWriter.writeSE(out, params.mv[1] - mvpy); // mvdy
+    /**
+     * The motion vector of P_Skip, zero when the left or the top neighbour is
+     * not available or has zero motion from the same reference
+     */
+    private int[] skipMv(EncodingContext ctx, int mbX, int mbY) {
+        int refIdx = 1;
+        if (mbX == 0 || mbY == ctx.firstMbY)
+            return new int[] { 0, 0 };
+        if (ctx.mvLeftR[0] == refIdx && ctx.mvLeftX[0] == 0 && ctx.mvLeftY[0] == 0)
+            return new int[] { 0, 0 };
+        int top = mbX << 2;
+        if (ctx.mvTopR[top] == refIdx && ctx.mvTopX[top] == 0 && ctx.mvTopY[top] == 0)
+            return new int[] { 0, 0 };
+        return predictMv(ctx, mbX, mbY);
+    }
 
+    private Picture predict(int mbX, int mbY, int[] mv) {
         Picture mbRef = Picture.create(16, 16, sps.chromaFormatIdc);
-        int[][] mb = new int[][] { new int[256], new int[64], new int[64] };
 
-        interpolator.getBlockLuma(ref, mbRef, 0, (mbX << 6) + params.mv[0], (mbY << 6) + params.mv[1], 16, 16);
+        interpolator.getBlockLuma(ref, mbRef, 0, (mbX << 6) + mv[0], (mbY << 6) + mv[1], 16, 16);
 
         BlockInterpolator.getBlockChroma(ref.getPlaneData(1), ref.getPlaneWidth(1), ref.getPlaneHeight(1),
-                mbRef.getPlaneData(1), 0, mbRef.getPlaneWidth(1), (mbX << 6) + params.mv[0], (mbY << 6) + params.mv[1],
-                8, 8);
+                mbRef.getPlaneData(1), 0, mbRef.getPlaneWidth(1), (mbX << 6) + mv[0], (mbY << 6) + mv[1], 8, 8);
         BlockInterpolator.getBlockChroma(ref.getPlaneData(2), ref.getPlaneWidth(2), ref.getPlaneHeight(2),
-                mbRef.getPlaneData(2), 0, mbRef.getPlaneWidth(2), (mbX << 6) + params.mv[0], (mbY << 6) + params.mv[1],
-                8, 8);
+                mbRef.getPlaneData(2), 0, mbRef.getPlaneWidth(2), (mbX << 6) + mv[0], (mbY << 6) + mv[1], 8, 8);
+        return mbRef;
+    }
 
+    static int[][] residual(Picture pic, int mbX, int mbY, Picture mbRef) {
+        int[][] mb = new int[][] { new int[256], new int[64], new int[64] };
         MBEncoderHelper.takeSubtract(pic.getPlaneData(0), pic.getPlaneWidth(0), pic.getPlaneHeight(0), mbX << 4,
                 mbY << 4, mb[0], mbRef.getPlaneData(0), 16, 16);
         MBEncoderHelper.takeSubtract(pic.getPlaneData(1), pic.getPlaneWidth(1), pic.getPlaneHeight(1), mbX << 3,
                 mbY << 3, mb[1], mbRef.getPlaneData(1), 8, 8);
         MBEncoderHelper.takeSubtract(pic.getPlaneData(2), pic.getPlaneWidth(2), pic.getPlaneHeight(2), mbX << 3,
                 mbY << 3, mb[2], mbRef.getPlaneData(2), 8, 8);
+        return mb;
+    }
 
-        int codedBlockPattern = getCodedBlockPattern();
-        CAVLCWriter.writeUE(out, H264Const.CODED_BLOCK_PATTERN_INTER_COLOR_INV[codedBlockPattern]);
-
-        CAVLCWriter.writeSE(out, qp - ctx.prevQp);
-
-        luma(ctx, mb[0], mbX, mbY, out, qp, outMB.getNc());
-        chroma(ctx, mb[1], mb[2], mbX, mbY, out, qp);
+    static int sad(int[] resi) {
+        int sad = 0;
+        for (int i = 0; i < resi.length; i++)
+            sad += MathUtil.abs(resi[i]);
+        return sad;
+    }
 
-        MBEncoderHelper.putBlk(outMB.getPixels().getPlaneData(0), mb[0], mbRef.getPlaneData(0), 4, 0, 0, 16, 16);
-        MBEncoderHelper.putBlk(outMB.getPixels().getPlaneData(1), mb[1], mbRef.getPlaneData(1), 3, 0, 0, 8, 8);
-        MBEncoderHelper.putBlk(outMB.getPixels().getPlaneData(2), mb[2], mbRef.getPlaneData(2), 3, 0, 0, 8, 8);
+    /**
+     * Whether all the coefficients of the residual quantize to zero the way
+     * luma() and chroma() quantize them
+     */
+    static boolean quantizesToZero(int[][] mb, int qp) {
+        int[] blk = new int[16];
+        for (int i = 0; i < 16; i++) {
+            for (int j = 0; j < 16; j++)
+                blk[j] = mb[0][H264Const.PIX_MAP_SPLIT_4x4[i][j]];
+            CoeffTransformer.fdct4x4(blk);
+            CoeffTransformer.quantizeAC(blk, qp);
+            if (!allZero(blk))
+                return false;
+        }
+        int chrQp = MBWriterI16x16.calcQpChroma(qp, 0);
+        int[] dc = new int[4];
+        for (int comp = 1; comp < 3; comp++) {
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 16; j++)
+                    blk[j] = mb[comp][H264Const.PIX_MAP_SPLIT_2x2[i][j]];
+                CoeffTransformer.fdct4x4(blk);
+                dc[i] = blk[0];
+                blk[0] = 0;
+                CoeffTransformer.quantizeAC(blk, chrQp);
+                if (!allZero(blk))
+                    return false;
+            }
+            CoeffTransformer.quantizeDC2x2(dc, chrQp);
+            if (!allZero(dc))
+                return false;
+        }
+        return true;
+    }
 
-        Arrays.fill(outMB.getMx(), params.mv[0]);
-        Arrays.fill(outMB.getMy(), params.mv[1]);
-        Arrays.fill(outMB.getMr(), refIdx);
-        outMB.setType(MBType.P_16x16);
-        outMB.setQp(qp);
-        ctx.prevQp = qp;
+    private static boolean allZero(int[] coeffs) {
+        for (int i = 0; i < coeffs.length; i++) {
+            if (coeffs[i] != 0)
+                return false;
+        }
+        return true;
     }
 
     private int getCodedBlockPattern() {
@@ -123,7 +265,8 @@ public class MBWriterP16x16 {
         return 0;
     }
 
-  private static void luma(EncodingContext ctx, int[] pix, int mbX, int mbY, BitWriter out, int qp, int[] nc) {
+    static void luma(EncodingContext ctx, int[] pix, int mbX, int mbY, BitWriter out, int qp, int[] nc,
+            MBSyntax syntax) {
         int[][] ac = new int[16][16];
         for (int i = 0; i < ac.length; i++) {
             for (int j = 0; j < H264Const.PIX_MAP_SPLIT_4x4[i].length; j++) {
@@ -134,6 +277,13 @@ public class MBWriterP16x16 {
 
         writeAC(ctx, 0, mbX, out, mbX << 2, mbY << 2, ac, qp, nc);
 
+        if (syntax != null) {
+            // In the coding order
+            syntax.lumaAC = new int[16][];
+            for (int bIndx = 0; bIndx < ac.length; bIndx++)
+                syntax.lumaAC[bIndx] = MBSyntax.copy(ac[H264Const.BLK_DISP_MAP[bIndx]]);
+        }
+
         for (int i = 0; i < ac.length; i++) {
             CoeffTransformer.dequantizeAC(ac[i], qp, null);
             CoeffTransformer.idct4x4(ac[i]);
@@ -142,8 +292,8 @@ public class MBWriterP16x16 {
         }
     }
 
-    private static void chroma(EncodingContext ctx, int[] pix1, int[] pix2, int mbX, int mbY, BitWriter out,
-            int qp) {
+    static void chroma(EncodingContext ctx, int[] pix1, int[] pix2, int mbX, int mbY, BitWriter out,
+            int qp, MBSyntax syntax) {
         int[][] ac1 = new int[4][16];
         int[][] ac2 = new int[4][16];
         for (int i = 0; i < ac1.length; i++) {
@@ -154,7 +304,8 @@ public class MBWriterP16x16 {
             for (int j = 0; j < H264Const.PIX_MAP_SPLIT_2x2[i].length; j++)
                 ac2[i][j] = pix2[H264Const.PIX_MAP_SPLIT_2x2[i][j]];
         }
-        MBWriterI16x16.chromaResidual(mbX, mbY, out, qp, ac1, ac2, ctx.cavlc[1], ctx.cavlc[2], ctx.leftMBType, ctx.topMBType[mbX], P_16x16);
+        MBWriterI16x16.chromaResidual(mbX, mbY, out, qp, ac1, ac2, ctx.cavlc[1], ctx.cavlc[2], ctx.leftMBType,
+                ctx.topMBType[mbX], P_16x16, syntax);
 
         for (int i = 0; i < ac1.length; i++) {
             for (int j = 0; j < H264Const.PIX_MAP_SPLIT_2x2[i].length; j++)
@@ -5,6 +5,7 @@ import static org.jcodec.codecs.h264.encode.H264EncoderUtils.median;
 import static org.jcodec.common.tools.MathUtil.clip;
 
 import org.jcodec.codecs.h264.io.model.SeqParameterSet;
+import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Picture;
 import org.jcodec.common.tools.MathUtil;
 
@@ -12,11 +13,20 @@ import org.jcodec.common.tools.MathUtil;
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
  * under FreeBSD License
  * 
- * Estimates motion using diagonal search
+ * Estimates motion using one of the full pixel searches followed by the
+ * quarter pixel refinement
  * 
  * @author Stanislav Vitvitskyy
  */
 public class MotionEstimator {
+    // The average difference of one per pixel is good enough to stop the search
+    private static final int EARLY_EXIT_SAD = 256;
+
+    private static final int[] HEX_X = { -2, -1, 1, 2, 1, -1 };
+    private static final int[] HEX_Y = { 0, -2, -2, 0, 2, 2 };
+    private static final int[] HEX16_X = { -4, -4, -4, -4, -4, 4, 4, 4, 4, 4, 2, 0, -2, -2, 0, 2 };
+    private static final int[] HEX16_Y = { 2, 1, 0, -1, -2, -2, -1, 0, 1, 2, 3, 4, 3, -3, -4, -3 };
+
     private int maxSearchRange;
     private int[] mvTopX;
     private int[] mvTopY;
@@ -29,14 +39,48 @@ public class MotionEstimator {
     private int mvTopLeftR;
     private SeqParameterSet sps;
     private Picture ref;
+    private MotionSearch search;
+    private int[] refMvs;
+    private Picture refLowRes;
+
+    // The full pixel search of the current macroblock, the bounds of the
+    // search and the best position so far
+    private int minX;
+    private int maxX;
+    private int minY;
+    private int maxY;
+    private int bestX;
+    private int bestY;
+    private int bestSad;
 
     public MotionEstimator(Picture ref, SeqParameterSet sps, int maxSearchRange) {
+        this(ref, sps, maxSearchRange, MotionSearch.DIAMOND, null, null);
+    }
+
+    /**
+     * @param search
+     *            The full pixel search algorithm
+     * @param refMvs
+     *            The motion vectors the macroblocks of the reference picture
+     *            were encoded with, x and y of each one in the raster order, or
+     *            null. The co-located ones are the temporal predictors of
+     *            EPZS and UMH.
+     * @param refLowRes
+     *            The reference picture downscaled with downscale() for the
+     *            hierarchical pre-search or null. The pre-search is done with
+     *            all the algorithms but DIAMOND.
+     */
+    public MotionEstimator(Picture ref, SeqParameterSet sps, int maxSearchRange, MotionSearch search, int[] refMvs,
+            Picture refLowRes) {
         this.sps = sps;
         this.ref = ref;
         mvTopX = new int[sps.picWidthInMbsMinus1 + 1];
         mvTopY = new int[sps.picWidthInMbsMinus1 + 1];
         mvTopR = new int[sps.picWidthInMbsMinus1 + 1];
         this.maxSearchRange = maxSearchRange;
+        this.search = search;
+        this.refMvs = refMvs;
+        this.refLowRes = refLowRes;
     }
 
     public int[] mvEstimate(Picture pic, int mbX, int mbY) {
@@ -65,7 +109,8 @@ public class MotionEstimator {
         int mvpy = median(ay, ar, by, br, cy, cr, dy, dr, mbX > 0, mbY > 0, trAvb, tlAvb);
         MBEncoderHelper.take(pic.getPlaneData(0), pic.getPlaneWidth(0), pic.getPlaneHeight(0), mbX << 4, mbY << 4,
                 patch, 16, 16);
-        int[] fullPix = estimateFullPix(ref, patch, mbX, mbY, mvpx, mvpy);
+        int[] fullPix = search == MotionSearch.DIAMOND ? estimateFullPix(ref, patch, mbX, mbY, mvpx, mvpy)
+                : searchFullPix(patch, mbX, mbY, mvpx, mvpy);
         return estimateQPix(ref, patch, fullPix, mbX, mbY);
     }
 
@@ -258,6 +303,16 @@ public class MotionEstimator {
         mvLeftR = mv[2];
     }
 
+    /**
+     * Takes the motion vectors of n macroblocks starting at mbX from the
+     * estimator of the macroblock row above
+     */
+    public void copyTop(MotionEstimator above, int mbX, int n) {
+        System.arraycopy(above.mvTopX, mbX, mvTopX, mbX, n);
+        System.arraycopy(above.mvTopY, mbX, mvTopY, mbX, n);
+        System.arraycopy(above.mvTopR, mbX, mvTopR, mbX, n);
+    }
+
     private int[] estimateFullPix(Picture ref, byte[] patch, int mbX, int mbY, int mvpx, int mvpy) {
         byte[] searchPatch = new byte[(maxSearchRange * 2 + 16) * (maxSearchRange * 2 + 16)];
 
@@ -328,6 +383,199 @@ public class MotionEstimator {
         return new int[] { mvS0 < mvS1 ? mvX0 : mvX1, mvS0 < mvS1 ? mvY0 : mvY1};
     }
 
+    private int[] searchFullPix(byte[] patch, int mbX, int mbY, int mvpx, int mvpy) {
+        int x0 = mbX << 4;
+        int y0 = mbY << 4;
+        int px = (mvpx + 2) >> 2;
+        int py = (mvpy + 2) >> 2;
+        // Within the search range from the macroblock position or the
+        // predictor
+        minX = Math.max(x0 + Math.min(px, 0) - maxSearchRange, 0);
+        maxX = Math.min(x0 + Math.max(px, 0) + maxSearchRange, ref.getPlaneWidth(0) - 16);
+        minY = Math.max(y0 + Math.min(py, 0) - maxSearchRange, 0);
+        maxY = Math.min(y0 + Math.max(py, 0) + maxSearchRange, ref.getPlaneHeight(0) - 16);
+        bestSad = Integer.MAX_VALUE;
+
+        check(patch, x0 + px, y0 + py);
+        check(patch, x0, y0);
+        if (search != MotionSearch.HEXAGON) {
+            if (mbX > 0)
+                checkMv(patch, x0, y0, mvLeftX, mvLeftY);
+            if (mbY > 0) {
+                checkMv(patch, x0, y0, mvTopX[mbX], mvTopY[mbX]);
+                if (mbX < sps.picWidthInMbsMinus1)
+                    checkMv(patch, x0, y0, mvTopX[mbX + 1], mvTopY[mbX + 1]);
+            }
+            if (refMvs != null) {
+                // The co-located and the neighbours not yet encoded in this
+                // picture
+                int mbWidth = sps.picWidthInMbsMinus1 + 1;
+                int mbAddr = mbY * mbWidth + mbX;
+                checkMv(patch, x0, y0, refMvs[mbAddr << 1], refMvs[(mbAddr << 1) + 1]);
+                if (mbX < mbWidth - 1)
+                    checkMv(patch, x0, y0, refMvs[(mbAddr + 1) << 1], refMvs[((mbAddr + 1) << 1) + 1]);
+                if (((mbAddr + mbWidth) << 1) < refMvs.length)
+                    checkMv(patch, x0, y0, refMvs[(mbAddr + mbWidth) << 1], refMvs[((mbAddr + mbWidth) << 1) + 1]);
+            }
+        }
+        if (refLowRes != null)
+            preSearch(patch, x0, y0);
+
+        if (bestSad > EARLY_EXIT_SAD) {
+            if (search == MotionSearch.HEXAGON) {
+                hexagon(patch);
+                square(patch);
+            } else if (search == MotionSearch.EPZS) {
+                diamond(patch);
+            } else {
+                umh(patch);
+            }
+        }
+        return new int[] { (bestX - x0) << 2, (bestY - y0) << 2 };
+    }
+
+    private void checkMv(byte[] patch, int x0, int y0, int mvX, int mvY) {
+        check(patch, x0 + ((mvX + 2) >> 2), y0 + ((mvY + 2) >> 2));
+    }
+
+    private void check(byte[] patch, int x, int y) {
+        if (x < minX || x > maxX || y < minY || y > maxY)
+            return;
+        int score = sad(ref.getPlaneData(0), ref.getPlaneWidth(0), patch, 16, x, y, bestSad);
+        if (score < bestSad) {
+            bestSad = score;
+            bestX = x;
+            bestY = y;
+        }
+    }
+
+    private void diamond(byte[] patch) {
+        for (int i = 0; i < maxSearchRange; i++) {
+            int x = bestX;
+            int y = bestY;
+            check(patch, x - 1, y);
+            check(patch, x + 1, y);
+            check(patch, x, y - 1);
+            check(patch, x, y + 1);
+            if (x == bestX && y == bestY)
+                break;
+        }
+    }
+
+    private void hexagon(byte[] patch) {
+        for (int i = 0; i < maxSearchRange; i += 2) {
+            int x = bestX;
+            int y = bestY;
+            for (int j = 0; j < HEX_X.length; j++)
+                check(patch, x + HEX_X[j], y + HEX_Y[j]);
+            if (x == bestX && y == bestY)
+                break;
+        }
+    }
+
+    private void square(byte[] patch) {
+        int x = bestX;
+        int y = bestY;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (dx != 0 || dy != 0)
+                    check(patch, x + dx, y + dy);
+            }
+        }
+    }
+
+    private void umh(byte[] patch) {
+        int x = bestX;
+        int y = bestY;
+        // The cross, half as high since the motion is mostly horizontal
+        for (int d = 2; d <= maxSearchRange; d += 2) {
+            check(patch, x - d, y);
+            check(patch, x + d, y);
+        }
+        for (int d = 2; d <= maxSearchRange >> 1; d += 2) {
+            check(patch, x, y - d);
+            check(patch, x, y + d);
+        }
+        if (bestSad > EARLY_EXIT_SAD) {
+            x = bestX;
+            y = bestY;
+            for (int k = 1; k <= maxSearchRange >> 2; k++) {
+                for (int j = 0; j < HEX16_X.length; j++)
+                    check(patch, x + HEX16_X[j] * k, y + HEX16_Y[j] * k);
+            }
+        }
+        hexagon(patch);
+        square(patch);
+    }
+
+    /**
+     * Full search over the search range in the downscaled reference, the best
+     * position becomes one more candidate
+     */
+    private void preSearch(byte[] patch, int x0, int y0) {
+        byte[] small = new byte[64];
+        for (int j = 0, off = 0; j < 8; j++, off += 16) {
+            for (int i = 0; i < 8; i++, off += 2) {
+                small[(j << 3) + i] = (byte) ((patch[off] + patch[off + 1] + patch[off + 16] + patch[off + 17]
+                        + 2) >> 2);
+            }
+        }
+        byte[] plane = refLowRes.getPlaneData(0);
+        int stride = refLowRes.getPlaneWidth(0);
+        int range = maxSearchRange >> 1;
+        int x1 = Math.max((x0 >> 1) - range, (minX + 1) >> 1);
+        int x2 = Math.min((x0 >> 1) + range, maxX >> 1);
+        int y1 = Math.max((y0 >> 1) - range, (minY + 1) >> 1);
+        int y2 = Math.min((y0 >> 1) + range, maxY >> 1);
+        int bestLowX = x0 >> 1;
+        int bestLowY = y0 >> 1;
+        int bestLowSad = Integer.MAX_VALUE;
+        for (int y = y1; y <= y2; y++) {
+            for (int x = x1; x <= x2; x++) {
+                int score = sad(plane, stride, small, 8, x, y, bestLowSad);
+                if (score < bestLowSad) {
+                    bestLowSad = score;
+                    bestLowX = x;
+                    bestLowY = y;
+                }
+            }
+        }
+        check(patch, bestLowX << 1, bestLowY << 1);
+    }
+
+    /**
+     * Downscales the luma of the reference picture twice in each direction
+     * for the hierarchical pre-search
+     */
+    public static Picture downscale(Picture ref) {
+        int width = ref.getPlaneWidth(0) >> 1;
+        int height = ref.getPlaneHeight(0) >> 1;
+        int stride = ref.getPlaneWidth(0);
+        byte[] src = ref.getPlaneData(0);
+        Picture out = Picture.create(width, height, ColorSpace.GREY);
+        byte[] dst = out.getPlaneData(0);
+        for (int j = 0, dOff = 0; j < height; j++) {
+            for (int i = 0, sOff = 2 * j * stride; i < width; i++, dOff++, sOff += 2) {
+                dst[dOff] = (byte) ((src[sOff] + src[sOff + 1] + src[sOff + stride] + src[sOff + stride + 1] + 2) >> 2);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * SAD of a size x size block, stops counting once it reaches the limit
+     */
+    private static int sad(byte[] big, int bigStride, byte[] small, int size, int offX, int offY, int limit) {
+        int score = 0, bigOff = offY * bigStride + offX, smallOff = 0;
+        for (int i = 0; i < size && score < limit; i++) {
+            for (int j = 0; j < size; j++, ++bigOff, ++smallOff) {
+                score += MathUtil.abs(big[bigOff] - small[smallOff]);
+            }
+            bigOff += bigStride - size;
+        }
+        return score;
+    }
+
     private int sad(byte[] big, int bigStride, byte[] small, int offX, int offY) {
         int score = 0, bigOff = offY * bigStride + offX, smallOff = 0;
         for (int i = 0; i < 16; i++) {
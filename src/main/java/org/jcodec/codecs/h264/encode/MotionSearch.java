@@ -0,0 +1,36 @@
+package org.jcodec.codecs.h264.encode;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * The full pixel motion search algorithms of the H.264 encoder
+ *
+ * @author The JCodec project
+ *
+ */
+public enum MotionSearch {
+    /**
+     * One pixel steps from the macroblock position and from the median
+     * predictor, the two search windows are copied for every macroblock
+     */
+    DIAMOND,
+
+    /**
+     * Large hexagon steps from the best of the median predictor and the zero
+     * vector, then a square refinement
+     */
+    HEXAGON,
+
+    /**
+     * Predictive zonal search, the best of the median, the spatial neighbours',
+     * the co-located and the zero vectors is refined with one pixel steps
+     */
+    EPZS,
+
+    /**
+     * Uneven multi-hexagon search, the predictors as with EPZS followed by a
+     * cross, the multi-hexagon grid, the hexagon and the square refinement
+     */
+    UMH
+}
@@ -2,6 +2,8 @@ package org.jcodec.codecs.h264.io;
 
 import static org.jcodec.codecs.h264.H264Const.PartPred.Bi;
 import static org.jcodec.codecs.h264.H264Const.PartPred.Direct;
+import static org.jcodec.codecs.h264.H264Const.last_sig_coeff_map_8x8;
+import static org.jcodec.codecs.h264.H264Const.sig_coeff_map_8x8;
 import static org.jcodec.codecs.h264.io.CABAC.BlockType.CHROMA_AC;
 import static org.jcodec.codecs.h264.io.CABAC.BlockType.CHROMA_DC;
 import static org.jcodec.codecs.h264.io.CABAC.BlockType.LUMA_16_DC;
@@ -54,6 +56,9 @@ public class CABAC {
         public int lastSigCoeffFldCtxOff;
         public int coeffAbsLevelCtxOff;
         public int coeffAbsLevelAdjust;
+        // Context increments of the 2nd+ bins of coeff_abs_level_minus1 by
+        // the level decoding state
+        int[] coeffAbsLevelGtCtxInc;
 
         private BlockType(int codecBlockCtxOff, int sigCoeffCtxOff, int lastSigCoeffCtxOff, int sigCoeffFlagFldCtxOff,
                 int lastSigCoeffFldCtxOff, int coeffAbsLevelCtxOff, int coeffAbsLevelAdjust) {
@@ -64,6 +69,7 @@ public class CABAC {
             this.lastSigCoeffFldCtxOff = sigCoeffFlagFldCtxOff;
             this.coeffAbsLevelCtxOff = coeffAbsLevelCtxOff;
             this.coeffAbsLevelAdjust = coeffAbsLevelAdjust;
+            this.coeffAbsLevelGtCtxInc = new int[] { 5, 5, 5, 5, 6, 7, 8, 9 - coeffAbsLevelAdjust };
         }
     }
 
@@ -87,10 +93,24 @@ public class CABAC {
     private int[][][] mvdTop;
     private int[][][] mvdLeft;
 
+    /*
+     * The level decoding state: 0 - no levels yet, 1..3 - only ones (1, 2, 3
+     * or more of them), 4..7 - levels greater than one (1, 2, 3, 4 or more).
+     * The tables give the context increment of the first bin of
+     * coeff_abs_level_minus1 and the next state after a level of one and a
+     * level greater than one.
+     */
+    private static final int[] levelFirstCtxInc = { 1, 2, 3, 4, 0, 0, 0, 0 };
+    private static final int[] levelNextEq1 = { 1, 2, 3, 3, 4, 5, 6, 7 };
+    private static final int[] levelNextGt1 = { 4, 4, 4, 4, 5, 6, 7, 7 };
+
     public int[] tmp;
+    // Scan positions of the significant coefficients of the current block
+    private int[] sigPos;
 
     public CABAC(int mbWidth) {
         this.tmp = new int[16];
+        this.sigPos = new int[64];
         this.chromaPredModeLeft = 0;
         this.chromaPredModeTop = new int[mbWidth];
         this.codedBlkLeft = new int[][] { new int[4], new int[2], new int[2] };
@@ -110,60 +130,125 @@ public class CABAC {
 
     public int readCoeffs(MDecoder decoder, BlockType blockType, int[] out, int first, int num, int[] reorder,
             int[] scMapping, int[] lscMapping) {
-        boolean sigCoeff[] = new boolean[num];
-        int numCoeff;
-        for (numCoeff = 0; numCoeff < num - 1; numCoeff++) {
-            sigCoeff[numCoeff] = decoder.decodeBin(blockType.sigCoeffFlagCtxOff + scMapping[numCoeff]) == 1;
-            if (sigCoeff[numCoeff] && decoder.decodeBin(blockType.lastSigCoeffCtxOff + lscMapping[numCoeff]) == 1)
-                break;
+        int[] sigPos = this.sigPos;
+        int numCoeff = 0, i;
+        for (i = 0; i < num - 1; i++) {
+            if (decoder.decodeBin(blockType.sigCoeffFlagCtxOff + scMapping[i]) == 1) {
+                sigPos[numCoeff++] = i;
+                if (decoder.decodeBin(blockType.lastSigCoeffCtxOff + lscMapping[i]) == 1)
+                    break;
+            }
         }
-        sigCoeff[numCoeff++] = true;
+        if (i == num - 1)
+            sigPos[numCoeff++] = i;
 
-        int numGt1 = 0, numEq1 = 0;
-        for (int j = numCoeff - 1; j >= 0; j--) {
-            if (!sigCoeff[j])
-                continue;
-            int absLev = readCoeffAbsLevel(decoder, blockType, numGt1, numEq1);
-            if (absLev == 0)
-                ++numEq1;
-            else
-                ++numGt1;
-            out[reorder[j + first]] = MathUtil.toSigned(absLev + 1, -decoder.decodeBinBypass());
+        readLevels(decoder, blockType, out, first, reorder, numCoeff);
+
+        return numCoeff;
+    }
+
+    /**
+     * Reads the coefficients of a 4x4 block (ctxBlockCat 0 - 4 and their Cb/Cr
+     * counterparts), the significance map contexts follow the scan position.
+     * 
+     * @return Number of non-zero coefficients
+     */
+    public int readCoeffs4x4(MDecoder decoder, BlockType blockType, int[] out, int first, int num, int[] reorder) {
+        int[] sigPos = this.sigPos;
+        int sigCtx = blockType.sigCoeffFlagCtxOff;
+        int lastCtx = blockType.lastSigCoeffCtxOff;
+        int numCoeff = 0, i;
+        for (i = 0; i < num - 1; i++) {
+            if (decoder.decodeBin(sigCtx + i) == 1) {
+                sigPos[numCoeff++] = i;
+                if (decoder.decodeBin(lastCtx + i) == 1)
+                    break;
+            }
         }
-        // System.out.print("[");
-        // for (int i = 0; i < out.length; i++)
-        // System.out.print(out[i] + ",");
-        // System.out.println("]");
+        if (i == num - 1)
+            sigPos[numCoeff++] = i;
 
-        return numGt1 + numEq1;
+        readLevels(decoder, blockType, out, first, reorder, numCoeff);
+
+        return numCoeff;
     }
 
-    private int readCoeffAbsLevel(MDecoder decoder, BlockType blockType, int numDecodAbsLevelGt1,
-            int numDecodAbsLevelEq1) {
-        int incB0 = ((numDecodAbsLevelGt1 != 0) ? 0 : Math.min(4, 1 + numDecodAbsLevelEq1));
-        int incBN = 5 + Math.min(4 - blockType.coeffAbsLevelAdjust, numDecodAbsLevelGt1);
+    /**
+     * Reads the coefficients of a frame coded 8x8 block (ctxBlockCat 5, 9,
+     * 13), the significance map contexts are shared between the scan
+     * positions.
+     * 
+     * @return Number of non-zero coefficients
+     */
+    public int readCoeffs8x8(MDecoder decoder, BlockType blockType, int[] out, int[] reorder) {
+        int[] sigPos = this.sigPos;
+        int sigCtx = blockType.sigCoeffFlagCtxOff;
+        int lastCtx = blockType.lastSigCoeffCtxOff;
+        int numCoeff = 0, i;
+        for (i = 0; i < 63; i++) {
+            if (decoder.decodeBin(sigCtx + sig_coeff_map_8x8[i]) == 1) {
+                sigPos[numCoeff++] = i;
+                if (decoder.decodeBin(lastCtx + last_sig_coeff_map_8x8[i]) == 1)
+                    break;
+            }
+        }
+        if (i == 63)
+            sigPos[numCoeff++] = i;
 
-        int val, b = decoder.decodeBin(blockType.coeffAbsLevelCtxOff + incB0);
-        for (val = 0; b != 0 && val < 13; val++)
-            b = decoder.decodeBin(blockType.coeffAbsLevelCtxOff + incBN);
-        val += b;
+        readLevels(decoder, blockType, out, 0, reorder, numCoeff);
 
-        if (val == 14) {
-            int log = -2, add = 0, sum = 0;
-            do {
-                log++;
-                b = decoder.decodeBinBypass();
-            } while (b != 0);
+        return numCoeff;
+    }
 
+    private void readLevels(MDecoder decoder, BlockType blockType, int[] out, int first, int[] reorder, int numCoeff) {
+        int ctxOff = blockType.coeffAbsLevelCtxOff;
+        int[] gtCtxInc = blockType.coeffAbsLevelGtCtxInc;
+        int state = 0;
+        for (int j = numCoeff - 1; j >= 0; j--) {
+            int level;
+            if (decoder.decodeBin(ctxOff + levelFirstCtxInc[state]) == 0) {
+                level = 1 - (decoder.decodeBinBypass() << 1);
+                state = levelNextEq1[state];
+            } else {
+                int ctx = ctxOff + gtCtxInc[state];
+                int val = 1;
+                while (val < 14 && decoder.decodeBin(ctx) == 1)
+                    val++;
+                if (val < 14)
+                    level = MathUtil.toSigned(val + 1, -decoder.decodeBinBypass());
+                else
+                    level = readLevelSuffix(decoder);
+                state = levelNextGt1[state];
+            }
+            out[reorder[sigPos[j] + first]] = level;
+        }
+    }
+
+    /**
+     * Reads the UEG0 suffix of coeff_abs_level_minus1 together with the sign
+     * of the coefficient, returns the coefficient.
+     */
+    private int readLevelSuffix(MDecoder decoder) {
+        int log = -1;
+        while (decoder.decodeBinBypass() != 0)
+            log++;
+
+        int val = 15;
+        if (log >= 15) {
+            // Broken stream
+            int add = 0, sum = 0;
             for (; log >= 0; log--) {
                 add |= decoder.decodeBinBypass() << log;
                 sum += 1 << log;
             }
-
             val += add + sum;
+            return MathUtil.toSigned(val, -decoder.decodeBinBypass());
         }
 
-        return val;
+        // log + 1 suffix bins and the sign
+        int bins = decoder.decodeBinsBypass(log + 2);
+        val += (bins >> 1) + (1 << (log + 1)) - 1;
+        return MathUtil.toSigned(val, -(bins & 1));
     }
 
     public void writeCoeffs(MEncoder encoder, BlockType blockType, int[] _out, int first, int num, int[] reorder) {
@@ -215,19 +300,25 @@ public class CABAC {
             } else {
                 for (int i = 1; i < 14; i++)
                     encoder.encodeBin(blockType.coeffAbsLevelCtxOff + incBN, 1);
-                absLev -= 14;
-                int sufLen, pow;
-                for (sufLen = 0, pow = 1; absLev >= pow; sufLen++, pow = (1 << sufLen)) {
-                    encoder.encodeBinBypass(1);
-                    absLev -= pow;
-                }
-                encoder.encodeBinBypass(0);
-                for (sufLen--; sufLen >= 0; sufLen--)
-                    encoder.encodeBinBypass((absLev >> sufLen) & 1);
+                writeExpGolombBypass(encoder, absLev - 14, 0);
             }
         }
     }
 
+    /**
+     * Writes the k-th order Exp-Golomb suffix of the UEGk binarization
+     */
+    private static void writeExpGolombBypass(MEncoder encoder, int val, int k) {
+        while (val >= (1 << k)) {
+            encoder.encodeBinBypass(1);
+            val -= 1 << k;
+            k++;
+        }
+        encoder.encodeBinBypass(0);
+        while (k-- > 0)
+            encoder.encodeBinBypass((val >> k) & 1);
+    }
+
     public void initModels(int[][] cm, SliceType sliceType, int cabacIdc, int sliceQp) {
         // System.out.println("INIT slice qp: "+sliceQp+", cabac init ids: "+cabacIdc+", slicetype : "
         // + sliceType);
@@ -248,12 +339,15 @@ public class CABAC {
         }
     }
 
-    public int readMBTypeI(MDecoder decoder, MBType left, MBType top, boolean leftAvailable, boolean topAvailable) {
+    private static int mbTypeICtx(MBType left, MBType top, boolean leftAvailable, boolean topAvailable) {
         int ctx = 3;
         ctx += !leftAvailable || left == I_NxN ? 0 : 1;
         ctx += !topAvailable || top == I_NxN ? 0 : 1;
+        return ctx;
+    }
 
-        if (decoder.decodeBin(ctx) == 0) {
+    public int readMBTypeI(MDecoder decoder, MBType left, MBType top, boolean leftAvailable, boolean topAvailable) {
+        if (decoder.decodeBin(mbTypeICtx(left, top, leftAvailable, topAvailable)) == 0) {
             return 0;
         } else {
             return decoder.decodeFinalBin() == 1 ? 25 : 1 + readMBType16x16(decoder);
@@ -303,10 +397,15 @@ public class CABAC {
         }
     }
 
-    public int readMBTypeB(MDecoder mDecoder, MBType left, MBType top, boolean leftAvailable, boolean topAvailable) {
+    private int mbTypeBCtx(MBType left, MBType top, boolean leftAvailable, boolean topAvailable) {
         int ctx = 27;
         ctx += !leftAvailable || left == null || left == B_Direct_16x16 ? 0 : 1;
         ctx += !topAvailable || top == null || top == B_Direct_16x16 ? 0 : 1;
+        return ctx;
+    }
+
+    public int readMBTypeB(MDecoder mDecoder, MBType left, MBType top, boolean leftAvailable, boolean topAvailable) {
+        int ctx = mbTypeBCtx(left, top, leftAvailable, topAvailable);
 
         if (mDecoder.decodeBin(ctx) == 0)
             return 0; // B Direct
@@ -336,11 +435,53 @@ public class CABAC {
         return 0;
     }
 
+    public void writeMBTypeB(MEncoder encoder, MBType left, MBType top, boolean leftAvailable, boolean topAvailable,
+            int mbType) {
+        int ctx = mbTypeBCtx(left, top, leftAvailable, topAvailable);
+
+        if (mbType == 0) {
+            encoder.encodeBin(ctx, 0); // B Direct
+            return;
+        }
+        encoder.encodeBin(ctx, 1);
+        if (mbType <= 2) {
+            encoder.encodeBin(30, 0);
+            encoder.encodeBin(32, mbType - 1);
+            return;
+        }
+        encoder.encodeBin(30, 1);
+        if (mbType <= 10) {
+            encoder.encodeBin(31, 0);
+            writeBins32(encoder, mbType - 3, 3);
+            return;
+        }
+        encoder.encodeBin(31, 1);
+        if (mbType >= 12 && mbType <= 19) {
+            encoder.encodeBin(32, 0);
+            writeBins32(encoder, mbType - 12, 3);
+            return;
+        }
+        encoder.encodeBin(32, 1);
+        if (mbType == 20 || mbType == 21) {
+            writeBins32(encoder, 0, 2);
+            encoder.encodeBin(32, mbType - 20);
+        } else if (mbType >= 23) {
+            writeBins32(encoder, 1, 2);
+            writeIntraP(encoder, 32, mbType - 23);
+        } else {
+            // 11 or 22
+            writeBins32(encoder, mbType == 11 ? 2 : 3, 2);
+        }
+    }
+
+    private static void writeBins32(MEncoder encoder, int val, int n) {
+        for (int i = n - 1; i >= 0; i--)
+            encoder.encodeBin(32, (val >> i) & 1);
+    }
+
     public void writeMBTypeI(MEncoder encoder, MBType left, MBType top, boolean leftAvailable, boolean topAvailable,
             int mbType) {
-        int ctx = 3;
-        ctx += !leftAvailable || left == I_NxN ? 0 : 1;
-        ctx += !topAvailable || top == I_NxN ? 0 : 1;
+        int ctx = mbTypeICtx(left, top, leftAvailable, topAvailable);
 
         if (mbType == 0)
             encoder.encodeBin(ctx, 0);
@@ -375,10 +516,58 @@ public class CABAC {
         }
     }
 
-    public int readMBQpDelta(MDecoder decoder, MBType prevMbType) {
+    public void writeMBTypeP(MEncoder encoder, int mbType) {
+        if (mbType >= 5) {
+            encoder.encodeBin(14, 1);
+            writeIntraP(encoder, 17, mbType - 5);
+        } else {
+            encoder.encodeBin(14, 0);
+            if (mbType == 0 || mbType == 3) {
+                encoder.encodeBin(15, 0);
+                encoder.encodeBin(16, mbType == 0 ? 0 : 1);
+            } else {
+                encoder.encodeBin(15, 1);
+                encoder.encodeBin(17, mbType == 2 ? 0 : 1);
+            }
+        }
+    }
+
+    private void writeIntraP(MEncoder encoder, int ctxOff, int mbType) {
+        if (mbType == 0) {
+            encoder.encodeBin(ctxOff, 0);
+        } else {
+            encoder.encodeBin(ctxOff, 1);
+            if (mbType == 25) {
+                encoder.encodeBinFinal(1);
+            } else {
+                encoder.encodeBinFinal(0);
+                writeMBType16x16P(encoder, ctxOff, mbType - 1);
+            }
+        }
+    }
+
+    private void writeMBType16x16P(MEncoder encoder, int ctxOff, int mbType) {
+        ctxOff++;
+        encoder.encodeBin(ctxOff, mbType / 12);
+        mbType %= 12;
+        ctxOff++;
+        int chroma = mbType >> 2;
+        encoder.encodeBin(ctxOff, chroma == 0 ? 0 : 1);
+        if (chroma != 0)
+            encoder.encodeBin(ctxOff, chroma - 1);
+        encoder.encodeBin(ctxOff + 1, (mbType >> 1) & 1);
+        encoder.encodeBin(ctxOff + 1, mbType & 1);
+    }
+
+    private int mbQpDeltaCtx(MBType prevMbType) {
         int ctx = 60;
         ctx += prevMbType == null || prevMbType == I_PCM || (prevMbType != I_16x16 && prevCBP == 0)
                 || prevMbQpDelta == 0 ? 0 : 1;
+        return ctx;
+    }
+
+    public int readMBQpDelta(MDecoder decoder, MBType prevMbType) {
+        int ctx = mbQpDeltaCtx(prevMbType);
 
         int val = 0;
         if (decoder.decodeBin(ctx) == 1) {
@@ -395,19 +584,20 @@ public class CABAC {
     }
 
     public void writeMBQpDelta(MEncoder encoder, MBType prevMbType, int mbQpDelta) {
-        int ctx = 60;
-        ctx += prevMbType == null || prevMbType == I_PCM || (prevMbType != I_16x16 && prevCBP == 0)
-                || prevMbQpDelta == 0 ? 0 : 1;
+        int ctx = mbQpDeltaCtx(prevMbType);
 
         prevMbQpDelta = mbQpDelta;
-        if (mbQpDelta-- == 0)
+        // Mapped as in golomb2Signed
+        int val = mbQpDelta > 0 ? (mbQpDelta << 1) - 1 : -mbQpDelta << 1;
+        if (val == 0)
             encoder.encodeBin(ctx, 0);
         else {
             encoder.encodeBin(ctx, 1);
-            if (mbQpDelta-- == 0)
+            if (val == 1)
                 encoder.encodeBin(62, 0);
             else {
-                while (mbQpDelta-- > 0)
+                encoder.encodeBin(62, 1);
+                for (int i = 2; i < val; i++)
                     encoder.encodeBin(63, 1);
                 encoder.encodeBin(63, 0);
             }
@@ -416,9 +606,7 @@ public class CABAC {
 
     public int readIntraChromaPredMode(MDecoder decoder, int mbX, MBType left, MBType top, boolean leftAvailable,
             boolean topAvailable) {
-        int ctx = 64;
-        ctx += !leftAvailable || left == null || !left.isIntra() || chromaPredModeLeft == 0 ? 0 : 1;
-        ctx += !topAvailable || top == null || !top.isIntra() || chromaPredModeTop[mbX] == 0 ? 0 : 1;
+        int ctx = intraChromaPredModeCtx(mbX, left, top, leftAvailable, topAvailable);
         int mode;
         if (decoder.decodeBin(ctx) == 0)
             mode = 0;
@@ -435,15 +623,24 @@ public class CABAC {
 
     public void writeIntraChromaPredMode(MEncoder encoder, int mbX, MBType left, MBType top, boolean leftAvailable,
             boolean topAvailable, int mode) {
-        int ctx = 64;
-        ctx += !leftAvailable || !left.isIntra() || chromaPredModeLeft == 0 ? 0 : 1;
-        ctx += !topAvailable || !top.isIntra() || chromaPredModeTop[mbX] == 0 ? 0 : 1;
-        encoder.encodeBin(ctx, mode-- == 0 ? 0 : 1);
-        for (int i = 0; mode >= 0 && i < 2; i++)
-            encoder.encodeBin(67, mode-- == 0 ? 0 : 1);
+        int ctx = intraChromaPredModeCtx(mbX, left, top, leftAvailable, topAvailable);
+        encoder.encodeBin(ctx, mode == 0 ? 0 : 1);
+        if (mode != 0) {
+            encoder.encodeBin(67, mode == 1 ? 0 : 1);
+            if (mode != 1)
+                encoder.encodeBin(67, mode == 2 ? 0 : 1);
+        }
         chromaPredModeLeft = chromaPredModeTop[mbX] = mode;
     }
 
+    private int intraChromaPredModeCtx(int mbX, MBType left, MBType top, boolean leftAvailable,
+            boolean topAvailable) {
+        int ctx = 64;
+        ctx += !leftAvailable || left == null || !left.isIntra() || chromaPredModeLeft == 0 ? 0 : 1;
+        ctx += !topAvailable || top == null || !top.isIntra() || chromaPredModeTop[mbX] == 0 ? 0 : 1;
+        return ctx;
+    }
+
     public int condTerm(MBType mbCur, boolean nAvb, MBType mbN, boolean nBlkAvb, int cbpN) {
         if (!nAvb)
             return mbCur.isIntra() ? 1 : 0;
@@ -456,10 +653,8 @@ public class CABAC {
 
     public int readCodedBlockFlagLumaDC(MDecoder decoder, int mbX, MBType left, MBType top, boolean leftAvailable,
             boolean topAvailable, MBType cur) {
-        int tLeft = condTerm(cur, leftAvailable, left, left == I_16x16, codedBlkDCLeft[0]);
-        int tTop = condTerm(cur, topAvailable, top, top == I_16x16, codedBlkDCTop[0][mbX]);
-
-        int decoded = decoder.decodeBin(LUMA_16_DC.codedBlockCtxOff + tLeft + 2 * tTop);
+        int decoded = decoder.decodeBin(LUMA_16_DC.codedBlockCtxOff
+                + codedBlockFlagLumaDCInc(mbX, left, top, leftAvailable, topAvailable, cur));
 
         codedBlkDCLeft[0] = decoded;
         codedBlkDCTop[0][mbX] = decoded;
@@ -467,12 +662,26 @@ public class CABAC {
         return decoded;
     }
 
+    public void writeCodedBlockFlagLumaDC(MEncoder encoder, int mbX, MBType left, MBType top, boolean leftAvailable,
+            boolean topAvailable, MBType cur, int flag) {
+        encoder.encodeBin(LUMA_16_DC.codedBlockCtxOff
+                + codedBlockFlagLumaDCInc(mbX, left, top, leftAvailable, topAvailable, cur), flag);
+
+        codedBlkDCLeft[0] = flag;
+        codedBlkDCTop[0][mbX] = flag;
+    }
+
+    private int codedBlockFlagLumaDCInc(int mbX, MBType left, MBType top, boolean leftAvailable, boolean topAvailable,
+            MBType cur) {
+        int tLeft = condTerm(cur, leftAvailable, left, left == I_16x16, codedBlkDCLeft[0]);
+        int tTop = condTerm(cur, topAvailable, top, top == I_16x16, codedBlkDCTop[0][mbX]);
+        return tLeft + 2 * tTop;
+    }
+
     public int readCodedBlockFlagChromaDC(MDecoder decoder, int mbX, int comp, MBType left, MBType top,
             boolean leftAvailable, boolean topAvailable, int leftCBPChroma, int topCBPChroma, MBType cur) {
-        int tLeft = condTerm(cur, leftAvailable, left, left != null && leftCBPChroma != 0, codedBlkDCLeft[comp]);
-        int tTop = condTerm(cur, topAvailable, top, top != null && topCBPChroma != 0, codedBlkDCTop[comp][mbX]);
-
-        int decoded = decoder.decodeBin(CHROMA_DC.codedBlockCtxOff + tLeft + 2 * tTop);
+        int decoded = decoder.decodeBin(CHROMA_DC.codedBlockCtxOff + codedBlockFlagChromaDCInc(mbX, comp, left, top,
+                leftAvailable, topAvailable, leftCBPChroma, topCBPChroma, cur));
 
         codedBlkDCLeft[comp] = decoded;
         codedBlkDCTop[comp][mbX] = decoded;
@@ -480,9 +689,46 @@ public class CABAC {
         return decoded;
     }
 
+    public void writeCodedBlockFlagChromaDC(MEncoder encoder, int mbX, int comp, MBType left, MBType top,
+            boolean leftAvailable, boolean topAvailable, int leftCBPChroma, int topCBPChroma, MBType cur, int flag) {
+        encoder.encodeBin(CHROMA_DC.codedBlockCtxOff + codedBlockFlagChromaDCInc(mbX, comp, left, top, leftAvailable,
+                topAvailable, leftCBPChroma, topCBPChroma, cur), flag);
+
+        codedBlkDCLeft[comp] = flag;
+        codedBlkDCTop[comp][mbX] = flag;
+    }
+
+    private int codedBlockFlagChromaDCInc(int mbX, int comp, MBType left, MBType top, boolean leftAvailable,
+            boolean topAvailable, int leftCBPChroma, int topCBPChroma, MBType cur) {
+        int tLeft = condTerm(cur, leftAvailable, left, left != null && leftCBPChroma != 0, codedBlkDCLeft[comp]);
+        int tTop = condTerm(cur, topAvailable, top, top != null && topCBPChroma != 0, codedBlkDCTop[comp][mbX]);
+        return tLeft + 2 * tTop;
+    }
+
     public int readCodedBlockFlagLumaAC(MDecoder decoder, BlockType blkType, int blkX, int blkY, int comp, MBType left,
             MBType top, boolean leftAvailable, boolean topAvailable, int leftCBPLuma, int topCBPLuma, int curCBPLuma,
             MBType cur) {
+        int decoded = decoder.decodeBin(blkType.codedBlockCtxOff + codedBlockFlagLumaACInc(blkX, blkY, comp, left, top,
+                leftAvailable, topAvailable, leftCBPLuma, topCBPLuma, curCBPLuma, cur));
+
+        codedBlkLeft[comp][blkY & 3] = decoded;
+        codedBlkTop[comp][blkX] = decoded;
+
+        return decoded;
+    }
+
+    public void writeCodedBlockFlagLumaAC(MEncoder encoder, BlockType blkType, int blkX, int blkY, int comp,
+            MBType left, MBType top, boolean leftAvailable, boolean topAvailable, int leftCBPLuma, int topCBPLuma,
+            int curCBPLuma, MBType cur, int flag) {
+        encoder.encodeBin(blkType.codedBlockCtxOff + codedBlockFlagLumaACInc(blkX, blkY, comp, left, top,
+                leftAvailable, topAvailable, leftCBPLuma, topCBPLuma, curCBPLuma, cur), flag);
+
+        codedBlkLeft[comp][blkY & 3] = flag;
+        codedBlkTop[comp][blkX] = flag;
+    }
+
+    private int codedBlockFlagLumaACInc(int blkX, int blkY, int comp, MBType left, MBType top, boolean leftAvailable,
+            boolean topAvailable, int leftCBPLuma, int topCBPLuma, int curCBPLuma, MBType cur) {
         int blkOffLeft = blkX & 3, blkOffTop = blkY & 3;
 
         int tLeft;
@@ -499,12 +745,7 @@ public class CABAC {
         else
             tTop = condTerm(cur, true, cur, cbp(curCBPLuma, blkOffLeft, blkOffTop - 1), codedBlkTop[comp][blkX]);
 
-        int decoded = decoder.decodeBin(blkType.codedBlockCtxOff + tLeft + 2 * tTop);
-
-        codedBlkLeft[comp][blkOffTop] = decoded;
-        codedBlkTop[comp][blkX] = decoded;
-
-        return decoded;
+        return tLeft + 2 * tTop;
     }
 
     public int readCodedBlockFlagLuma64(MDecoder decoder, int blkX, int blkY, int comp, MBType left, MBType top,
@@ -544,6 +785,26 @@ public class CABAC {
 
     public int readCodedBlockFlagChromaAC(MDecoder decoder, int blkX, int blkY, int comp, MBType left, MBType top,
             boolean leftAvailable, boolean topAvailable, int leftCBPChroma, int topCBPChroma, MBType cur) {
+        int decoded = decoder.decodeBin(CHROMA_AC.codedBlockCtxOff + codedBlockFlagChromaACInc(blkX, blkY, comp, left,
+                top, leftAvailable, topAvailable, leftCBPChroma, topCBPChroma, cur));
+
+        codedBlkLeft[comp][blkY & 1] = decoded;
+        codedBlkTop[comp][blkX] = decoded;
+
+        return decoded;
+    }
+
+    public void writeCodedBlockFlagChromaAC(MEncoder encoder, int blkX, int blkY, int comp, MBType left, MBType top,
+            boolean leftAvailable, boolean topAvailable, int leftCBPChroma, int topCBPChroma, MBType cur, int flag) {
+        encoder.encodeBin(CHROMA_AC.codedBlockCtxOff + codedBlockFlagChromaACInc(blkX, blkY, comp, left, top,
+                leftAvailable, topAvailable, leftCBPChroma, topCBPChroma, cur), flag);
+
+        codedBlkLeft[comp][blkY & 1] = flag;
+        codedBlkTop[comp][blkX] = flag;
+    }
+
+    private int codedBlockFlagChromaACInc(int blkX, int blkY, int comp, MBType left, MBType top,
+            boolean leftAvailable, boolean topAvailable, int leftCBPChroma, int topCBPChroma, MBType cur) {
         int blkOffLeft = blkX & 1, blkOffTop = blkY & 1;
 
         int tLeft;
@@ -559,12 +820,7 @@ public class CABAC {
         else
             tTop = condTerm(cur, true, cur, true, codedBlkTop[comp][blkX]);
 
-        int decoded = decoder.decodeBin(CHROMA_AC.codedBlockCtxOff + tLeft + 2 * tTop);
-
-        codedBlkLeft[comp][blkOffTop] = decoded;
-        codedBlkTop[comp][blkX] = decoded;
-
-        return decoded;
+        return tLeft + 2 * tTop;
     }
 
     public boolean prev4x4PredModeFlag(MDecoder decoder) {
@@ -575,6 +831,16 @@ public class CABAC {
         return decoder.decodeBin(69) | (decoder.decodeBin(69) << 1) | (decoder.decodeBin(69) << 2);
     }
 
+    public void writePrev4x4PredModeFlag(MEncoder encoder, boolean flag) {
+        encoder.encodeBin(68, flag ? 1 : 0);
+    }
+
+    public void writeRem4x4PredMode(MEncoder encoder, int mode) {
+        encoder.encodeBin(69, mode & 1);
+        encoder.encodeBin(69, (mode >> 1) & 1);
+        encoder.encodeBin(69, (mode >> 2) & 1);
+    }
+
     public int codedBlockPatternIntra(MDecoder mDecoder, boolean leftAvailable, boolean topAvailable, int cbpLeft,
             int cbpTop, MBType mbLeft, MBType mbTop) {
         int cbp0 = mDecoder.decodeBin(73 + _condTerm(leftAvailable, mbLeft, (cbpLeft >> 1) & 1) + 2
@@ -591,6 +857,26 @@ public class CABAC {
         return cbp0 | (cbp1 << 1) | (cbp2 << 2) | (cbp3 << 3) | (cr0 << 4) | (cr1 << 5);
     }
 
+    /**
+     * Writes coded_block_pattern of both the intra and the inter macroblocks
+     */
+    public void writeCodedBlockPattern(MEncoder encoder, boolean leftAvailable, boolean topAvailable, int cbpLeft,
+            int cbpTop, MBType mbLeft, MBType mbTop, int cbp) {
+        int cbp0 = cbp & 1, cbp1 = (cbp >> 1) & 1, cbp2 = (cbp >> 2) & 1, cbp3 = (cbp >> 3) & 1;
+        encoder.encodeBin(73 + _condTerm(leftAvailable, mbLeft, (cbpLeft >> 1) & 1) + 2
+                * _condTerm(topAvailable, mbTop, (cbpTop >> 2) & 1), cbp0);
+        encoder.encodeBin(73 + (1 - cbp0) + 2 * _condTerm(topAvailable, mbTop, (cbpTop >> 3) & 1), cbp1);
+        encoder.encodeBin(73 + _condTerm(leftAvailable, mbLeft, (cbpLeft >> 3) & 1) + 2 * (1 - cbp0), cbp2);
+        encoder.encodeBin(73 + (1 - cbp2) + 2 * (1 - cbp1), cbp3);
+
+        int cbpChroma = cbp >> 4;
+        encoder.encodeBin(77 + condTermCr0(leftAvailable, mbLeft, cbpLeft >> 4) + 2
+                * condTermCr0(topAvailable, mbTop, cbpTop >> 4), cbpChroma != 0 ? 1 : 0);
+        if (cbpChroma != 0)
+            encoder.encodeBin(81 + condTermCr1(leftAvailable, mbLeft, cbpLeft >> 4) + 2
+                    * condTermCr1(topAvailable, mbTop, cbpTop >> 4), cbpChroma >> 1);
+    }
+
     private int condTermCr0(boolean avb, MBType mbt, int cbpChroma) {
         return avb && (mbt == I_PCM || mbt != null && cbpChroma != 0) ? 1 : 0;
     }
@@ -614,16 +900,9 @@ public class CABAC {
 
         int partAbsX = (mbX << 2) + partX;
 
-        boolean predEqA = leftPred != null && leftPred != Direct
-                && (leftPred == Bi || leftPred == curPred || (curPred == Bi && H264Const.usesList(leftPred, list)));
-        boolean predEqB = topPred != null && topPred != Direct
-                && (topPred == Bi || topPred == curPred || (curPred == Bi && H264Const.usesList(topPred, list)));
-
         // prefix and suffix as given by UEG3 with signedValFlag=1, uCoff=9
-        int absMvdComp = !leftAvailable || leftType == null || leftType.isIntra() || !predEqA ? 0 : Math
-                .abs(mvdLeft[list][comp][partY]);
-        absMvdComp += !topAvailable || topType == null || topType.isIntra() || !predEqB ? 0 : Math
-                .abs(mvdTop[list][comp][partAbsX]);
+        int absMvdComp = absMvdComp(comp, leftAvailable, topAvailable, leftType, topType, leftPred, topPred, curPred,
+                partAbsX, partY, list);
 
         int val, b = decoder.decodeBin(ctx + (absMvdComp < 3 ? 0 : (absMvdComp > 32 ? 2 : 1)));
         for (val = 0; b != 0 && val < 8; val++)
@@ -632,7 +911,7 @@ public class CABAC {
 
         if (val != 0) {
             if (val == 9) {
-                int log = 2, add = 0, sum = 0, leftover = 0;
+                int log = 2, sum = 0, leftover = 0;
                 do {
                     sum += leftover;
                     log++;
@@ -640,25 +919,75 @@ public class CABAC {
                     leftover = 1 << log;
                 } while (b != 0);
 
-                --log;
-
-                for (; log >= 0; log--) {
-                    add |= decoder.decodeBinBypass() << log;
+                if (log < 16) {
+                    // log suffix bins and the sign
+                    int bins = decoder.decodeBinsBypass(log + 1);
+                    val = MathUtil.toSigned(val + (bins >> 1) + sum, -(bins & 1));
+                } else {
+                    // Broken stream
+                    int add = 0;
+                    for (--log; log >= 0; log--) {
+                        add |= decoder.decodeBinBypass() << log;
+                    }
+                    val = MathUtil.toSigned(val + add + sum, -decoder.decodeBinBypass());
                 }
-                val += add + sum;
+            } else {
+                val = MathUtil.toSigned(val, -decoder.decodeBinBypass());
             }
-
-            val = MathUtil.toSigned(val, -decoder.decodeBinBypass());
         }
 
+        saveMvd(comp, partAbsX, partY, partW, partH, list, val);
+
+        return val;
+    }
+
+    public void writeMVD(MEncoder encoder, int comp, boolean leftAvailable, boolean topAvailable, MBType leftType,
+            MBType topType, PartPred leftPred, PartPred topPred, PartPred curPred, int mbX, int partX, int partY,
+            int partW, int partH, int list, int mvd) {
+        int ctx = comp == 0 ? 40 : 47;
+
+        int partAbsX = (mbX << 2) + partX;
+
+        int absMvdComp = absMvdComp(comp, leftAvailable, topAvailable, leftType, topType, leftPred, topPred, curPred,
+                partAbsX, partY, list);
+
+        int absVal = MathUtil.abs(mvd);
+        int prefix = Math.min(absVal, 9);
+        encoder.encodeBin(ctx + (absMvdComp < 3 ? 0 : (absMvdComp > 32 ? 2 : 1)), prefix == 0 ? 0 : 1);
+        for (int i = 1; i < prefix; i++)
+            encoder.encodeBin(Math.min(ctx + i + 2, ctx + 6), 1);
+        if (prefix > 0 && prefix < 9)
+            encoder.encodeBin(Math.min(ctx + prefix + 2, ctx + 6), 0);
+
+        if (absVal >= 9)
+            writeExpGolombBypass(encoder, absVal - 9, 3);
+        if (absVal != 0)
+            encoder.encodeBinBypass(mvd < 0 ? 1 : 0);
+
+        saveMvd(comp, partAbsX, partY, partW, partH, list, mvd);
+    }
+
+    private int absMvdComp(int comp, boolean leftAvailable, boolean topAvailable, MBType leftType, MBType topType,
+            PartPred leftPred, PartPred topPred, PartPred curPred, int partAbsX, int partY, int list) {
+        boolean predEqA = leftPred != null && leftPred != Direct
+                && (leftPred == Bi || leftPred == curPred || (curPred == Bi && H264Const.usesList(leftPred, list)));
+        boolean predEqB = topPred != null && topPred != Direct
+                && (topPred == Bi || topPred == curPred || (curPred == Bi && H264Const.usesList(topPred, list)));
+
+        int absMvdComp = !leftAvailable || leftType == null || leftType.isIntra() || !predEqA ? 0 : Math
+                .abs(mvdLeft[list][comp][partY]);
+        absMvdComp += !topAvailable || topType == null || topType.isIntra() || !predEqB ? 0 : Math
+                .abs(mvdTop[list][comp][partAbsX]);
+        return absMvdComp;
+    }
+
+    private void saveMvd(int comp, int partAbsX, int partY, int partW, int partH, int list, int val) {
         for (int i = 0; i < partW; i++) {
             mvdTop[list][comp][partAbsX + i] = val;
         }
         for (int i = 0; i < partH; i++) {
             mvdLeft[list][comp][partY + i] = val;
         }
-
-        return val;
     }
 
     public int readRefIdx(MDecoder mDecoder, boolean leftAvailable, boolean topAvailable, MBType leftType,
@@ -702,16 +1031,25 @@ public class CABAC {
 
     public boolean readMBSkipFlag(MDecoder mDecoder, SliceType slType, boolean leftAvailable, boolean topAvailable,
             int mbX) {
-        int base = slType == SliceType.P ? 11 : 24;
-
-        boolean ret = mDecoder.decodeBin(base + (leftAvailable && !skipFlagLeft ? 1 : 0)
-                + (topAvailable && !skipFlagsTop[mbX] ? 1 : 0)) == 1;
+        boolean ret = mDecoder.decodeBin(mbSkipFlagCtx(slType, leftAvailable, topAvailable, mbX)) == 1;
 
         skipFlagLeft = skipFlagsTop[mbX] = ret;
 
         return ret;
     }
 
+    public void writeMBSkipFlag(MEncoder encoder, SliceType slType, boolean leftAvailable, boolean topAvailable,
+            int mbX, boolean skip) {
+        encoder.encodeBin(mbSkipFlagCtx(slType, leftAvailable, topAvailable, mbX), skip ? 1 : 0);
+
+        skipFlagLeft = skipFlagsTop[mbX] = skip;
+    }
+
+    private int mbSkipFlagCtx(SliceType slType, boolean leftAvailable, boolean topAvailable, int mbX) {
+        int base = slType == SliceType.P ? 11 : 24;
+        return base + (leftAvailable && !skipFlagLeft ? 1 : 0) + (topAvailable && !skipFlagsTop[mbX] ? 1 : 0);
+    }
+
     public int readSubMbTypeP(MDecoder mDecoder) {
         if (mDecoder.decodeBin(21) == 1)
             return 0;
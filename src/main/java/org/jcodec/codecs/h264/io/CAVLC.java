@@ -4,6 +4,8 @@ import static org.jcodec.codecs.h264.decode.CAVLCReader.readZeroBitCount;
 import static org.jcodec.common.model.ColorSpace.YUV422;
 import static org.jcodec.common.model.ColorSpace.YUV444;
 
+import java.util.Arrays;
+
 import org.jcodec.codecs.h264.H264Const;
 import org.jcodec.codecs.h264.io.model.MBType;
 import org.jcodec.codecs.h264.io.model.PictureParameterSet;
@@ -35,6 +37,12 @@ public class CAVLC {
     private int mbMask;
     private int mbW;
     private int mbH;
+    // The first block row of the slice being written
+    private int firstBlkY;
+
+    // Scratch space of readCoeffs, a block has at most 16 coefficients
+    private int[] levelBuf;
+    private int[] runBuf;
 
     public CAVLC(SeqParameterSet sps, PictureParameterSet pps, int mbW, int mbH) {
         this(sps.chromaFormatIdc, sps.picWidthInMbsMinus1 + 1, mbW, mbH);
@@ -50,19 +58,40 @@ public class CAVLC {
 
         tokensLeft      = new int[4];
         tokensTop       = new int[mbWidth << mbW];
+        levelBuf        = new int[16];
+        runBuf          = new int[16];
     }
 
     public CAVLC fork() {
         CAVLC ret = new CAVLC(color, mbWidth, mbW, mbH);
         System.arraycopy(tokensLeft, 0, ret.tokensLeft, 0, tokensLeft.length);
         System.arraycopy(tokensTop, 0, ret.tokensTop, 0, tokensTop.length);
+        ret.firstBlkY = firstBlkY;
         return ret;
     }
 
+    /**
+     * Sets the first macroblock row of the slice being written, the tokens of
+     * the blocks above it are not used to predict the coefficient tokens
+     * 
+     * @param mbY
+     */
+    public void setFirstMbY(int mbY) {
+        this.firstBlkY = mbY << mbH;
+    }
+
+    /**
+     * Takes the tokens of the bottom blocks of n macroblocks starting at mbX
+     * from the writer of the macroblock row above
+     */
+    public void copyTop(CAVLC above, int mbX, int n) {
+        System.arraycopy(above.tokensTop, mbX << mbW, tokensTop, mbX << mbW, n << mbW);
+    }
+
     public int writeACBlock(BitWriter out, int blkIndX, int blkIndY, MBType leftMBType, MBType topMBType, int[] coeff,
             VLC[] totalZerosTab, int firstCoeff, int maxCoeff, int[] scan) {
         VLC coeffTokenTab = getCoeffTokenVLCForLuma(blkIndX != 0, leftMBType, tokensLeft[blkIndY & mbMask],
-                blkIndY != 0, topMBType, tokensTop[blkIndX]);
+                blkIndY > firstBlkY, topMBType, tokensTop[blkIndX]);
 
         int coeffToken = writeBlockGen(out, coeff, totalZerosTab, firstCoeff, maxCoeff, scan, coeffTokenTab);
 
@@ -80,7 +109,7 @@ public class CAVLC {
     public void writeLumaDCBlock(BitWriter out, int blkIndX, int blkIndY, MBType leftMBType, MBType topMBType,
             int[] coeff, VLC[] totalZerosTab, int firstCoeff, int maxCoeff, int[] scan) {
         VLC coeffTokenTab = getCoeffTokenVLCForLuma(blkIndX != 0, leftMBType, tokensLeft[blkIndY & mbMask],
-                blkIndY != 0, topMBType, tokensTop[blkIndX]);
+                blkIndY > firstBlkY, topMBType, tokensTop[blkIndX]);
 
         writeBlockGen(out, coeff, totalZerosTab, firstCoeff, maxCoeff, scan, coeffTokenTab);
     }
@@ -222,7 +251,7 @@ public class CAVLC {
         if (totalCoeff > 0) {
             int suffixLength = totalCoeff > 10 && trailingOnes < 3 ? 1 : 0;
 
-            int[] level = new int[totalCoeff];
+            int[] level = levelBuf;
             int i;
             for (i = 0; i < trailingOnes; i++) {
                 int read1Bit = _in.read1Bit();
@@ -272,7 +301,8 @@ public class CAVLC {
             } else
                 zerosLeft = 0;
 
-            int[] runs = new int[totalCoeff];
+            int[] runs = runBuf;
+            Arrays.fill(runs, 0, totalCoeff, 0);
             int r;
             for (r = 0; r < totalCoeff - 1 && zerosLeft > 0; r++) {
                 int run = H264Const.run[Math.min(6, zerosLeft - 1)].readVLC(_in);
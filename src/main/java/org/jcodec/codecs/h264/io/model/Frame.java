@@ -1,7 +1,9 @@
 package org.jcodec.codecs.h264.io.model;
 
+import java.util.Arrays;
 import java.util.Comparator;
 
+import org.jcodec.codecs.h264.H264Utils.ColocatedMvs;
 import org.jcodec.codecs.h264.H264Utils.MvList2D;
 import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Picture;
@@ -17,21 +19,43 @@ import org.jcodec.common.model.Rect;
  * 
  */
 public class Frame extends Picture {
+    /**
+     * Border around the luma plane of a reference frame, the chroma border is
+     * scaled with the plane
+     */
+    public static final int PADDING = 32;
+
     private int frameNo;
     private SliceType frameType;
     private MvList2D mvs;
     private Frame[][][] refsUsed;
+    private ColocatedMvs colMvs;
     private boolean shortTerm;
     private int poc;
+    private volatile int decodedLines;
+    private int border;
 
     public Frame(int width, int height, byte[][] data, ColorSpace color, Rect crop, int frameNo, SliceType frameType,
             MvList2D mvs, Frame[][][] refsUsed, int poc) {
+        this(width, height, data, color, crop, frameNo, frameType, mvs, refsUsed, poc, 0);
+    }
+
+    /**
+     * @param border
+     *            Luma pixels around the planes in 'data', the lines of a
+     *            plane are getStride apart and start at getOrigin. Only the
+     *            decoder reads and writes the frames with a border.
+     */
+    public Frame(int width, int height, byte[][] data, ColorSpace color, Rect crop, int frameNo, SliceType frameType,
+            MvList2D mvs, Frame[][][] refsUsed, int poc, int border) {
         super(width, height, data, null, color, 0, crop);
         this.frameNo = frameNo;
         this.mvs = mvs;
         this.refsUsed = refsUsed;
         this.poc = poc;
+        this.border = border;
         shortTerm = true;
+        decodedLines = Integer.MAX_VALUE;
     }
 
     public static Frame createFrame(Frame pic) {
@@ -40,6 +64,30 @@ public class Frame extends Picture {
                 pic.frameNo, pic.frameType, pic.mvs, pic.refsUsed, pic.poc);
     }
 
+    /**
+     * Creates a frame of the size of 'pic' with the planes allocated with the
+     * border
+     */
+    public static Frame createFrame(Frame pic, int border) {
+        return new Frame(pic.getWidth(), pic.getHeight(), createPlanes(pic.getWidth(), pic.getHeight(),
+                pic.getColor(), border), pic.getColor(), pic.getCrop(), pic.frameNo, pic.frameType, pic.mvs,
+                pic.refsUsed, pic.poc, border);
+    }
+
+    /**
+     * Allocates the planes of a frame with the border of 'border' luma pixels
+     */
+    public static byte[][] createPlanes(int width, int height, ColorSpace color, int border) {
+        byte[][] planes = new byte[color.nComp][];
+        for (int c = 0; c < color.nComp; c++) {
+            int w = width >> color.compWidth[c];
+            int h = height >> color.compHeight[c];
+            int b = border * w / width;
+            planes[c] = new byte[(w + 2 * b) * (h + 2 * b)];
+        }
+        return planes;
+    }
+
     public Frame cropped() {
         Picture cropped = super.cropped();
         return new Frame(cropped.getWidth(), cropped.getHeight(), cropped.getData(), cropped.getColor(), null, frameNo,
@@ -47,11 +95,12 @@ public class Frame extends Picture {
     }
 
     public void copyFromFrame(Frame src) {
-        super.copyFrom(src);
+        copyPlanes(src);
         this.frameNo = src.frameNo;
         this.mvs = src.mvs;
         this.shortTerm = src.shortTerm;
         this.refsUsed = src.refsUsed;
+        this.colMvs = src.colMvs;
         this.poc = src.poc;
     }
     
@@ -65,7 +114,7 @@ public class Frame extends Picture {
             return cropped();
         } else {
             Frame clone = createFrame(this);
-            clone.copyFrom(this);
+            clone.copyPlanes(this);
             return clone;
         }
     }
@@ -116,10 +165,142 @@ public class Frame extends Picture {
         }
     };
 
+    /**
+     * Marks this frame as being decoded, after this call the readers calling
+     * waitForLines will block until the decoder reports the progress.
+     */
+    public void startDecoding() {
+        decodedLines = 0;
+    }
+
+    /**
+     * Reports the number of luma lines at the top of this frame that will not
+     * be modified by the decoder anymore. Integer.MAX_VALUE means the frame is
+     * complete.
+     */
+    public synchronized void setDecodedLines(int lines) {
+        decodedLines = lines;
+        notifyAll();
+    }
+
+    /**
+     * Blocks until at least the given number of luma lines at the top of the
+     * frame have been fully decoded (including the in-loop filtering).
+     */
+    public void waitForLines(int lines) {
+        if (decodedLines >= lines)
+            return;
+        lines = Math.min(lines, getHeight());
+        synchronized (this) {
+            while (decodedLines < lines) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replicates the edge pixels of the lines [from, to) of this frame into
+     * its border, the top and the bottom borders are filled when the first and
+     * the last line is. The motion compensation reads a reference with the
+     * border without clipping the coordinates.
+     * 
+     * @param from
+     *            First luma line
+     * @param to
+     *            Line after the last luma line
+     */
+    public void extendEdges(int from, int to) {
+        for (int c = 0; c < getColor().nComp; c++) {
+            int planeH = getPlaneHeight(c);
+            extendPlane(getPlaneData(c), getPlaneWidth(c), planeH, getBorder(c), from * planeH / getHeight(),
+                    to * planeH / getHeight());
+        }
+    }
+
+    private static void extendPlane(byte[] plane, int w, int h, int border, int from, int to) {
+        int stride = w + 2 * border;
+        for (int y = from; y < to; y++) {
+            int off = (y + border) * stride;
+            Arrays.fill(plane, off, off + border, plane[off + border]);
+            Arrays.fill(plane, off + border + w, off + stride, plane[off + border + w - 1]);
+        }
+        if (from == 0 && to > 0) {
+            for (int y = 0; y < border; y++)
+                System.arraycopy(plane, border * stride, plane, y * stride, stride);
+        }
+        if (to == h && from < h) {
+            for (int y = h + border; y < h + 2 * border; y++)
+                System.arraycopy(plane, (h + border - 1) * stride, plane, y * stride, stride);
+        }
+    }
+
+    private void copyPlanes(Frame src) {
+        if (border == 0 && src.border == 0) {
+            super.copyFrom(src);
+            return;
+        }
+        if (!compatible(src))
+            throw new IllegalArgumentException("Can not copy to incompatible picture");
+        for (int c = 0; c < getColor().nComp; c++) {
+            int w = getPlaneWidth(c);
+            int srcStride = getStride(src, c), dstStride = getStride(this, c);
+            for (int y = 0, srcOff = getOrigin(src, c), dstOff = getOrigin(this, c); y < getPlaneHeight(c); y++) {
+                System.arraycopy(src.getPlaneData(c), srcOff, getPlaneData(c), dstOff, w);
+                srcOff += srcStride;
+                dstOff += dstStride;
+            }
+        }
+    }
+
+    /**
+     * @return Width of the border around the plane c, 0 when the frame has no
+     *         border
+     */
+    public int getBorder(int c) {
+        return border * getPlaneWidth(c) / getWidth();
+    }
+
+    /**
+     * @return Distance between the lines of the plane c of the picture
+     */
+    public static int getStride(Picture pic, int c) {
+        int stride = pic.getPlaneWidth(c);
+        if (pic instanceof Frame)
+            stride += 2 * ((Frame) pic).getBorder(c);
+        return stride;
+    }
+
+    /**
+     * @return Position of the top left pixel of the plane c of the picture
+     */
+    public static int getOrigin(Picture pic, int c) {
+        if (!(pic instanceof Frame))
+            return 0;
+        int border = ((Frame) pic).getBorder(c);
+        return border * getStride(pic, c) + border;
+    }
+
     public Frame[][][] getRefsUsed() {
         return refsUsed;
     }
 
+    /**
+     * @return The motion used for the direct prediction when this frame is
+     *         the co-located picture. Unlike getMvs() it stays with the frame
+     *         while it's referenced.
+     */
+    public ColocatedMvs getColocatedMvs() {
+        return colMvs;
+    }
+
+    public void setColocatedMvs(ColocatedMvs colMvs) {
+        this.colMvs = colMvs;
+    }
+
     public SliceType getFrameType() {
         return frameType;
     }
@@ -101,7 +101,14 @@ public class PictureParameterSet {
     }
     
     public static PictureParameterSet read(ByteBuffer is) {
-        BitReader _in = BitReader.createBitReader(is);
+        return read(BitReader.createBitReader(is));
+    }
+
+    /**
+     * Reads the parameter set with a bit reader, a NALBitReader reads it
+     * straight from the escaped NAL unit
+     */
+    public static PictureParameterSet read(BitReader _in) {
         PictureParameterSet pps = new PictureParameterSet();
 
         pps.picParameterSetId = readUEtrace(_in, "PPS: pic_parameter_set_id");
@@ -176,7 +176,14 @@ public class SeqParameterSet {
     }
 
     public static SeqParameterSet read(ByteBuffer is) {
-        BitReader _in = BitReader.createBitReader(is);
+        return read(BitReader.createBitReader(is));
+    }
+
+    /**
+     * Reads the parameter set with a bit reader, a NALBitReader reads it
+     * straight from the escaped NAL unit
+     */
+    public static SeqParameterSet read(BitReader _in) {
         SeqParameterSet sps = new SeqParameterSet();
 
         sps.profileIdc = readNBit(_in, 8, "SPS: profile_idc");
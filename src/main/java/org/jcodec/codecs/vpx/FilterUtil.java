@@ -250,115 +250,136 @@ public class FilterUtil {
     public static void loopFilterUV(VPXMacroblock[][] mbs, int sharpnessLevel, boolean keyFrame) {
         for (int y = 0; y < (mbs.length - 2); y++) {
             for (int x = 0; x < (mbs[0].length - 2); x++) {
-                VPXMacroblock rmb = mbs[y + 1][x + 1];
-                VPXMacroblock bmb = mbs[y + 1][x + 1];
-                int loop_filter_level = rmb.filterLevel;
-                if (loop_filter_level != 0) {
-                    int interior_limit = rmb.filterLevel;
-                    if (sharpnessLevel > 0) {
-                        interior_limit >>= sharpnessLevel > 4 ? 2 : 1;
-                        if (interior_limit > 9 - sharpnessLevel)
-                            interior_limit = 9 - sharpnessLevel;
-                    }
-                    if (interior_limit == 0)
-                        interior_limit = 1;
-
-                    int hev_threshold = 0;
-                    if (keyFrame) /* current frame is a key frame */ {
-                        if (loop_filter_level >= 40)
-                            hev_threshold = 2;
-                        else if (loop_filter_level >= 15)
-                            hev_threshold = 1;
-                    } else /* current frame is an interframe */ {
-                        throw new NotImplementedException("TODO: non-key frames are not supported yet.");
+                loopFilterUV(mbs, y, x, sharpnessLevel, keyFrame);
+            }
+        }
+    }
+
+    public static void loopFilterY(VPXMacroblock[][] mbs, int sharpnessLevel, boolean keyFrame) {
+        for (int y = 0; y < (mbs.length - 2); y++) {
+            for (int x = 0; x < (mbs[0].length - 2); x++) {
+                loopFilterY(mbs, y, x, sharpnessLevel, keyFrame);
+            }
+        }
+    }
+
+    /**
+     * Filters the edges of one macroblock, the pixels it changes are in this
+     * macroblock and in the macroblocks to the left and above of it.
+     */
+    public static void loopFilterMB(VPXMacroblock[][] mbs, int y, int x, int sharpnessLevel, boolean keyFrame) {
+        loopFilterUV(mbs, y, x, sharpnessLevel, keyFrame);
+        loopFilterY(mbs, y, x, sharpnessLevel, keyFrame);
+    }
+
+    private static void loopFilterUV(VPXMacroblock[][] mbs, int y, int x, int sharpnessLevel, boolean keyFrame) {
+        VPXMacroblock rmb = mbs[y + 1][x + 1];
+        VPXMacroblock bmb = mbs[y + 1][x + 1];
+        int loop_filter_level = rmb.filterLevel;
+        if (loop_filter_level != 0) {
+            int interior_limit = rmb.filterLevel;
+            if (sharpnessLevel > 0) {
+                interior_limit >>= sharpnessLevel > 4 ? 2 : 1;
+                if (interior_limit > 9 - sharpnessLevel)
+                    interior_limit = 9 - sharpnessLevel;
+            }
+            if (interior_limit == 0)
+                interior_limit = 1;
+
+            int hev_threshold = 0;
+            if (keyFrame) /* current frame is a key frame */ {
+                if (loop_filter_level >= 40)
+                    hev_threshold = 2;
+                else if (loop_filter_level >= 15)
+                    hev_threshold = 1;
+            } else /* current frame is an interframe */ {
+                throw new NotImplementedException("TODO: non-key frames are not supported yet.");
 //                                if (loop_filter_level >= 40)
 //                                    hev_threshold = 3;
 //                                else if (loop_filter_level >= 20)
 //                                    hev_threshold = 2;
 //                                else if (loop_filter_level >= 15)
 //                                    hev_threshold = 1;
-                    }
+            }
+
+            /* Luma and Chroma use the same inter-macroblock edge limit */
+            int mbedge_limit = ((loop_filter_level + 2) * 2) + interior_limit;
+            /* Luma and Chroma use the same inter-subblock edge limit */
+            int sub_bedge_limit = (loop_filter_level * 2) + interior_limit;
+
+            if (x > 0) {
+                VPXMacroblock lmb = mbs[y + 1][x + 1 - 1];
+                for (int b = 0; b < 2; b++) {
+                    Subblock rsbU = rmb.uSubblocks[b][0];
+                    Subblock lsbU = lmb.uSubblocks[b][1];
+                    Subblock rsbV = rmb.vSubblocks[b][0];
+                    Subblock lsbV = lmb.vSubblocks[b][1];
+                    for (int a = 0; a < 4; a++) {
+                        Segment seg = horizontal(rsbU, lsbU, a);
+                        seg.filterMb(hev_threshold, interior_limit, mbedge_limit);
+                        seg.applyHorizontally(rsbU, lsbU, a);
+                        seg = horizontal(rsbV, lsbV, a);
+                        seg.filterMb(hev_threshold, interior_limit, mbedge_limit);
+                        seg.applyHorizontally(rsbV, lsbV, a);
 
-                    /* Luma and Chroma use the same inter-macroblock edge limit */
-                    int mbedge_limit = ((loop_filter_level + 2) * 2) + interior_limit;
-                    /* Luma and Chroma use the same inter-subblock edge limit */
-                    int sub_bedge_limit = (loop_filter_level * 2) + interior_limit;
-
-                    if (x > 0) {
-                        VPXMacroblock lmb = mbs[y + 1][x + 1 - 1];
-                        for (int b = 0; b < 2; b++) {
-                            Subblock rsbU = rmb.uSubblocks[b][0];
-                            Subblock lsbU = lmb.uSubblocks[b][1];
-                            Subblock rsbV = rmb.vSubblocks[b][0];
-                            Subblock lsbV = lmb.vSubblocks[b][1];
-                            for (int a = 0; a < 4; a++) {
-                                Segment seg = horizontal(rsbU, lsbU, a);
-                                seg.filterMb(hev_threshold, interior_limit, mbedge_limit);
-                                seg.applyHorizontally(rsbU, lsbU, a);
-                                seg = horizontal(rsbV, lsbV, a);
-                                seg.filterMb(hev_threshold, interior_limit, mbedge_limit);
-                                seg.applyHorizontally(rsbV, lsbV, a);
-
-                            }
-                        }
                     }
-                    // sb left
-
-                    if (!rmb.skipFilter) {
-                        for (int a = 1; a < 2; a++) {
-                            for (int b = 0; b < 2; b++) {
-                                Subblock lsbU = rmb.uSubblocks[b][a - 1];
-                                Subblock rsbU = rmb.uSubblocks[b][a];
-                                Subblock lsbV = rmb.vSubblocks[b][a - 1];
-                                Subblock rsbV = rmb.vSubblocks[b][a];
-                                for (int c = 0; c < 4; c++) {
-                                    Segment seg = horizontal(rsbU, lsbU, c);
-                                    seg.filterSb(hev_threshold, interior_limit, sub_bedge_limit);
-                                    seg.applyHorizontally(rsbU, lsbU, c);
-                                    seg = horizontal(rsbV, lsbV, c);
-                                    seg.filterSb(hev_threshold, interior_limit, sub_bedge_limit);
-                                    seg.applyHorizontally(rsbV, lsbV, c);
-                                }
-                            }
+                }
+            }
+            // sb left
+
+            if (!rmb.skipFilter) {
+                for (int a = 1; a < 2; a++) {
+                    for (int b = 0; b < 2; b++) {
+                        Subblock lsbU = rmb.uSubblocks[b][a - 1];
+                        Subblock rsbU = rmb.uSubblocks[b][a];
+                        Subblock lsbV = rmb.vSubblocks[b][a - 1];
+                        Subblock rsbV = rmb.vSubblocks[b][a];
+                        for (int c = 0; c < 4; c++) {
+                            Segment seg = horizontal(rsbU, lsbU, c);
+                            seg.filterSb(hev_threshold, interior_limit, sub_bedge_limit);
+                            seg.applyHorizontally(rsbU, lsbU, c);
+                            seg = horizontal(rsbV, lsbV, c);
+                            seg.filterSb(hev_threshold, interior_limit, sub_bedge_limit);
+                            seg.applyHorizontally(rsbV, lsbV, c);
                         }
                     }
-                    // top
-                    if (y > 0) {
-                        VPXMacroblock tmb = mbs[y + 1 - 1][x + 1];
-                        for (int b = 0; b < 2; b++) {
-                            Subblock tsbU = tmb.uSubblocks[1][b];
-                            Subblock bsbU = bmb.uSubblocks[0][b];
-                            Subblock tsbV = tmb.vSubblocks[1][b];
-                            Subblock bsbV = bmb.vSubblocks[0][b];
-                            for (int a = 0; a < 4; a++) {
-                                // System.out.println("l");
-                                Segment seg = vertical(bsbU, tsbU, a);
-                                seg.filterMb(hev_threshold, interior_limit, mbedge_limit);
-                                seg.applyVertically(bsbU, tsbU, a);
-                                seg = vertical(bsbV, tsbV, a);
-                                seg.filterMb(hev_threshold, interior_limit, mbedge_limit);
-                                seg.applyVertically(bsbV, tsbV, a);
-                            }
-                        }
+                }
+            }
+            // top
+            if (y > 0) {
+                VPXMacroblock tmb = mbs[y + 1 - 1][x + 1];
+                for (int b = 0; b < 2; b++) {
+                    Subblock tsbU = tmb.uSubblocks[1][b];
+                    Subblock bsbU = bmb.uSubblocks[0][b];
+                    Subblock tsbV = tmb.vSubblocks[1][b];
+                    Subblock bsbV = bmb.vSubblocks[0][b];
+                    for (int a = 0; a < 4; a++) {
+                        // System.out.println("l");
+                        Segment seg = vertical(bsbU, tsbU, a);
+                        seg.filterMb(hev_threshold, interior_limit, mbedge_limit);
+                        seg.applyVertically(bsbU, tsbU, a);
+                        seg = vertical(bsbV, tsbV, a);
+                        seg.filterMb(hev_threshold, interior_limit, mbedge_limit);
+                        seg.applyVertically(bsbV, tsbV, a);
                     }
-                    // sb top
-
-                    if (!rmb.skipFilter) {
-                        for (int a = 1; a < 2; a++) {
-                            for (int b = 0; b < 2; b++) {
-                                Subblock tsbU = bmb.uSubblocks[a - 1][b];
-                                Subblock bsbU = bmb.uSubblocks[a][b];
-                                Subblock tsbV = bmb.vSubblocks[a - 1][b];
-                                Subblock bsbV = bmb.vSubblocks[a][b];
-                                for (int c = 0; c < 4; c++) {
-                                    Segment seg = vertical(bsbU, tsbU, c);
-                                    seg.filterSb(hev_threshold, interior_limit, sub_bedge_limit);
-                                    seg.applyVertically(bsbU, tsbU, c);
-                                    seg = vertical(bsbV, tsbV, c);
-                                    seg.filterSb(hev_threshold, interior_limit, sub_bedge_limit);
-                                    seg.applyVertically(bsbV, tsbV, c);
-                                }
-                            }
+                }
+            }
+            // sb top
+
+            if (!rmb.skipFilter) {
+                for (int a = 1; a < 2; a++) {
+                    for (int b = 0; b < 2; b++) {
+                        Subblock tsbU = bmb.uSubblocks[a - 1][b];
+                        Subblock bsbU = bmb.uSubblocks[a][b];
+                        Subblock tsbV = bmb.vSubblocks[a - 1][b];
+                        Subblock bsbV = bmb.vSubblocks[a][b];
+                        for (int c = 0; c < 4; c++) {
+                            Segment seg = vertical(bsbU, tsbU, c);
+                            seg.filterSb(hev_threshold, interior_limit, sub_bedge_limit);
+                            seg.applyVertically(bsbU, tsbU, c);
+                            seg = vertical(bsbV, tsbV, c);
+                            seg.filterSb(hev_threshold, interior_limit, sub_bedge_limit);
+                            seg.applyVertically(bsbV, tsbV, c);
                         }
                     }
                 }
@@ -366,101 +387,97 @@ public class FilterUtil {
         }
     }
 
-    public static void loopFilterY(VPXMacroblock[][] mbs, int sharpnessLevel, boolean keyFrame) {
-        for (int y = 0; y < (mbs.length - 2); y++) {
-            for (int x = 0; x < (mbs[0].length - 2); x++) {
-                VPXMacroblock rmb = mbs[y + 1][x + 1];
-                VPXMacroblock bmb = mbs[y + 1][x + 1];
-                int loopFilterLevel = rmb.filterLevel;
+    private static void loopFilterY(VPXMacroblock[][] mbs, int y, int x, int sharpnessLevel, boolean keyFrame) {
+        VPXMacroblock rmb = mbs[y + 1][x + 1];
+        VPXMacroblock bmb = mbs[y + 1][x + 1];
+        int loopFilterLevel = rmb.filterLevel;
 
-                if (loopFilterLevel != 0) {
-                    int interiorLimit = rmb.filterLevel;
+        if (loopFilterLevel != 0) {
+            int interiorLimit = rmb.filterLevel;
 
-                    if (sharpnessLevel > 0) {
-                        interiorLimit >>= sharpnessLevel > 4 ? 2 : 1;
-                        if (interiorLimit > 9 - sharpnessLevel)
-                            interiorLimit = 9 - sharpnessLevel;
-                    }
-                    if (interiorLimit == 0)
-                        interiorLimit = 1;
-
-                    int varianceThreshold = 0;
-                    if (keyFrame) /* current frame is a key frame */ {
-                        if (loopFilterLevel >= 40)
-                            varianceThreshold = 2;
-                        else if (loopFilterLevel >= 15)
-                            varianceThreshold = 1;
-                    } else /* current frame is an interframe */ {
-                        throw new NotImplementedException("TODO: non-key frames are not supported yet");
+            if (sharpnessLevel > 0) {
+                interiorLimit >>= sharpnessLevel > 4 ? 2 : 1;
+                if (interiorLimit > 9 - sharpnessLevel)
+                    interiorLimit = 9 - sharpnessLevel;
+            }
+            if (interiorLimit == 0)
+                interiorLimit = 1;
+
+            int varianceThreshold = 0;
+            if (keyFrame) /* current frame is a key frame */ {
+                if (loopFilterLevel >= 40)
+                    varianceThreshold = 2;
+                else if (loopFilterLevel >= 15)
+                    varianceThreshold = 1;
+            } else /* current frame is an interframe */ {
+                throw new NotImplementedException("TODO: non-key frames are not supported yet");
 //                                if (loopFilterLevel >= 40)
 //                                    varianceThreshold = 3;
 //                                else if (loop_filter_level >= 20)
 //                                    varianceThreshold = 2;
 //                                else if (loop_filter_level >= 15)
 //                                    varianceThreshold = 1;
-                    }
+            }
 
-                    /**
-                     * Luma and Chroma use the same inter-macroblock edge limit
-                     */
-                    int edgeLimitMb = ((loopFilterLevel + 2) * 2) + interiorLimit;
-                    /**
-                     * Luma and Chroma use the same inter-subblock edge limit
-                     */
-                    int edgeLimitSb = (loopFilterLevel * 2) + interiorLimit;
-
-                    // left
-                    if (x > 0) {
-                        VPXMacroblock lmb = mbs[y + 1][x - 1 + 1];
-                        for (int b = 0; b < 4; b++) {
-                            Subblock rsb = rmb.ySubblocks[b][0];
-                            Subblock lsb = lmb.ySubblocks[b][3];
-                            for (int a = 0; a < 4; a++) {
-                                Segment seg = horizontal(rsb, lsb, a);
-                                seg.filterMb(varianceThreshold, interiorLimit, edgeLimitMb);
-                                seg.applyHorizontally(rsb, lsb, a);
-                            }
-                        }
+            /**
+             * Luma and Chroma use the same inter-macroblock edge limit
+             */
+            int edgeLimitMb = ((loopFilterLevel + 2) * 2) + interiorLimit;
+            /**
+             * Luma and Chroma use the same inter-subblock edge limit
+             */
+            int edgeLimitSb = (loopFilterLevel * 2) + interiorLimit;
+
+            // left
+            if (x > 0) {
+                VPXMacroblock lmb = mbs[y + 1][x - 1 + 1];
+                for (int b = 0; b < 4; b++) {
+                    Subblock rsb = rmb.ySubblocks[b][0];
+                    Subblock lsb = lmb.ySubblocks[b][3];
+                    for (int a = 0; a < 4; a++) {
+                        Segment seg = horizontal(rsb, lsb, a);
+                        seg.filterMb(varianceThreshold, interiorLimit, edgeLimitMb);
+                        seg.applyHorizontally(rsb, lsb, a);
                     }
-                    // sb left
-                    if (!rmb.skipFilter) {
-                        for (int a = 1; a < 4; a++) {
-                            for (int b = 0; b < 4; b++) {
-                                Subblock lsb = rmb.ySubblocks[b][a - 1];
-                                Subblock rsb = rmb.ySubblocks[b][a];
-                                for (int c = 0; c < 4; c++) {
-                                    Segment seg = horizontal(rsb, lsb, c);
-                                    seg.filterSb(varianceThreshold, interiorLimit, edgeLimitSb);
-                                    seg.applyHorizontally(rsb, lsb, c);
-                                }
-                            }
+                }
+            }
+            // sb left
+            if (!rmb.skipFilter) {
+                for (int a = 1; a < 4; a++) {
+                    for (int b = 0; b < 4; b++) {
+                        Subblock lsb = rmb.ySubblocks[b][a - 1];
+                        Subblock rsb = rmb.ySubblocks[b][a];
+                        for (int c = 0; c < 4; c++) {
+                            Segment seg = horizontal(rsb, lsb, c);
+                            seg.filterSb(varianceThreshold, interiorLimit, edgeLimitSb);
+                            seg.applyHorizontally(rsb, lsb, c);
                         }
                     }
-                    // top
-                    if (y > 0) {
-                        VPXMacroblock tmb = mbs[y - 1 + 1][x + 1];
-                        for (int b = 0; b < 4; b++) {
-                            Subblock tsb = tmb.ySubblocks[3][b];
-                            Subblock bsb = bmb.ySubblocks[0][b];
-                            for (int a = 0; a < 4; a++) {
-                                Segment seg = vertical(bsb, tsb, a);
-                                seg.filterMb(varianceThreshold, interiorLimit, edgeLimitMb);
-                                seg.applyVertically(bsb, tsb, a);
-                            }
-                        }
+                }
+            }
+            // top
+            if (y > 0) {
+                VPXMacroblock tmb = mbs[y - 1 + 1][x + 1];
+                for (int b = 0; b < 4; b++) {
+                    Subblock tsb = tmb.ySubblocks[3][b];
+                    Subblock bsb = bmb.ySubblocks[0][b];
+                    for (int a = 0; a < 4; a++) {
+                        Segment seg = vertical(bsb, tsb, a);
+                        seg.filterMb(varianceThreshold, interiorLimit, edgeLimitMb);
+                        seg.applyVertically(bsb, tsb, a);
                     }
-                    // sb top
-                    if (!rmb.skipFilter) {
-                        for (int a = 1; a < 4; a++) {
-                            for (int b = 0; b < 4; b++) {
-                                Subblock tsb = bmb.ySubblocks[a - 1][b];
-                                Subblock bsb = bmb.ySubblocks[a][b];
-                                for (int c = 0; c < 4; c++) {
-                                    Segment seg = vertical(bsb, tsb, c);
-                                    seg.filterSb(varianceThreshold, interiorLimit, edgeLimitSb);
-                                    seg.applyVertically(bsb, tsb, c);
-                                }
-                            }
+                }
+            }
+            // sb top
+            if (!rmb.skipFilter) {
+                for (int a = 1; a < 4; a++) {
+                    for (int b = 0; b < 4; b++) {
+                        Subblock tsb = bmb.ySubblocks[a - 1][b];
+                        Subblock bsb = bmb.ySubblocks[a][b];
+                        for (int c = 0; c < 4; c++) {
+                            Segment seg = vertical(bsb, tsb, c);
+                            seg.filterSb(varianceThreshold, interiorLimit, edgeLimitSb);
+                            seg.applyVertically(bsb, tsb, c);
                         }
                     }
                 }
@@ -11,15 +11,19 @@ import static org.jcodec.codecs.vpx.VP8Util.vp8CoefUpdateProbs;
 import static org.jcodec.common.Preconditions.checkState;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
 
 import org.jcodec.codecs.vpx.VPXMacroblock.Subblock;
 import org.jcodec.codecs.vpx.vp8.data.EntropyMode;
+import org.jcodec.codecs.vpx.vp8.data.RowSync;
+import org.jcodec.codecs.vpx.vp8.data.Wavefront;
 import org.jcodec.codecs.vpx.vp8.enums.BPredictionMode;
 import org.jcodec.codecs.vpx.VP8Util.QuantizationParams;
 import org.jcodec.codecs.vpx.VP8Util.SubblockConstants;
 import org.jcodec.common.UsedViaReflection;
 import org.jcodec.common.VideoCodecMeta;
 import org.jcodec.common.VideoDecoder;
+import org.jcodec.common.WorkerPool;
 import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Picture;
@@ -37,10 +41,25 @@ public class VP8Decoder extends VideoDecoder {
     private byte[][] segmentationMap;
     private int[] refLoopFilterDeltas;
     private int[] modeLoopFilterDeltas;
+    private ExecutorService tp;
+    private boolean threaded;
 
     public VP8Decoder() {
         refLoopFilterDeltas = new int[MAX_REF_LF_DELTAS];
         modeLoopFilterDeltas = new int[MAX_MODE_LF_DELTAS];
+        this.threaded = Runtime.getRuntime().availableProcessors() > 1;
+        tp = WorkerPool.getInstance().newJob(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The most macroblock rows decoded or loop filtered at once, 1 decodes the
+     * frames on the calling thread.
+     * 
+     * @param maxThreads
+     */
+    public void setMaxThreads(int maxThreads) {
+        tp = WorkerPool.getInstance().newJob(maxThreads);
+        threaded = maxThreads > 1;
     }
 
     @Override
@@ -125,13 +144,7 @@ public class VP8Decoder extends VideoDecoder {
         }
         int log2OfPartCnt = headerDecoder.decodeInt(2);
 
-        checkState(0 == log2OfPartCnt);
-        int partitionsCount = 1;
-        long runningSize = 0;
-        long zSize = frame.limit() - (partitionSize + headerOffset);
-        ByteBuffer tokenBuffer = frame.duplicate();
-        tokenBuffer.position(partitionSize + headerOffset);
-        VPXBooleanDecoder decoder = new VPXBooleanDecoder(tokenBuffer, 0);
+        VPXBooleanDecoder[] decoders = tokenPartitions(frame, partitionSize + headerOffset, 1 << log2OfPartCnt);
 
         short yacIndex = (short) headerDecoder.decodeInt(7);
         short ydcDelta = (short) ((headerDecoder.readBitEq() > 0) ? VP8Util.delta(headerDecoder) : 0);
@@ -248,20 +261,25 @@ public class VP8Decoder extends VideoDecoder {
             }
         }
 
-        for (int mbRow = 0; mbRow < numberOfMBRows; mbRow++) {
-            for (int mbCol = 0; mbCol < numberOfMBCols; mbCol++) {
-                VPXMacroblock mb = mbs[mbRow + 1][mbCol + 1];
-                mb.decodeMacroBlock(mbs, decoder, coefProbs);
-                mb.dequantMacroBlock(mbs);
+        if (threaded && numberOfMBRows > 1 && (decoders.length > 1 || filterType == 2)) {
+            decodeRowsParallel(mbs, decoders, coefProbs, filterType == 2, sharpnessLevel, keyFrame);
+        } else {
+            for (int mbRow = 0; mbRow < numberOfMBRows; mbRow++) {
+                VPXBooleanDecoder decoder = decoders[mbRow % decoders.length];
+                for (int mbCol = 0; mbCol < numberOfMBCols; mbCol++) {
+                    VPXMacroblock mb = mbs[mbRow + 1][mbCol + 1];
+                    mb.decodeMacroBlock(mbs, decoder, coefProbs);
+                    mb.dequantMacroBlock(mbs);
+                }
             }
-        }
 
-        if (filterType > 0 && filterLevel != 0) {
-            if (filterType == 2) {
-                FilterUtil.loopFilterUV(mbs, sharpnessLevel, keyFrame);
-                FilterUtil.loopFilterY(mbs, sharpnessLevel, keyFrame);
-            } else if (filterType == 1) {
-                // loopFilterSimple(frame);
+            if (filterType > 0 && filterLevel != 0) {
+                if (filterType == 2) {
+                    FilterUtil.loopFilterUV(mbs, sharpnessLevel, keyFrame);
+                    FilterUtil.loopFilterY(mbs, sharpnessLevel, keyFrame);
+                } else if (filterType == 1) {
+                    // loopFilterSimple(frame);
+                }
             }
         }
 
@@ -279,6 +297,55 @@ public class VP8Decoder extends VideoDecoder {
         return p;
     }
     
+    /**
+     * The DCT token partitions follow the first partition, the macroblock row
+     * r is in the partition r % count. The sizes of all but the last partition
+     * are stored in front of them as 3 byte little endian numbers.
+     */
+    private static VPXBooleanDecoder[] tokenPartitions(ByteBuffer frame, int offset, int count) {
+        VPXBooleanDecoder[] decoders = new VPXBooleanDecoder[count];
+        int partitionOffset = offset + 3 * (count - 1);
+        for (int i = 0; i < count; i++) {
+            ByteBuffer partition = frame.duplicate();
+            partition.position(partitionOffset);
+            decoders[i] = new VPXBooleanDecoder(partition, 0);
+            if (i < count - 1) {
+                int sizeOffset = offset + 3 * i;
+                partitionOffset += (frame.get(sizeOffset) & 0xff) | (frame.get(sizeOffset + 1) & 0xff) << 8
+                        | (frame.get(sizeOffset + 2) & 0xff) << 16;
+            }
+        }
+        return decoders;
+    }
+
+    /**
+     * Decodes the macroblock rows on the worker pool as a wavefront, a row
+     * starts once the previous row of its token partition is done with the
+     * partition's decoder. The loop filter follows the reconstruction.
+     */
+    private void decodeRowsParallel(final VPXMacroblock[][] mbs, final VPXBooleanDecoder[] decoders,
+            final short[][][][] coefProbs, boolean filter, final int sharpnessLevel, final boolean keyFrame) {
+        int mbRows = mbs.length - 2;
+        int mbCols = mbs[0].length - 2;
+        Wavefront wavefront = new Wavefront(tp);
+        RowSync reconstructed = wavefront.submitBlocks(mbRows, mbCols, decoders.length, null,
+                new Wavefront.BlockTask() {
+                    public void run(int mbRow, int mbCol) {
+                        VPXMacroblock mb = mbs[mbRow + 1][mbCol + 1];
+                        mb.decodeMacroBlock(mbs, decoders[mbRow % decoders.length], coefProbs);
+                        mb.dequantMacroBlock(mbs);
+                    }
+                });
+        if (filter) {
+            wavefront.submitBlocks(mbRows, mbCols, 0, reconstructed, new Wavefront.BlockTask() {
+                public void run(int mbRow, int mbCol) {
+                    FilterUtil.loopFilterMB(mbs, mbRow, mbCol, sharpnessLevel, keyFrame);
+                }
+            });
+        }
+        wavefront.join();
+    }
+
     private int edgeEmu(int mode, int mbCol, int mbRow) {
         switch (mode) {
         case SubblockConstants.V_PRED:
@@ -65,6 +65,32 @@ public class VP8Encoder extends VideoEncoder {
         this.deadline = deadline;
     }
 
+    /**
+     * Speed/quality trade-off, -16..16. With the realtime deadline a negative
+     * value pins the speed to its magnitude, otherwise the speed is picked from
+     * the measured encoding time.
+     *
+     * @param cpuUsed
+     */
+    public void setCpuUsed(int cpuUsed) {
+        vp8Cfg.setCpu_used((short) cpuUsed);
+    }
+
+    /**
+     * Number of the threads encoding the macroblock rows of a frame, each
+     * row follows the row above it by a couple of macroblocks. 0 or 1 encode
+     * on the calling thread. Takes effect when set before the first frame.
+     *
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        cfg.setG_threads(threads);
+    }
+
+    public int getThreads() {
+        return cfg.getG_threads();
+    }
+
     @Override
     public EncodedFrame encodeFrame(Picture pic, ByteBuffer _buf) {
         if (ctx == null) {
@@ -133,12 +133,12 @@ public class VP8Util {
 
         public static final int vp8CoefBands[] = { 0, 1, 2, 3, 6, 4, 5, 6, 6, 6, 6, 6, 6, 6, 6, 7 };
 
-        public final static short Pcat1[] = { 159 };
-        public final static short Pcat2[] = { 165, 145 };
-        public final static short Pcat3[] = { 173, 148, 140 };
-        public final static short Pcat4[] = { 176, 155, 140, 135 };
-        public final static short Pcat5[] = { 180, 157, 141, 134, 130 };
-        public final static short Pcat6[] = { 254, 254, 243, 230, 196, 177, 153, 140, 133, 130, 129 };
+        public final static short Pcat1[] = { 159, 0 };
+        public final static short Pcat2[] = { 165, 145, 0 };
+        public final static short Pcat3[] = { 173, 148, 140, 0 };
+        public final static short Pcat4[] = { 176, 155, 140, 135, 0 };
+        public final static short Pcat5[] = { 180, 157, 141, 134, 130, 0 };
+        public final static short Pcat6[] = { 254, 254, 243, 230, 196, 177, 153, 140, 133, 130, 129, 0 };
 
         public static short keyFrameSubblockModeProb[][][] = {
                 { { 231, 120, 48, 89, 115, 113, 120, 152, 112 }, { 152, 179, 64, 126, 170, 118, 46, 70, 95 },
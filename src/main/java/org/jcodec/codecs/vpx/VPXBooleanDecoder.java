@@ -35,7 +35,7 @@ public class VPXBooleanDecoder {
         value = 0; /* value = first 16 input bits */
 
         // data.position(offset);
-        value = (input.get() & 0xFF) << 8; // readUnsignedByte() << 8;
+        value = nextByte() << 8; // readUnsignedByte() << 8;
         // value = (data[offset]) << 8;
         offset++;
 
@@ -43,6 +43,14 @@ public class VPXBooleanDecoder {
         bit_count = 0; /* have not yet shifted out any bits */
     }
 
+    /**
+     * The bits past the end of the data read as zeros, the way libvpx reads
+     * them, a VP9 tile may well end before its last symbols are decoded.
+     */
+    private int nextByte() {
+        return input.hasRemaining() ? input.get() & 0xFF : 0;
+    }
+
     public int readBitEq() {
         return readBit(128);
     }
@@ -75,7 +83,7 @@ public class VPXBooleanDecoder {
         count -= shift;
 
         if (count <= 0) {
-            value |= (input.get() & 0xFF) << (-count);
+            value |= nextByte() << (-count);
 //                System.out.println("read value: " + value + " binary: " + Integer.toBinaryString(value));
             offset++;
             count += 8;
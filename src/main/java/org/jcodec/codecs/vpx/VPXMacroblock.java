@@ -548,6 +548,8 @@ public class VPXMacroblock {
             this.col = col;
             this.plane = plane;
             this.tokens = new short[16];
+            // The context of the subblocks outside of the frame
+            this.mode = BPredictionMode.B_DC_PRED;
         }
 
         public void predict(VPXMacroblock[][] mbs) {
@@ -585,6 +587,7 @@ public class VPXMacroblock {
                         : pickDefaultPrediction(this.mode)[3 + 4 * 3];
             }
 
+            _predict = new short[16];
             AllIntraPred.bpred[this.mode.ordinal()].call(FullAccessIntArrPointer.toPointer(_predict), 4,
                     new ReadOnlyIntArrPointer(above, 1), new ReadOnlyIntArrPointer(left, 0));
         }
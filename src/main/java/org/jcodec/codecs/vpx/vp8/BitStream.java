@@ -1000,10 +1000,17 @@ public class BitStream {
 
             cpi.bc[1].vp8_start_encode(cx_data, dest_end);
 
-            TokenList tlist = new TokenList();
-            tlist.start = cpi.tok;
-            tlist.stop = cpi.tok.shallowCopyWithPosInc(cpi.tok_count);
-            vp8_pack_tokens(cpi.bc[1], tlist);
+            if (cpi.b_multi_threaded) {
+                /* Each row has tokenized into a region of its own */
+                for (int mb_row = 0; mb_row < cpi.common.mb_rows; mb_row++) {
+                    vp8_pack_tokens(cpi.bc[1], cpi.tplist[mb_row]);
+                }
+            } else {
+                TokenList tlist = new TokenList();
+                tlist.start = cpi.tok;
+                tlist.stop = cpi.tok.shallowCopyWithPosInc(cpi.tok_count);
+                vp8_pack_tokens(cpi.bc[1], tlist);
+            }
 
             cpi.bc[1].vp8_stop_encode();
 
@@ -0,0 +1,249 @@
+package org.jcodec.codecs.vpx.vp8;
+
+import java.util.Arrays;
+
+import org.jcodec.codecs.vpx.vp8.data.CommonData;
+import org.jcodec.codecs.vpx.vp8.data.Compressor;
+import org.jcodec.codecs.vpx.vp8.data.EntropyContextPlanes;
+import org.jcodec.codecs.vpx.vp8.data.MBRowComp;
+import org.jcodec.codecs.vpx.vp8.data.Macroblock;
+import org.jcodec.codecs.vpx.vp8.data.MacroblockD;
+import org.jcodec.codecs.vpx.vp8.data.RowSync;
+import org.jcodec.codecs.vpx.vp8.data.TokenExtra;
+import org.jcodec.codecs.vpx.vp8.data.Wavefront;
+import org.jcodec.codecs.vpx.vp8.enums.MVReferenceFrame;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.FullAccessGenArrPointer;
+import org.jcodec.codecs.vpx.vp8.subpixfns.BilinearPredict;
+import org.jcodec.codecs.vpx.vp8.subpixfns.SixtapPredict;
+import org.jcodec.codecs.vpx.vp8.subpixfns.SubPixFnCollector;
+import org.jcodec.common.WorkerPool;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License.
+ *
+ * The class is a direct java port of libvpx's
+ * (https://github.com/webmproject/libvpx) relevant VP8 code with significant
+ * java oriented refactoring.
+ *
+ * Row based multi-threaded encoding. The macroblock row r is encoded with the
+ * context r % (encoding_thread_count + 1), the context 0 is cpi.mb. A row
+ * encodes a macroblock once the row above is mt_sync_range + 1 macroblocks
+ * ahead of it, so that its above and above right neighbours are there.
+ * Unlike libvpx every row starts from the mode search adaptation the frame
+ * started with, the frames then come out the same with any thread count.
+ *
+ * @author The JCodec project
+ *
+ */
+public class EThreading {
+
+    public static void vp8cx_create_encoder_threads(Compressor cpi) {
+        CommonData cm = cpi.common;
+
+        cpi.b_multi_threaded = false;
+        cpi.encoding_thread_count = 0;
+
+        if (cpi.oxcf.multi_threaded > 1) {
+            int th_count = cpi.oxcf.multi_threaded - 1;
+
+            if (cm.Width <= 640) {
+                cpi.mt_sync_range = 1;
+            } else if (cm.Width <= 1280) {
+                cpi.mt_sync_range = 4;
+            } else if (cm.Width <= 2560) {
+                cpi.mt_sync_range = 8;
+            } else {
+                cpi.mt_sync_range = 16;
+            }
+
+            /* we have th_count + 1 (main) threads processing one row each */
+            /* no point to have more threads than the sync range allows */
+            if (th_count > ((cm.mb_cols / cpi.mt_sync_range) - 1)) {
+                th_count = (cm.mb_cols / cpi.mt_sync_range) - 1;
+            }
+
+            if (th_count <= 0)
+                return;
+
+            cpi.mb_row_ei = new MBRowComp[th_count];
+            for (int i = 0; i < th_count; i++) {
+                cpi.mb_row_ei[i] = new MBRowComp(cpi);
+            }
+            cpi.encoding_thread_count = th_count;
+            cpi.encoding_threads = WorkerPool.getInstance().newJob(th_count + 1);
+            cpi.b_multi_threaded = true;
+        }
+    }
+
+    static void setup_mbby_copy(Macroblock mbdst, Macroblock mbsrc) {
+        Macroblock x = mbsrc;
+        Macroblock z = mbdst;
+
+        z.ss = x.ss;
+        z.ss_count = x.ss_count;
+        z.searches_per_step = x.searches_per_step;
+        z.errorperbit = x.errorperbit;
+
+        z.sadperbit16 = x.sadperbit16;
+        z.sadperbit4 = x.sadperbit4;
+
+        z.short_fdct4x4 = x.short_fdct4x4;
+        z.short_fdct8x4 = x.short_fdct8x4;
+        z.short_walsh4x4 = x.short_walsh4x4;
+        z.quantize_b = x.quantize_b;
+        z.optimize = x.optimize;
+
+        z.act_zbin_adj = x.act_zbin_adj;
+        z.last_act_zbin_adj = x.last_act_zbin_adj;
+        z.zbin_over_quant = x.zbin_over_quant;
+        z.zbin_mode_boost_enabled = x.zbin_mode_boost_enabled;
+        z.zbin_mode_boost = x.zbin_mode_boost;
+
+        {
+            MacroblockD xd = x.e_mbd;
+            MacroblockD zd = z.e_mbd;
+
+            zd.mode_ref_lf_delta_enabled = xd.mode_ref_lf_delta_enabled;
+            zd.mode_ref_lf_delta_update = xd.mode_ref_lf_delta_update;
+            zd.segmentation_enabled = xd.segmentation_enabled;
+            zd.mb_segement_abs_delta = xd.mb_segement_abs_delta;
+            CommonUtils.vp8_copy(xd.segment_feature_data, zd.segment_feature_data);
+        }
+
+        CommonUtils.vp8_copy(x.rd_threshes, z.rd_threshes);
+        CommonUtils.vp8_copy(x.rd_thresh_mult, z.rd_thresh_mult);
+        CommonUtils.vp8_copy(x.mode_test_hit_counts, z.mode_test_hit_counts);
+        CommonUtils.vp8_zero(z.error_bins);
+    }
+
+    static void vp8cx_init_mbrthread_data(Compressor cpi, Macroblock x, MBRowComp[] mbr_ei, int count) {
+        CommonData cm = cpi.common;
+        SubPixFnCollector spfncollector = cm.use_bilinear_mc_filter ? BilinearPredict.bilinear : SixtapPredict.sixtap;
+
+        for (int i = 0; i < count; ++i) {
+            Macroblock mb = mbr_ei[i].mb;
+            MacroblockD mbd = mb.e_mbd;
+
+            /* The predictors filter into a buffer of their own, one set per thread */
+            mbd.subpixel_predict = spfncollector.get4x4();
+            mbd.subpixel_predict8x4 = spfncollector.get8x4();
+            mbd.subpixel_predict8x8 = spfncollector.get8x8();
+            mbd.subpixel_predict16x16 = spfncollector.get16x16();
+
+            Arrays.fill(mbr_ei[i].segment_counts, 0);
+            mbr_ei[i].totalrate[0] = 0;
+
+            mbd.init_encode_frame_mbd_context(cpi);
+            mbd.left_context = mbr_ei[i].left_context;
+            mb.init_encode_frame_mb_context(cpi);
+
+            setup_mbby_copy(mb, x);
+            Quantize.vp8cx_mb_init_quantizer(cpi, mb, false);
+
+            mb.skip_true_count = 0;
+            CommonUtils.vp8_zero(mb.MVcount);
+            mb.mbs_tested_so_far = 0;
+            mb.mbs_zero_last_dot_suppress = 0;
+        }
+    }
+
+    static void encode_mb_rows(final Compressor cpi, final int[] segment_counts, final long[] totalrate) {
+        final CommonData cm = cpi.common;
+        final Macroblock x = cpi.mb;
+        final int count = cpi.encoding_thread_count + 1;
+
+        vp8cx_init_mbrthread_data(cpi, x, cpi.mb_row_ei, cpi.encoding_thread_count);
+
+        /* A context is free once its previous row is done */
+        Wavefront wavefront = new Wavefront(cpi.encoding_threads);
+        wavefront.submitRows(cm.mb_rows, count, new Wavefront.RowTask() {
+            public void run(int row, RowSync sync) {
+                int ithread = row % count;
+                if (ithread == 0) {
+                    encode_row(cpi, row, x, cm.left_context, segment_counts, totalrate, sync);
+                } else {
+                    MBRowComp ei = cpi.mb_row_ei[ithread - 1];
+                    encode_row(cpi, row, ei.mb, ei.left_context, ei.segment_counts, ei.totalrate, sync);
+                }
+            }
+        });
+        wavefront.join();
+
+        /* The next frame goes on from the last row as it does when serial */
+        int last = (cm.mb_rows - 1) % count;
+        if (last != 0) {
+            x.copyModeSearchState(cpi.mb_row_ei[last - 1].mb);
+        }
+
+        for (int mb_row = 0; mb_row < cm.mb_rows; ++mb_row) {
+            cpi.tok_count += cpi.tplist[mb_row].start.pointerDiff(cpi.tplist[mb_row].stop);
+        }
+
+        /* add up counts for each thread */
+        for (MBRowComp ei : cpi.mb_row_ei) {
+            Macroblock mb = ei.mb;
+
+            for (int i = 0; i < segment_counts.length; i++) {
+                segment_counts[i] += ei.segment_counts[i];
+            }
+            totalrate[0] += ei.totalrate[0];
+
+            x.skip_true_count += mb.skip_true_count;
+            for (int i = 0; i < x.ymode_count.length; i++) {
+                x.ymode_count[i] += mb.ymode_count[i];
+            }
+            for (int i = 0; i < x.uv_mode_count.length; i++) {
+                x.uv_mode_count[i] += mb.uv_mode_count[i];
+            }
+            for (int i = 0; i < x.MVcount.length; i++) {
+                for (int j = 0; j < x.MVcount[i].length; j++) {
+                    x.MVcount[i][j] += mb.MVcount[i][j];
+                }
+            }
+            x.prediction_error += mb.prediction_error;
+            x.intra_error += mb.intra_error;
+            for (MVReferenceFrame rf : MVReferenceFrame.validFrames) {
+                x.count_mb_ref_frame_usage.put(rf,
+                        x.count_mb_ref_frame_usage.get(rf) + mb.count_mb_ref_frame_usage.get(rf));
+            }
+            for (int i = 0; i < x.error_bins.length; i++) {
+                x.error_bins[i] += mb.error_bins[i];
+            }
+            sum_coef_counts(x, mb);
+        }
+    }
+
+    private static void encode_row(Compressor cpi, int mb_row, Macroblock x, EntropyContextPlanes left_context,
+            int[] segment_counts, long[] totalrate, RowSync sync) {
+        CommonData cm = cpi.common;
+        MacroblockD xd = x.e_mbd;
+
+        /* The row is where the serial encoding would get after the rows above */
+        x.src.y_buffer.setPos(cpi.sourceYV12.y_buffer.getPos() + 16 * mb_row * x.src.y_stride);
+        x.src.u_buffer.setPos(cpi.sourceYV12.u_buffer.getPos() + 8 * mb_row * x.src.uv_stride);
+        x.src.v_buffer.setPos(cpi.sourceYV12.v_buffer.getPos() + 8 * mb_row * x.src.uv_stride);
+        xd.mode_info_context = cm.mi.shallowCopyWithPosInc(mb_row * xd.mode_info_stride);
+        x.partition_info = cpi.mb.pi.shallowCopyWithPosInc(mb_row * xd.mode_info_stride);
+        x.gf_active_ptr = cpi.gf_active_flags.shallowCopyWithPosInc(mb_row * cm.mb_cols);
+
+        xd.left_context = left_context;
+        CommonUtils.vp8_zero(left_context.panes);
+
+        /* Each row has a token buffer of its own */
+        FullAccessGenArrPointer<TokenExtra> tp = cpi.tok.shallowCopyWithPosInc(mb_row * (cm.mb_cols * 16 * 24));
+        EncodeFrame.encode_mb_row(cpi, cm, mb_row, x, xd, tp, segment_counts, totalrate, sync);
+    }
+
+    private static void sum_coef_counts(Macroblock x, Macroblock x_thread) {
+        for (int i = 0; i < x.coef_counts.length; i++) {
+            for (int j = 0; j < x.coef_counts[i].length; j++) {
+                for (int k = 0; k < x.coef_counts[i][j].length; k++) {
+                    for (int l = 0; l < x.coef_counts[i][j][k].length; l++) {
+                        x.coef_counts[i][j][k][l] += x_thread.coef_counts[i][j][k][l];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -12,6 +12,7 @@ import org.jcodec.codecs.vpx.vp8.data.OnyxInt;
 import org.jcodec.codecs.vpx.vp8.data.PickInfoReturn;
 import org.jcodec.codecs.vpx.vp8.data.QuantCommon;
 import org.jcodec.codecs.vpx.vp8.data.ReferenceCounts;
+import org.jcodec.codecs.vpx.vp8.data.RowSync;
 import org.jcodec.codecs.vpx.vp8.data.TokenExtra;
 import org.jcodec.codecs.vpx.vp8.data.UsecTimer;
 import org.jcodec.codecs.vpx.vp8.data.YV12buffer;
@@ -353,7 +354,7 @@ public class EncodeFrame {
     }
 
     static void encode_mb_row(Compressor cpi, CommonData cm, int mb_row, Macroblock x, MacroblockD xd,
-            FullAccessGenArrPointer<TokenExtra> tp, int[] segment_counts, long[] totalrate) {
+            FullAccessGenArrPointer<TokenExtra> tp, int[] segment_counts, long[] totalrate, RowSync sync) {
         int recon_yoffset, recon_uvoffset;
         int mb_col;
         int ref_fb_idx = cm.frameIdxs.get(MVReferenceFrame.LAST_FRAME);
@@ -361,6 +362,9 @@ public class EncodeFrame {
         int recon_y_stride = cm.yv12_fb[ref_fb_idx].y_stride;
         int recon_uv_stride = cm.yv12_fb[ref_fb_idx].uv_stride;
         int map_index = (mb_row * cpi.common.mb_cols);
+        int nsync = cpi.mt_sync_range;
+
+        x.loadRowStart(cpi.mb);
 
         /* reset above block coeffs */
         xd.above_context = cm.above_context.shallowCopy();
@@ -410,6 +414,11 @@ public class EncodeFrame {
 
             xd.left_available = (mb_col != 0);
 
+            /* Wait for the row above to be nsync macroblocks ahead */
+            if (sync != null && mb_row != 0 && (mb_col & (nsync - 1)) == 0) {
+                sync.waitForMbs(mb_row - 1, mb_col + nsync + 1);
+            }
+
             x.rddiv = cpi.RDDIV;
             x.rdmult = cpi.RDMULT;
 
@@ -520,6 +529,10 @@ public class EncodeFrame {
             xd.mode_info_context.inc();
             x.partition_info.inc();
             xd.above_context.inc();
+
+            if (sync != null) {
+                sync.setMbsDone(mb_row, mb_col + 1);
+            }
         }
 
         /* extend the recon for intra prediction */
@@ -595,16 +608,19 @@ public class EncodeFrame {
 
         /* re-init encode frame context. */
         init_encode_frame_mb_context(cpi);
+        x.saveRowStart();
 
         {
             UsecTimer emr_timer = new UsecTimer();
             emr_timer.timerStart();
-            {
+            if (cpi.b_multi_threaded) {
+                EThreading.encode_mb_rows(cpi, segment_counts, totalrate);
+            } else {
 
                 /* for each macroblock row in image */
                 for (mb_row = 0; mb_row < cm.mb_rows; ++mb_row) {
                     CommonUtils.vp8_zero(cm.left_context.panes);
-                    encode_mb_row(cpi, cm, mb_row, x, xd, tp, segment_counts, totalrate);
+                    encode_mb_row(cpi, cm, mb_row, x, xd, tp, segment_counts, totalrate, null);
 
                     /* adjust to the next row of mbs */
                     x.src.y_buffer.incBy(16 * x.src.y_stride - 16 * cm.mb_cols);
@@ -1,12 +1,15 @@
 package org.jcodec.codecs.vpx.vp8;
 
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
 import org.jcodec.codecs.vpx.vp8.data.BlockD;
 import org.jcodec.codecs.vpx.vp8.data.LoopFilterInfo;
 import org.jcodec.codecs.vpx.vp8.data.LoopFilterInfoN;
 import org.jcodec.codecs.vpx.vp8.data.MacroblockD;
 import org.jcodec.codecs.vpx.vp8.data.ModeInfo;
+import org.jcodec.codecs.vpx.vp8.data.RowSync;
+import org.jcodec.codecs.vpx.vp8.data.Wavefront;
 import org.jcodec.codecs.vpx.vp8.data.CommonData;
 import org.jcodec.codecs.vpx.vp8.data.YV12buffer;
 import org.jcodec.codecs.vpx.vp8.enums.FrameType;
@@ -225,37 +228,83 @@ public class LoopFilter {
     static void filterThrough(final LoopFilterCore actualFilter, final PtrIncrementor incrementor, final CommonData cm,
             final FrameType frame_type, final int mb_rows, final int mb_cols, final FullAccessIntArrPointer y_ptr,
             final FullAccessIntArrPointer u_ptr, final FullAccessIntArrPointer v_ptr,
-            final FullAccessGenArrPointer<ModeInfo> mode_info_context, final boolean dontSkipFirstRow) {
+            final FullAccessGenArrPointer<ModeInfo> mode_info_context, final boolean dontSkipFirstRow,
+            final ExecutorService lf_threads) {
+        if (lf_threads != null && mb_rows > 1) {
+            filterRowsParallel(actualFilter, incrementor, cm, frame_type, mb_rows, mb_cols, y_ptr, u_ptr, v_ptr,
+                    mode_info_context, dontSkipFirstRow, lf_threads);
+            return;
+        }
         final YV12buffer post = cm.frame_to_show;
-        final LoopFilterInfoN lfi_n = cm.lf_info;
         /* vp8_filter each macro block */
         for (int mb_row = 0; mb_row < mb_rows; ++mb_row) {
-            for (int mb_col = 0; mb_col < mb_cols; ++mb_col) {
-                ModeInfo mi = mode_info_context.get();
-                final boolean skip_lf = (ModeInfo.hasSecondOrder(mode_info_context) && mi.mbmi.mb_skip_coeff);
+            filterRow(actualFilter, incrementor, cm, frame_type, mb_row, mb_cols, y_ptr, u_ptr, v_ptr,
+                    mode_info_context, dontSkipFirstRow, null);
+            incrementor.nextRow(y_ptr, u_ptr, v_ptr, post);
+
+            mode_info_context.inc(); /* Skip border mb */
+        }
+    }
+
+    /**
+     * Filters the rows as a wavefront, the left edge filter of the macroblock
+     * above right changes the pixels a macroblock filters across its top edge.
+     */
+    private static void filterRowsParallel(final LoopFilterCore actualFilter, final PtrIncrementor incrementor,
+            final CommonData cm, final FrameType frame_type, final int mb_rows, final int mb_cols,
+            final FullAccessIntArrPointer y_ptr, final FullAccessIntArrPointer u_ptr,
+            final FullAccessIntArrPointer v_ptr, final FullAccessGenArrPointer<ModeInfo> mode_info_context,
+            final boolean dontSkipFirstRow, ExecutorService lf_threads) {
+        final YV12buffer post = cm.frame_to_show;
+        Wavefront wavefront = new Wavefront(lf_threads);
+        wavefront.submitRows(mb_rows, 0, new Wavefront.RowTask() {
+            public void run(int row, RowSync sync) {
+                filterRow(actualFilter, incrementor, cm, frame_type, row, mb_cols,
+                        y_ptr.shallowCopyWithPosInc(row * 16 * post.y_stride),
+                        u_ptr == null ? null : u_ptr.shallowCopyWithPosInc(row * 8 * post.uv_stride),
+                        v_ptr == null ? null : v_ptr.shallowCopyWithPosInc(row * 8 * post.uv_stride),
+                        mode_info_context.shallowCopyWithPosInc(row * (mb_cols + 1)), dontSkipFirstRow, sync);
+            }
+        });
+        wavefront.join();
+    }
 
-                final int mode_index = lfi_n.mode_lf_lut.get(mi.mbmi.mode);
-                final int seg = mi.mbmi.segment_id;
-                final MVReferenceFrame ref_frame = mi.mbmi.ref_frame;
+    private static void filterRow(final LoopFilterCore actualFilter, final PtrIncrementor incrementor,
+            final CommonData cm, final FrameType frame_type, final int mb_row, final int mb_cols,
+            final FullAccessIntArrPointer y_ptr, final FullAccessIntArrPointer u_ptr,
+            final FullAccessIntArrPointer v_ptr, final FullAccessGenArrPointer<ModeInfo> mode_info_context,
+            final boolean dontSkipFirstRow, final RowSync sync) {
+        final YV12buffer post = cm.frame_to_show;
+        final LoopFilterInfoN lfi_n = cm.lf_info;
+        for (int mb_col = 0; mb_col < mb_cols; ++mb_col) {
+            if (sync != null && mb_row > 0)
+                sync.waitForMbs(mb_row - 1, Math.min(mb_col + 2, mb_cols));
 
-                final int filter_level = lfi_n.lvl[seg][ref_frame.ordinal()][mode_index];
+            ModeInfo mi = mode_info_context.get();
+            final boolean skip_lf = (ModeInfo.hasSecondOrder(mode_info_context) && mi.mbmi.mb_skip_coeff);
 
-                if (filter_level != 0) {
-                    actualFilter.call(mb_col, mb_row, lfi_n, skip_lf, frame_type, filter_level, y_ptr, post.y_stride,
-                            u_ptr, v_ptr, post.uv_stride, dontSkipFirstRow);
-                }
+            final int mode_index = lfi_n.mode_lf_lut.get(mi.mbmi.mode);
+            final int seg = mi.mbmi.segment_id;
+            final MVReferenceFrame ref_frame = mi.mbmi.ref_frame;
 
-                incrementor.nextMB(y_ptr, u_ptr, v_ptr);
+            final int filter_level = lfi_n.lvl[seg][ref_frame.ordinal()][mode_index];
 
-                mode_info_context.inc(); /* step to next MB */
+            if (filter_level != 0) {
+                actualFilter.call(mb_col, mb_row, lfi_n, skip_lf, frame_type, filter_level, y_ptr, post.y_stride,
+                        u_ptr, v_ptr, post.uv_stride, dontSkipFirstRow);
             }
-            incrementor.nextRow(y_ptr, u_ptr, v_ptr, post);
 
-            mode_info_context.inc(); /* Skip border mb */
+            incrementor.nextMB(y_ptr, u_ptr, v_ptr);
+
+            mode_info_context.inc(); /* step to next MB */
+
+            if (sync != null)
+                sync.setMbsDone(mb_row, mb_col + 1);
         }
     }
 
-    static void vp8_loop_filter_frame(CommonData cm, MacroblockD mbd, FrameType frame_type) {
+    static void vp8_loop_filter_frame(CommonData cm, MacroblockD mbd, FrameType frame_type,
+            ExecutorService lf_threads) {
 
         /* Initialize the loop filter for this frame. */
         vp8_loop_filter_frame_init(cm, mbd, cm.filter_level);
@@ -269,24 +318,27 @@ public class LoopFilter {
         v_ptr = post.v_buffer.shallowCopy();
 
         filterThrough(cm.filter_type == LoopFilterType.NORMAL ? normalCore : simpleCore, regularIncrementor, cm,
-                frame_type, cm.mb_rows, cm.mb_cols, y_ptr, u_ptr, v_ptr, cm.mi.shallowCopy(), false);
+                frame_type, cm.mb_rows, cm.mb_cols, y_ptr, u_ptr, v_ptr, cm.mi.shallowCopy(), false, lf_threads);
     }
 
-    static void vp8_loop_filter_frame_yonly(CommonData cm, MacroblockD mbd, short default_filt_lvl) {
+    static void vp8_loop_filter_frame_yonly(CommonData cm, MacroblockD mbd, short default_filt_lvl,
+            ExecutorService lf_threads) {
         YV12buffer post = cm.frame_to_show;
         vp8_loop_filter_partial_frame_spec(cm, mbd, default_filt_lvl, cm.mb_rows << 4, post.y_buffer.shallowCopy(),
-                cm.mi.shallowCopy(), false);
+                cm.mi.shallowCopy(), false, lf_threads);
     }
 
     private static void vp8_loop_filter_partial_frame_spec(CommonData cm, MacroblockD mbd, short default_filt_lvl,
-            int linestocopy, FullAccessIntArrPointer y_ptr, FullAccessGenArrPointer<ModeInfo> mic, boolean alwaysMBH) {
+            int linestocopy, FullAccessIntArrPointer y_ptr, FullAccessGenArrPointer<ModeInfo> mic, boolean alwaysMBH,
+            ExecutorService lf_threads) {
         /* Initialize the loop filter for this frame. */
         vp8_loop_filter_frame_init(cm, mbd, default_filt_lvl);
         filterThrough(cm.filter_type == LoopFilterType.NORMAL ? normalCore : yOnlySimpleCore, yOnlyIncrementor, cm,
-                cm.frame_type, linestocopy >> 4, cm.mb_cols, y_ptr, null, null, mic, alwaysMBH);
+                cm.frame_type, linestocopy >> 4, cm.mb_cols, y_ptr, null, null, mic, alwaysMBH, lf_threads);
     }
 
-    static void vp8_loop_filter_partial_frame(CommonData cm, MacroblockD mbd, short default_filt_lvl) {
+    static void vp8_loop_filter_partial_frame(CommonData cm, MacroblockD mbd, short default_filt_lvl,
+            ExecutorService lf_threads) {
         YV12buffer post = cm.frame_to_show;
         /* number of MB rows to use in partial filtering */
         int linestocopy = cm.mb_rows / PARTIAL_FRAME_FRACTION;
@@ -297,7 +349,8 @@ public class LoopFilter {
         FullAccessGenArrPointer<ModeInfo> mode_info_context = cm.mi
                 .shallowCopyWithPosInc((post.y_height >> 5) * (cm.mb_cols + 1));
 
-        vp8_loop_filter_partial_frame_spec(cm, mbd, default_filt_lvl, linestocopy, y_ptr, mode_info_context, true);
+        vp8_loop_filter_partial_frame_spec(cm, mbd, default_filt_lvl, linestocopy, y_ptr, mode_info_context, true,
+                lf_threads);
     }
 
 }
@@ -2482,7 +2482,7 @@ public class OnyxIf {
         // No need to apply loop-filter if the encoded frame does not update
         // any reference buffers.
         if (cm.filter_level > 0 && update_any_ref_buffers) {
-            LoopFilter.vp8_loop_filter_frame(cm, cpi.mb.e_mbd, frame_type);
+            LoopFilter.vp8_loop_filter_frame(cm, cpi.mb.e_mbd, frame_type, cpi.encoding_threads);
         }
 
         cm.frame_to_show.extend_frame_borders();
@@ -388,8 +388,7 @@ public class PickInter {
         }
     }
 
-    static void check_for_encode_breakout(final VarianceResults vr, final Compressor cpi) {
-        final Macroblock x = cpi.mb;
+    static void check_for_encode_breakout(final VarianceResults vr, final Compressor cpi, final Macroblock x) {
         final MacroblockD xd = x.e_mbd;
 
         final int threshold = Math.max(x.encode_breakout,
@@ -397,7 +396,7 @@ public class PickInter {
 
         if (vr.sse < threshold) {
             /* Check u and v to make sure skip is ok */
-            if ((RDOpt.VP8_UVSSE(cpi) << 1) < x.encode_breakout) {
+            if ((RDOpt.VP8_UVSSE(cpi, x) << 1) < x.encode_breakout) {
                 x.skip = true;
             } else {
                 x.skip = false;
@@ -439,7 +438,7 @@ public class PickInter {
             this_rd = (int) (((long) this_rd) * rd_adj / 100);
         }
 
-        check_for_encode_breakout(ret, cpi);
+        check_for_encode_breakout(ret, cpi, x);
         return this_rd;
     }
 
@@ -771,7 +770,7 @@ public class PickInter {
 
                     if (bestsme < Integer.MAX_VALUE) {
                         cpi.find_fractional_mv_step.call(x, b, d, d.bmi.mv, best_ref_mv, x.errorperbit,
-                                cpi.fn_ptr.get(BlockEnum.BLOCK_16X16), cpi.mb.mvcost, varRes);
+                                cpi.fn_ptr.get(BlockEnum.BLOCK_16X16), x.mvcost, varRes);
                     }
                 }
 
@@ -781,7 +780,7 @@ public class PickInter {
 // mirroring's robustness. Please do not remove.
                 FindNearMV.vp8_clamp_mv2(mode_mv[this_mode.ordinal()], xd);
                 /* mv cost; */
-                rate2 += MComp.vp8_mv_bit_cost(mode_mv[MBPredictionMode.NEWMV.ordinal()], best_ref_mv, cpi.mb.mvcost,
+                rate2 += MComp.vp8_mv_bit_cost(mode_mv[MBPredictionMode.NEWMV.ordinal()], best_ref_mv, x.mvcost,
                         128);
             }
 // fall through
@@ -852,7 +851,7 @@ public class PickInter {
                 break;
         }
 
-        RDOpt.reduceActivationThreshold(cpi, best_mode_index);
+        RDOpt.reduceActivationThreshold(cpi, x, best_mode_index);
 
         {
             long this_rdbin = (ret.distortion >> 7);
@@ -864,7 +863,7 @@ public class PickInter {
             x.error_bins[(int) this_rdbin]++;
         }
 
-        if (RDOpt.adjustToZeroMVForAltref(cpi, best_mbmode))
+        if (RDOpt.adjustToZeroMVForAltref(cpi, x, best_mbmode))
             return;
 
         /*
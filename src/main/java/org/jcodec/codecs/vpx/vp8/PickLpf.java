@@ -117,7 +117,7 @@ public class PickLpf {
 
         /* Copy the unfiltered / processed recon buffer to the new buffer */
         yv12_copy_partial_frame(saved_frame, cm.frame_to_show);
-        LoopFilter.vp8_loop_filter_partial_frame(cm, cpi.mb.e_mbd, filt_val);
+        LoopFilter.vp8_loop_filter_partial_frame(cm, cpi.mb.e_mbd, filt_val, cpi.encoding_threads);
 
         best_err = calc_partial_ssl_err(sd, cm.frame_to_show);
 
@@ -127,7 +127,7 @@ public class PickLpf {
         while (filt_val >= min_filter_level) {
             /* Apply the loop filter */
             yv12_copy_partial_frame(saved_frame, cm.frame_to_show);
-            LoopFilter.vp8_loop_filter_partial_frame(cm, cpi.mb.e_mbd, filt_val);
+            LoopFilter.vp8_loop_filter_partial_frame(cm, cpi.mb.e_mbd, filt_val, cpi.encoding_threads);
 
             /* Get the err for filtered frame */
             filt_err = calc_partial_ssl_err(sd, cm.frame_to_show);
@@ -155,7 +155,7 @@ public class PickLpf {
                 /* Apply the loop filter */
                 yv12_copy_partial_frame(saved_frame, cm.frame_to_show);
 
-                LoopFilter.vp8_loop_filter_partial_frame(cm, cpi.mb.e_mbd, filt_val);
+                LoopFilter.vp8_loop_filter_partial_frame(cm, cpi.mb.e_mbd, filt_val, cpi.encoding_threads);
 
                 /* Get the err for filtered frame */
                 filt_err = calc_partial_ssl_err(sd, cm.frame_to_show);
@@ -247,7 +247,7 @@ public class PickLpf {
         YV12buffer.copyY(saved_frame, cm.frame_to_show);
 
         vp8cx_set_alt_lf_level(cpi, filt_mid);
-        LoopFilter.vp8_loop_filter_frame_yonly(cm, cpi.mb.e_mbd, filt_mid);
+        LoopFilter.vp8_loop_filter_frame_yonly(cm, cpi.mb.e_mbd, filt_mid, cpi.encoding_threads);
 
         best_err = OnyxIf.vp8_calc_ss_err(sd, cm.frame_to_show);
 
@@ -268,7 +268,7 @@ public class PickLpf {
                     /* Get Low filter error score */
                     YV12buffer.copyY(saved_frame, cm.frame_to_show);
                     vp8cx_set_alt_lf_level(cpi, filt_low);
-                    LoopFilter.vp8_loop_filter_frame_yonly(cm, cpi.mb.e_mbd, filt_low);
+                    LoopFilter.vp8_loop_filter_frame_yonly(cm, cpi.mb.e_mbd, filt_low, cpi.encoding_threads);
 
                     filt_err = OnyxIf.vp8_calc_ss_err(sd, cm.frame_to_show);
                     ss_err[filt_low] = filt_err;
@@ -294,7 +294,7 @@ public class PickLpf {
                 if (ss_err[filt_high] == 0) {
                     YV12buffer.copyY(saved_frame, cm.frame_to_show);
                     vp8cx_set_alt_lf_level(cpi, filt_high);
-                    LoopFilter.vp8_loop_filter_frame_yonly(cm, cpi.mb.e_mbd, filt_high);
+                    LoopFilter.vp8_loop_filter_frame_yonly(cm, cpi.mb.e_mbd, filt_high, cpi.encoding_threads);
 
                     filt_err = OnyxIf.vp8_calc_ss_err(sd, cm.frame_to_show);
                     ss_err[filt_high] = filt_err;
@@ -1454,9 +1454,9 @@ public class RDOpt {
                 break;
         }
 
-        reduceActivationThreshold(cpi, best_mode_index);
+        reduceActivationThreshold(cpi, x, best_mode_index);
 
-        if (adjustToZeroMVForAltref(cpi, best_mode.mbmode))
+        if (adjustToZeroMVForAltref(cpi, x, best_mode.mbmode))
             return;
 
         /* macroblock modes */
@@ -1731,8 +1731,7 @@ public class RDOpt {
                 Token.vp8_mv_ref_encoding_array[(m.ordinal() - MBPredictionMode.NEARESTMV.ordinal())]);
     }
 
-    static int VP8_UVSSE(Compressor cpi) {
-        Macroblock x = cpi.mb;
+    static int VP8_UVSSE(Compressor cpi, Macroblock x) {
         FullAccessIntArrPointer uptr, vptr;
         FullAccessIntArrPointer upred_ptr = x.block.getRel(16).getSrcPtr();
         FullAccessIntArrPointer vpred_ptr = x.block.getRel(20).getSrcPtr();
@@ -1817,7 +1816,7 @@ public class RDOpt {
                 if ((res.sse - res.variance < q2dc * q2dc >> 4)
                         || (res.sse / 2 > res.variance && res.sse - res.variance < 64)) {
                     /* Check u and v to make sure skip is ok */
-                    int sse2 = VP8_UVSSE(cpi);
+                    int sse2 = VP8_UVSSE(cpi, x);
                     if ((sse2 << 1) < threshold) {
                         x.skip = true;
                         rdy.distortion = res.sse + sse2;
@@ -2109,11 +2108,10 @@ public class RDOpt {
         }
     }
 
-    static void reduceActivationThreshold(final Compressor cpi, final int best_mode_index) {
+    static void reduceActivationThreshold(final Compressor cpi, final Macroblock x, final int best_mode_index) {
         /* Reduce the activation RD thresholds for the best choice mode */
         if ((cpi.rd_baseline_thresh[best_mode_index] > 0)
                 && (cpi.rd_baseline_thresh[best_mode_index] < (Integer.MAX_VALUE >> 2))) {
-            final Macroblock x = cpi.mb;
             final int best_adjustment = (x.rd_thresh_mult[best_mode_index] >> 3);
             x.rd_thresh_mult[best_mode_index] = (x.rd_thresh_mult[best_mode_index] >= (OnyxInt.MIN_THRESHMULT
                     + best_adjustment)) ? x.rd_thresh_mult[best_mode_index] - best_adjustment : OnyxInt.MIN_THRESHMULT;
@@ -2122,10 +2120,9 @@ public class RDOpt {
         }
     }
 
-    static boolean adjustToZeroMVForAltref(final Compressor cpi, MBModeInfo best_mbmode) {
+    static boolean adjustToZeroMVForAltref(final Compressor cpi, final Macroblock x, MBModeInfo best_mbmode) {
         if (cpi.is_src_frame_alt_ref && (best_mbmode.mode != MBPredictionMode.ZEROMV
                 || best_mbmode.ref_frame != MVReferenceFrame.ALTREF_FRAME)) {
-            final Macroblock x = cpi.mb;
             ModeInfo mi = x.e_mbd.mode_info_context.get();
             mi.mbmi.mode = MBPredictionMode.ZEROMV;
             mi.mbmi.ref_frame = MVReferenceFrame.ALTREF_FRAME;
@@ -176,12 +176,16 @@ public class Sad {
 
     static int sad(final PositionableIntArrPointer src_ptr, final int src_stride,
             final PositionableIntArrPointer ref_ptr, final int ref_stride, final int width, final int height) {
+        return sad(src_ptr.getArray(), src_ptr.getPos(), src_stride, ref_ptr.getArray(), ref_ptr.getPos(), ref_stride,
+                width, height);
+    }
+
+    static int sad(final short[] src, final int srcPos, final int src_stride, final short[] ref, final int refPos,
+            final int ref_stride, final int width, final int height) {
         int sad = 0;
-        for (int y = 0; y < height; y++) {
-            final int basesrc = y * src_stride;
-            final int refsrc = y * ref_stride;
+        for (int y = 0, s = srcPos, r = refPos; y < height; y++, s += src_stride, r += ref_stride) {
             for (int x = 0; x < width; x++)
-                sad += Math.abs(src_ptr.getRel(basesrc + x) - ref_ptr.getRel(refsrc + x));
+                sad += Math.abs(src[s + x] - ref[r + x]);
         }
         return sad;
     }
@@ -189,9 +193,12 @@ public class Sad {
     static void sadToArray(final PositionableIntArrPointer src_ptr, final int src_stride,
             final PositionableIntArrPointer ref_ptr, final int ref_stride, final int[] sad_array, final int width,
             final int height, final int k) {
+        final short[] src = src_ptr.getArray();
+        final short[] ref = ref_ptr.getArray();
+        final int srcPos = src_ptr.getPos();
+        final int refPos = ref_ptr.getPos();
         for (int i = 0; i < k; i++) {
-            sad_array[i] = sad(src_ptr, src_stride, PositionableIntArrPointer.makePositionableAndInc(ref_ptr, i),
-                    ref_stride, width, height);
+            sad_array[i] = sad(src, srcPos, src_stride, ref, refPos + i, ref_stride, width, height);
         }
     }
 
@@ -2,7 +2,6 @@ package org.jcodec.codecs.vpx.vp8;
 
 import org.jcodec.codecs.vpx.vp8.data.VarianceFNs;
 import org.jcodec.codecs.vpx.vp8.data.VarianceResults;
-import org.jcodec.codecs.vpx.vp8.pointerhelper.FullAccessIntArrPointer;
 import org.jcodec.codecs.vpx.vp8.pointerhelper.PositionableIntArrPointer;
 import org.jcodec.codecs.vpx.vp8.subpixfns.BilinearPredict;
 
@@ -28,17 +27,17 @@ public class SubpixelVariance implements VarianceFNs.SVF {
     // taps should sum to FILTER_WEIGHT. pixel_step defines whether the filter is
     // applied horizontally (pixel_step = 1) or vertically (pixel_step = stride).
     // It defines the offset required to move from one input to the next.
-    static void var_filter_block2d_bil(final PositionableIntArrPointer src_ptr, final FullAccessIntArrPointer ref_ptr,
+    static void var_filter_block2d_bil(final short[] src, final int srcPos, final short[] ref,
             final int src_pixels_per_line, final int pixel_step, final int output_height, final int output_width,
             final int[] filter) {
-        int baseSrc = 0, baseRef = 0;
+        final int f0 = filter[0], f1 = filter[1];
+        int baseSrc = srcPos, baseRef = 0;
 
         for (int i = 0; i < output_height; ++i) {
             final int basePS = baseSrc + pixel_step;
             for (int j = 0; j < output_width; ++j) {
-                ref_ptr.setRel(baseRef + j, (short) (CommonUtils.roundPowerOfTwo(
-                        (int) src_ptr.getRel(baseSrc + j) * filter[0] + (int) src_ptr.getRel(basePS + j) * filter[1],
-                        FILTER_BITS)));
+                ref[baseRef + j] = (short) (CommonUtils
+                        .roundPowerOfTwo(src[baseSrc + j] * f0 + src[basePS + j] * f1, FILTER_BITS));
             }
             baseSrc += src_pixels_per_line;
             baseRef += output_width;
@@ -47,23 +46,30 @@ public class SubpixelVariance implements VarianceFNs.SVF {
 
     private final int w, h;
 
-    private final FullAccessIntArrPointer biliX;
-    private final FullAccessIntArrPointer biliY;
+    // The function is shared by the encoding threads, each has its own buffers
+    private final ThreadLocal<short[][]> tempBuffers;
 
     public SubpixelVariance(int w, int h) {
         this.w = w;
         this.h = h;
-        biliX = new FullAccessIntArrPointer((h + 1) * w);
-        biliY = new FullAccessIntArrPointer(h * w);
+        tempBuffers = new ThreadLocal<short[][]>();
     }
 
     @Override
     public void call(PositionableIntArrPointer src_ptr, int src_stride, int xoff, int yoff,
             PositionableIntArrPointer ref_ptr, int ref_stride, VarianceResults sse) {
-        var_filter_block2d_bil(src_ptr, biliX, src_stride, 1, h + 1, w, BilinearPredict.vp8_bilinear_filters[xoff]);
-        var_filter_block2d_bil(biliX, biliY, w, w, h, w, BilinearPredict.vp8_bilinear_filters[yoff]);
+        short[][] buffers = tempBuffers.get();
+        if (buffers == null) {
+            buffers = new short[][] { new short[(h + 1) * w], new short[h * w] };
+            tempBuffers.set(buffers);
+        }
+        short[] biliX = buffers[0];
+        short[] biliY = buffers[1];
+        var_filter_block2d_bil(src_ptr.getArray(), src_ptr.getPos(), biliX, src_stride, 1, h + 1, w,
+                BilinearPredict.vp8_bilinear_filters[xoff]);
+        var_filter_block2d_bil(biliX, 0, biliY, w, w, h, w, BilinearPredict.vp8_bilinear_filters[yoff]);
 
-        Variance.variance(biliY, w, ref_ptr, ref_stride, sse, w, h);
+        Variance.variance(biliY, 0, w, ref_ptr.getArray(), ref_ptr.getPos(), ref_stride, sse, w, h);
     }
 
 }
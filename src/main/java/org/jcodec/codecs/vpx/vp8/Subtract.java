@@ -18,10 +18,17 @@ public class Subtract {
     static void vpx_subtract_block(final int rows, final int cols, final FullAccessIntArrPointer diff_ptr,
             final int diff_stride, final ReadOnlyIntArrPointer src_ptr, final int src_stride,
             final ReadOnlyIntArrPointer pred_ptr, final int pred_stride) {
+        vpx_subtract_block(rows, cols, diff_ptr.getArray(), diff_ptr.getPos(), diff_stride, src_ptr.getArray(),
+                src_ptr.getPos(), src_stride, pred_ptr.getArray(), pred_ptr.getPos(), pred_stride);
+    }
+
+    static void vpx_subtract_block(final int rows, final int cols, final short[] diff_arr, final int diffPos,
+            final int diff_stride, final short[] src_arr, final int srcPos, final int src_stride,
+            final short[] pred_arr, final int predPos, final int pred_stride) {
         for (int r = 0; r < rows; r++) {
-            for (int c = 0, diff = r * diff_stride, src = r * src_stride,
-                    pred = r * pred_stride; c < cols; c++, diff++, src++, pred++) {
-                diff_ptr.setRel(diff, (short) (src_ptr.getRel(src) - pred_ptr.getRel(pred)));
+            for (int c = 0, diff = diffPos + r * diff_stride, src = srcPos + r * src_stride,
+                    pred = predPos + r * pred_stride; c < cols; c++, diff++, src++, pred++) {
+                diff_arr[diff] = (short) (src_arr[src] - pred_arr[pred]);
             }
         }
     }
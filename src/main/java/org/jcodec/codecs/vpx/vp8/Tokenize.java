@@ -29,7 +29,8 @@ import org.jcodec.codecs.vpx.vp8.pointerhelper.FullAccessIntArrPointer;
 public class Tokenize {
 
     private static TokenExtra configureToken(final FullAccessGenArrPointer<TokenExtra> tp, final TokenAlphabet tok,
-            final Compressor cpi, final PlaneType type, final int band, final int pt, final boolean skip) {
+            final Compressor cpi, final Macroblock x, final PlaneType type, final int band, final int pt,
+            final boolean skip) {
         final int typ = type.ordinal();
         TokenExtra t = tp.get();
         if (t == null) {
@@ -41,27 +42,27 @@ public class Tokenize {
         t.Token = tok;
         t.context_tree = cpi.common.fc.coef_probs[typ][band][pt];
         t.skip_eob_node = skip;
-        ++cpi.mb.coef_counts[typ][band][pt][tok.ordinal()];
+        ++x.coef_counts[typ][band][pt][tok.ordinal()];
         return t;
     }
 
     private static void configureAsEob(final FullAccessGenArrPointer<TokenExtra> tp, final Compressor cpi,
-            final PlaneType type, final int band, final int pt, final boolean skip) {
-        configureToken(tp, TokenAlphabet.DCT_EOB_TOKEN, cpi, type, band, pt, skip);
+            final Macroblock x, final PlaneType type, final int band, final int pt, final boolean skip) {
+        configureToken(tp, TokenAlphabet.DCT_EOB_TOKEN, cpi, x, type, band, pt, skip);
     }
 
-    private static int configureAsGeneric(final FullAccessGenArrPointer<TokenExtra> tp, final Compressor cpi, final int v,
-            final PlaneType type, final int band, final int pt, final boolean skip) {
+    private static int configureAsGeneric(final FullAccessGenArrPointer<TokenExtra> tp, final Compressor cpi,
+            final Macroblock x, final int v, final PlaneType type, final int band, final int pt, final boolean skip) {
         final TokenValue tv = DCTValueConstants.getTokenValue(v);
         final TokenAlphabet token = tv.token;
-        final TokenExtra t = configureToken(tp, token, cpi, type, band, pt, skip);
+        final TokenExtra t = configureToken(tp, token, cpi, x, type, band, pt, skip);
         t.Extra = tv.extra;
         return token.previousTokenClass;
     }
 
     static void tokenize2nd_order_b(Macroblock x, FullAccessGenArrPointer<TokenExtra> tp, Compressor cpi) {
         MacroblockD xd = x.e_mbd;
-        singleBlockfinalizeTokenize(PlaneType.Y2, tp, cpi, 24, xd.above_context.get().panes, xd.left_context.panes);
+        singleBlockfinalizeTokenize(PlaneType.Y2, tp, cpi, x, 24, xd.above_context.get().panes, xd.left_context.panes);
     }
 
     static void tokenize1st_order_b(Macroblock x, FullAccessGenArrPointer<TokenExtra> tp, PlaneType type,
@@ -71,18 +72,19 @@ public class Tokenize {
 
         /* Luma */
         for (int block = 0; block < 16; block++) {
-            singleBlockfinalizeTokenize(type, tp, cpi, block, a, l);
+            singleBlockfinalizeTokenize(type, tp, cpi, x, block, a, l);
         }
 
         /* Chroma */
         for (int block = 16; block < 24; block++) {
-            singleBlockfinalizeTokenize(PlaneType.UV, tp, cpi, block, a, l);
+            singleBlockfinalizeTokenize(PlaneType.UV, tp, cpi, x, block, a, l);
         }
     }
 
     private static void singleBlockfinalizeTokenize(final PlaneType type, final FullAccessGenArrPointer<TokenExtra> tp,
-            final Compressor cpi, final int block, final FullAccessIntArrPointer a, final FullAccessIntArrPointer l) {
-        final BlockD bd = cpi.mb.e_mbd.block.getRel(block);
+            final Compressor cpi, final Macroblock x, final int block, final FullAccessIntArrPointer a,
+            final FullAccessIntArrPointer l) {
+        final BlockD bd = x.e_mbd.block.getRel(block);
         final int eob = bd.eob.get();
         final FullAccessIntArrPointer qcoeff_ptr = bd.qcoeff;
         final int aPos = BlockD.vp8_block2above[block];
@@ -91,22 +93,22 @@ public class Tokenize {
         int c = type.start_coeff;
         if (c >= eob) {
             /* c = band for this case */
-            configureAsEob(tp, cpi, type, c, pt, false);
+            configureAsEob(tp, cpi, x, type, c, pt, false);
             a.setRel(aPos, l.setRel(lPos, (short) 0));
             return;
         }
         int v = qcoeff_ptr.getRel(c);
-        pt = configureAsGeneric(tp, cpi, v, type, c, pt, false);
+        pt = configureAsGeneric(tp, cpi, x, v, type, c, pt, false);
         c++;
 
         assert (eob <= 16);
         for (; c < eob; ++c) {
             int rc = VPXConst.zigzag[c];
             v = qcoeff_ptr.getRel(rc);
-            pt = configureAsGeneric(tp, cpi, v, type, VP8Util.SubblockConstants.vp8CoefBands[c], pt, pt == 0);
+            pt = configureAsGeneric(tp, cpi, x, v, type, VP8Util.SubblockConstants.vp8CoefBands[c], pt, pt == 0);
         }
         if (c < 16) {
-            configureAsEob(tp, cpi, type, VP8Util.SubblockConstants.vp8CoefBands[c], pt, false);
+            configureAsEob(tp, cpi, x, type, VP8Util.SubblockConstants.vp8CoefBands[c], pt, false);
         }
         a.setRel(aPos, l.setRel(lPos, (short) 1));
     }
@@ -114,7 +116,7 @@ public class Tokenize {
     private static void stuffOrderHelper(FullAccessGenArrPointer<TokenExtra> tp, FullAccessIntArrPointer a,
             FullAccessIntArrPointer l, Compressor cpi, Macroblock x, PlaneType plane, int band) {
         final int pt = a.get() + l.get(); /* near block/prev token context index */
-        configureAsEob(tp, cpi, plane, band, pt, false);
+        configureAsEob(tp, cpi, x, plane, band, pt, false);
         a.set(l.set((short) 0));
     }
 
@@ -91,10 +91,12 @@ public class Variance {
     };
 
     static int vpx_get_mb_ss(final ReadOnlyIntArrPointer src_ptr) {
+        final short[] src = src_ptr.getArray();
+        final int pos = src_ptr.getPos();
         int sum = 0;
 
-        for (int i = 0; i < 256; ++i) {
-            final int t = src_ptr.getRel(i);
+        for (int i = pos; i < pos + 256; ++i) {
+            final int t = src[i];
             sum += t * t;
         }
 
@@ -103,9 +105,8 @@ public class Variance {
 
     static int vpx_get4x4sse_cs(final PositionableIntArrPointer src_ptr, final int src_stride,
             final PositionableIntArrPointer ref_ptr, final int ref_stride) {
-        VarianceResults sse = new VarianceResults();
-        variance(src_ptr, src_stride, ref_ptr, ref_stride, sse, 4, 4, skipVar);
-        return sse.sse;
+        return sse(src_ptr.getArray(), src_ptr.getPos(), src_stride, ref_ptr.getArray(), ref_ptr.getPos(), ref_stride,
+                4, 4);
     }
 
     static void variance(final PositionableIntArrPointer src_ptr, final int src_stride,
@@ -133,18 +134,41 @@ public class Variance {
     private static void variance(final PositionableIntArrPointer src_ptr, final int src_stride,
             final PositionableIntArrPointer ref_ptr, final int ref_stride, final VarianceResults ret, final int w,
             final int h, VarCalc varcalc) {
+        variance(src_ptr.getArray(), src_ptr.getPos(), src_stride, ref_ptr.getArray(), ref_ptr.getPos(), ref_stride,
+                ret, w, h, varcalc);
+    }
+
+    static void variance(final short[] src, final int srcPos, final int src_stride, final short[] ref,
+            final int refPos, final int ref_stride, final VarianceResults ret, final int w, final int h) {
+        variance(src, srcPos, src_stride, ref, refPos, ref_stride, ret, w, h, calcVar);
+    }
+
+    private static void variance(final short[] src, final int srcPos, final int src_stride, final short[] ref,
+            final int refPos, final int ref_stride, final VarianceResults ret, final int w, final int h,
+            VarCalc varcalc) {
         long sum = 0;
-        ret.sse = 0;
-        for (int i = 0; i < h; ++i) {
-            final int baseSrc = i * src_stride;
-            final int baseRef = i * ref_stride;
+        int sse = 0;
+        for (int i = 0, s = srcPos, r = refPos; i < h; ++i, s += src_stride, r += ref_stride) {
             for (int j = 0; j < w; ++j) {
-                final int diff = src_ptr.getRel(baseSrc + j) - ref_ptr.getRel(baseRef + j);
+                final int diff = src[s + j] - ref[r + j];
                 sum += diff;
-                ret.sse += diff * diff;
+                sse += diff * diff;
             }
         }
+        ret.sse = sse;
 
         varcalc.call(ret, w, h, sum);
     }
+
+    private static int sse(final short[] src, final int srcPos, final int src_stride, final short[] ref,
+            final int refPos, final int ref_stride, final int w, final int h) {
+        int sse = 0;
+        for (int i = 0, s = srcPos, r = refPos; i < h; ++i, s += src_stride, r += ref_stride) {
+            for (int j = 0; j < w; ++j) {
+                final int diff = src[s + j] - ref[r + j];
+                sse += diff * diff;
+            }
+        }
+        return sse;
+    }
 }
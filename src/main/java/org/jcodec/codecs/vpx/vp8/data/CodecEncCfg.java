@@ -64,6 +64,15 @@ public class CodecEncCfg {
      */
     private int g_h;
 
+    /*
+     * !\brief Maximum number of threads to use
+     *
+     * For multi-threaded implementations, use no more than this number of threads.
+     * The codec may use fewer threads than allowed. The value 0 is equivalent to
+     * the value 1.
+     */
+    private int g_threads = 0;
+
     public static enum vpx_bit_depth {
         VPX_BITS_8(8),
         /** < 8 bits */
@@ -634,6 +643,15 @@ public class CodecEncCfg {
         this.g_h = g_h;
     }
 
+    public int getG_threads() {
+        return g_threads;
+    }
+
+    public void setG_threads(int g_threads) {
+        rangeCheck(g_threads, 0, 64);
+        this.g_threads = g_threads;
+    }
+
     public vpx_bit_depth getG_bit_depth() {
         return g_bit_depth;
     }
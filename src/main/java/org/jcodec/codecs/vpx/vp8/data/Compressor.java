@@ -4,9 +4,11 @@ import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import org.jcodec.codecs.vpx.vp8.BitStream;
 import org.jcodec.codecs.vpx.vp8.BoolEncoder;
+import org.jcodec.codecs.vpx.vp8.EThreading;
 import org.jcodec.codecs.vpx.vp8.MComp;
 import org.jcodec.codecs.vpx.vp8.OnyxIf;
 import org.jcodec.codecs.vpx.vp8.Quantize;
@@ -38,6 +40,12 @@ public class Compressor {
     public EnumMap<CommonData.Quant, QuantDetails> q = new EnumMap<CommonData.Quant, QuantDetails>(CommonData.Quant.class);
 
     public Macroblock mb;
+    /* multithread data */
+    public boolean b_multi_threaded;
+    public int encoding_thread_count;
+    public int mt_sync_range;
+    public MBRowComp[] mb_row_ei;
+    public ExecutorService encoding_threads;
     public CommonData common = new CommonData();
     public BoolEncoder[] bc = new BoolEncoder[9]; /* one boolcoder for each partition */
 
@@ -609,6 +617,7 @@ public class Compressor {
         OnyxIf.vp8_set_speed_features(this);
         common.setVersion((byte) oxcf.Version);
 
+        EThreading.vp8cx_create_encoder_threads(this);
     }
 
     public void vp8_convert_rfct_to_prob() {
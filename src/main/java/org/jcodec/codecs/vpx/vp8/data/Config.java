@@ -31,6 +31,8 @@ public class Config {
     int Version;
     public int Width;
     public int Height;
+    /* number of threads encoding the macroblock rows, see EThreading */
+    public int multi_threaded;
     Rational timebase = Rational.ONE;
     public int target_bandwidth; /* kilobits per second */
 
@@ -149,6 +151,7 @@ public class Config {
 
         Width = cfg.getG_w();
         Height = cfg.getG_h();
+        multi_threaded = cfg.getG_threads();
         timebase = cfg.getG_timebase();
 
         error_resilient_mode = cfg.isG_error_resilient();
@@ -259,6 +262,7 @@ public class Config {
         n.maximum_buffer_size = maximum_buffer_size;
         n.maximum_buffer_size_in_ms = maximum_buffer_size_in_ms;
         n.Mode = Mode;
+        n.multi_threaded = multi_threaded;
         n.noise_sensitivity = noise_sensitivity;
         n.number_of_layers = number_of_layers;
         n.optimal_buffer_level = optimal_buffer_level;
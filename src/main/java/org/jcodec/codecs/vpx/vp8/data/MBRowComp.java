@@ -0,0 +1,26 @@
+package org.jcodec.codecs.vpx.vp8.data;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License.
+ *
+ * The class is a direct java port of libvpx's
+ * (https://github.com/webmproject/libvpx) relevant VP8 code with significant
+ * java oriented refactoring.
+ *
+ * The context of one encoding thread, the thread encodes every
+ * (encoding_thread_count + 1)-th macroblock row of the frame.
+ *
+ * @author The JCodec project
+ *
+ */
+public class MBRowComp {
+    public final Macroblock mb;
+    public final EntropyContextPlanes left_context = new EntropyContextPlanes();
+    public final int[] segment_counts = new int[BlockD.MAX_MB_SEGMENTS];
+    public final long[] totalrate = new long[1];
+
+    public MBRowComp(Compressor cpi) {
+        mb = new Macroblock(cpi);
+    }
+}
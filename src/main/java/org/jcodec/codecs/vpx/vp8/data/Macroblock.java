@@ -136,6 +136,14 @@ public class Macroblock {
 
     public int mbs_zero_last_dot_suppress;
     public boolean zero_last_dot_suppress;
+
+    /* The mode search adaptation every macroblock row starts from */
+    private final int[] row_rd_thresh_mult = new int[MAX_MODES];
+    private final int[] row_rd_threshes = new int[MAX_MODES];
+    private final int[] row_mode_test_hit_counts = new int[MAX_MODES];
+    private int row_mbs_tested_so_far;
+    private int row_mbs_zero_last_dot_suppress;
+
     public final ReconIntra recon = new ReconIntra();
     public final PickInter interPicker = new PickInter();
     public final HexSearch hex = new HexSearch();
@@ -233,6 +241,39 @@ public class Macroblock {
         mbs_zero_last_dot_suppress = 0;
     }
 
+    /**
+     * Keeps the mode search thresholds and counters as they are at the start of
+     * the frame. Every row then starts from them instead of from where the row
+     * before it left them, so a row is encoded the same by any thread.
+     */
+    public void saveRowStart() {
+        CommonUtils.vp8_copy(rd_thresh_mult, row_rd_thresh_mult);
+        CommonUtils.vp8_copy(rd_threshes, row_rd_threshes);
+        CommonUtils.vp8_copy(mode_test_hit_counts, row_mode_test_hit_counts);
+        row_mbs_tested_so_far = mbs_tested_so_far;
+        row_mbs_zero_last_dot_suppress = mbs_zero_last_dot_suppress;
+    }
+
+    public void loadRowStart(Macroblock frame) {
+        CommonUtils.vp8_copy(frame.row_rd_thresh_mult, rd_thresh_mult);
+        CommonUtils.vp8_copy(frame.row_rd_threshes, rd_threshes);
+        CommonUtils.vp8_copy(frame.row_mode_test_hit_counts, mode_test_hit_counts);
+        mbs_tested_so_far = frame.row_mbs_tested_so_far;
+        mbs_zero_last_dot_suppress = frame.row_mbs_zero_last_dot_suppress;
+    }
+
+    /**
+     * Takes the mode search thresholds and counters the last row of the frame
+     * ended with, the next frame starts from them
+     */
+    public void copyModeSearchState(Macroblock last) {
+        CommonUtils.vp8_copy(last.rd_thresh_mult, rd_thresh_mult);
+        CommonUtils.vp8_copy(last.rd_threshes, rd_threshes);
+        CommonUtils.vp8_copy(last.mode_test_hit_counts, mode_test_hit_counts);
+        mbs_tested_so_far = last.mbs_tested_so_far;
+        mbs_zero_last_dot_suppress = last.mbs_zero_last_dot_suppress;
+    }
+
     private void prepInitMotionComp() {
         ss_count = 1;
         ss.set(new SearchSite(0, 0, 0));
@@ -0,0 +1,44 @@
+package org.jcodec.codecs.vpx.vp8.data;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License.
+ *
+ * The progress of the threads working on the macroblock rows of a frame, a
+ * row waits here until the row above it is far enough ahead.
+ *
+ * @author The JCodec project
+ *
+ */
+public class RowSync implements Wavefront.Progress {
+    /* The number of the macroblocks done in each row */
+    private final int[] mbsDone;
+
+    public RowSync(int mb_rows) {
+        mbsDone = new int[mb_rows];
+    }
+
+    public synchronized void setMbsDone(int mb_row, int n) {
+        mbsDone[mb_row] = n;
+        notifyAll();
+    }
+
+    /**
+     * The row is done, including anything done after its last macroblock (the
+     * border extension). Marks a row that failed as well, so that the rows
+     * below never wait forever.
+     */
+    public synchronized void setRowDone(int mb_row) {
+        setMbsDone(mb_row, Integer.MAX_VALUE);
+    }
+
+    public synchronized void waitForMbs(int mb_row, int n) {
+        while (mbsDone[mb_row] < n) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.jcodec.codecs.vpx.vp8.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.jcodec.common.WorkerPool;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License.
+ *
+ * Runs the rows of the macroblocks (or superblocks) of a frame on an executor
+ * as a wavefront, one task per row. A block is processed once the row above is
+ * done with the block above right of it, the one it predicts from or the one
+ * which filtering changes the pixels it filters across.
+ *
+ * A loop filter stage follows the reconstruction stage of the row below the
+ * same way: the filter of a block changes the pixels of the blocks above and
+ * to the left of it, while the row below still predicts from the unfiltered
+ * ones.
+ *
+ * @author The JCodec project
+ *
+ */
+public class Wavefront {
+    private final ExecutorService executor;
+    private final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+    public interface RowTask {
+        /**
+         * Processes the row, reporting the blocks done to 'sync' and waiting
+         * there for the row above
+         */
+        void run(int row, RowSync sync);
+    }
+
+    public interface BlockTask {
+        void run(int row, int col);
+    }
+
+    /**
+     * How many blocks of a row a previous stage is done with
+     */
+    public interface Progress {
+        void waitForMbs(int row, int n);
+    }
+
+    public Wavefront(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Submits a task for each of the rows. When 'contexts' is above 0 the rows
+     * take turns on that many contexts (token partitions, encoding threads),
+     * a row starts once the row before it on the same context is done.
+     *
+     * @return the progress of the rows
+     */
+    public RowSync submitRows(final int rows, final int contexts, final RowTask task) {
+        final RowSync sync = new RowSync(rows);
+        for (int r = 0; r < rows; r++) {
+            final int row = r;
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        if (contexts > 0 && row >= contexts)
+                            sync.waitForMbs(row - contexts, Integer.MAX_VALUE);
+                        task.run(row, sync);
+                    } finally {
+                        sync.setRowDone(row);
+                    }
+                }
+            }));
+        }
+        return sync;
+    }
+
+    /**
+     * Submits a task for each of the rows that processes its blocks left to
+     * right. When 'previous' is given every block also waits for the previous
+     * stage to be done with the row below up to the block below right.
+     *
+     * @return the progress of the rows
+     */
+    public RowSync submitBlocks(final int rows, final int cols, int contexts, final Progress previous,
+            final BlockTask task) {
+        return submitRows(rows, contexts, new RowTask() {
+            public void run(int row, RowSync sync) {
+                int below = Math.min(row + 1, rows - 1);
+                for (int col = 0; col < cols; col++) {
+                    int upTo = Math.min(col + 2, cols);
+                    if (previous != null)
+                        previous.waitForMbs(below, upTo);
+                    if (row > 0)
+                        sync.waitForMbs(row - 1, upTo);
+                    task.run(row, col);
+                    sync.setMbsDone(row, col + 1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Submits a task that is not a row, joined along with the rows
+     */
+    public void submit(Runnable task) {
+        futures.add(executor.submit(task));
+    }
+
+    /**
+     * Waits for all the tasks submitted, rethrows the failure of any of them
+     */
+    public void join() {
+        for (Future<?> future : futures)
+            WorkerPool.join(future);
+        futures.clear();
+    }
+}
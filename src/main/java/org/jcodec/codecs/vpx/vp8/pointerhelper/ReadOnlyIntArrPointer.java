@@ -52,6 +52,14 @@ package org.jcodec.codecs.vpx.vp8.pointerhelper;
         return pos;
     }
 
+    /**
+     * The backing array, lets the hot kernels index it directly at
+     * {@link #getPos()} instead of going through the pointer.
+     */
+    public short[] getArray() {
+        return arr;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof ReadOnlyIntArrPointer) {
@@ -46,7 +46,7 @@ public class BilinearPredict extends Filter {
     private int[] VFilter, HFilter;
 
     private final int width, height;
-    private FullAccessIntArrPointer FData = new FullAccessIntArrPointer(17 * 16);
+    private final short[] FData = new short[17 * 16];
 
     private BilinearPredict(int width, int height) {
         this.width = width;
@@ -54,8 +54,8 @@ public class BilinearPredict extends Filter {
     }
 
     @Override
-    protected short applyFilterCore(ReadOnlyIntArrPointer src_ptr, int pixel_step, int[] vp8_filter) {
-        return (short) (((src_ptr.get() * vp8_filter[0]) + (src_ptr.getRel(1) * vp8_filter[1])
+    protected short applyFilterCore(short[] src, int pos, int pixel_step, int[] vp8_filter) {
+        return (short) (((src[pos] * vp8_filter[0]) + (src[pos + 1] * vp8_filter[1])
                 + (bilinearWeight)) >> Filter.VP8_FILTER_SHIFT);
     }
 
@@ -75,12 +75,13 @@ public class BilinearPredict extends Filter {
 
     private void filter_block2d_bil(ReadOnlyIntArrPointer src_ptr, FullAccessIntArrPointer dst_ptr, int src_pitch,
             int dst_pitch) {
-        FData.rewind();
         /* First filter 1-D horizontally... */
-        filter_block2d_single_pass(src_ptr, FData, width, width, src_pitch, height + 1, width, HFilter);
+        filter_block2d_single_pass(src_ptr.getArray(), src_ptr.getPos(), FData, 0, width, width, src_pitch,
+                height + 1, width, HFilter);
 
         /* then 1-D vertically... */
-        filter_block2d_single_pass(FData, dst_ptr, width, width, dst_pitch, height, width, VFilter);
+        filter_block2d_single_pass(FData, 0, dst_ptr.getArray(), dst_ptr.getPos(), width, width, dst_pitch, height,
+                width, VFilter);
     }
 
 }
@@ -1,9 +1,5 @@
 package org.jcodec.codecs.vpx.vp8.subpixfns;
 
-import org.jcodec.codecs.vpx.vp8.pointerhelper.FullAccessIntArrPointer;
-import org.jcodec.codecs.vpx.vp8.pointerhelper.PositionableIntArrPointer;
-import org.jcodec.codecs.vpx.vp8.pointerhelper.ReadOnlyIntArrPointer;
-
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
  * under FreeBSD License.
@@ -21,23 +17,17 @@ public abstract class Filter implements SubpixFN {
     public static final int VP8_FILTER_WEIGHT = 128;
     public static final int VP8_FILTER_SHIFT = 7;
 
-    void filter_block2d_single_pass(final ReadOnlyIntArrPointer srcp, final FullAccessIntArrPointer output_ptr,
+    void filter_block2d_single_pass(final short[] src, final int srcPos, final short[] output, final int outPos,
             final int output_pitch, final int src_pixels_per_line, final int pixel_step, final int output_height,
             final int output_width, final int[] vp8_filter) {
-        final PositionableIntArrPointer src_ptr = PositionableIntArrPointer.makePositionable(srcp);
-
-        for (int i = 0; i < output_height; ++i) {
-            final int outbase = i * output_pitch;
+        for (int i = 0, srcbase = srcPos; i < output_height; ++i, srcbase += src_pixels_per_line) {
+            final int outbase = outPos + i * output_pitch;
             for (int j = 0; j < output_width; ++j) {
-                output_ptr.setRel(outbase + j, applyFilterCore(src_ptr, pixel_step, vp8_filter));
-                src_ptr.inc();
+                output[outbase + j] = applyFilterCore(src, srcbase + j, pixel_step, vp8_filter);
             }
-
-            /* Next row... */
-            src_ptr.incBy(src_pixels_per_line - output_width);
         }
     }
 
-    protected abstract short applyFilterCore(ReadOnlyIntArrPointer src_ptr, int pixel_step, int[] vp8_filter);
+    protected abstract short applyFilterCore(short[] src, int pos, int pixel_step, int[] vp8_filter);
 
 }
@@ -2,7 +2,6 @@ package org.jcodec.codecs.vpx.vp8.subpixfns;
 
 import org.jcodec.codecs.vpx.vp8.CommonUtils;
 import org.jcodec.codecs.vpx.vp8.pointerhelper.FullAccessIntArrPointer;
-import org.jcodec.codecs.vpx.vp8.pointerhelper.PositionableIntArrPointer;
 import org.jcodec.codecs.vpx.vp8.pointerhelper.ReadOnlyIntArrPointer;
 
 /**
@@ -54,23 +53,22 @@ public class SixtapPredict extends Filter {
 
     private final int width, height, vfOnlyHeight, vfFdataShift;
     private int[] HFilter, VFilter;
-    private final FullAccessIntArrPointer FData; /* Temp data buffer used in filtering */
+    private final short[] FData; /* Temp data buffer used in filtering */
 
     private SixtapPredict(int fdatasize, int height, int width, int vfH) {
         this.width = width;
         this.height = height;
         this.vfOnlyHeight = vfH;
         this.vfFdataShift = width << 1;
-        FData = new FullAccessIntArrPointer(fdatasize);
+        FData = new short[fdatasize];
 
     }
 
     @Override
-    protected short applyFilterCore(ReadOnlyIntArrPointer src_ptr, int pixel_step, int[] vp8_filter) {
-        int Temp = 0;
-        for (int k = -2, fi = 0; k < 4; k++, fi++) {
-            Temp += src_ptr.getRel(k * pixel_step) * vp8_filter[fi];
-        }
+    protected short applyFilterCore(short[] src, int pos, int pixel_step, int[] vp8_filter) {
+        int Temp = src[pos - 2 * pixel_step] * vp8_filter[0] + src[pos - pixel_step] * vp8_filter[1]
+                + src[pos] * vp8_filter[2] + src[pos + pixel_step] * vp8_filter[3]
+                + src[pos + 2 * pixel_step] * vp8_filter[4] + src[pos + 3 * pixel_step] * vp8_filter[5];
         Temp += sixtapWeight; // Rounding
         /* Normalize back to 0-255 */
         return CommonUtils.clipPixel((short) (Temp >> Filter.VP8_FILTER_SHIFT));
@@ -83,16 +81,13 @@ public class SixtapPredict extends Filter {
 
     void filter_block2d(ReadOnlyIntArrPointer src_ptr, FullAccessIntArrPointer output_ptr, int src_pixels_per_line,
             int output_pitch) {
-        FData.rewind();
-
         /* First filter 1-D horizontally... */
-        filter_block2d_single_pass(
-                PositionableIntArrPointer.makePositionableAndInc(src_ptr, -(2 * src_pixels_per_line)), FData, width,
+        filter_block2d_single_pass(src_ptr.getArray(), src_ptr.getPos() - 2 * src_pixels_per_line, FData, 0, width,
                 src_pixels_per_line, 1, height, width, HFilter);
-        FData.incBy(vfFdataShift);
 
         /* then filter verticaly... */
-        filter_block2d_single_pass(FData, output_ptr, output_pitch, width, width, vfOnlyHeight, width, VFilter);
+        filter_block2d_single_pass(FData, vfFdataShift, output_ptr.getArray(), output_ptr.getPos(), output_pitch,
+                width, width, vfOnlyHeight, width, VFilter);
     }
 
     @Override
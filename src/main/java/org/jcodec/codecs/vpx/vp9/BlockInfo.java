@@ -0,0 +1,64 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.BLOCK_8X8;
+import static org.jcodec.codecs.vpx.vp9.Consts.INTRA_FRAME;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Mode info of a decoded VP9 block, shared by all the 8x8 positions the block
+ * covers. The neighbouring blocks read it for the contexts and the motion
+ * vector candidates, the loop filter reads it for the edges.
+ *
+ * The motion vectors are packed as (row << 16) | (col & 0xffff) in 1/8 of the
+ * luma pixel.
+ *
+ * @author The JCodec project
+ *
+ */
+public class BlockInfo {
+    static final int NONE = -1;
+
+    int sbType;
+    int mode;
+    int uvMode;
+    // modes (intra) or motion vectors (inter) of the 4x4 blocks of a sub8x8
+    // block
+    final int[] bModes = new int[4];
+    final int[][] bMvs = new int[4][2];
+    final int[] refFrame = { INTRA_FRAME, NONE };
+    final int[] mv = new int[2];
+    boolean skip;
+    int txSize;
+    int segmentId;
+    boolean segIdPredicted;
+    int interpFilter;
+
+    boolean isInter() {
+        return refFrame[0] > INTRA_FRAME;
+    }
+
+    boolean isCompound() {
+        return refFrame[1] > INTRA_FRAME;
+    }
+
+    /**
+     * Intra mode of the 4x4 block 'b' as seen by the neighbours
+     */
+    int getYMode(int b) {
+        return sbType < BLOCK_8X8 ? bModes[b] : mode;
+    }
+
+    static int mv(int row, int col) {
+        return (row << 16) | (col & 0xffff);
+    }
+
+    static int mvRow(int mv) {
+        return mv >> 16;
+    }
+
+    static int mvCol(int mv) {
+        return (short) mv;
+    }
+}
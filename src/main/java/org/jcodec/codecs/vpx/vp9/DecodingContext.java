@@ -117,11 +117,11 @@ public class DecodingContext {
     boolean[] leftCompound;
     boolean[] aboveCompound;
 
-    private static final short[] defaultSkipProb = { 192, 128, 64 };
+    static final short[] defaultSkipProb = { 192, 128, 64 };
 
-    private static final short[][] defaultTxProbs8x8 = { { 100 }, { 66 } };
-    private static final short[][] defaultTxProbs16x16 = { { 20, 152 }, { 15, 101 } };
-    private static final short[][] defaultTxProbs32x32 = { { 3, 136, 37 }, { 5, 52, 13 } };
+    static final short[][] defaultTxProbs8x8 = { { 100 }, { 66 } };
+    static final short[][] defaultTxProbs16x16 = { { 20, 152 }, { 15, 101 } };
+    static final short[][] defaultTxProbs32x32 = { { 3, 136, 37 }, { 5, 52, 13 } };
     public static final short[][][][][][] defaultCoefProbs = { { { /* block Type 0 */
             { /* Intra */
                     { /* Coeff Band 0 */
@@ -479,7 +479,7 @@ public class DecodingContext {
 
     public static final short[] defaultIsInterProbs = { 9, 102, 187, 225 };
 
-    private static final short[][] defaultPartitionProbs = {
+    static final short[][] defaultPartitionProbs = {
             // 8x8 -> 4x4
             { 199, 122, 141 }, // a/l both not split
             { 147, 63, 159 }, // a split, l not split
@@ -0,0 +1,288 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.*;
+
+import org.jcodec.codecs.vpx.vp8.CommonUtils;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * The set of probabilities a VP9 frame is coded with. A decoder keeps four of
+ * these between the frames, a frame picks one with frame_context_idx, updates
+ * it from the compressed header, and after the frame is decoded adapts it to
+ * the symbol counts of the frame.
+ *
+ * @author The JCodec project
+ *
+ */
+public class FrameContext {
+
+    static final short[][] kfPartitionProbs = {
+            // 8x8 -> 4x4
+            { 158, 97, 94 }, // a/l both not split
+            { 93, 24, 99 }, // a split, l not split
+            { 85, 119, 44 }, // l split, a not split
+            { 62, 59, 67 }, // a/l both split
+            // 16x16 -> 8x8
+            { 149, 53, 53 }, // a/l both not split
+            { 94, 20, 48 }, // a split, l not split
+            { 83, 53, 24 }, // l split, a not split
+            { 52, 18, 18 }, // a/l both split
+            // 32x32 -> 16x16
+            { 150, 40, 39 }, // a/l both not split
+            { 78, 12, 26 }, // a split, l not split
+            { 67, 33, 11 }, // l split, a not split
+            { 24, 7, 5 }, // a/l both split
+            // 64x64 -> 32x32
+            { 174, 35, 49 }, // a/l both not split
+            { 68, 11, 27 }, // a split, l not split
+            { 57, 15, 9 }, // l split, a not split
+            { 12, 3, 3 } // a/l both split
+    };
+
+    static final short[] defaultCompInterProb = { 239, 183, 119, 96, 41 };
+
+    private static final int MODE_MV_COUNT_SAT = 20;
+    private static final int COEF_COUNT_SAT = 24;
+    private static final int COEF_MAX_UPDATE_FACTOR = 112;
+    private static final int COEF_MAX_UPDATE_FACTOR_AFTER_KEY = 128;
+
+    private static final short[] TREE_MV_CLASS0 = { -0, -1 };
+
+    short[][] yModeProb = new short[BLOCK_SIZE_GROUPS][INTRA_MODES - 1];
+    short[][] uvModeProb = new short[INTRA_MODES][INTRA_MODES - 1];
+    short[][] partitionProb = new short[PARTITION_CONTEXTS][PARTITION_TYPES - 1];
+    short[][][][][][] coefProbs = new short[TX_SIZES][BLOCK_TYPES][REF_TYPES][COEF_BANDS][PREV_COEF_CONTEXTS][UNCONSTRAINED_NODES];
+    short[][] switchableInterpProb = new short[INTERP_FILTER_CONTEXTS][SWITCHABLE_FILTERS - 1];
+    short[][] interModeProbs = new short[INTER_MODE_CONTEXTS][INTER_MODES - 1];
+    short[] intraInterProb = new short[IS_INTER_CONTEXTS];
+    short[] compInterProb = new short[COMP_MODE_CONTEXTS];
+    short[][] singleRefProb = new short[REF_CONTEXTS][2];
+    short[] compRefProb = new short[REF_CONTEXTS];
+    short[][] tx8x8Probs = new short[TX_SIZE_CONTEXTS][TX_SIZES - 3];
+    short[][] tx16x16Probs = new short[TX_SIZE_CONTEXTS][TX_SIZES - 2];
+    short[][] tx32x32Probs = new short[TX_SIZE_CONTEXTS][TX_SIZES - 1];
+    short[] skipProbs = new short[SKIP_CONTEXTS];
+
+    short[] mvJointProbs = new short[MV_JOINTS - 1];
+    short[] mvSignProb = new short[2];
+    short[][] mvClassProbs = new short[2][MV_CLASSES - 1];
+    short[][] mvClass0Prob = new short[2][CLASS0_SIZE - 1];
+    short[][] mvBitsProb = new short[2][MV_OFFSET_BITS];
+    short[][][] mvClass0FrProbs = new short[2][CLASS0_SIZE][MV_FR_SIZE - 1];
+    short[][] mvFrProbs = new short[2][MV_FR_SIZE - 1];
+    short[] mvClass0HpProb = new short[2];
+    short[] mvHpProb = new short[2];
+
+    public static FrameContext createDefault() {
+        FrameContext fc = new FrameContext();
+        CommonUtils.vp8_copy(DecodingContext.defaultYModeProbs, fc.yModeProb);
+        CommonUtils.vp8_copy(DecodingContext.defaultUvModeProbs, fc.uvModeProb);
+        CommonUtils.vp8_copy(DecodingContext.defaultPartitionProbs, fc.partitionProb);
+        CommonUtils.vp8_copy(DecodingContext.defaultCoefProbs, fc.coefProbs);
+        CommonUtils.vp8_copy(DecodingContext.defaultInterpFilterProbs, fc.switchableInterpProb);
+        CommonUtils.vp8_copy(DecodingContext.defaultInterModeProbs, fc.interModeProbs);
+        CommonUtils.vp8_copy(DecodingContext.defaultIsInterProbs, fc.intraInterProb);
+        CommonUtils.vp8_copy(defaultCompInterProb, fc.compInterProb);
+        CommonUtils.vp8_copy(DecodingContext.defaultSingleRefProb, fc.singleRefProb);
+        CommonUtils.vp8_copy(DecodingContext.defaultCompRefProb, fc.compRefProb);
+        CommonUtils.vp8_copy(DecodingContext.defaultTxProbs8x8, fc.tx8x8Probs);
+        CommonUtils.vp8_copy(DecodingContext.defaultTxProbs16x16, fc.tx16x16Probs);
+        CommonUtils.vp8_copy(DecodingContext.defaultTxProbs32x32, fc.tx32x32Probs);
+        CommonUtils.vp8_copy(DecodingContext.defaultSkipProb, fc.skipProbs);
+
+        CommonUtils.vp8_copy(DecodingContext.defaultMvJointProbs, fc.mvJointProbs);
+        CommonUtils.vp8_copy(DecodingContext.defaultMvSignProb, fc.mvSignProb);
+        CommonUtils.vp8_copy(DecodingContext.defaultMvClassProbs, fc.mvClassProbs);
+        for (int i = 0; i < 2; i++)
+            fc.mvClass0Prob[i][0] = DecodingContext.defaultMvClass0BitProb[i];
+        CommonUtils.vp8_copy(DecodingContext.defaultMvBitsProb, fc.mvBitsProb);
+        CommonUtils.vp8_copy(DecodingContext.defaultMvClass0FrProbs, fc.mvClass0FrProbs);
+        CommonUtils.vp8_copy(DecodingContext.defaultMvFrProbs, fc.mvFrProbs);
+        CommonUtils.vp8_copy(DecodingContext.defaultMvClass0HpProb, fc.mvClass0HpProb);
+        CommonUtils.vp8_copy(DecodingContext.defaultMvHpProb, fc.mvHpProb);
+        return fc;
+    }
+
+    public FrameContext copy() {
+        FrameContext fc = new FrameContext();
+        fc.copyFrom(this);
+        return fc;
+    }
+
+    public void copyFrom(FrameContext o) {
+        CommonUtils.vp8_copy(o.yModeProb, yModeProb);
+        CommonUtils.vp8_copy(o.uvModeProb, uvModeProb);
+        CommonUtils.vp8_copy(o.partitionProb, partitionProb);
+        CommonUtils.vp8_copy(o.coefProbs, coefProbs);
+        CommonUtils.vp8_copy(o.switchableInterpProb, switchableInterpProb);
+        CommonUtils.vp8_copy(o.interModeProbs, interModeProbs);
+        CommonUtils.vp8_copy(o.intraInterProb, intraInterProb);
+        CommonUtils.vp8_copy(o.compInterProb, compInterProb);
+        CommonUtils.vp8_copy(o.singleRefProb, singleRefProb);
+        CommonUtils.vp8_copy(o.compRefProb, compRefProb);
+        CommonUtils.vp8_copy(o.tx8x8Probs, tx8x8Probs);
+        CommonUtils.vp8_copy(o.tx16x16Probs, tx16x16Probs);
+        CommonUtils.vp8_copy(o.tx32x32Probs, tx32x32Probs);
+        CommonUtils.vp8_copy(o.skipProbs, skipProbs);
+
+        CommonUtils.vp8_copy(o.mvJointProbs, mvJointProbs);
+        CommonUtils.vp8_copy(o.mvSignProb, mvSignProb);
+        CommonUtils.vp8_copy(o.mvClassProbs, mvClassProbs);
+        CommonUtils.vp8_copy(o.mvClass0Prob, mvClass0Prob);
+        CommonUtils.vp8_copy(o.mvBitsProb, mvBitsProb);
+        CommonUtils.vp8_copy(o.mvClass0FrProbs, mvClass0FrProbs);
+        CommonUtils.vp8_copy(o.mvFrProbs, mvFrProbs);
+        CommonUtils.vp8_copy(o.mvClass0HpProb, mvClass0HpProb);
+        CommonUtils.vp8_copy(o.mvHpProb, mvHpProb);
+    }
+
+    /**
+     * Adapts the coefficient probabilities to the token counts of the frame,
+     * 'pre' is the context the frame started with.
+     */
+    public void adaptCoefProbs(FrameContext pre, FrameCounts counts, int txMode, boolean afterKey) {
+        int updateFactor = afterKey ? COEF_MAX_UPDATE_FACTOR_AFTER_KEY : COEF_MAX_UPDATE_FACTOR;
+        for (int t = TX_4X4; t <= tx_mode_to_biggest_tx_size[txMode]; t++) {
+            for (int i = 0; i < BLOCK_TYPES; i++) {
+                for (int j = 0; j < REF_TYPES; j++) {
+                    for (int k = 0; k < COEF_BANDS; k++) {
+                        for (int l = 0; l < (k == 0 ? 3 : PREV_COEF_CONTEXTS); l++) {
+                            short[] probs = coefProbs[t][i][j][k][l];
+                            short[] preProbs = pre.coefProbs[t][i][j][k][l];
+                            int[] c = counts.coef[t][i][j][k][l];
+                            int n0 = c[ZERO_TOKEN];
+                            int n1 = c[ONE_TOKEN];
+                            int n2 = c[TWO_TOKEN];
+                            int neob = c[FrameCounts.EOB_MODEL_TOKEN];
+                            int eob = counts.eobBranch[t][i][j][k][l];
+                            probs[0] = mergeProbs(preProbs[0], neob, eob - neob, COEF_COUNT_SAT, updateFactor);
+                            probs[1] = mergeProbs(preProbs[1], n0, n1 + n2, COEF_COUNT_SAT, updateFactor);
+                            probs[2] = mergeProbs(preProbs[2], n1, n2, COEF_COUNT_SAT, updateFactor);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adapts the mode probabilities of an inter frame to its symbol counts.
+     */
+    public void adaptModeProbs(FrameContext pre, FrameCounts counts, boolean switchableInterp, int txMode) {
+        for (int i = 0; i < IS_INTER_CONTEXTS; i++)
+            intraInterProb[i] = modeMvMergeProbs(pre.intraInterProb[i], counts.intraInter[i]);
+        for (int i = 0; i < COMP_MODE_CONTEXTS; i++)
+            compInterProb[i] = modeMvMergeProbs(pre.compInterProb[i], counts.compInter[i]);
+        for (int i = 0; i < REF_CONTEXTS; i++)
+            compRefProb[i] = modeMvMergeProbs(pre.compRefProb[i], counts.compRef[i]);
+        for (int i = 0; i < REF_CONTEXTS; i++)
+            for (int j = 0; j < 2; j++)
+                singleRefProb[i][j] = modeMvMergeProbs(pre.singleRefProb[i][j], counts.singleRef[i][j]);
+
+        for (int i = 0; i < INTER_MODE_CONTEXTS; i++)
+            treeMergeProbs(TREE_INTER_MODE, pre.interModeProbs[i], counts.interMode[i], interModeProbs[i]);
+        for (int i = 0; i < BLOCK_SIZE_GROUPS; i++)
+            treeMergeProbs(TREE_INTRA_MODE, pre.yModeProb[i], counts.yMode[i], yModeProb[i]);
+        for (int i = 0; i < INTRA_MODES; i++)
+            treeMergeProbs(TREE_INTRA_MODE, pre.uvModeProb[i], counts.uvMode[i], uvModeProb[i]);
+        for (int i = 0; i < PARTITION_CONTEXTS; i++)
+            treeMergeProbs(TREE_PARTITION, pre.partitionProb[i], counts.partition[i], partitionProb[i]);
+
+        if (switchableInterp) {
+            for (int i = 0; i < INTERP_FILTER_CONTEXTS; i++)
+                treeMergeProbs(TREE_INTERP_FILTER, pre.switchableInterpProb[i], counts.switchableInterp[i],
+                        switchableInterpProb[i]);
+        }
+
+        if (txMode == TX_MODE_SELECT) {
+            for (int i = 0; i < TX_SIZE_CONTEXTS; i++) {
+                int[] c8 = counts.tx8x8[i];
+                tx8x8Probs[i][0] = modeMvMergeProbs(pre.tx8x8Probs[i][0], c8[TX_4X4], c8[TX_8X8]);
+
+                int[] c16 = counts.tx16x16[i];
+                tx16x16Probs[i][0] = modeMvMergeProbs(pre.tx16x16Probs[i][0], c16[TX_4X4],
+                        c16[TX_8X8] + c16[TX_16X16]);
+                tx16x16Probs[i][1] = modeMvMergeProbs(pre.tx16x16Probs[i][1], c16[TX_8X8], c16[TX_16X16]);
+
+                int[] c32 = counts.tx32x32[i];
+                tx32x32Probs[i][0] = modeMvMergeProbs(pre.tx32x32Probs[i][0], c32[TX_4X4],
+                        c32[TX_8X8] + c32[TX_16X16] + c32[TX_32X32]);
+                tx32x32Probs[i][1] = modeMvMergeProbs(pre.tx32x32Probs[i][1], c32[TX_8X8],
+                        c32[TX_16X16] + c32[TX_32X32]);
+                tx32x32Probs[i][2] = modeMvMergeProbs(pre.tx32x32Probs[i][2], c32[TX_16X16], c32[TX_32X32]);
+            }
+        }
+
+        for (int i = 0; i < SKIP_CONTEXTS; i++)
+            skipProbs[i] = modeMvMergeProbs(pre.skipProbs[i], counts.skip[i]);
+    }
+
+    /**
+     * Adapts the motion vector probabilities of an inter frame to its motion
+     * vector counts.
+     */
+    public void adaptMvProbs(FrameContext pre, FrameCounts counts, boolean allowHp) {
+        treeMergeProbs(TREE_MV_JOINT, pre.mvJointProbs, counts.mvJoints, mvJointProbs);
+        for (int i = 0; i < 2; i++) {
+            mvSignProb[i] = modeMvMergeProbs(pre.mvSignProb[i], counts.mvSign[i]);
+            treeMergeProbs(MV_CLASS_TREE, pre.mvClassProbs[i], counts.mvClasses[i], mvClassProbs[i]);
+            treeMergeProbs(TREE_MV_CLASS0, pre.mvClass0Prob[i], counts.mvClass0[i], mvClass0Prob[i]);
+            for (int j = 0; j < MV_OFFSET_BITS; j++)
+                mvBitsProb[i][j] = modeMvMergeProbs(pre.mvBitsProb[i][j], counts.mvBits[i][j]);
+            for (int j = 0; j < CLASS0_SIZE; j++)
+                treeMergeProbs(MV_FR_TREE, pre.mvClass0FrProbs[i][j], counts.mvClass0Fp[i][j], mvClass0FrProbs[i][j]);
+            treeMergeProbs(MV_FR_TREE, pre.mvFrProbs[i], counts.mvFp[i], mvFrProbs[i]);
+            if (allowHp) {
+                mvClass0HpProb[i] = modeMvMergeProbs(pre.mvClass0HpProb[i], counts.mvClass0Hp[i]);
+                mvHpProb[i] = modeMvMergeProbs(pre.mvHpProb[i], counts.mvHp[i]);
+            }
+        }
+    }
+
+    private static short mergeProbs(short preProb, int ct0, int ct1, int countSat, int maxUpdateFactor) {
+        int prob = getBinaryProb(ct0, ct1);
+        int count = Math.min(ct0 + ct1, countSat);
+        int factor = maxUpdateFactor * count / countSat;
+        return weightedProb(preProb, prob, factor);
+    }
+
+    private static short modeMvMergeProbs(short preProb, int[] ct) {
+        return modeMvMergeProbs(preProb, ct[0], ct[1]);
+    }
+
+    private static short modeMvMergeProbs(short preProb, int ct0, int ct1) {
+        int den = ct0 + ct1;
+        if (den == 0)
+            return preProb;
+        int count = Math.min(den, MODE_MV_COUNT_SAT);
+        int factor = MAX_UPDATE_FACTOR * count / MODE_MV_COUNT_SAT;
+        return weightedProb(preProb, getBinaryProb(ct0, ct1), factor);
+    }
+
+    private static int getBinaryProb(int n0, int n1) {
+        int den = n0 + n1;
+        if (den == 0)
+            return 128;
+        int p = (int) (((long) n0 * 256 + (den >> 1)) / den);
+        return p > 255 ? 255 : (p < 1 ? 1 : p);
+    }
+
+    private static short weightedProb(int prob1, int prob2, int factor) {
+        return (short) ((prob1 * (256 - factor) + prob2 * factor + 128) >> 8);
+    }
+
+    private static void treeMergeProbs(short[] tree, short[] preProbs, int[] counts, short[] probs) {
+        treeMergeProbs(tree, 0, preProbs, counts, probs);
+    }
+
+    private static int treeMergeProbs(short[] tree, int i, short[] preProbs, int[] counts, short[] probs) {
+        int l = tree[i];
+        int leftCount = l <= 0 ? counts[-l] : treeMergeProbs(tree, l, preProbs, counts, probs);
+        int r = tree[i + 1];
+        int rightCount = r <= 0 ? counts[-r] : treeMergeProbs(tree, r, preProbs, counts, probs);
+        probs[i >> 1] = modeMvMergeProbs(preProbs[i >> 1], leftCount, rightCount);
+        return leftCount + rightCount;
+    }
+}
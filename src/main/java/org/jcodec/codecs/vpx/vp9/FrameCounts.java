@@ -0,0 +1,144 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.*;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Symbol counts collected while a VP9 frame is decoded, the probability
+ * adaptation at the end of the frame is driven by them. Every tile column
+ * decoding task collects its own counts, they are added up once the tiles are
+ * done.
+ *
+ * @author The JCodec project
+ *
+ */
+public class FrameCounts {
+    static final int EOB_MODEL_TOKEN = 3;
+
+    final int[][] yMode = new int[BLOCK_SIZE_GROUPS][INTRA_MODES];
+    final int[][] uvMode = new int[INTRA_MODES][INTRA_MODES];
+    final int[][] partition = new int[PARTITION_CONTEXTS][PARTITION_TYPES];
+    final int[][][][][][] coef = new int[TX_SIZES][BLOCK_TYPES][REF_TYPES][COEF_BANDS][PREV_COEF_CONTEXTS][UNCONSTRAINED_NODES
+            + 1];
+    final int[][][][][] eobBranch = new int[TX_SIZES][BLOCK_TYPES][REF_TYPES][COEF_BANDS][PREV_COEF_CONTEXTS];
+    final int[][] switchableInterp = new int[INTERP_FILTER_CONTEXTS][SWITCHABLE_FILTERS];
+    final int[][] interMode = new int[INTER_MODE_CONTEXTS][INTER_MODES];
+    final int[][] intraInter = new int[IS_INTER_CONTEXTS][2];
+    final int[][] compInter = new int[COMP_MODE_CONTEXTS][2];
+    final int[][][] singleRef = new int[REF_CONTEXTS][2][2];
+    final int[][] compRef = new int[REF_CONTEXTS][2];
+    final int[][] tx8x8 = new int[TX_SIZE_CONTEXTS][TX_SIZES - 2];
+    final int[][] tx16x16 = new int[TX_SIZE_CONTEXTS][TX_SIZES - 1];
+    final int[][] tx32x32 = new int[TX_SIZE_CONTEXTS][TX_SIZES];
+    final int[][] skip = new int[SKIP_CONTEXTS][2];
+
+    final int[] mvJoints = new int[MV_JOINTS];
+    final int[][] mvSign = new int[2][2];
+    final int[][] mvClasses = new int[2][MV_CLASSES];
+    final int[][] mvClass0 = new int[2][CLASS0_SIZE];
+    final int[][][] mvBits = new int[2][MV_OFFSET_BITS][2];
+    final int[][][] mvClass0Fp = new int[2][CLASS0_SIZE][MV_FR_SIZE];
+    final int[][] mvFp = new int[2][MV_FR_SIZE];
+    final int[][] mvClass0Hp = new int[2][2];
+    final int[][] mvHp = new int[2][2];
+
+    /**
+     * Counts the difference of a new motion vector to its prediction.
+     */
+    void incMv(int row, int col) {
+        int j = (row != 0 ? MV_JOINT_HZVNZ : 0) | (col != 0 ? MV_JOINT_HNZVZ : 0);
+        mvJoints[j]++;
+        if (row != 0)
+            incMvComponent(row, 0);
+        if (col != 0)
+            incMvComponent(col, 1);
+    }
+
+    private void incMvComponent(int v, int comp) {
+        int s = v < 0 ? 1 : 0;
+        mvSign[comp][s]++;
+        int z = (s != 0 ? -v : v) - 1;
+        int c = mvClass(z);
+        mvClasses[comp][c]++;
+        int o = z - mvClassBase(c);
+        int d = o >> 3;
+        int f = (o >> 1) & 3;
+        int e = o & 1;
+        if (c == 0) {
+            mvClass0[comp][d]++;
+            mvClass0Fp[comp][d][f]++;
+            mvClass0Hp[comp][e]++;
+        } else {
+            // a class c component has c integer bits
+            for (int i = 0; i < c; i++)
+                mvBits[comp][i][(d >> i) & 1]++;
+            mvFp[comp][f]++;
+            mvHp[comp][e]++;
+        }
+    }
+
+    static int mvClass(int z) {
+        if (z >= CLASS0_SIZE * 4096)
+            return MV_CLASSES - 1;
+        int n = z >> 3;
+        return n == 0 ? 0 : 31 - Integer.numberOfLeadingZeros(n);
+    }
+
+    static int mvClassBase(int c) {
+        return c != 0 ? CLASS0_SIZE << (c + 2) : 0;
+    }
+
+    /**
+     * Adds the counts collected by another decoding task to these.
+     */
+    public void add(FrameCounts o) {
+        add(yMode, o.yMode);
+        add(uvMode, o.uvMode);
+        add(partition, o.partition);
+        for (int t = 0; t < TX_SIZES; t++) {
+            for (int i = 0; i < BLOCK_TYPES; i++) {
+                for (int j = 0; j < REF_TYPES; j++) {
+                    add(coef[t][i][j], o.coef[t][i][j]);
+                    add(eobBranch[t][i][j], o.eobBranch[t][i][j]);
+                }
+            }
+        }
+        add(switchableInterp, o.switchableInterp);
+        add(interMode, o.interMode);
+        add(intraInter, o.intraInter);
+        add(compInter, o.compInter);
+        add(singleRef, o.singleRef);
+        add(compRef, o.compRef);
+        add(tx8x8, o.tx8x8);
+        add(tx16x16, o.tx16x16);
+        add(tx32x32, o.tx32x32);
+        add(skip, o.skip);
+
+        add(mvJoints, o.mvJoints);
+        add(mvSign, o.mvSign);
+        add(mvClasses, o.mvClasses);
+        add(mvClass0, o.mvClass0);
+        add(mvBits, o.mvBits);
+        add(mvClass0Fp, o.mvClass0Fp);
+        add(mvFp, o.mvFp);
+        add(mvClass0Hp, o.mvClass0Hp);
+        add(mvHp, o.mvHp);
+    }
+
+    private static void add(int[] dst, int[] src) {
+        for (int i = 0; i < dst.length; i++)
+            dst[i] += src[i];
+    }
+
+    private static void add(int[][] dst, int[][] src) {
+        for (int i = 0; i < dst.length; i++)
+            add(dst[i], src[i]);
+    }
+
+    private static void add(int[][][] dst, int[][][] src) {
+        for (int i = 0; i < dst.length; i++)
+            add(dst[i], src[i]);
+    }
+}
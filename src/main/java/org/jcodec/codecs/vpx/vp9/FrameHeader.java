@@ -0,0 +1,575 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.*;
+
+import java.nio.ByteBuffer;
+
+import org.jcodec.codecs.vpx.VPXBooleanDecoder;
+import org.jcodec.common.io.BitReader;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Uncompressed and compressed headers of a VP9 frame. The loop filter deltas
+ * and the segmentation parameters are carried over from the header of the
+ * previous frame, a frame only codes the changes to them.
+ *
+ * @author The JCodec project
+ *
+ */
+public class FrameHeader {
+    private static final int SYNC_CODE = 0x498342;
+    private static final int DIFF_UPDATE_PROB = 252;
+    private static final int CS_SRGB = 7;
+    private static final int[] SEG_FEATURE_DATA_MAX = { 255, MAX_LOOP_FILTER, 3, 0 };
+
+    int profile;
+    boolean showExistingFrame;
+    int frameToShowMapIdx;
+    int frameType;
+    boolean showFrame;
+    boolean errorResilientMode;
+    boolean intraOnly;
+    int resetFrameContext;
+    int refreshFrameFlags;
+    int[] refFrameIdx = new int[REFS_PER_FRAME];
+    int[] refFrameSignBias = new int[MAX_REF_FRAMES];
+    boolean allowHighPrecisionMv;
+    int interpFilter;
+    boolean switchableInterp;
+    boolean refreshFrameContext;
+    boolean frameParallelDecodingMode;
+    int frameContextIdx;
+
+    int width;
+    int height;
+    int colorSpace;
+    int colorRange;
+
+    int filterLevel;
+    int sharpnessLevel;
+    boolean modeRefDeltaEnabled;
+    int[] refDeltas = new int[MAX_REF_FRAMES];
+    int[] modeDeltas = new int[MAX_MODE_LF_DELTAS];
+
+    int baseQIdx;
+    int deltaQYDc;
+    int deltaQUvDc;
+    int deltaQUvAc;
+    boolean lossless;
+
+    boolean segmentationEnabled;
+    boolean segmentationUpdateMap;
+    boolean segmentationTemporalUpdate;
+    boolean segmentationAbsDelta;
+    short[] segmentationTreeProbs = new short[MAX_SEGMENTS - 1];
+    short[] segmentationPredProbs = new short[3];
+    boolean[][] featureEnabled = new boolean[MAX_SEGMENTS][SEG_LVL_MAX];
+    int[][] featureData = new int[MAX_SEGMENTS][SEG_LVL_MAX];
+
+    int tileColsLog2;
+    int tileRowsLog2;
+    int compressedHeaderSize;
+
+    int txMode;
+    int referenceMode;
+    int compFixedRef;
+    int[] compVarRef = new int[2];
+
+    /**
+     * True when the probabilities of the frame were reset, the frame context
+     * then has to be reset before the compressed header is applied to it.
+     */
+    boolean resetProbs;
+
+    public FrameHeader() {
+        setDefaultLfDeltas();
+    }
+
+    /**
+     * Creates the header of the frame following the frame with the header
+     * 'prev', the parameters that persist between the frames are copied.
+     */
+    public FrameHeader(FrameHeader prev) {
+        if (prev == null) {
+            setDefaultLfDeltas();
+            return;
+        }
+        System.arraycopy(prev.refDeltas, 0, refDeltas, 0, refDeltas.length);
+        System.arraycopy(prev.modeDeltas, 0, modeDeltas, 0, modeDeltas.length);
+        segmentationAbsDelta = prev.segmentationAbsDelta;
+        segmentationTemporalUpdate = prev.segmentationTemporalUpdate;
+        System.arraycopy(prev.segmentationTreeProbs, 0, segmentationTreeProbs, 0, segmentationTreeProbs.length);
+        System.arraycopy(prev.segmentationPredProbs, 0, segmentationPredProbs, 0, segmentationPredProbs.length);
+        for (int i = 0; i < MAX_SEGMENTS; i++) {
+            System.arraycopy(prev.featureEnabled[i], 0, featureEnabled[i], 0, SEG_LVL_MAX);
+            System.arraycopy(prev.featureData[i], 0, featureData[i], 0, SEG_LVL_MAX);
+        }
+        // a frame that reuses the reference frame size needs the format
+        colorSpace = prev.colorSpace;
+        colorRange = prev.colorRange;
+    }
+
+    private void setDefaultLfDeltas() {
+        modeRefDeltaEnabled = true;
+        refDeltas[INTRA_FRAME] = 1;
+        refDeltas[LAST_FRAME] = 0;
+        refDeltas[GOLDEN_FRAME] = -1;
+        refDeltas[ALTREF_FRAME] = -1;
+        modeDeltas[0] = 0;
+        modeDeltas[1] = 0;
+    }
+
+    public boolean isIntraOnly() {
+        return frameType == KEY_FRAME || intraOnly;
+    }
+
+    public boolean isKeyFrame() {
+        return frameType == KEY_FRAME;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Reads the uncompressed header of a frame, the buffer is left at the
+     * compressed header.
+     *
+     * @param refWidths
+     *            widths of the frames in the 8 reference slots, a frame can
+     *            take its size from one of them
+     * @param refHeights
+     *            heights of the frames in the reference slots
+     */
+    public void readUncompressedHeader(ByteBuffer bb, int[] refWidths, int[] refHeights) {
+        int start = bb.position();
+        BitReader br = BitReader.createBitReader(bb.duplicate());
+        if (br.readNBit(2) != 2)
+            throw new RuntimeException("Invalid VP9 frame marker");
+        profile = br.read1Bit();
+        profile |= br.read1Bit() << 1;
+        if (profile > 2)
+            profile += br.read1Bit();
+        if (profile != 0)
+            throw new RuntimeException("Unsupported VP9 profile " + profile);
+
+        showExistingFrame = br.read1Bit() == 1;
+        if (showExistingFrame) {
+            frameToShowMapIdx = br.readNBit(3);
+            bb.position(start + ((br.position() + 7) >> 3));
+            return;
+        }
+        frameType = br.read1Bit();
+        showFrame = br.read1Bit() == 1;
+        errorResilientMode = br.read1Bit() == 1;
+
+        if (frameType == KEY_FRAME) {
+            readSyncCode(br);
+            readColorConfig(br);
+            refreshFrameFlags = 0xff;
+            readFrameSize(br);
+        } else {
+            intraOnly = showFrame ? false : br.read1Bit() == 1;
+            resetFrameContext = errorResilientMode ? 0 : br.readNBit(2);
+            if (intraOnly) {
+                readSyncCode(br);
+                refreshFrameFlags = br.readNBit(8);
+                readFrameSize(br);
+            } else {
+                refreshFrameFlags = br.readNBit(8);
+                for (int i = 0; i < REFS_PER_FRAME; i++) {
+                    refFrameIdx[i] = br.readNBit(3);
+                    refFrameSignBias[LAST_FRAME + i] = br.read1Bit();
+                }
+                readFrameSizeWithRefs(br, refWidths, refHeights);
+                allowHighPrecisionMv = br.read1Bit() == 1;
+                switchableInterp = br.read1Bit() == 1;
+                interpFilter = switchableInterp ? SWITCHABLE : LITERAL_TO_FILTER_TYPE[br.readNBit(2)];
+            }
+        }
+
+        if (!errorResilientMode) {
+            refreshFrameContext = br.read1Bit() == 1;
+            frameParallelDecodingMode = br.read1Bit() == 1;
+        } else {
+            refreshFrameContext = false;
+            frameParallelDecodingMode = true;
+        }
+        frameContextIdx = br.readNBit(2);
+
+        if (isIntraOnly() || errorResilientMode)
+            setupPastIndependence();
+
+        readLoopFilterParams(br);
+        readQuantizationParams(br);
+        readSegmentationParams(br);
+        readTileInfo(br);
+        compressedHeaderSize = br.readNBit(16);
+        if (compressedHeaderSize == 0)
+            throw new RuntimeException("Invalid VP9 compressed header size");
+        bb.position(start + ((br.position() + 7) >> 3));
+    }
+
+    /**
+     * The part of setup_past_independence that touches the header, the
+     * decoder resets the probabilities and the segmentation map when
+     * 'resetProbs' is set.
+     */
+    private void setupPastIndependence() {
+        for (int i = 0; i < MAX_SEGMENTS; i++) {
+            for (int j = 0; j < SEG_LVL_MAX; j++) {
+                featureEnabled[i][j] = false;
+                featureData[i][j] = 0;
+            }
+        }
+        segmentationAbsDelta = false;
+        setDefaultLfDeltas();
+        for (int i = 0; i < refFrameSignBias.length; i++)
+            refFrameSignBias[i] = 0;
+        resetProbs = true;
+    }
+
+    private static void readSyncCode(BitReader br) {
+        if (br.readNBit(24) != SYNC_CODE)
+            throw new RuntimeException("Invalid VP9 frame sync code");
+    }
+
+    private void readColorConfig(BitReader br) {
+        colorSpace = br.readNBit(3);
+        if (colorSpace == CS_SRGB)
+            throw new RuntimeException("RGB is not supported by the VP9 profile 0");
+        colorRange = br.read1Bit();
+    }
+
+    private void readFrameSize(BitReader br) {
+        width = br.readNBit(16) + 1;
+        height = br.readNBit(16) + 1;
+        readRenderSize(br);
+    }
+
+    private void readFrameSizeWithRefs(BitReader br, int[] refWidths, int[] refHeights) {
+        for (int i = 0; i < REFS_PER_FRAME; i++) {
+            if (br.read1Bit() == 1) {
+                width = refWidths[refFrameIdx[i]];
+                height = refHeights[refFrameIdx[i]];
+                if (width == 0 || height == 0)
+                    throw new RuntimeException("VP9 frame refers to a missing reference frame");
+                readRenderSize(br);
+                return;
+            }
+        }
+        readFrameSize(br);
+    }
+
+    private static void readRenderSize(BitReader br) {
+        if (br.read1Bit() == 1) {
+            br.readNBit(16);
+            br.readNBit(16);
+        }
+    }
+
+    private void readLoopFilterParams(BitReader br) {
+        filterLevel = br.readNBit(6);
+        sharpnessLevel = br.readNBit(3);
+        modeRefDeltaEnabled = br.read1Bit() == 1;
+        if (modeRefDeltaEnabled && br.read1Bit() == 1) {
+            for (int i = 0; i < MAX_REF_FRAMES; i++) {
+                if (br.read1Bit() == 1)
+                    refDeltas[i] = readSignedLiteral(br, 6);
+            }
+            for (int i = 0; i < MAX_MODE_LF_DELTAS; i++) {
+                if (br.read1Bit() == 1)
+                    modeDeltas[i] = readSignedLiteral(br, 6);
+            }
+        }
+    }
+
+    private static int readSignedLiteral(BitReader br, int bits) {
+        int value = br.readNBit(bits);
+        return br.read1Bit() == 1 ? -value : value;
+    }
+
+    private static int readDeltaQ(BitReader br) {
+        return br.read1Bit() == 1 ? readSignedLiteral(br, 4) : 0;
+    }
+
+    private void readQuantizationParams(BitReader br) {
+        baseQIdx = br.readNBit(8);
+        deltaQYDc = readDeltaQ(br);
+        deltaQUvDc = readDeltaQ(br);
+        deltaQUvAc = readDeltaQ(br);
+        lossless = baseQIdx == 0 && deltaQYDc == 0 && deltaQUvDc == 0 && deltaQUvAc == 0;
+    }
+
+    private static short readProb(BitReader br) {
+        return (short) (br.read1Bit() == 1 ? br.readNBit(8) : MAX_PROB);
+    }
+
+    private void readSegmentationParams(BitReader br) {
+        segmentationUpdateMap = false;
+        segmentationEnabled = br.read1Bit() == 1;
+        if (!segmentationEnabled)
+            return;
+        segmentationUpdateMap = br.read1Bit() == 1;
+        if (segmentationUpdateMap) {
+            for (int i = 0; i < MAX_SEGMENTS - 1; i++)
+                segmentationTreeProbs[i] = readProb(br);
+            segmentationTemporalUpdate = br.read1Bit() == 1;
+            for (int i = 0; i < 3; i++)
+                segmentationPredProbs[i] = segmentationTemporalUpdate ? readProb(br) : MAX_PROB;
+        }
+        if (br.read1Bit() == 1) {
+            segmentationAbsDelta = br.read1Bit() == 1;
+            for (int i = 0; i < MAX_SEGMENTS; i++) {
+                for (int j = 0; j < SEG_LVL_MAX; j++) {
+                    int data = 0;
+                    featureEnabled[i][j] = br.read1Bit() == 1;
+                    if (featureEnabled[i][j]) {
+                        data = br.readNBit(SEGMENTATION_FEATURE_BITS[j]);
+                        data = Math.min(data, SEG_FEATURE_DATA_MAX[j]);
+                        if (SEGMENTATION_FEATURE_SIGNED[j] == 1 && br.read1Bit() == 1)
+                            data = -data;
+                    }
+                    featureData[i][j] = data;
+                }
+            }
+        }
+    }
+
+    private void readTileInfo(BitReader br) {
+        int sb64Cols = (getMiCols() + 7) >> 3;
+        int minLog2 = 0;
+        while ((MAX_TILE_WIDTH_B64 << minLog2) < sb64Cols)
+            minLog2++;
+        int maxLog2 = 1;
+        while ((sb64Cols >> maxLog2) >= MIN_TILE_WIDTH_B64)
+            maxLog2++;
+        maxLog2--;
+
+        tileColsLog2 = minLog2;
+        while (tileColsLog2 < maxLog2 && br.read1Bit() == 1)
+            tileColsLog2++;
+        tileRowsLog2 = br.read1Bit();
+        if (tileRowsLog2 == 1)
+            tileRowsLog2 += br.read1Bit();
+    }
+
+    /**
+     * Reads the compressed header, the probability updates are applied to
+     * 'fc'.
+     */
+    public void readCompressedHeader(ByteBuffer bb, FrameContext fc) {
+        VPXBooleanDecoder r = new VPXBooleanDecoder(bb, 0);
+        if (r.readBitEq() != 0)
+            throw new RuntimeException("Invalid VP9 compressed header marker bit");
+
+        txMode = lossless ? ONLY_4X4 : readTxMode(r);
+        if (txMode == TX_MODE_SELECT) {
+            for (int i = 0; i < TX_SIZE_CONTEXTS; i++)
+                diffUpdateProbs(r, fc.tx8x8Probs[i]);
+            for (int i = 0; i < TX_SIZE_CONTEXTS; i++)
+                diffUpdateProbs(r, fc.tx16x16Probs[i]);
+            for (int i = 0; i < TX_SIZE_CONTEXTS; i++)
+                diffUpdateProbs(r, fc.tx32x32Probs[i]);
+        }
+        readCoefProbs(r, fc);
+        diffUpdateProbs(r, fc.skipProbs);
+
+        referenceMode = SINGLE_REF;
+        if (isIntraOnly())
+            return;
+
+        for (int i = 0; i < INTER_MODE_CONTEXTS; i++)
+            diffUpdateProbs(r, fc.interModeProbs[i]);
+        if (switchableInterp) {
+            for (int i = 0; i < INTERP_FILTER_CONTEXTS; i++)
+                diffUpdateProbs(r, fc.switchableInterpProb[i]);
+        }
+        diffUpdateProbs(r, fc.intraInterProb);
+
+        readReferenceMode(r);
+        if (referenceMode == REFERENCE_MODE_SELECT)
+            diffUpdateProbs(r, fc.compInterProb);
+        if (referenceMode != COMPOUND_REF) {
+            for (int i = 0; i < REF_CONTEXTS; i++)
+                diffUpdateProbs(r, fc.singleRefProb[i]);
+        }
+        if (referenceMode != SINGLE_REF)
+            diffUpdateProbs(r, fc.compRefProb);
+
+        for (int i = 0; i < BLOCK_SIZE_GROUPS; i++)
+            diffUpdateProbs(r, fc.yModeProb[i]);
+        for (int i = 0; i < PARTITION_CONTEXTS; i++)
+            diffUpdateProbs(r, fc.partitionProb[i]);
+
+        readMvProbs(r, fc);
+        if (allowHighPrecisionMv)
+            readMvHpProbs(r, fc);
+    }
+
+    private static int readTxMode(VPXBooleanDecoder r) {
+        int txMode = r.decodeInt(2);
+        if (txMode == ALLOW_32X32)
+            txMode += r.readBitEq();
+        return txMode;
+    }
+
+    private void readCoefProbs(VPXBooleanDecoder r, FrameContext fc) {
+        int maxTx = tx_mode_to_biggest_tx_size[txMode];
+        for (int t = TX_4X4; t <= maxTx; t++) {
+            if (r.readBitEq() == 0)
+                continue;
+            for (int i = 0; i < BLOCK_TYPES; i++) {
+                for (int j = 0; j < REF_TYPES; j++) {
+                    for (int k = 0; k < COEF_BANDS; k++) {
+                        for (int l = 0; l < (k == 0 ? 3 : PREV_COEF_CONTEXTS); l++) {
+                            diffUpdateProbs(r, fc.coefProbs[t][i][j][k][l]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void readReferenceMode(VPXBooleanDecoder r) {
+        boolean compoundAllowed = false;
+        for (int i = 1; i < REFS_PER_FRAME; i++) {
+            if (refFrameSignBias[i + 1] != refFrameSignBias[LAST_FRAME])
+                compoundAllowed = true;
+        }
+        if (compoundAllowed && r.readBitEq() == 1)
+            referenceMode = r.readBitEq() == 1 ? REFERENCE_MODE_SELECT : COMPOUND_REF;
+        else
+            referenceMode = SINGLE_REF;
+
+        if (referenceMode != SINGLE_REF) {
+            if (refFrameSignBias[LAST_FRAME] == refFrameSignBias[GOLDEN_FRAME]) {
+                compFixedRef = ALTREF_FRAME;
+                compVarRef[0] = LAST_FRAME;
+                compVarRef[1] = GOLDEN_FRAME;
+            } else if (refFrameSignBias[LAST_FRAME] == refFrameSignBias[ALTREF_FRAME]) {
+                compFixedRef = GOLDEN_FRAME;
+                compVarRef[0] = LAST_FRAME;
+                compVarRef[1] = ALTREF_FRAME;
+            } else {
+                compFixedRef = LAST_FRAME;
+                compVarRef[0] = GOLDEN_FRAME;
+                compVarRef[1] = ALTREF_FRAME;
+            }
+        }
+    }
+
+    private static void readMvProbs(VPXBooleanDecoder r, FrameContext fc) {
+        updateMvProbs(r, fc.mvJointProbs);
+        for (int i = 0; i < 2; i++) {
+            updateMvProbs(r, fc.mvSignProb, i);
+            updateMvProbs(r, fc.mvClassProbs[i]);
+            updateMvProbs(r, fc.mvClass0Prob[i]);
+            updateMvProbs(r, fc.mvBitsProb[i]);
+        }
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < CLASS0_SIZE; j++)
+                updateMvProbs(r, fc.mvClass0FrProbs[i][j]);
+            updateMvProbs(r, fc.mvFrProbs[i]);
+        }
+    }
+
+    private static void readMvHpProbs(VPXBooleanDecoder r, FrameContext fc) {
+        for (int i = 0; i < 2; i++) {
+            updateMvProbs(r, fc.mvClass0HpProb, i);
+            updateMvProbs(r, fc.mvHpProb, i);
+        }
+    }
+
+    private static void updateMvProbs(VPXBooleanDecoder r, short[] probs) {
+        for (int i = 0; i < probs.length; i++)
+            updateMvProbs(r, probs, i);
+    }
+
+    private static void updateMvProbs(VPXBooleanDecoder r, short[] probs, int i) {
+        if (r.readBit(DIFF_UPDATE_PROB) == 1)
+            probs[i] = (short) ((r.decodeInt(7) << 1) | 1);
+    }
+
+    private static void diffUpdateProbs(VPXBooleanDecoder r, short[] probs) {
+        for (int i = 0; i < probs.length; i++) {
+            if (r.readBit(DIFF_UPDATE_PROB) == 1)
+                probs[i] = (short) invRemapProb(decodeTermSubexp(r), probs[i]);
+        }
+    }
+
+    private static int decodeTermSubexp(VPXBooleanDecoder r) {
+        if (r.readBitEq() == 0)
+            return r.decodeInt(4);
+        if (r.readBitEq() == 0)
+            return r.decodeInt(4) + 16;
+        if (r.readBitEq() == 0)
+            return r.decodeInt(5) + 32;
+        int v = r.decodeInt(7);
+        if (v < 65)
+            return v + 64;
+        return (v << 1) - 65 + r.readBitEq() + 64;
+    }
+
+    private static int invRemapProb(int v, int m) {
+        v = INV_REMAP_TABLE[v];
+        m--;
+        if ((m << 1) <= MAX_PROB)
+            return 1 + invRecenterNonneg(v, m);
+        else
+            return MAX_PROB - invRecenterNonneg(v, MAX_PROB - 1 - m);
+    }
+
+    private static int invRecenterNonneg(int v, int m) {
+        if (v > 2 * m)
+            return v;
+        return (v & 1) != 0 ? m - ((v + 1) >> 1) : m + (v >> 1);
+    }
+
+    public int getMiCols() {
+        return (width + 7) >> 3;
+    }
+
+    public int getMiRows() {
+        return (height + 7) >> 3;
+    }
+
+    public int getSbCols() {
+        return (getMiCols() + 7) >> 3;
+    }
+
+    public int getSbRows() {
+        return (getMiRows() + 7) >> 3;
+    }
+
+    /**
+     * The first 8x8 block column of the tile column (or row) 'idx'
+     */
+    static int tileOffset(int idx, int mis, int log2) {
+        int sbs = (mis + 7) >> 3;
+        int offset = ((idx * sbs) >> log2) << 3;
+        return Math.min(offset, mis);
+    }
+
+    boolean isSegFeatureActive(int segmentId, int feature) {
+        return segmentationEnabled && featureEnabled[segmentId][feature];
+    }
+
+    /**
+     * The quantizer index of the blocks of the segment
+     */
+    int getQIndex(int segmentId) {
+        if (isSegFeatureActive(segmentId, SEG_LVL_ALT_Q)) {
+            int data = featureData[segmentId][SEG_LVL_ALT_Q];
+            int q = segmentationAbsDelta ? data : baseQIdx + data;
+            return Math.max(0, Math.min(255, q));
+        }
+        return baseQIdx;
+    }
+}
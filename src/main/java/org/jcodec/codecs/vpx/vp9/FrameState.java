@@ -0,0 +1,128 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.MAX_REF_FRAMES;
+import static org.jcodec.codecs.vpx.vp9.Consts.MAX_SEGMENTS;
+import static org.jcodec.codecs.vpx.vp9.Consts.ac_qlookup;
+import static org.jcodec.codecs.vpx.vp9.Consts.dc_qlookup;
+
+import java.util.Arrays;
+
+import org.jcodec.common.model.Picture;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * State of the VP9 frame being decoded that is shared by the tile decoding
+ * tasks and the loop filter: the headers, the mode info grid, the above
+ * contexts, the segmentation maps, the motion vectors of the previous frame
+ * and the picture buffers.
+ *
+ * The tile columns only ever write the parts of the shared arrays that belong
+ * to their own columns.
+ *
+ * @author The JCodec project
+ *
+ */
+public class FrameState {
+    FrameHeader hdr;
+    FrameContext fc;
+
+    int miCols;
+    int miRows;
+    int miStride;
+    BlockInfo[] mi;
+
+    // non-zero coefficient flags of the 4x4 blocks along the top edge of the
+    // blocks being decoded, per plane
+    final byte[][] aboveNonzero = new byte[3][];
+    byte[] abovePartition;
+
+    byte[] segMap;
+    byte[] prevSegMap;
+
+    // reference frames and motion vectors of every 8x8 block, two per block,
+    // of this and of the previous frame
+    int[] mvRefs;
+    int[] mvs;
+    int[] prevMvRefs;
+    int[] prevMvs;
+    boolean usePrevFrameMvs;
+
+    Picture cur;
+    // indexed by LAST_FRAME, GOLDEN_FRAME, ALTREF_FRAME
+    final Picture[] refs = new Picture[MAX_REF_FRAMES];
+    final int[] refWidths = new int[MAX_REF_FRAMES];
+    final int[] refHeights = new int[MAX_REF_FRAMES];
+
+    final int[][] yDequant = new int[MAX_SEGMENTS][2];
+    final int[][] uvDequant = new int[MAX_SEGMENTS][2];
+
+    /**
+     * Sets up the state for the frame, the arrays are reallocated when the
+     * frame size changes.
+     */
+    public void init(FrameHeader hdr, FrameContext fc, Picture cur) {
+        this.hdr = hdr;
+        this.fc = fc;
+        this.cur = cur;
+        int miCols = hdr.getMiCols();
+        int miRows = hdr.getMiRows();
+        if (miCols != this.miCols || miRows != this.miRows) {
+            this.miCols = miCols;
+            this.miRows = miRows;
+            int sbCols = hdr.getSbCols();
+            miStride = sbCols << 3;
+            mi = new BlockInfo[miStride * (hdr.getSbRows() << 3)];
+            aboveNonzero[0] = new byte[sbCols << 4];
+            aboveNonzero[1] = new byte[sbCols << 3];
+            aboveNonzero[2] = new byte[sbCols << 3];
+            abovePartition = new byte[sbCols << 3];
+            int n = miCols * miRows;
+            segMap = new byte[n];
+            prevSegMap = new byte[n];
+            mvRefs = new int[n << 1];
+            mvs = new int[n << 1];
+            prevMvRefs = new int[n << 1];
+            prevMvs = new int[n << 1];
+        }
+        for (int i = 0; i < 3; i++)
+            Arrays.fill(aboveNonzero[i], (byte) 0);
+        Arrays.fill(abovePartition, (byte) 0);
+
+        for (int seg = 0; seg < MAX_SEGMENTS; seg++) {
+            int q = hdr.getQIndex(seg);
+            yDequant[seg][0] = dc_qlookup[clip(q + hdr.deltaQYDc)];
+            yDequant[seg][1] = ac_qlookup[q];
+            uvDequant[seg][0] = dc_qlookup[clip(q + hdr.deltaQUvDc)];
+            uvDequant[seg][1] = ac_qlookup[clip(q + hdr.deltaQUvAc)];
+        }
+    }
+
+    /**
+     * The motion vectors and the segmentation map of the frame just decoded
+     * become the ones of the previous frame.
+     */
+    public void swapPrevious(boolean swapSegMap) {
+        int[] t = prevMvRefs;
+        prevMvRefs = mvRefs;
+        mvRefs = t;
+        t = prevMvs;
+        prevMvs = mvs;
+        mvs = t;
+        if (swapSegMap) {
+            byte[] s = prevSegMap;
+            prevSegMap = segMap;
+            segMap = s;
+        }
+    }
+
+    public void clearSegMaps() {
+        Arrays.fill(segMap, (byte) 0);
+        Arrays.fill(prevSegMap, (byte) 0);
+    }
+
+    private static int clip(int q) {
+        return q < 0 ? 0 : (q > 255 ? 255 : q);
+    }
+}
@@ -27,6 +27,7 @@ import static org.jcodec.codecs.vpx.vp9.Consts.REFERENCE_MODE_SELECT;
 import static org.jcodec.codecs.vpx.vp9.Consts.SEG_LVL_REF_FRAME;
 import static org.jcodec.codecs.vpx.vp9.Consts.SEG_LVL_SKIP;
 import static org.jcodec.codecs.vpx.vp9.Consts.SWITCHABLE;
+import static org.jcodec.codecs.vpx.vp9.Consts.SWITCHABLE_FILTERS;
 import static org.jcodec.codecs.vpx.vp9.Consts.TREE_INTERP_FILTER;
 import static org.jcodec.codecs.vpx.vp9.Consts.TREE_INTER_MODE;
 import static org.jcodec.codecs.vpx.vp9.Consts.TREE_INTRA_MODE;
@@ -613,16 +614,18 @@ public class InterModeInfo extends ModeInfo {
         int[] leftInterpFilters = c.getLeftInterpFilters();
         int[] aboveInterpFilters = c.getAboveInterpFilters();
         int ctx;
-        int leftInterp = (availLeft && leftRefFrame0 > INTRA_FRAME) ? leftInterpFilters[miRow & 0x7] : SWITCHABLE;
-        int aboveInterp = (availAbove && aboveRefFrame0 > INTRA_FRAME) ? aboveInterpFilters[miCol] : SWITCHABLE;
+        int leftInterp = (availLeft && leftRefFrame0 > INTRA_FRAME) ? leftInterpFilters[miRow & 0x7]
+                : SWITCHABLE_FILTERS;
+        int aboveInterp = (availAbove && aboveRefFrame0 > INTRA_FRAME) ? aboveInterpFilters[miCol]
+                : SWITCHABLE_FILTERS;
         if (leftInterp == aboveInterp)
             ctx = leftInterp;
-        else if (leftInterp == SWITCHABLE && aboveInterp != SWITCHABLE)
+        else if (leftInterp == SWITCHABLE_FILTERS && aboveInterp != SWITCHABLE_FILTERS)
             ctx = aboveInterp;
-        else if (leftInterp != SWITCHABLE && aboveInterp == SWITCHABLE)
+        else if (leftInterp != SWITCHABLE_FILTERS && aboveInterp == SWITCHABLE_FILTERS)
             ctx = leftInterp;
         else
-            ctx = SWITCHABLE;
+            ctx = SWITCHABLE_FILTERS;
 
         short[][] probs = c.getInterpFilterProbs();
 
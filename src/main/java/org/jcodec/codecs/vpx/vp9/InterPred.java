@@ -0,0 +1,143 @@
+package org.jcodec.codecs.vpx.vp9;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * VP9 motion compensation without reference scaling. The block is filtered
+ * with the 8 tap sub-pixel filter of the frame or the block, first along the
+ * rows then along the columns, each pass is rounded and clipped to 8 bits. The
+ * reference pixels outside of the frame repeat the pixels on its edge.
+ *
+ * The pixels are signed bytes (value - 128).
+ *
+ * @author The JCodec project
+ *
+ */
+public class InterPred {
+    // @formatter:off
+    static final int[][][] FILTERS = {
+        { // regular
+            { 0, 0, 0, 128, 0, 0, 0, 0 },        { 0, 1, -5, 126, 8, -3, 1, 0 },
+            { -1, 3, -10, 122, 18, -6, 2, 0 },   { -1, 4, -13, 118, 27, -9, 3, -1 },
+            { -1, 4, -16, 112, 37, -11, 4, -1 }, { -1, 5, -18, 105, 48, -14, 4, -1 },
+            { -1, 5, -19, 97, 58, -16, 5, -1 },  { -1, 6, -19, 88, 68, -18, 5, -1 },
+            { -1, 6, -19, 78, 78, -19, 6, -1 },  { -1, 5, -18, 68, 88, -19, 6, -1 },
+            { -1, 5, -16, 58, 97, -19, 5, -1 },  { -1, 4, -14, 48, 105, -18, 5, -1 },
+            { -1, 4, -11, 37, 112, -16, 4, -1 }, { -1, 3, -9, 27, 118, -13, 4, -1 },
+            { 0, 2, -6, 18, 122, -10, 3, -1 },   { 0, 1, -3, 8, 126, -5, 1, 0 } },
+        { // smooth
+            { 0, 0, 0, 128, 0, 0, 0, 0 },        { -3, -1, 32, 64, 38, 1, -3, 0 },
+            { -2, -2, 29, 63, 41, 2, -3, 0 },    { -2, -2, 26, 63, 43, 4, -4, 0 },
+            { -2, -3, 24, 62, 46, 5, -4, 0 },    { -2, -3, 21, 60, 49, 7, -4, 0 },
+            { -1, -4, 18, 59, 51, 9, -4, 0 },    { -1, -4, 16, 57, 53, 12, -4, -1 },
+            { -1, -4, 14, 55, 55, 14, -4, -1 },  { -1, -4, 12, 53, 57, 16, -4, -1 },
+            { 0, -4, 9, 51, 59, 18, -4, -1 },    { 0, -4, 7, 49, 60, 21, -3, -2 },
+            { 0, -4, 5, 46, 62, 24, -3, -2 },    { 0, -4, 4, 43, 63, 26, -2, -2 },
+            { 0, -3, 2, 41, 63, 29, -2, -2 },    { 0, -3, 1, 38, 64, 32, -1, -3 } },
+        { // sharp
+            { 0, 0, 0, 128, 0, 0, 0, 0 },        { -1, 3, -7, 127, 8, -3, 1, 0 },
+            { -2, 5, -13, 125, 17, -6, 3, -1 },  { -3, 7, -17, 121, 27, -10, 5, -2 },
+            { -4, 9, -20, 115, 37, -13, 6, -2 }, { -4, 10, -23, 108, 48, -16, 8, -3 },
+            { -4, 10, -24, 100, 59, -19, 9, -3 },{ -4, 11, -24, 90, 70, -21, 10, -4 },
+            { -4, 11, -23, 80, 80, -23, 11, -4 },{ -4, 10, -21, 70, 90, -24, 11, -4 },
+            { -3, 9, -19, 59, 100, -24, 10, -4 },{ -3, 8, -16, 48, 108, -23, 10, -4 },
+            { -2, 6, -13, 37, 115, -20, 9, -4 }, { -2, 5, -10, 27, 121, -17, 7, -3 },
+            { -1, 3, -6, 17, 125, -13, 5, -2 },  { 0, 1, -3, 8, 127, -7, 3, -1 } },
+        { // bilinear
+            { 0, 0, 0, 128, 0, 0, 0, 0 },        { 0, 0, 0, 120, 8, 0, 0, 0 },
+            { 0, 0, 0, 112, 16, 0, 0, 0 },       { 0, 0, 0, 104, 24, 0, 0, 0 },
+            { 0, 0, 0, 96, 32, 0, 0, 0 },        { 0, 0, 0, 88, 40, 0, 0, 0 },
+            { 0, 0, 0, 80, 48, 0, 0, 0 },        { 0, 0, 0, 72, 56, 0, 0, 0 },
+            { 0, 0, 0, 64, 64, 0, 0, 0 },        { 0, 0, 0, 56, 72, 0, 0, 0 },
+            { 0, 0, 0, 48, 80, 0, 0, 0 },        { 0, 0, 0, 40, 88, 0, 0, 0 },
+            { 0, 0, 0, 32, 96, 0, 0, 0 },        { 0, 0, 0, 24, 104, 0, 0, 0 },
+            { 0, 0, 0, 16, 112, 0, 0, 0 },       { 0, 0, 0, 8, 120, 0, 0, 0 } } };
+    // @formatter:on
+
+    // reference pixels of a 64x64 block with the filter taps around it
+    private final int[] src = new int[71 * 71];
+    // the block filtered along the rows
+    private final int[] tmp = new int[64 * 71];
+
+    /**
+     * Predicts a w x h block of a plane at (x, y) from the reference plane.
+     *
+     * @param mvRow
+     *            vertical motion in 1/16 of the pixel of the plane
+     * @param mvCol
+     *            horizontal motion in 1/16 of the pixel of the plane
+     * @param refW
+     *            visible width of the reference plane, the pixels right of it
+     *            repeat its last column
+     * @param average
+     *            the prediction is averaged with the one already in 'dst', the
+     *            second reference of a compound block
+     */
+    public void predict(byte[] ref, int refStride, int refW, int refH, int x, int y, int mvRow, int mvCol, int w,
+            int h, int filter, byte[] dst, int dstOff, int dstStride, boolean average) {
+        int fx = mvCol & 15;
+        int fy = mvRow & 15;
+        int x0 = x + (mvCol >> 4) - 3;
+        int y0 = y + (mvRow >> 4) - 3;
+        int sw = w + 7;
+        int sh = h + 7;
+
+        int[] src = this.src;
+        if (x0 >= 0 && y0 >= 0 && x0 + sw <= refW && y0 + sh <= refH) {
+            for (int r = 0, si = 0; r < sh; r++) {
+                int ri = (y0 + r) * refStride + x0;
+                for (int c = 0; c < sw; c++)
+                    src[si++] = ref[ri + c];
+            }
+        } else {
+            for (int r = 0, si = 0; r < sh; r++) {
+                int ri = clamp(y0 + r, refH - 1) * refStride;
+                for (int c = 0; c < sw; c++)
+                    src[si++] = ref[ri + clamp(x0 + c, refW - 1)];
+            }
+        }
+
+        int[] tmp = this.tmp;
+        if (fx != 0) {
+            int[] f = FILTERS[filter][fx];
+            for (int r = 0, si = 0, ti = 0; r < sh; r++, si += sw) {
+                for (int c = 0; c < w; c++) {
+                    int s = si + c;
+                    int sum = src[s] * f[0] + src[s + 1] * f[1] + src[s + 2] * f[2] + src[s + 3] * f[3]
+                            + src[s + 4] * f[4] + src[s + 5] * f[5] + src[s + 6] * f[6] + src[s + 7] * f[7];
+                    tmp[ti++] = clip((sum + 64) >> 7);
+                }
+            }
+        } else {
+            for (int r = 0, si = 3, ti = 0; r < sh; r++, si += sw)
+                for (int c = 0; c < w; c++)
+                    tmp[ti++] = src[si + c];
+        }
+
+        int[] f = FILTERS[filter][fy];
+        for (int r = 0, ti = 0; r < h; r++, dstOff += dstStride) {
+            for (int c = 0; c < w; c++, ti++) {
+                int v;
+                if (fy != 0) {
+                    v = clip((tmp[ti] * f[0] + tmp[ti + w] * f[1] + tmp[ti + 2 * w] * f[2] + tmp[ti + 3 * w] * f[3]
+                            + tmp[ti + 4 * w] * f[4] + tmp[ti + 5 * w] * f[5] + tmp[ti + 6 * w] * f[6]
+                            + tmp[ti + 7 * w] * f[7] + 64) >> 7);
+                } else {
+                    v = tmp[ti + 3 * w];
+                }
+                if (average)
+                    v = (dst[dstOff + c] + v + 1) >> 1;
+                dst[dstOff + c] = (byte) v;
+            }
+        }
+    }
+
+    private static int clamp(int v, int max) {
+        return v < 0 ? 0 : (v > max ? max : v);
+    }
+
+    private static int clip(int v) {
+        return v < -128 ? -128 : (v > 127 ? 127 : v);
+    }
+}
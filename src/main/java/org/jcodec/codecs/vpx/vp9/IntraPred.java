@@ -0,0 +1,230 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.D117_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.D135_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.D153_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.D207_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.D45_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.D63_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.DC_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.H_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.TM_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.V_PRED;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * VP9 intra prediction of a transform block. The edge pixels are taken from
+ * the reconstructed (not yet loop filtered) frame, the missing ones are
+ * replaced the way the reference decoder does: 129 for the left column, 127
+ * for the row above, the pixels past the right and the bottom frame edge
+ * repeat the last pixel inside.
+ *
+ * The pixels are signed bytes (value - 128).
+ *
+ * @author The JCodec project
+ *
+ */
+public class IntraPred {
+    private static final int LEFT_MISSING = 129 - 128;
+    private static final int ABOVE_MISSING = 127 - 128;
+
+    // above[0] is the pixel above-left of the block
+    private final int[] above = new int[65];
+    private final int[] left = new int[32];
+
+    /**
+     * Predicts the transform block at (x0, y0) of the plane.
+     *
+     * @param frameW
+     *            width of the plane rounded up to 8 pixels, the pixels right of
+     *            it are not available
+     * @param haveRight
+     *            the 4x4 block above-right is decoded, only 4x4 blocks look at
+     *            it
+     */
+    public void predict(int mode, int txSize, byte[] buf, int stride, int x0, int y0, int frameW, int frameH,
+            boolean haveTop, boolean haveLeft, boolean haveRight) {
+        int bs = 4 << txSize;
+        int[] above = this.above;
+        int[] left = this.left;
+
+        if (haveLeft) {
+            for (int i = 0; i < bs; i++)
+                left[i] = buf[Math.min(y0 + i, frameH - 1) * stride + x0 - 1];
+        } else {
+            for (int i = 0; i < bs; i++)
+                left[i] = LEFT_MISSING;
+        }
+
+        if (haveTop) {
+            int off = (y0 - 1) * stride;
+            int real = bs == 4 && haveRight ? 2 * bs : bs;
+            for (int i = 0; i < real; i++)
+                above[i + 1] = buf[off + Math.min(x0 + i, frameW - 1)];
+            for (int i = real; i < 2 * bs; i++)
+                above[i + 1] = above[real];
+            above[0] = haveLeft ? buf[off + x0 - 1] : LEFT_MISSING;
+        } else {
+            for (int i = 0; i <= 2 * bs; i++)
+                above[i] = ABOVE_MISSING;
+        }
+
+        int pos = y0 * stride + x0;
+        switch (mode) {
+        case DC_PRED:
+            dc(buf, pos, stride, bs, txSize, haveTop, haveLeft);
+            break;
+        case V_PRED:
+            for (int r = 0; r < bs; r++, pos += stride)
+                for (int c = 0; c < bs; c++)
+                    buf[pos + c] = (byte) above[c + 1];
+            break;
+        case H_PRED:
+            for (int r = 0; r < bs; r++, pos += stride)
+                for (int c = 0; c < bs; c++)
+                    buf[pos + c] = (byte) left[r];
+            break;
+        case TM_PRED:
+            for (int r = 0; r < bs; r++, pos += stride)
+                for (int c = 0; c < bs; c++)
+                    buf[pos + c] = clip(left[r] + above[c + 1] - above[0]);
+            break;
+        case D45_PRED:
+            d45(buf, pos, stride, bs);
+            break;
+        case D63_PRED:
+            d63(buf, pos, stride, bs);
+            break;
+        case D117_PRED:
+            d117(buf, pos, stride, bs);
+            break;
+        case D135_PRED:
+            d135(buf, pos, stride, bs);
+            break;
+        case D153_PRED:
+            d153(buf, pos, stride, bs);
+            break;
+        case D207_PRED:
+            d207(buf, pos, stride, bs);
+            break;
+        default:
+            throw new RuntimeException("Invalid VP9 intra mode " + mode);
+        }
+    }
+
+    private void dc(byte[] buf, int pos, int stride, int bs, int txSize, boolean haveTop, boolean haveLeft) {
+        int sum = 0;
+        int log2 = txSize + 2;
+        if (haveTop)
+            for (int i = 0; i < bs; i++)
+                sum += above[i + 1];
+        if (haveLeft)
+            for (int i = 0; i < bs; i++)
+                sum += left[i];
+        int dc;
+        if (haveTop && haveLeft)
+            dc = (sum + bs) >> (log2 + 1);
+        else if (haveTop || haveLeft)
+            dc = (sum + (bs >> 1)) >> log2;
+        else
+            dc = 0;
+        for (int r = 0; r < bs; r++, pos += stride)
+            for (int c = 0; c < bs; c++)
+                buf[pos + c] = (byte) dc;
+    }
+
+    private void d45(byte[] buf, int pos, int stride, int bs) {
+        int[] a = above;
+        for (int r = 0; r < bs; r++, pos += stride)
+            for (int c = 0; c < bs; c++)
+                buf[pos + c] = (byte) (r + c + 2 < 2 * bs ? avg3(a[r + c + 1], a[r + c + 2], a[r + c + 3])
+                        : a[2 * bs]);
+    }
+
+    private void d63(byte[] buf, int pos, int stride, int bs) {
+        int[] a = above;
+        for (int r = 0; r < bs; r++, pos += stride) {
+            int i = (r >> 1) + 1;
+            for (int c = 0; c < bs; c++, i++)
+                buf[pos + c] = (byte) ((r & 1) != 0 ? avg3(a[i], a[i + 1], a[i + 2]) : avg2(a[i], a[i + 1]));
+        }
+    }
+
+    private void d117(byte[] buf, int pos, int stride, int bs) {
+        int[] a = above;
+        int[] l = left;
+        for (int c = 0; c < bs; c++)
+            buf[pos + c] = (byte) avg2(a[c], a[c + 1]);
+        int pos1 = pos + stride;
+        buf[pos1] = (byte) avg3(l[0], a[0], a[1]);
+        for (int c = 1; c < bs; c++)
+            buf[pos1 + c] = (byte) avg3(a[c - 1], a[c], a[c + 1]);
+        buf[pos + 2 * stride] = (byte) avg3(a[0], l[0], l[1]);
+        for (int r = 3; r < bs; r++)
+            buf[pos + r * stride] = (byte) avg3(l[r - 3], l[r - 2], l[r - 1]);
+        for (int r = 2; r < bs; r++)
+            for (int c = 1; c < bs; c++)
+                buf[pos + r * stride + c] = buf[pos + (r - 2) * stride + c - 1];
+    }
+
+    private void d135(byte[] buf, int pos, int stride, int bs) {
+        int[] a = above;
+        int[] l = left;
+        buf[pos] = (byte) avg3(l[0], a[0], a[1]);
+        for (int c = 1; c < bs; c++)
+            buf[pos + c] = (byte) avg3(a[c - 1], a[c], a[c + 1]);
+        buf[pos + stride] = (byte) avg3(a[0], l[0], l[1]);
+        for (int r = 2; r < bs; r++)
+            buf[pos + r * stride] = (byte) avg3(l[r - 2], l[r - 1], l[r]);
+        for (int r = 1; r < bs; r++)
+            for (int c = 1; c < bs; c++)
+                buf[pos + r * stride + c] = buf[pos + (r - 1) * stride + c - 1];
+    }
+
+    private void d153(byte[] buf, int pos, int stride, int bs) {
+        int[] a = above;
+        int[] l = left;
+        buf[pos] = (byte) avg2(a[0], l[0]);
+        for (int r = 1; r < bs; r++)
+            buf[pos + r * stride] = (byte) avg2(l[r - 1], l[r]);
+        buf[pos + 1] = (byte) avg3(l[0], a[0], a[1]);
+        buf[pos + stride + 1] = (byte) avg3(a[0], l[0], l[1]);
+        for (int r = 2; r < bs; r++)
+            buf[pos + r * stride + 1] = (byte) avg3(l[r - 2], l[r - 1], l[r]);
+        for (int c = 0; c < bs - 2; c++)
+            buf[pos + c + 2] = (byte) avg3(a[c], a[c + 1], a[c + 2]);
+        for (int r = 1; r < bs; r++)
+            for (int c = 0; c < bs - 2; c++)
+                buf[pos + r * stride + c + 2] = buf[pos + (r - 1) * stride + c];
+    }
+
+    private void d207(byte[] buf, int pos, int stride, int bs) {
+        int[] l = left;
+        for (int r = 0; r < bs - 1; r++)
+            buf[pos + r * stride] = (byte) avg2(l[r], l[r + 1]);
+        buf[pos + (bs - 1) * stride] = (byte) l[bs - 1];
+        for (int r = 0; r < bs - 2; r++)
+            buf[pos + r * stride + 1] = (byte) avg3(l[r], l[r + 1], l[r + 2]);
+        buf[pos + (bs - 2) * stride + 1] = (byte) avg3(l[bs - 2], l[bs - 1], l[bs - 1]);
+        buf[pos + (bs - 1) * stride + 1] = (byte) l[bs - 1];
+        for (int c = 0; c < bs - 2; c++)
+            buf[pos + (bs - 1) * stride + c + 2] = (byte) l[bs - 1];
+        for (int r = bs - 2; r >= 0; r--)
+            for (int c = 0; c < bs - 2; c++)
+                buf[pos + r * stride + c + 2] = buf[pos + (r + 1) * stride + c];
+    }
+
+    private static int avg2(int a, int b) {
+        return (a + b + 1) >> 1;
+    }
+
+    private static int avg3(int a, int b, int c) {
+        return (a + 2 * b + c + 2) >> 2;
+    }
+
+    private static byte clip(int v) {
+        return (byte) (v < -128 ? -128 : (v > 127 ? 127 : v));
+    }
+}
@@ -0,0 +1,796 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.ADST_ADST;
+import static org.jcodec.codecs.vpx.vp9.Consts.ADST_DCT;
+import static org.jcodec.codecs.vpx.vp9.Consts.DCT_ADST;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Inverse transforms of VP9, the integer DCT and ADST of the sizes 4 to 32 and
+ * the Walsh-Hadamard transform of the lossless mode. The residual is added to
+ * the prediction in place, the pixels are signed bytes (value - 128).
+ *
+ * The rounding of every butterfly stage matters, the stages follow the
+ * reference decoder one to one.
+ *
+ * @author The JCodec project
+ *
+ */
+public class InvTransform {
+    private static final int cospi_1_64 = 16364;
+    private static final int cospi_2_64 = 16305;
+    private static final int cospi_3_64 = 16207;
+    private static final int cospi_4_64 = 16069;
+    private static final int cospi_5_64 = 15893;
+    private static final int cospi_6_64 = 15679;
+    private static final int cospi_7_64 = 15426;
+    private static final int cospi_8_64 = 15137;
+    private static final int cospi_9_64 = 14811;
+    private static final int cospi_10_64 = 14449;
+    private static final int cospi_11_64 = 14053;
+    private static final int cospi_12_64 = 13623;
+    private static final int cospi_13_64 = 13160;
+    private static final int cospi_14_64 = 12665;
+    private static final int cospi_15_64 = 12140;
+    private static final int cospi_16_64 = 11585;
+    private static final int cospi_17_64 = 11003;
+    private static final int cospi_18_64 = 10394;
+    private static final int cospi_19_64 = 9760;
+    private static final int cospi_20_64 = 9102;
+    private static final int cospi_21_64 = 8423;
+    private static final int cospi_22_64 = 7723;
+    private static final int cospi_23_64 = 7005;
+    private static final int cospi_24_64 = 6270;
+    private static final int cospi_25_64 = 5520;
+    private static final int cospi_26_64 = 4756;
+    private static final int cospi_27_64 = 3981;
+    private static final int cospi_28_64 = 3196;
+    private static final int cospi_29_64 = 2404;
+    private static final int cospi_30_64 = 1606;
+    private static final int cospi_31_64 = 804;
+
+    private static final int sinpi_1_9 = 5283;
+    private static final int sinpi_2_9 = 9929;
+    private static final int sinpi_3_9 = 13377;
+    private static final int sinpi_4_9 = 15212;
+
+    private final int[] tmp = new int[32 * 32];
+    private final int[] in = new int[32];
+    private final int[] out = new int[32];
+    private final int[] step1 = new int[32];
+    private final int[] step2 = new int[32];
+
+    /**
+     * Adds the inverse transform of the coefficients to the block of the plane
+     * at 'off'.
+     *
+     * @param coeffs
+     *            dequantized coefficients in raster order
+     * @param txSize
+     *            TX_4X4 to TX_32X32
+     * @param txType
+     *            DCT_DCT, ADST_DCT (ADST on the columns), DCT_ADST or
+     *            ADST_ADST, the 32x32 transform is always a DCT
+     */
+    public void inverse(int[] coeffs, int txSize, int txType, boolean lossless, byte[] dst, int off, int stride) {
+        if (lossless) {
+            iwht4x4(coeffs, dst, off, stride);
+            return;
+        }
+        int n = 4 << txSize;
+        boolean adstCols = txType == ADST_DCT || txType == ADST_ADST;
+        boolean adstRows = txType == DCT_ADST || txType == ADST_ADST;
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(coeffs, i * n, in, 0, n);
+            transform(in, out, txSize, adstRows);
+            System.arraycopy(out, 0, tmp, i * n, n);
+        }
+        int shift = txSize == 0 ? 4 : (txSize == 1 ? 5 : 6);
+        int round = 1 << (shift - 1);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++)
+                in[j] = tmp[j * n + i];
+            transform(in, out, txSize, adstCols);
+            for (int j = 0, pos = off + i; j < n; j++, pos += stride)
+                dst[pos] = clip(dst[pos] + ((out[j] + round) >> shift));
+        }
+    }
+
+    private void transform(int[] input, int[] output, int txSize, boolean adst) {
+        switch (txSize) {
+        case 0:
+            if (adst)
+                iadst4(input, output);
+            else
+                idct4(input, 0, output);
+            break;
+        case 1:
+            if (adst)
+                iadst8(input, output);
+            else
+                idct8(input, output);
+            break;
+        case 2:
+            if (adst)
+                iadst16(input, output);
+            else
+                idct16(input, output);
+            break;
+        default:
+            idct32(input, output);
+        }
+    }
+
+    private static byte clip(int v) {
+        return (byte) (v < -128 ? -128 : (v > 127 ? 127 : v));
+    }
+
+    private static int round(int v) {
+        return (v + (1 << 13)) >> 14;
+    }
+
+    private static void iwht4x4(int[] input, byte[] dst, int off, int stride) {
+        int[] o = new int[16];
+        for (int i = 0; i < 4; i++) {
+            int a1 = input[i * 4] >> 2;
+            int c1 = input[i * 4 + 1] >> 2;
+            int d1 = input[i * 4 + 2] >> 2;
+            int b1 = input[i * 4 + 3] >> 2;
+            a1 += c1;
+            d1 -= b1;
+            int e1 = (a1 - d1) >> 1;
+            b1 = e1 - b1;
+            c1 = e1 - c1;
+            a1 -= b1;
+            d1 += c1;
+            o[i * 4] = a1;
+            o[i * 4 + 1] = b1;
+            o[i * 4 + 2] = c1;
+            o[i * 4 + 3] = d1;
+        }
+        for (int i = 0; i < 4; i++) {
+            int a1 = o[i];
+            int c1 = o[4 + i];
+            int d1 = o[8 + i];
+            int b1 = o[12 + i];
+            a1 += c1;
+            d1 -= b1;
+            int e1 = (a1 - d1) >> 1;
+            b1 = e1 - b1;
+            c1 = e1 - c1;
+            a1 -= b1;
+            d1 += c1;
+            dst[off + i] = clip(dst[off + i] + a1);
+            dst[off + stride + i] = clip(dst[off + stride + i] + b1);
+            dst[off + 2 * stride + i] = clip(dst[off + 2 * stride + i] + c1);
+            dst[off + 3 * stride + i] = clip(dst[off + 3 * stride + i] + d1);
+        }
+    }
+
+    /**
+     * The 4 point DCT of input[off], input[off + 1] ..., the 8 point DCT runs
+     * it on its even half in place.
+     */
+    private static void idct4(int[] input, int off, int[] output) {
+        int s0 = round((input[off] + input[off + 2]) * cospi_16_64);
+        int s1 = round((input[off] - input[off + 2]) * cospi_16_64);
+        int s2 = round(input[off + 1] * cospi_24_64 - input[off + 3] * cospi_8_64);
+        int s3 = round(input[off + 1] * cospi_8_64 + input[off + 3] * cospi_24_64);
+        output[off] = s0 + s3;
+        output[off + 1] = s1 + s2;
+        output[off + 2] = s1 - s2;
+        output[off + 3] = s0 - s3;
+    }
+
+    private void idct8(int[] input, int[] output) {
+        int[] step1 = this.step1;
+        step1[0] = input[0];
+        step1[2] = input[4];
+        step1[1] = input[2];
+        step1[3] = input[6];
+        step1[4] = round(input[1] * cospi_28_64 - input[7] * cospi_4_64);
+        step1[7] = round(input[1] * cospi_4_64 + input[7] * cospi_28_64);
+        step1[5] = round(input[5] * cospi_12_64 - input[3] * cospi_20_64);
+        step1[6] = round(input[5] * cospi_20_64 + input[3] * cospi_12_64);
+
+        idct4(step1, 0, step1);
+
+        int s4 = step1[4] + step1[5];
+        int s5 = step1[4] - step1[5];
+        int s6 = -step1[6] + step1[7];
+        int s7 = step1[6] + step1[7];
+
+        int t5 = round((s6 - s5) * cospi_16_64);
+        int t6 = round((s5 + s6) * cospi_16_64);
+
+        output[0] = step1[0] + s7;
+        output[1] = step1[1] + t6;
+        output[2] = step1[2] + t5;
+        output[3] = step1[3] + s4;
+        output[4] = step1[3] - s4;
+        output[5] = step1[2] - t5;
+        output[6] = step1[1] - t6;
+        output[7] = step1[0] - s7;
+    }
+
+    private void idct16(int[] input, int[] output) {
+        int[] step1 = this.step1;
+        int[] step2 = this.step2;
+
+        // stage 1
+        step1[0] = input[0];
+        step1[1] = input[8];
+        step1[2] = input[4];
+        step1[3] = input[12];
+        step1[4] = input[2];
+        step1[5] = input[10];
+        step1[6] = input[6];
+        step1[7] = input[14];
+        step1[8] = input[1];
+        step1[9] = input[9];
+        step1[10] = input[5];
+        step1[11] = input[13];
+        step1[12] = input[3];
+        step1[13] = input[11];
+        step1[14] = input[7];
+        step1[15] = input[15];
+
+        // stage 2
+        for (int i = 0; i < 8; i++)
+            step2[i] = step1[i];
+        step2[8] = round(step1[8] * cospi_30_64 - step1[15] * cospi_2_64);
+        step2[15] = round(step1[8] * cospi_2_64 + step1[15] * cospi_30_64);
+        step2[9] = round(step1[9] * cospi_14_64 - step1[14] * cospi_18_64);
+        step2[14] = round(step1[9] * cospi_18_64 + step1[14] * cospi_14_64);
+        step2[10] = round(step1[10] * cospi_22_64 - step1[13] * cospi_10_64);
+        step2[13] = round(step1[10] * cospi_10_64 + step1[13] * cospi_22_64);
+        step2[11] = round(step1[11] * cospi_6_64 - step1[12] * cospi_26_64);
+        step2[12] = round(step1[11] * cospi_26_64 + step1[12] * cospi_6_64);
+
+        // stage 3
+        step1[0] = step2[0];
+        step1[1] = step2[1];
+        step1[2] = step2[2];
+        step1[3] = step2[3];
+        step1[4] = round(step2[4] * cospi_28_64 - step2[7] * cospi_4_64);
+        step1[7] = round(step2[4] * cospi_4_64 + step2[7] * cospi_28_64);
+        step1[5] = round(step2[5] * cospi_12_64 - step2[6] * cospi_20_64);
+        step1[6] = round(step2[5] * cospi_20_64 + step2[6] * cospi_12_64);
+        step1[8] = step2[8] + step2[9];
+        step1[9] = step2[8] - step2[9];
+        step1[10] = -step2[10] + step2[11];
+        step1[11] = step2[10] + step2[11];
+        step1[12] = step2[12] + step2[13];
+        step1[13] = step2[12] - step2[13];
+        step1[14] = -step2[14] + step2[15];
+        step1[15] = step2[14] + step2[15];
+
+        // stage 4
+        step2[0] = round((step1[0] + step1[1]) * cospi_16_64);
+        step2[1] = round((step1[0] - step1[1]) * cospi_16_64);
+        step2[2] = round(step1[2] * cospi_24_64 - step1[3] * cospi_8_64);
+        step2[3] = round(step1[2] * cospi_8_64 + step1[3] * cospi_24_64);
+        step2[4] = step1[4] + step1[5];
+        step2[5] = step1[4] - step1[5];
+        step2[6] = -step1[6] + step1[7];
+        step2[7] = step1[6] + step1[7];
+        step2[8] = step1[8];
+        step2[15] = step1[15];
+        step2[9] = round(-step1[9] * cospi_8_64 + step1[14] * cospi_24_64);
+        step2[14] = round(step1[9] * cospi_24_64 + step1[14] * cospi_8_64);
+        step2[10] = round(-step1[10] * cospi_24_64 - step1[13] * cospi_8_64);
+        step2[13] = round(-step1[10] * cospi_8_64 + step1[13] * cospi_24_64);
+        step2[11] = step1[11];
+        step2[12] = step1[12];
+
+        // stage 5
+        step1[0] = step2[0] + step2[3];
+        step1[1] = step2[1] + step2[2];
+        step1[2] = step2[1] - step2[2];
+        step1[3] = step2[0] - step2[3];
+        step1[4] = step2[4];
+        step1[5] = round((step2[6] - step2[5]) * cospi_16_64);
+        step1[6] = round((step2[5] + step2[6]) * cospi_16_64);
+        step1[7] = step2[7];
+        step1[8] = step2[8] + step2[11];
+        step1[9] = step2[9] + step2[10];
+        step1[10] = step2[9] - step2[10];
+        step1[11] = step2[8] - step2[11];
+        step1[12] = -step2[12] + step2[15];
+        step1[13] = -step2[13] + step2[14];
+        step1[14] = step2[13] + step2[14];
+        step1[15] = step2[12] + step2[15];
+
+        // stage 6
+        for (int i = 0; i < 4; i++) {
+            step2[i] = step1[i] + step1[7 - i];
+            step2[7 - i] = step1[i] - step1[7 - i];
+        }
+        step2[8] = step1[8];
+        step2[9] = step1[9];
+        step2[10] = round((-step1[10] + step1[13]) * cospi_16_64);
+        step2[13] = round((step1[10] + step1[13]) * cospi_16_64);
+        step2[11] = round((-step1[11] + step1[12]) * cospi_16_64);
+        step2[12] = round((step1[11] + step1[12]) * cospi_16_64);
+        step2[14] = step1[14];
+        step2[15] = step1[15];
+
+        // stage 7
+        for (int i = 0; i < 8; i++) {
+            output[i] = step2[i] + step2[15 - i];
+            output[15 - i] = step2[i] - step2[15 - i];
+        }
+    }
+
+    private void idct32(int[] input, int[] output) {
+        int[] step1 = this.step1;
+        int[] step2 = this.step2;
+
+        // stage 1
+        step1[0] = input[0];
+        step1[1] = input[16];
+        step1[2] = input[8];
+        step1[3] = input[24];
+        step1[4] = input[4];
+        step1[5] = input[20];
+        step1[6] = input[12];
+        step1[7] = input[28];
+        step1[8] = input[2];
+        step1[9] = input[18];
+        step1[10] = input[10];
+        step1[11] = input[26];
+        step1[12] = input[6];
+        step1[13] = input[22];
+        step1[14] = input[14];
+        step1[15] = input[30];
+
+        step1[16] = round(input[1] * cospi_31_64 - input[31] * cospi_1_64);
+        step1[31] = round(input[1] * cospi_1_64 + input[31] * cospi_31_64);
+        step1[17] = round(input[17] * cospi_15_64 - input[15] * cospi_17_64);
+        step1[30] = round(input[17] * cospi_17_64 + input[15] * cospi_15_64);
+        step1[18] = round(input[9] * cospi_23_64 - input[23] * cospi_9_64);
+        step1[29] = round(input[9] * cospi_9_64 + input[23] * cospi_23_64);
+        step1[19] = round(input[25] * cospi_7_64 - input[7] * cospi_25_64);
+        step1[28] = round(input[25] * cospi_25_64 + input[7] * cospi_7_64);
+        step1[20] = round(input[5] * cospi_27_64 - input[27] * cospi_5_64);
+        step1[27] = round(input[5] * cospi_5_64 + input[27] * cospi_27_64);
+        step1[21] = round(input[21] * cospi_11_64 - input[11] * cospi_21_64);
+        step1[26] = round(input[21] * cospi_21_64 + input[11] * cospi_11_64);
+        step1[22] = round(input[13] * cospi_19_64 - input[19] * cospi_13_64);
+        step1[25] = round(input[13] * cospi_13_64 + input[19] * cospi_19_64);
+        step1[23] = round(input[29] * cospi_3_64 - input[3] * cospi_29_64);
+        step1[24] = round(input[29] * cospi_29_64 + input[3] * cospi_3_64);
+
+        // stage 2
+        for (int i = 0; i < 8; i++)
+            step2[i] = step1[i];
+        step2[8] = round(step1[8] * cospi_30_64 - step1[15] * cospi_2_64);
+        step2[15] = round(step1[8] * cospi_2_64 + step1[15] * cospi_30_64);
+        step2[9] = round(step1[9] * cospi_14_64 - step1[14] * cospi_18_64);
+        step2[14] = round(step1[9] * cospi_18_64 + step1[14] * cospi_14_64);
+        step2[10] = round(step1[10] * cospi_22_64 - step1[13] * cospi_10_64);
+        step2[13] = round(step1[10] * cospi_10_64 + step1[13] * cospi_22_64);
+        step2[11] = round(step1[11] * cospi_6_64 - step1[12] * cospi_26_64);
+        step2[12] = round(step1[11] * cospi_26_64 + step1[12] * cospi_6_64);
+        for (int i = 16; i < 32; i += 4) {
+            step2[i] = step1[i] + step1[i + 1];
+            step2[i + 1] = step1[i] - step1[i + 1];
+            step2[i + 2] = -step1[i + 2] + step1[i + 3];
+            step2[i + 3] = step1[i + 2] + step1[i + 3];
+        }
+
+        // stage 3
+        step1[0] = step2[0];
+        step1[1] = step2[1];
+        step1[2] = step2[2];
+        step1[3] = step2[3];
+        step1[4] = round(step2[4] * cospi_28_64 - step2[7] * cospi_4_64);
+        step1[7] = round(step2[4] * cospi_4_64 + step2[7] * cospi_28_64);
+        step1[5] = round(step2[5] * cospi_12_64 - step2[6] * cospi_20_64);
+        step1[6] = round(step2[5] * cospi_20_64 + step2[6] * cospi_12_64);
+        step1[8] = step2[8] + step2[9];
+        step1[9] = step2[8] - step2[9];
+        step1[10] = -step2[10] + step2[11];
+        step1[11] = step2[10] + step2[11];
+        step1[12] = step2[12] + step2[13];
+        step1[13] = step2[12] - step2[13];
+        step1[14] = -step2[14] + step2[15];
+        step1[15] = step2[14] + step2[15];
+        step1[16] = step2[16];
+        step1[31] = step2[31];
+        step1[17] = round(-step2[17] * cospi_4_64 + step2[30] * cospi_28_64);
+        step1[30] = round(step2[17] * cospi_28_64 + step2[30] * cospi_4_64);
+        step1[18] = round(-step2[18] * cospi_28_64 - step2[29] * cospi_4_64);
+        step1[29] = round(-step2[18] * cospi_4_64 + step2[29] * cospi_28_64);
+        step1[19] = step2[19];
+        step1[20] = step2[20];
+        step1[21] = round(-step2[21] * cospi_20_64 + step2[26] * cospi_12_64);
+        step1[26] = round(step2[21] * cospi_12_64 + step2[26] * cospi_20_64);
+        step1[22] = round(-step2[22] * cospi_12_64 - step2[25] * cospi_20_64);
+        step1[25] = round(-step2[22] * cospi_20_64 + step2[25] * cospi_12_64);
+        step1[23] = step2[23];
+        step1[24] = step2[24];
+        step1[27] = step2[27];
+        step1[28] = step2[28];
+
+        // stage 4
+        step2[0] = round((step1[0] + step1[1]) * cospi_16_64);
+        step2[1] = round((step1[0] - step1[1]) * cospi_16_64);
+        step2[2] = round(step1[2] * cospi_24_64 - step1[3] * cospi_8_64);
+        step2[3] = round(step1[2] * cospi_8_64 + step1[3] * cospi_24_64);
+        step2[4] = step1[4] + step1[5];
+        step2[5] = step1[4] - step1[5];
+        step2[6] = -step1[6] + step1[7];
+        step2[7] = step1[6] + step1[7];
+        step2[8] = step1[8];
+        step2[15] = step1[15];
+        step2[9] = round(-step1[9] * cospi_8_64 + step1[14] * cospi_24_64);
+        step2[14] = round(step1[9] * cospi_24_64 + step1[14] * cospi_8_64);
+        step2[10] = round(-step1[10] * cospi_24_64 - step1[13] * cospi_8_64);
+        step2[13] = round(-step1[10] * cospi_8_64 + step1[13] * cospi_24_64);
+        step2[11] = step1[11];
+        step2[12] = step1[12];
+        for (int i = 16; i < 32; i += 8) {
+            step2[i] = step1[i] + step1[i + 3];
+            step2[i + 1] = step1[i + 1] + step1[i + 2];
+            step2[i + 2] = step1[i + 1] - step1[i + 2];
+            step2[i + 3] = step1[i] - step1[i + 3];
+            step2[i + 4] = -step1[i + 4] + step1[i + 7];
+            step2[i + 5] = -step1[i + 5] + step1[i + 6];
+            step2[i + 6] = step1[i + 5] + step1[i + 6];
+            step2[i + 7] = step1[i + 4] + step1[i + 7];
+        }
+
+        // stage 5
+        step1[0] = step2[0] + step2[3];
+        step1[1] = step2[1] + step2[2];
+        step1[2] = step2[1] - step2[2];
+        step1[3] = step2[0] - step2[3];
+        step1[4] = step2[4];
+        step1[5] = round((step2[6] - step2[5]) * cospi_16_64);
+        step1[6] = round((step2[5] + step2[6]) * cospi_16_64);
+        step1[7] = step2[7];
+        step1[8] = step2[8] + step2[11];
+        step1[9] = step2[9] + step2[10];
+        step1[10] = step2[9] - step2[10];
+        step1[11] = step2[8] - step2[11];
+        step1[12] = -step2[12] + step2[15];
+        step1[13] = -step2[13] + step2[14];
+        step1[14] = step2[13] + step2[14];
+        step1[15] = step2[12] + step2[15];
+        step1[16] = step2[16];
+        step1[17] = step2[17];
+        step1[18] = round(-step2[18] * cospi_8_64 + step2[29] * cospi_24_64);
+        step1[29] = round(step2[18] * cospi_24_64 + step2[29] * cospi_8_64);
+        step1[19] = round(-step2[19] * cospi_8_64 + step2[28] * cospi_24_64);
+        step1[28] = round(step2[19] * cospi_24_64 + step2[28] * cospi_8_64);
+        step1[20] = round(-step2[20] * cospi_24_64 - step2[27] * cospi_8_64);
+        step1[27] = round(-step2[20] * cospi_8_64 + step2[27] * cospi_24_64);
+        step1[21] = round(-step2[21] * cospi_24_64 - step2[26] * cospi_8_64);
+        step1[26] = round(-step2[21] * cospi_8_64 + step2[26] * cospi_24_64);
+        step1[22] = step2[22];
+        step1[23] = step2[23];
+        step1[24] = step2[24];
+        step1[25] = step2[25];
+        step1[30] = step2[30];
+        step1[31] = step2[31];
+
+        // stage 6
+        for (int i = 0; i < 4; i++) {
+            step2[i] = step1[i] + step1[7 - i];
+            step2[7 - i] = step1[i] - step1[7 - i];
+        }
+        step2[8] = step1[8];
+        step2[9] = step1[9];
+        step2[10] = round((-step1[10] + step1[13]) * cospi_16_64);
+        step2[13] = round((step1[10] + step1[13]) * cospi_16_64);
+        step2[11] = round((-step1[11] + step1[12]) * cospi_16_64);
+        step2[12] = round((step1[11] + step1[12]) * cospi_16_64);
+        step2[14] = step1[14];
+        step2[15] = step1[15];
+        for (int i = 0; i < 4; i++) {
+            step2[16 + i] = step1[16 + i] + step1[23 - i];
+            step2[23 - i] = step1[16 + i] - step1[23 - i];
+            step2[24 + i] = -step1[24 + i] + step1[31 - i];
+            step2[31 - i] = step1[24 + i] + step1[31 - i];
+        }
+
+        // stage 7
+        for (int i = 0; i < 8; i++) {
+            step1[i] = step2[i] + step2[15 - i];
+            step1[15 - i] = step2[i] - step2[15 - i];
+        }
+        step1[16] = step2[16];
+        step1[17] = step2[17];
+        step1[18] = step2[18];
+        step1[19] = step2[19];
+        for (int i = 0; i < 4; i++) {
+            step1[20 + i] = round((-step2[20 + i] + step2[27 - i]) * cospi_16_64);
+            step1[27 - i] = round((step2[20 + i] + step2[27 - i]) * cospi_16_64);
+        }
+        step1[28] = step2[28];
+        step1[29] = step2[29];
+        step1[30] = step2[30];
+        step1[31] = step2[31];
+
+        // final stage
+        for (int i = 0; i < 16; i++) {
+            output[i] = step1[i] + step1[31 - i];
+            output[31 - i] = step1[i] - step1[31 - i];
+        }
+    }
+
+    private static void iadst4(int[] input, int[] output) {
+        int x0 = input[0];
+        int x1 = input[1];
+        int x2 = input[2];
+        int x3 = input[3];
+
+        if ((x0 | x1 | x2 | x3) == 0) {
+            output[0] = output[1] = output[2] = output[3] = 0;
+            return;
+        }
+
+        int s0 = sinpi_1_9 * x0;
+        int s1 = sinpi_2_9 * x0;
+        int s2 = sinpi_3_9 * x1;
+        int s3 = sinpi_4_9 * x2;
+        int s4 = sinpi_1_9 * x2;
+        int s5 = sinpi_2_9 * x3;
+        int s6 = sinpi_4_9 * x3;
+        int s7 = x0 - x2 + x3;
+
+        s0 = s0 + s3 + s5;
+        s1 = s1 - s4 - s6;
+        s3 = s2;
+        s2 = sinpi_3_9 * s7;
+
+        output[0] = round(s0 + s3);
+        output[1] = round(s1 + s3);
+        output[2] = round(s2);
+        output[3] = round(s0 + s1 - s3);
+    }
+
+    private static void iadst8(int[] input, int[] output) {
+        int x0 = input[7];
+        int x1 = input[0];
+        int x2 = input[5];
+        int x3 = input[2];
+        int x4 = input[3];
+        int x5 = input[4];
+        int x6 = input[1];
+        int x7 = input[6];
+
+        if ((x0 | x1 | x2 | x3 | x4 | x5 | x6 | x7) == 0) {
+            for (int i = 0; i < 8; i++)
+                output[i] = 0;
+            return;
+        }
+
+        // stage 1
+        int s0 = cospi_2_64 * x0 + cospi_30_64 * x1;
+        int s1 = cospi_30_64 * x0 - cospi_2_64 * x1;
+        int s2 = cospi_10_64 * x2 + cospi_22_64 * x3;
+        int s3 = cospi_22_64 * x2 - cospi_10_64 * x3;
+        int s4 = cospi_18_64 * x4 + cospi_14_64 * x5;
+        int s5 = cospi_14_64 * x4 - cospi_18_64 * x5;
+        int s6 = cospi_26_64 * x6 + cospi_6_64 * x7;
+        int s7 = cospi_6_64 * x6 - cospi_26_64 * x7;
+
+        x0 = round(s0 + s4);
+        x1 = round(s1 + s5);
+        x2 = round(s2 + s6);
+        x3 = round(s3 + s7);
+        x4 = round(s0 - s4);
+        x5 = round(s1 - s5);
+        x6 = round(s2 - s6);
+        x7 = round(s3 - s7);
+
+        // stage 2
+        s0 = x0;
+        s1 = x1;
+        s2 = x2;
+        s3 = x3;
+        s4 = cospi_8_64 * x4 + cospi_24_64 * x5;
+        s5 = cospi_24_64 * x4 - cospi_8_64 * x5;
+        s6 = -cospi_24_64 * x6 + cospi_8_64 * x7;
+        s7 = cospi_8_64 * x6 + cospi_24_64 * x7;
+
+        x0 = s0 + s2;
+        x1 = s1 + s3;
+        x2 = s0 - s2;
+        x3 = s1 - s3;
+        x4 = round(s4 + s6);
+        x5 = round(s5 + s7);
+        x6 = round(s4 - s6);
+        x7 = round(s5 - s7);
+
+        // stage 3
+        s2 = cospi_16_64 * (x2 + x3);
+        s3 = cospi_16_64 * (x2 - x3);
+        s6 = cospi_16_64 * (x6 + x7);
+        s7 = cospi_16_64 * (x6 - x7);
+
+        x2 = round(s2);
+        x3 = round(s3);
+        x6 = round(s6);
+        x7 = round(s7);
+
+        output[0] = x0;
+        output[1] = -x4;
+        output[2] = x6;
+        output[3] = -x2;
+        output[4] = x3;
+        output[5] = -x7;
+        output[6] = x5;
+        output[7] = -x1;
+    }
+
+    private static void iadst16(int[] input, int[] output) {
+        int x0 = input[15];
+        int x1 = input[0];
+        int x2 = input[13];
+        int x3 = input[2];
+        int x4 = input[11];
+        int x5 = input[4];
+        int x6 = input[9];
+        int x7 = input[6];
+        int x8 = input[7];
+        int x9 = input[8];
+        int x10 = input[5];
+        int x11 = input[10];
+        int x12 = input[3];
+        int x13 = input[12];
+        int x14 = input[1];
+        int x15 = input[14];
+
+        if ((x0 | x1 | x2 | x3 | x4 | x5 | x6 | x7 | x8 | x9 | x10 | x11 | x12 | x13 | x14 | x15) == 0) {
+            for (int i = 0; i < 16; i++)
+                output[i] = 0;
+            return;
+        }
+
+        // stage 1
+        int s0 = x0 * cospi_1_64 + x1 * cospi_31_64;
+        int s1 = x0 * cospi_31_64 - x1 * cospi_1_64;
+        int s2 = x2 * cospi_5_64 + x3 * cospi_27_64;
+        int s3 = x2 * cospi_27_64 - x3 * cospi_5_64;
+        int s4 = x4 * cospi_9_64 + x5 * cospi_23_64;
+        int s5 = x4 * cospi_23_64 - x5 * cospi_9_64;
+        int s6 = x6 * cospi_13_64 + x7 * cospi_19_64;
+        int s7 = x6 * cospi_19_64 - x7 * cospi_13_64;
+        int s8 = x8 * cospi_17_64 + x9 * cospi_15_64;
+        int s9 = x8 * cospi_15_64 - x9 * cospi_17_64;
+        int s10 = x10 * cospi_21_64 + x11 * cospi_11_64;
+        int s11 = x10 * cospi_11_64 - x11 * cospi_21_64;
+        int s12 = x12 * cospi_25_64 + x13 * cospi_7_64;
+        int s13 = x12 * cospi_7_64 - x13 * cospi_25_64;
+        int s14 = x14 * cospi_29_64 + x15 * cospi_3_64;
+        int s15 = x14 * cospi_3_64 - x15 * cospi_29_64;
+
+        x0 = round(s0 + s8);
+        x1 = round(s1 + s9);
+        x2 = round(s2 + s10);
+        x3 = round(s3 + s11);
+        x4 = round(s4 + s12);
+        x5 = round(s5 + s13);
+        x6 = round(s6 + s14);
+        x7 = round(s7 + s15);
+        x8 = round(s0 - s8);
+        x9 = round(s1 - s9);
+        x10 = round(s2 - s10);
+        x11 = round(s3 - s11);
+        x12 = round(s4 - s12);
+        x13 = round(s5 - s13);
+        x14 = round(s6 - s14);
+        x15 = round(s7 - s15);
+
+        // stage 2
+        s0 = x0;
+        s1 = x1;
+        s2 = x2;
+        s3 = x3;
+        s4 = x4;
+        s5 = x5;
+        s6 = x6;
+        s7 = x7;
+        s8 = x8 * cospi_4_64 + x9 * cospi_28_64;
+        s9 = x8 * cospi_28_64 - x9 * cospi_4_64;
+        s10 = x10 * cospi_20_64 + x11 * cospi_12_64;
+        s11 = x10 * cospi_12_64 - x11 * cospi_20_64;
+        s12 = -x12 * cospi_28_64 + x13 * cospi_4_64;
+        s13 = x12 * cospi_4_64 + x13 * cospi_28_64;
+        s14 = -x14 * cospi_12_64 + x15 * cospi_20_64;
+        s15 = x14 * cospi_20_64 + x15 * cospi_12_64;
+
+        x0 = s0 + s4;
+        x1 = s1 + s5;
+        x2 = s2 + s6;
+        x3 = s3 + s7;
+        x4 = s0 - s4;
+        x5 = s1 - s5;
+        x6 = s2 - s6;
+        x7 = s3 - s7;
+        x8 = round(s8 + s12);
+        x9 = round(s9 + s13);
+        x10 = round(s10 + s14);
+        x11 = round(s11 + s15);
+        x12 = round(s8 - s12);
+        x13 = round(s9 - s13);
+        x14 = round(s10 - s14);
+        x15 = round(s11 - s15);
+
+        // stage 3
+        s0 = x0;
+        s1 = x1;
+        s2 = x2;
+        s3 = x3;
+        s4 = x4 * cospi_8_64 + x5 * cospi_24_64;
+        s5 = x4 * cospi_24_64 - x5 * cospi_8_64;
+        s6 = -x6 * cospi_24_64 + x7 * cospi_8_64;
+        s7 = x6 * cospi_8_64 + x7 * cospi_24_64;
+        s8 = x8;
+        s9 = x9;
+        s10 = x10;
+        s11 = x11;
+        s12 = x12 * cospi_8_64 + x13 * cospi_24_64;
+        s13 = x12 * cospi_24_64 - x13 * cospi_8_64;
+        s14 = -x14 * cospi_24_64 + x15 * cospi_8_64;
+        s15 = x14 * cospi_8_64 + x15 * cospi_24_64;
+
+        x0 = s0 + s2;
+        x1 = s1 + s3;
+        x2 = s0 - s2;
+        x3 = s1 - s3;
+        x4 = round(s4 + s6);
+        x5 = round(s5 + s7);
+        x6 = round(s4 - s6);
+        x7 = round(s5 - s7);
+        x8 = s8 + s10;
+        x9 = s9 + s11;
+        x10 = s8 - s10;
+        x11 = s9 - s11;
+        x12 = round(s12 + s14);
+        x13 = round(s13 + s15);
+        x14 = round(s12 - s14);
+        x15 = round(s13 - s15);
+
+        // stage 4
+        s2 = -cospi_16_64 * (x2 + x3);
+        s3 = cospi_16_64 * (x2 - x3);
+        s6 = cospi_16_64 * (x6 + x7);
+        s7 = cospi_16_64 * (-x6 + x7);
+        s10 = cospi_16_64 * (x10 + x11);
+        s11 = cospi_16_64 * (-x10 + x11);
+        s14 = -cospi_16_64 * (x14 + x15);
+        s15 = cospi_16_64 * (x14 - x15);
+
+        x2 = round(s2);
+        x3 = round(s3);
+        x6 = round(s6);
+        x7 = round(s7);
+        x10 = round(s10);
+        x11 = round(s11);
+        x14 = round(s14);
+        x15 = round(s15);
+
+        output[0] = x0;
+        output[1] = -x8;
+        output[2] = x12;
+        output[3] = -x4;
+        output[4] = x6;
+        output[5] = x14;
+        output[6] = x10;
+        output[7] = x2;
+        output[8] = x3;
+        output[9] = x11;
+        output[10] = x15;
+        output[11] = x7;
+        output[12] = x5;
+        output[13] = -x13;
+        output[14] = x9;
+        output[15] = -x1;
+    }
+}
@@ -0,0 +1,372 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.*;
+
+import org.jcodec.common.model.Picture;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * VP9 loop filter. Filters one 64x64 superblock at a time, every plane first
+ * across the vertical edges then across the horizontal ones.
+ *
+ * The filtering of a superblock reads and writes the pixels of the
+ * superblocks to the left and above of it, so the superblock rows can be
+ * filtered in parallel as long as every row stays two superblocks behind the
+ * row above, the same way the VP8 loop filter rows are run.
+ *
+ * The pixels are signed bytes (value - 128).
+ *
+ * @author The JCodec project
+ *
+ */
+public class LoopFilter {
+    private static final int MAX_LOOP_FILTER = 63;
+
+    // filter level per segment, reference frame and mode class
+    private final int[][][] lvl = new int[MAX_SEGMENTS][MAX_REF_FRAMES][2];
+    private final int[] limit = new int[MAX_LOOP_FILTER + 1];
+    private final int[] blimit = new int[MAX_LOOP_FILTER + 1];
+    private final int[] hevThr = new int[MAX_LOOP_FILTER + 1];
+
+    public LoopFilter(FrameHeader hdr) {
+        int sharpness = hdr.sharpnessLevel;
+        for (int l = 0; l <= MAX_LOOP_FILTER; l++) {
+            int lim = l >> ((sharpness > 0 ? 1 : 0) + (sharpness > 4 ? 1 : 0));
+            if (sharpness > 0 && lim > 9 - sharpness)
+                lim = 9 - sharpness;
+            if (lim < 1)
+                lim = 1;
+            limit[l] = lim;
+            blimit[l] = 2 * (l + 2) + lim;
+            hevThr[l] = l >> 4;
+        }
+
+        int defaultLevel = hdr.filterLevel;
+        int scale = 1 << (defaultLevel >> 5);
+        for (int seg = 0; seg < MAX_SEGMENTS; seg++) {
+            int lvlSeg = defaultLevel;
+            if (hdr.isSegFeatureActive(seg, SEG_LVL_ALT_L)) {
+                int data = hdr.featureData[seg][SEG_LVL_ALT_L];
+                lvlSeg = clamp(hdr.segmentationAbsDelta ? data : defaultLevel + data);
+            }
+            if (!hdr.modeRefDeltaEnabled) {
+                for (int ref = 0; ref < MAX_REF_FRAMES; ref++) {
+                    lvl[seg][ref][0] = lvlSeg;
+                    lvl[seg][ref][1] = lvlSeg;
+                }
+            } else {
+                int intraLvl = clamp(lvlSeg + hdr.refDeltas[INTRA_FRAME] * scale);
+                lvl[seg][INTRA_FRAME][0] = intraLvl;
+                lvl[seg][INTRA_FRAME][1] = intraLvl;
+                for (int ref = LAST_FRAME; ref < MAX_REF_FRAMES; ref++) {
+                    int interLvl = lvlSeg + hdr.refDeltas[ref] * scale;
+                    for (int mode = 0; mode < 2; mode++)
+                        lvl[seg][ref][mode] = clamp(interLvl + hdr.modeDeltas[mode] * scale);
+                }
+            }
+        }
+    }
+
+    private static int clamp(int l) {
+        return l < 0 ? 0 : (l > MAX_LOOP_FILTER ? MAX_LOOP_FILTER : l);
+    }
+
+    private int level(BlockInfo mi) {
+        int modeClass = mi.mode >= NEARESTMV && mi.mode != ZEROMV ? 1 : 0;
+        return lvl[mi.segmentId][mi.refFrame[0]][modeClass];
+    }
+
+    /**
+     * Filters the superblock at (miRow, miCol), the blocks of it and of the
+     * superblocks around it must be decoded.
+     */
+    public void filterSuperblock(FrameState fs, int miRow, int miCol) {
+        int[] lfl = new int[64];
+        int[] mask16 = new int[8];
+        int[] mask8 = new int[8];
+        int[] mask4 = new int[8];
+        int[] mask4Int = new int[8];
+        for (int plane = 0; plane < 3; plane++)
+            filterPlane(fs, plane, miRow, miCol, lfl, mask16, mask8, mask4, mask4Int);
+    }
+
+    private void filterPlane(FrameState fs, int plane, int miRow, int miCol, int[] lfl, int[] mask16, int[] mask8,
+            int[] mask4, int[] mask4Int) {
+        int ss = plane == 0 ? 0 : 1;
+        int step = 1 << ss;
+        Picture cur = fs.cur;
+        byte[] buf = cur.getPlaneData(plane);
+        int stride = cur.getPlaneWidth(plane);
+        int x0 = (miCol << 3) >> ss;
+        int y0 = (miRow << 3) >> ss;
+
+        for (int r = 0; r < 8 && miRow + r < fs.miRows; r += step) {
+            int m16c = 0;
+            int m8c = 0;
+            int m4c = 0;
+            int m4Int = 0;
+            for (int c = 0; c < 8 && miCol + c < fs.miCols; c += step) {
+                BlockInfo mi = fs.mi[(miRow + r) * fs.miStride + miCol + c];
+                int sbType = mi.sbType;
+                boolean skipThis = mi.skip && mi.isInter();
+                boolean wide = sbType != BLOCK_4X4 && sbType != BLOCK_4X8;
+                boolean tall = sbType != BLOCK_4X4 && sbType != BLOCK_8X4;
+                boolean blockEdgeLeft = wide ? (c & (blW[sbType] - 1)) == 0 : true;
+                boolean skipThisC = skipThis && !blockEdgeLeft;
+                boolean blockEdgeAbove = tall ? (r & (blH[sbType] - 1)) == 0 : true;
+                boolean skipThisR = skipThis && !blockEdgeAbove;
+                int txSize = plane == 0 ? mi.txSize : uv_txsize_lookup[sbType][mi.txSize][1][1];
+                boolean skipBorder4x4C = ss != 0 && miCol + c == fs.miCols - 1;
+                boolean skipBorder4x4R = ss != 0 && miRow + r == fs.miRows - 1;
+
+                int l = level(mi);
+                lfl[(r << 3) + (c >> ss)] = l;
+                if (l == 0)
+                    continue;
+
+                int bit = 1 << (c >> ss);
+                if (txSize == TX_32X32 || txSize == TX_16X16) {
+                    // only the edges of the transform blocks are filtered
+                    int posMask = txSize == TX_32X32 ? 3 : 1;
+                    if (!skipThisC && ((c >> ss) & posMask) == 0) {
+                        if (!skipBorder4x4C)
+                            m16c |= bit;
+                        else
+                            m8c |= bit;
+                    }
+                    if (!skipThisR && ((r >> ss) & posMask) == 0) {
+                        if (!skipBorder4x4R)
+                            mask16[r] |= bit;
+                        else
+                            mask8[r] |= bit;
+                    }
+                } else {
+                    // 8x8 filtering is forced on the 32x32 boundaries
+                    if (!skipThisC) {
+                        if (txSize == TX_8X8 || ((c >> ss) & 3) == 0)
+                            m8c |= bit;
+                        else
+                            m4c |= bit;
+                    }
+                    if (!skipThisR) {
+                        if (txSize == TX_8X8 || ((r >> ss) & 3) == 0)
+                            mask8[r] |= bit;
+                        else
+                            mask4[r] |= bit;
+                    }
+                    if (!skipThis && txSize < TX_8X8 && !skipBorder4x4C)
+                        m4Int |= bit;
+                }
+            }
+            mask4Int[r] = m4Int;
+
+            // the left edge of the frame isn't filtered
+            int borderMask = miCol == 0 ? ~1 : ~0;
+            filterSelectivelyVert(buf, (y0 + ((r >> ss) << 3)) * stride + x0, stride, m16c & borderMask,
+                    m8c & borderMask, m4c & borderMask, m4Int, lfl, r << 3);
+        }
+
+        for (int r = 0; r < 8 && miRow + r < fs.miRows; r += step) {
+            boolean skipBorder4x4R = ss != 0 && miRow + r == fs.miRows - 1;
+            int m4IntR = skipBorder4x4R ? 0 : mask4Int[r];
+            int m16r;
+            int m8r;
+            int m4r;
+            if (miRow + r == 0) {
+                m16r = 0;
+                m8r = 0;
+                m4r = 0;
+            } else {
+                m16r = mask16[r];
+                m8r = mask8[r];
+                m4r = mask4[r];
+            }
+            filterSelectivelyHoriz(buf, (y0 + ((r >> ss) << 3)) * stride + x0, stride, m16r, m8r, m4r, m4IntR, lfl,
+                    r << 3);
+            mask16[r] = 0;
+            mask8[r] = 0;
+            mask4[r] = 0;
+            mask4Int[r] = 0;
+        }
+    }
+
+    private void filterSelectivelyVert(byte[] s, int off, int pitch, int mask16, int mask8, int mask4, int mask4Int,
+            int[] lfl, int lflOff) {
+        for (int mask = mask16 | mask8 | mask4 | mask4Int; mask != 0; mask >>>= 1) {
+            int l = lfl[lflOff];
+            if ((mask & 1) != 0) {
+                if ((mask16 & 1) != 0)
+                    filter16(s, off, 1, pitch, 8, l);
+                else if ((mask8 & 1) != 0)
+                    filter8(s, off, 1, pitch, 8, l);
+                else if ((mask4 & 1) != 0)
+                    filter4(s, off, 1, pitch, 8, l);
+            }
+            if ((mask4Int & 1) != 0)
+                filter4(s, off + 4, 1, pitch, 8, l);
+            off += 8;
+            lflOff++;
+            mask16 >>>= 1;
+            mask8 >>>= 1;
+            mask4 >>>= 1;
+            mask4Int >>>= 1;
+        }
+    }
+
+    private void filterSelectivelyHoriz(byte[] s, int off, int pitch, int mask16, int mask8, int mask4,
+            int mask4Int, int[] lfl, int lflOff) {
+        for (int mask = mask16 | mask8 | mask4 | mask4Int; mask != 0;) {
+            int l = lfl[lflOff];
+            int count = 1;
+            if ((mask & 1) != 0) {
+                if ((mask16 & 1) != 0) {
+                    // two neighbouring blocks are filtered with the thresholds
+                    // of the first one
+                    if ((mask16 & 3) == 3) {
+                        filter16(s, off, pitch, 1, 16, l);
+                        count = 2;
+                    } else {
+                        filter16(s, off, pitch, 1, 8, l);
+                    }
+                } else if ((mask8 & 1) != 0) {
+                    filter8(s, off, pitch, 1, 8, l);
+                    if ((mask4Int & 1) != 0)
+                        filter4(s, off + 4 * pitch, pitch, 1, 8, l);
+                    if ((mask8 & 3) == 3) {
+                        int l1 = lfl[lflOff + 1];
+                        filter8(s, off + 8, pitch, 1, 8, l1);
+                        if ((mask4Int & 2) != 0)
+                            filter4(s, off + 8 + 4 * pitch, pitch, 1, 8, l1);
+                        count = 2;
+                    }
+                } else if ((mask4 & 1) != 0) {
+                    filter4(s, off, pitch, 1, 8, l);
+                    if ((mask4Int & 1) != 0)
+                        filter4(s, off + 4 * pitch, pitch, 1, 8, l);
+                    if ((mask4 & 3) == 3) {
+                        int l1 = lfl[lflOff + 1];
+                        filter4(s, off + 8, pitch, 1, 8, l1);
+                        if ((mask4Int & 2) != 0)
+                            filter4(s, off + 8 + 4 * pitch, pitch, 1, 8, l1);
+                        count = 2;
+                    }
+                } else {
+                    filter4(s, off + 4 * pitch, pitch, 1, 8, l);
+                }
+            }
+            off += 8 * count;
+            lflOff += count;
+            mask16 >>>= count;
+            mask8 >>>= count;
+            mask4 >>>= count;
+            mask4Int >>>= count;
+            mask >>>= count;
+        }
+    }
+
+    private static int abs(int v) {
+        return v < 0 ? -v : v;
+    }
+
+    private static int clamp8(int v) {
+        return v < -128 ? -128 : (v > 127 ? 127 : v);
+    }
+
+    private boolean filterMask(int l, int p3, int p2, int p1, int p0, int q0, int q1, int q2, int q3) {
+        int lim = limit[l];
+        return abs(p3 - p2) <= lim && abs(p2 - p1) <= lim && abs(p1 - p0) <= lim && abs(q1 - q0) <= lim
+                && abs(q2 - q1) <= lim && abs(q3 - q2) <= lim && abs(p0 - q0) * 2 + abs(p1 - q1) / 2 <= blimit[l];
+    }
+
+    private static boolean flatMask4(int p3, int p2, int p1, int p0, int q0, int q1, int q2, int q3) {
+        return abs(p1 - p0) <= 1 && abs(q1 - q0) <= 1 && abs(p2 - p0) <= 1 && abs(q2 - q0) <= 1
+                && abs(p3 - p0) <= 1 && abs(q3 - q0) <= 1;
+    }
+
+    /**
+     * The 4 tap filter of the pixels at 'off' - 2 * step ... 'off' + step, the
+     * pixels are signed
+     */
+    private void filter4Pixels(byte[] s, int off, int step, int l) {
+        int p1 = s[off - 2 * step];
+        int p0 = s[off - step];
+        int q0 = s[off];
+        int q1 = s[off + step];
+        int thr = hevThr[l];
+        boolean hev = abs(p1 - p0) > thr || abs(q1 - q0) > thr;
+
+        int filter = hev ? clamp8(p1 - q1) : 0;
+        filter = clamp8(filter + 3 * (q0 - p0));
+        int filter1 = clamp8(filter + 4) >> 3;
+        int filter2 = clamp8(filter + 3) >> 3;
+        s[off] = (byte) clamp8(q0 - filter1);
+        s[off - step] = (byte) clamp8(p0 + filter2);
+        if (!hev) {
+            filter = (filter1 + 1) >> 1;
+            s[off + step] = (byte) clamp8(q1 - filter);
+            s[off - 2 * step] = (byte) clamp8(p1 + filter);
+        }
+    }
+
+    /**
+     * Filters 'count' lines across the edge at 'off', 'step' goes across the
+     * edge, 'adv' along it.
+     */
+    private void filter4(byte[] s, int off, int step, int adv, int count, int l) {
+        for (int i = 0; i < count; i++, off += adv) {
+            if (filterMask(l, s[off - 4 * step], s[off - 3 * step], s[off - 2 * step], s[off - step], s[off],
+                    s[off + step], s[off + 2 * step], s[off + 3 * step]))
+                filter4Pixels(s, off, step, l);
+        }
+    }
+
+    private void filter8(byte[] s, int off, int step, int adv, int count, int l) {
+        int[] v = new int[8];
+        for (int i = 0; i < count; i++, off += adv) {
+            for (int k = 0; k < 8; k++)
+                v[k] = s[off + (k - 4) * step];
+            if (!filterMask(l, v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7]))
+                continue;
+            if (flatMask4(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7])) {
+                for (int k = 1; k < 7; k++) {
+                    int sum = v[k];
+                    for (int j = k - 3; j <= k + 3; j++)
+                        sum += v[j < 0 ? 0 : (j > 7 ? 7 : j)];
+                    s[off + (k - 4) * step] = (byte) ((sum + 4) >> 3);
+                }
+            } else {
+                filter4Pixels(s, off, step, l);
+            }
+        }
+    }
+
+    private void filter16(byte[] s, int off, int step, int adv, int count, int l) {
+        int[] v = new int[16];
+        for (int i = 0; i < count; i++, off += adv) {
+            for (int k = 0; k < 16; k++)
+                v[k] = s[off + (k - 8) * step];
+            if (!filterMask(l, v[4], v[5], v[6], v[7], v[8], v[9], v[10], v[11]))
+                continue;
+            if (!flatMask4(v[4], v[5], v[6], v[7], v[8], v[9], v[10], v[11])) {
+                filter4Pixels(s, off, step, l);
+            } else if (flatMask4(v[0], v[1], v[2], v[7], v[8], v[13], v[14], v[15])
+                    && abs(v[3] - v[7]) <= 1 && abs(v[12] - v[8]) <= 1) {
+                for (int k = 1; k < 15; k++) {
+                    int sum = v[k];
+                    for (int j = k - 7; j <= k + 7; j++)
+                        sum += v[j < 0 ? 0 : (j > 15 ? 15 : j)];
+                    s[off + (k - 8) * step] = (byte) ((sum + 8) >> 4);
+                }
+            } else {
+                for (int k = 5; k < 11; k++) {
+                    int sum = v[k];
+                    for (int j = k - 3; j <= k + 3; j++)
+                        sum += v[j < 4 ? 4 : (j > 11 ? 11 : j)];
+                    s[off + (k - 8) * step] = (byte) ((sum + 4) >> 3);
+                }
+            }
+        }
+    }
+}
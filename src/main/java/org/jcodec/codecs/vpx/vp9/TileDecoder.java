@@ -0,0 +1,1221 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.*;
+
+import java.nio.ByteBuffer;
+
+import org.jcodec.codecs.vpx.VPXBooleanDecoder;
+import org.jcodec.codecs.vpx.vp8.data.RowSync;
+import org.jcodec.common.model.Picture;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Decodes the tiles of one VP9 tile column: the partitions, the mode info, the
+ * coefficient tokens and the reconstruction of the blocks.
+ *
+ * The tile columns of a frame don't depend on each other, the left neighbours
+ * and the motion vector candidates stop at the edge of the tile column, so a
+ * decoder of its own can run on every tile column at the same time. The tile
+ * rows of a column are decoded in order, the blocks of a tile row see the
+ * blocks of the tile row above.
+ *
+ * @author The JCodec project
+ *
+ */
+public class TileDecoder {
+    // subsize of a square block of 8 << n8x8l2 pixels, per partition
+    private static final int[][] SUBSIZE = { { BLOCK_8X8, BLOCK_16X16, BLOCK_32X32, BLOCK_64X64 },
+            { BLOCK_8X4, BLOCK_16X8, BLOCK_32X16, BLOCK_64X32 }, { BLOCK_4X8, BLOCK_8X16, BLOCK_16X32, BLOCK_32X64 },
+            { BLOCK_4X4, BLOCK_8X8, BLOCK_16X16, BLOCK_32X32 } };
+
+    // the above and the left partition context left by a block, bit n is set
+    // when the block is smaller than 8 << n pixels
+    private static final int[] PARTITION_CONTEXT_ABOVE = { 15, 15, 14, 14, 14, 12, 12, 12, 8, 8, 8, 0, 0 };
+    private static final int[] PARTITION_CONTEXT_LEFT = { 15, 14, 15, 14, 12, 14, 12, 8, 12, 8, 0, 8, 0 };
+
+    // (row, col) offsets of the motion vector candidates in 8x8 blocks, the
+    // search orders in Consts.mv_ref_blocks index these
+    private static final int[][] MV_REF_POS = { { -1, 0 }, { 0, -1 }, { -1, 1 }, { 1, -1 }, { -1, 3 }, { 3, -1 },
+            { -1, 2 }, { 2, -1 }, { -1, 4 }, { 4, -1 }, { -1, 6 }, { -1, -1 }, { -2, 0 }, { 0, -2 }, { -3, 0 },
+            { 0, -3 }, { -2, -1 }, { -1, -2 }, { -2, -2 }, { -3, -3 } };
+
+    private static final int[] MODE_2_COUNTER = { 9, 9, 9, 9, 9, 9, 9, 9, 9, 9, 0, 0, 3, 1 };
+    private static final int[] COUNTER_TO_CONTEXT = { BOTH_PREDICTED, NEW_PLUS_NON_INTRA, BOTH_NEW,
+            ZERO_PLUS_PREDICTED, NEW_PLUS_NON_INTRA, INVALID_CASE, BOTH_ZERO, INVALID_CASE, INVALID_CASE,
+            INTRA_PLUS_NON_INTRA, INTRA_PLUS_NON_INTRA, INVALID_CASE, INTRA_PLUS_NON_INTRA, INVALID_CASE,
+            INVALID_CASE, INVALID_CASE, INVALID_CASE, INVALID_CASE, BOTH_INTRA };
+    private static final int[][] IDX_N_COLUMN_TO_SUBBLOCK = { { 1, 2 }, { 1, 3 }, { 3, 2 }, { 3, 3 } };
+
+    // the candidates further than this are clamped to, in 1/8 pel
+    private static final int MV_MARGIN = (BORDERINPIXELS - INTERP_EXTEND) << 3;
+
+    private static final int[] ENERGY_CLASS = { 0, 1, 2, 3, 3, 4, 4, 5, 5, 5, 5, 5 };
+
+    private static final short[][][] KF_Y_MODE_PROBS = new short[INTRA_MODES][INTRA_MODES][];
+    private static final short[][] KF_UV_MODE_PROBS = new short[INTRA_MODES][];
+
+    static {
+        for (int i = 0; i < INTRA_MODES; i++) {
+            for (int j = 0; j < INTRA_MODES; j++)
+                KF_Y_MODE_PROBS[i][j] = toShort(Probabilities.kf_y_mode_probs[i][j]);
+            KF_UV_MODE_PROBS[i] = toShort(Probabilities.kf_uv_mode_probs[i]);
+        }
+    }
+
+    private final FrameState fs;
+    private final FrameHeader hdr;
+    private final FrameContext fc;
+    final FrameCounts counts = new FrameCounts();
+    private final int miColStart;
+    private final int miColEnd;
+
+    private final IntraPred intraPred = new IntraPred();
+    private final InterPred interPred = new InterPred();
+    private final InvTransform invTransform = new InvTransform();
+    private final int[] coeffs = new int[1024];
+    private final int[] tokenCache = new int[1024];
+    private final byte[][] leftNonzero = { new byte[16], new byte[8], new byte[8] };
+    private final byte[] leftPartition = new byte[8];
+    private final int[] nearestSub8x8 = new int[2];
+    private final int[] nearSub8x8 = new int[2];
+    private int refMvCount;
+
+    private VPXBooleanDecoder r;
+    // the neighbours of the block being decoded, null when not available
+    private BlockInfo above;
+    private BlockInfo left;
+    // distances of the block to the frame edges in 1/8 pel, negative when the
+    // block is past the edge
+    private int toLeftEdge;
+    private int toRightEdge;
+    private int toTopEdge;
+    private int toBottomEdge;
+
+    public TileDecoder(FrameState fs, int miColStart, int miColEnd) {
+        this.fs = fs;
+        this.hdr = fs.hdr;
+        this.fc = fs.fc;
+        this.miColStart = miColStart;
+        this.miColEnd = miColEnd;
+    }
+
+    /**
+     * Decodes one tile of the column, the superblock rows done are reported to
+     * 'progress' as the number of the superblocks done in this column.
+     */
+    public void decodeTile(ByteBuffer data, int miRowStart, int miRowEnd, RowSync progress) {
+        r = new VPXBooleanDecoder(data, 0);
+        if (r.readBitEq() != 0)
+            throw new RuntimeException("Invalid VP9 tile marker bit");
+        for (int miRow = miRowStart; miRow < miRowEnd; miRow += 8) {
+            for (int i = 0; i < 3; i++)
+                java.util.Arrays.fill(leftNonzero[i], (byte) 0);
+            java.util.Arrays.fill(leftPartition, (byte) 0);
+            for (int miCol = miColStart, sb = 1; miCol < miColEnd; miCol += 8, sb++) {
+                decodePartition(miRow, miCol, BLOCK_64X64, 4);
+                progress.setMbsDone(miRow >> 3, sb);
+            }
+        }
+    }
+
+    private void decodePartition(int miRow, int miCol, int bsize, int n4x4l2) {
+        if (miRow >= fs.miRows || miCol >= fs.miCols)
+            return;
+        int n8x8l2 = n4x4l2 - 1;
+        int num8x8 = 1 << n8x8l2;
+        int hbs = num8x8 >> 1;
+        boolean hasRows = (miRow + hbs) < fs.miRows;
+        boolean hasCols = (miCol + hbs) < fs.miCols;
+
+        int partition = readPartition(miRow, miCol, hasRows, hasCols, n8x8l2);
+        int subsize = SUBSIZE[partition][n8x8l2];
+        if (hbs == 0) {
+            decodeBlock(miRow, miCol, subsize, 1, 1);
+        } else {
+            switch (partition) {
+            case PARTITION_NONE:
+                decodeBlock(miRow, miCol, subsize, n4x4l2, n4x4l2);
+                break;
+            case PARTITION_HORZ:
+                decodeBlock(miRow, miCol, subsize, n4x4l2, n8x8l2);
+                if (hasRows)
+                    decodeBlock(miRow + hbs, miCol, subsize, n4x4l2, n8x8l2);
+                break;
+            case PARTITION_VERT:
+                decodeBlock(miRow, miCol, subsize, n8x8l2, n4x4l2);
+                if (hasCols)
+                    decodeBlock(miRow, miCol + hbs, subsize, n8x8l2, n4x4l2);
+                break;
+            default:
+                decodePartition(miRow, miCol, subsize, n8x8l2);
+                decodePartition(miRow, miCol + hbs, subsize, n8x8l2);
+                decodePartition(miRow + hbs, miCol, subsize, n8x8l2);
+                decodePartition(miRow + hbs, miCol + hbs, subsize, n8x8l2);
+            }
+        }
+        if (bsize == BLOCK_8X8 || partition != PARTITION_SPLIT) {
+            for (int i = 0; i < num8x8; i++) {
+                fs.abovePartition[miCol + i] = (byte) PARTITION_CONTEXT_ABOVE[subsize];
+                leftPartition[(miRow + i) & 7] = (byte) PARTITION_CONTEXT_LEFT[subsize];
+            }
+        }
+    }
+
+    private int readPartition(int miRow, int miCol, boolean hasRows, boolean hasCols, int bsl) {
+        int above = (fs.abovePartition[miCol] >> bsl) & 1;
+        int left = (leftPartition[miRow & 7] >> bsl) & 1;
+        int ctx = (left * 2 + above) + bsl * 4;
+        short[] probs = hdr.isIntraOnly() ? FrameContext.kfPartitionProbs[ctx] : fc.partitionProb[ctx];
+        int p;
+        if (hasRows && hasCols)
+            p = r.readTree(TREE_PARTITION, probs);
+        else if (!hasRows && hasCols)
+            p = r.readBit(probs[1]) == 1 ? PARTITION_SPLIT : PARTITION_HORZ;
+        else if (hasRows && !hasCols)
+            p = r.readBit(probs[2]) == 1 ? PARTITION_SPLIT : PARTITION_VERT;
+        else
+            p = PARTITION_SPLIT;
+        counts.partition[ctx][p]++;
+        return p;
+    }
+
+    /**
+     * @param bwl
+     *            log2 of the block width in 4x4 blocks, the blocks smaller
+     *            than 8x8 count as 8x8
+     */
+    private void decodeBlock(int miRow, int miCol, int bsize, int bwl, int bhl) {
+        int bw = 1 << (bwl - 1);
+        int bh = 1 << (bhl - 1);
+        int xMis = Math.min(bw, fs.miCols - miCol);
+        int yMis = Math.min(bh, fs.miRows - miRow);
+
+        BlockInfo mi = new BlockInfo();
+        mi.sbType = bsize;
+        for (int y = 0; y < yMis; y++)
+            for (int x = 0; x < xMis; x++)
+                fs.mi[(miRow + y) * fs.miStride + miCol + x] = mi;
+        above = miRow > 0 ? fs.mi[(miRow - 1) * fs.miStride + miCol] : null;
+        left = miCol > miColStart ? fs.mi[miRow * fs.miStride + miCol - 1] : null;
+        toLeftEdge = -((miCol * 8) << 3);
+        toRightEdge = ((fs.miCols - bw - miCol) * 8) << 3;
+        toTopEdge = -((miRow * 8) << 3);
+        toBottomEdge = ((fs.miRows - bh - miRow) * 8) << 3;
+
+        if (hdr.isIntraOnly())
+            readIntraFrameModeInfo(mi, miRow, miCol, xMis, yMis);
+        else
+            readInterFrameModeInfo(mi, miRow, miCol, xMis, yMis);
+        for (int y = 0; y < yMis; y++) {
+            int idx = ((miRow + y) * fs.miCols + miCol) << 1;
+            for (int x = 0; x < xMis; x++, idx += 2) {
+                fs.mvRefs[idx] = mi.refFrame[0];
+                fs.mvRefs[idx + 1] = mi.refFrame[1];
+                fs.mvs[idx] = mi.mv[0];
+                fs.mvs[idx + 1] = mi.mv[1];
+            }
+        }
+
+        if (mi.skip)
+            resetSkipContext(miRow, miCol, bwl, bhl);
+        if (!mi.isInter()) {
+            for (int plane = 0; plane < 3; plane++)
+                reconstructIntra(mi, plane, miRow, miCol, bwl, bhl);
+        } else {
+            for (int plane = 0; plane < 3; plane++)
+                predictInter(mi, plane, miRow, miCol, bwl, bhl);
+            if (!mi.skip) {
+                int eobTotal = 0;
+                for (int plane = 0; plane < 3; plane++)
+                    eobTotal += reconstructInter(mi, plane, miRow, miCol, bwl, bhl);
+                // no coefficients, the loop filter skips the inner edges
+                if (bsize >= BLOCK_8X8 && eobTotal == 0)
+                    mi.skip = true;
+            }
+        }
+    }
+
+    private void readIntraFrameModeInfo(BlockInfo mi, int miRow, int miCol, int xMis, int yMis) {
+        mi.segmentId = readIntraSegmentId(miRow, miCol, xMis, yMis);
+        mi.skip = readSkip(mi.segmentId);
+        mi.txSize = readTxSize(mi, true);
+        mi.refFrame[0] = INTRA_FRAME;
+        mi.refFrame[1] = BlockInfo.NONE;
+
+        switch (mi.sbType) {
+        case BLOCK_4X4:
+            for (int i = 0; i < 4; i++)
+                mi.bModes[i] = readKfYMode(mi, i);
+            mi.mode = mi.bModes[3];
+            break;
+        case BLOCK_4X8:
+            mi.bModes[0] = mi.bModes[2] = readKfYMode(mi, 0);
+            mi.bModes[1] = mi.bModes[3] = mi.mode = readKfYMode(mi, 1);
+            break;
+        case BLOCK_8X4:
+            mi.bModes[0] = mi.bModes[1] = readKfYMode(mi, 0);
+            mi.bModes[2] = mi.bModes[3] = mi.mode = readKfYMode(mi, 2);
+            break;
+        default:
+            mi.mode = readKfYMode(mi, 0);
+        }
+        mi.uvMode = r.readTree(TREE_INTRA_MODE, KF_UV_MODE_PROBS[mi.mode]);
+    }
+
+    private int readKfYMode(BlockInfo mi, int b) {
+        int a;
+        if (b == 0 || b == 1)
+            a = above == null || above.isInter() ? DC_PRED : above.getYMode(b + 2);
+        else
+            a = mi.bModes[b - 2];
+        int l;
+        if (b == 0 || b == 2)
+            l = left == null || left.isInter() ? DC_PRED : left.getYMode(b + 1);
+        else
+            l = mi.bModes[b - 1];
+        return r.readTree(TREE_INTRA_MODE, KF_Y_MODE_PROBS[a][l]);
+    }
+
+    private int readIntraSegmentId(int miRow, int miCol, int xMis, int yMis) {
+        if (!hdr.segmentationEnabled)
+            return 0;
+        if (!hdr.segmentationUpdateMap) {
+            copySegmentId(miRow, miCol, xMis, yMis);
+            return 0;
+        }
+        int segmentId = r.readTree(TREE_SEGMENT_ID, hdr.segmentationTreeProbs);
+        setSegmentId(miRow, miCol, xMis, yMis, segmentId);
+        return segmentId;
+    }
+
+    private int readInterSegmentId(BlockInfo mi, int miRow, int miCol, int xMis, int yMis) {
+        if (!hdr.segmentationEnabled)
+            return 0;
+        int predicted = 7;
+        for (int y = 0; y < yMis; y++)
+            for (int x = 0; x < xMis; x++)
+                predicted = Math.min(predicted, fs.prevSegMap[(miRow + y) * fs.miCols + miCol + x]);
+
+        if (!hdr.segmentationUpdateMap) {
+            copySegmentId(miRow, miCol, xMis, yMis);
+            return predicted;
+        }
+        int segmentId;
+        if (hdr.segmentationTemporalUpdate) {
+            int ctx = (above != null && above.segIdPredicted ? 1 : 0) + (left != null && left.segIdPredicted ? 1 : 0);
+            mi.segIdPredicted = r.readBit(hdr.segmentationPredProbs[ctx]) == 1;
+            segmentId = mi.segIdPredicted ? predicted : r.readTree(TREE_SEGMENT_ID, hdr.segmentationTreeProbs);
+        } else {
+            segmentId = r.readTree(TREE_SEGMENT_ID, hdr.segmentationTreeProbs);
+        }
+        setSegmentId(miRow, miCol, xMis, yMis, segmentId);
+        return segmentId;
+    }
+
+    private void copySegmentId(int miRow, int miCol, int xMis, int yMis) {
+        for (int y = 0; y < yMis; y++) {
+            int off = (miRow + y) * fs.miCols + miCol;
+            System.arraycopy(fs.prevSegMap, off, fs.segMap, off, xMis);
+        }
+    }
+
+    private void setSegmentId(int miRow, int miCol, int xMis, int yMis, int segmentId) {
+        for (int y = 0; y < yMis; y++)
+            for (int x = 0; x < xMis; x++)
+                fs.segMap[(miRow + y) * fs.miCols + miCol + x] = (byte) segmentId;
+    }
+
+    private boolean readSkip(int segmentId) {
+        if (hdr.isSegFeatureActive(segmentId, SEG_LVL_SKIP))
+            return true;
+        int ctx = (above != null && above.skip ? 1 : 0) + (left != null && left.skip ? 1 : 0);
+        int skip = r.readBit(fc.skipProbs[ctx]);
+        counts.skip[ctx][skip]++;
+        return skip == 1;
+    }
+
+    private int readTxSize(BlockInfo mi, boolean allowSelect) {
+        int maxTx = maxTxLookup[mi.sbType];
+        if (!allowSelect || hdr.txMode != TX_MODE_SELECT || mi.sbType < BLOCK_8X8)
+            return Math.min(maxTx, tx_mode_to_biggest_tx_size[hdr.txMode]);
+
+        int aboveCtx = above != null && !above.skip ? above.txSize : maxTx;
+        int leftCtx = left != null && !left.skip ? left.txSize : maxTx;
+        if (left == null)
+            leftCtx = aboveCtx;
+        if (above == null)
+            aboveCtx = leftCtx;
+        int ctx = (aboveCtx + leftCtx) > maxTx ? 1 : 0;
+
+        short[] probs;
+        int[] cnt;
+        if (maxTx == TX_8X8) {
+            probs = fc.tx8x8Probs[ctx];
+            cnt = counts.tx8x8[ctx];
+        } else if (maxTx == TX_16X16) {
+            probs = fc.tx16x16Probs[ctx];
+            cnt = counts.tx16x16[ctx];
+        } else {
+            probs = fc.tx32x32Probs[ctx];
+            cnt = counts.tx32x32[ctx];
+        }
+        int txSize = r.readBit(probs[0]);
+        if (txSize != TX_4X4 && maxTx >= TX_16X16) {
+            txSize += r.readBit(probs[1]);
+            if (txSize != TX_8X8 && maxTx >= TX_32X32)
+                txSize += r.readBit(probs[2]);
+        }
+        cnt[txSize]++;
+        return txSize;
+    }
+
+    private void readInterFrameModeInfo(BlockInfo mi, int miRow, int miCol, int xMis, int yMis) {
+        mi.segmentId = readInterSegmentId(mi, miRow, miCol, xMis, yMis);
+        mi.skip = readSkip(mi.segmentId);
+        boolean inter = readIsInter(mi.segmentId);
+        mi.txSize = readTxSize(mi, !mi.skip || !inter);
+        if (inter)
+            readInterBlockModeInfo(mi, miRow, miCol);
+        else
+            readIntraBlockModeInfo(mi);
+    }
+
+    private boolean readIsInter(int segmentId) {
+        if (hdr.isSegFeatureActive(segmentId, SEG_LVL_REF_FRAME))
+            return hdr.featureData[segmentId][SEG_LVL_REF_FRAME] != INTRA_FRAME;
+        int ctx;
+        if (above != null && left != null) {
+            boolean aboveIntra = !above.isInter();
+            boolean leftIntra = !left.isInter();
+            ctx = aboveIntra && leftIntra ? 3 : (aboveIntra || leftIntra ? 1 : 0);
+        } else if (above != null || left != null) {
+            ctx = 2 * ((above != null ? above : left).isInter() ? 0 : 1);
+        } else {
+            ctx = 0;
+        }
+        int isInter = r.readBit(fc.intraInterProb[ctx]);
+        counts.intraInter[ctx][isInter]++;
+        return isInter == 1;
+    }
+
+    private void readIntraBlockModeInfo(BlockInfo mi) {
+        switch (mi.sbType) {
+        case BLOCK_4X4:
+            for (int i = 0; i < 4; i++)
+                mi.bModes[i] = readYMode(0);
+            mi.mode = mi.bModes[3];
+            break;
+        case BLOCK_4X8:
+            mi.bModes[0] = mi.bModes[2] = readYMode(0);
+            mi.bModes[1] = mi.bModes[3] = mi.mode = readYMode(0);
+            break;
+        case BLOCK_8X4:
+            mi.bModes[0] = mi.bModes[1] = readYMode(0);
+            mi.bModes[2] = mi.bModes[3] = mi.mode = readYMode(0);
+            break;
+        default:
+            mi.mode = readYMode(size_group_lookup[mi.sbType]);
+        }
+        mi.uvMode = r.readTree(TREE_INTRA_MODE, fc.uvModeProb[mi.mode]);
+        counts.uvMode[mi.mode][mi.uvMode]++;
+        mi.interpFilter = SWITCHABLE_FILTERS;
+        mi.refFrame[0] = INTRA_FRAME;
+        mi.refFrame[1] = BlockInfo.NONE;
+    }
+
+    private int readYMode(int sizeGroup) {
+        int mode = r.readTree(TREE_INTRA_MODE, fc.yModeProb[sizeGroup]);
+        counts.yMode[sizeGroup][mode]++;
+        return mode;
+    }
+
+    private void readInterBlockModeInfo(BlockInfo mi, int miRow, int miCol) {
+        readRefFrames(mi);
+        boolean compound = mi.isCompound();
+        int bsize = mi.sbType;
+
+        int refs = 1 + (compound ? 1 : 0);
+        int[][] lists = new int[refs][2];
+        int modeCtx = 0;
+        for (int ref = 0; ref < refs; ref++)
+            modeCtx = findMvRefs(mi, mi.refFrame[ref], -1, miRow, miCol, lists[ref]);
+
+        if (hdr.isSegFeatureActive(mi.segmentId, SEG_LVL_SKIP)) {
+            mi.mode = ZEROMV;
+            if (bsize < BLOCK_8X8)
+                throw new RuntimeException("Invalid usage of the segment skip feature on a small block");
+        } else if (bsize >= BLOCK_8X8) {
+            mi.mode = readInterMode(modeCtx);
+        }
+
+        int[] nearest = new int[2];
+        int[] near = new int[2];
+        if (bsize < BLOCK_8X8 || mi.mode != ZEROMV) {
+            for (int ref = 0; ref < refs; ref++) {
+                findBestRefMvs(lists[ref]);
+                nearest[ref] = lists[ref][0];
+                near[ref] = lists[ref][1];
+            }
+        }
+
+        mi.interpFilter = hdr.switchableInterp ? readSwitchableInterpFilter() : hdr.interpFilter;
+
+        if (bsize < BLOCK_8X8) {
+            int num4x4w = bsize == BLOCK_4X4 || bsize == BLOCK_4X8 ? 1 : 2;
+            int num4x4h = bsize == BLOCK_4X4 || bsize == BLOCK_8X4 ? 1 : 2;
+            int bMode = ZEROMV;
+            for (int idy = 0; idy < 2; idy += num4x4h) {
+                for (int idx = 0; idx < 2; idx += num4x4w) {
+                    int j = idy * 2 + idx;
+                    bMode = readInterMode(modeCtx);
+                    if (bMode == NEARESTMV || bMode == NEARMV) {
+                        for (int ref = 0; ref < 1 + (compound ? 1 : 0); ref++)
+                            appendSub8x8MvsForIdx(mi, j, ref, miRow, miCol);
+                    }
+                    int[] bmv = mi.bMvs[j];
+                    assignMv(bMode, bmv, nearest, nearestSub8x8, nearSub8x8, compound);
+                    if (num4x4h == 2) {
+                        mi.bMvs[j + 2][0] = bmv[0];
+                        mi.bMvs[j + 2][1] = bmv[1];
+                    }
+                    if (num4x4w == 2) {
+                        mi.bMvs[j + 1][0] = bmv[0];
+                        mi.bMvs[j + 1][1] = bmv[1];
+                    }
+                }
+            }
+            mi.mode = bMode;
+            mi.mv[0] = mi.bMvs[3][0];
+            mi.mv[1] = mi.bMvs[3][1];
+        } else {
+            assignMv(mi.mode, mi.mv, nearest, nearest, near, compound);
+        }
+    }
+
+    private int readInterMode(int ctx) {
+        int m = r.readTree(TREE_INTER_MODE, fc.interModeProbs[ctx]);
+        counts.interMode[ctx][m]++;
+        return NEARESTMV + m;
+    }
+
+    private int readSwitchableInterpFilter() {
+        int leftType = left != null && left.isInter() ? left.interpFilter : SWITCHABLE_FILTERS;
+        int aboveType = above != null && above.isInter() ? above.interpFilter : SWITCHABLE_FILTERS;
+        int ctx;
+        if (leftType == aboveType)
+            ctx = leftType;
+        else if (leftType == SWITCHABLE_FILTERS)
+            ctx = aboveType;
+        else if (aboveType == SWITCHABLE_FILTERS)
+            ctx = leftType;
+        else
+            ctx = SWITCHABLE_FILTERS;
+        int type = r.readTree(TREE_INTERP_FILTER, fc.switchableInterpProb[ctx]);
+        counts.switchableInterp[ctx][type]++;
+        return type;
+    }
+
+    private void assignMv(int mode, int[] mv, int[] refMv, int[] nearestMv, int[] nearMv, boolean compound) {
+        for (int i = 0; i < 2; i++) {
+            if (i == 1 && !compound)
+                mv[i] = 0;
+            else if (mode == NEWMV)
+                mv[i] = readMv(refMv[i]);
+            else if (mode == NEARESTMV)
+                mv[i] = nearestMv[i];
+            else if (mode == NEARMV)
+                mv[i] = nearMv[i];
+            else
+                mv[i] = 0;
+        }
+    }
+
+    private int readMv(int ref) {
+        int joint = r.readTree(TREE_MV_JOINT, fc.mvJointProbs);
+        boolean useHp = hdr.allowHighPrecisionMv && useMvHp(ref);
+        int diffRow = 0;
+        int diffCol = 0;
+        if (joint == MV_JOINT_HZVNZ || joint == MV_JOINT_HNZVNZ)
+            diffRow = readMvComponent(0, useHp);
+        if (joint == MV_JOINT_HNZVZ || joint == MV_JOINT_HNZVNZ)
+            diffCol = readMvComponent(1, useHp);
+        counts.incMv(diffRow, diffCol);
+        return BlockInfo.mv(BlockInfo.mvRow(ref) + diffRow, BlockInfo.mvCol(ref) + diffCol);
+    }
+
+    private int readMvComponent(int comp, boolean useHp) {
+        int sign = r.readBit(fc.mvSignProb[comp]);
+        int mvClass = r.readTree(MV_CLASS_TREE, fc.mvClassProbs[comp]);
+        int mag;
+        int d;
+        int fr;
+        int hp;
+        if (mvClass == 0) {
+            d = r.readBit(fc.mvClass0Prob[comp][0]);
+            mag = 0;
+            fr = r.readTree(MV_FR_TREE, fc.mvClass0FrProbs[comp][d]);
+            hp = useHp ? r.readBit(fc.mvClass0HpProb[comp]) : 1;
+        } else {
+            d = 0;
+            for (int i = 0; i < mvClass; i++)
+                d |= r.readBit(fc.mvBitsProb[comp][i]) << i;
+            mag = CLASS0_SIZE << (mvClass + 2);
+            fr = r.readTree(MV_FR_TREE, fc.mvFrProbs[comp]);
+            hp = useHp ? r.readBit(fc.mvHpProb[comp]) : 1;
+        }
+        mag += ((d << 3) | (fr << 1) | hp) + 1;
+        return sign == 1 ? -mag : mag;
+    }
+
+    private static boolean useMvHp(int mv) {
+        return (Math.abs(BlockInfo.mvRow(mv)) >> 3) < COMPANDED_MVREF_THRESH
+                && (Math.abs(BlockInfo.mvCol(mv)) >> 3) < COMPANDED_MVREF_THRESH;
+    }
+
+    private void readRefFrames(BlockInfo mi) {
+        if (hdr.isSegFeatureActive(mi.segmentId, SEG_LVL_REF_FRAME)) {
+            mi.refFrame[0] = hdr.featureData[mi.segmentId][SEG_LVL_REF_FRAME];
+            mi.refFrame[1] = BlockInfo.NONE;
+            return;
+        }
+        int mode = hdr.referenceMode;
+        if (mode == REFERENCE_MODE_SELECT) {
+            int ctx = referenceModeContext();
+            mode = r.readBit(fc.compInterProb[ctx]);
+            counts.compInter[ctx][mode]++;
+        }
+        if (mode == COMPOUND_REF) {
+            int idx = hdr.refFrameSignBias[hdr.compFixedRef];
+            int ctx = compRefContext();
+            int bit = r.readBit(fc.compRefProb[ctx]);
+            counts.compRef[ctx][bit]++;
+            mi.refFrame[idx] = hdr.compFixedRef;
+            mi.refFrame[1 - idx] = hdr.compVarRef[bit];
+        } else {
+            int ctx0 = singleRefP1Context();
+            int bit0 = r.readBit(fc.singleRefProb[ctx0][0]);
+            counts.singleRef[ctx0][0][bit0]++;
+            if (bit0 == 1) {
+                int ctx1 = singleRefP2Context();
+                int bit1 = r.readBit(fc.singleRefProb[ctx1][1]);
+                counts.singleRef[ctx1][1][bit1]++;
+                mi.refFrame[0] = bit1 == 1 ? ALTREF_FRAME : GOLDEN_FRAME;
+            } else {
+                mi.refFrame[0] = LAST_FRAME;
+            }
+            mi.refFrame[1] = BlockInfo.NONE;
+        }
+    }
+
+    private int referenceModeContext() {
+        int fixed = hdr.compFixedRef;
+        if (above != null && left != null) {
+            if (!above.isCompound() && !left.isCompound())
+                return (above.refFrame[0] == fixed ? 1 : 0) ^ (left.refFrame[0] == fixed ? 1 : 0);
+            if (!above.isCompound())
+                return 2 + (above.refFrame[0] == fixed || !above.isInter() ? 1 : 0);
+            if (!left.isCompound())
+                return 2 + (left.refFrame[0] == fixed || !left.isInter() ? 1 : 0);
+            return 4;
+        } else if (above != null || left != null) {
+            BlockInfo edge = above != null ? above : left;
+            if (!edge.isCompound())
+                return edge.refFrame[0] == fixed ? 1 : 0;
+            return 3;
+        }
+        return 1;
+    }
+
+    private int compRefContext() {
+        int fixRefIdx = hdr.refFrameSignBias[hdr.compFixedRef];
+        int varRefIdx = 1 - fixRefIdx;
+        int var0 = hdr.compVarRef[0];
+        int var1 = hdr.compVarRef[1];
+        if (above != null && left != null) {
+            boolean aboveIntra = !above.isInter();
+            boolean leftIntra = !left.isInter();
+            if (aboveIntra && leftIntra)
+                return 2;
+            if (aboveIntra || leftIntra) {
+                BlockInfo edge = aboveIntra ? left : above;
+                if (!edge.isCompound())
+                    return 1 + 2 * (edge.refFrame[0] != var1 ? 1 : 0);
+                return 1 + 2 * (edge.refFrame[varRefIdx] != var1 ? 1 : 0);
+            }
+            boolean lSg = !left.isCompound();
+            boolean aSg = !above.isCompound();
+            int vrfa = aSg ? above.refFrame[0] : above.refFrame[varRefIdx];
+            int vrfl = lSg ? left.refFrame[0] : left.refFrame[varRefIdx];
+            if (vrfa == vrfl && var1 == vrfa)
+                return 0;
+            if (lSg && aSg) {
+                if ((vrfa == hdr.compFixedRef && vrfl == var0) || (vrfl == hdr.compFixedRef && vrfa == var0))
+                    return 4;
+                if (vrfa == vrfl)
+                    return 3;
+                return 1;
+            }
+            if (lSg || aSg) {
+                int vrfc = lSg ? vrfa : vrfl;
+                int rfs = aSg ? vrfa : vrfl;
+                if (vrfc == var1 && rfs != var1)
+                    return 1;
+                if (rfs == var1 && vrfc != var1)
+                    return 2;
+                return 4;
+            }
+            return vrfa == vrfl ? 4 : 2;
+        } else if (above != null || left != null) {
+            BlockInfo edge = above != null ? above : left;
+            if (!edge.isInter())
+                return 2;
+            if (edge.isCompound())
+                return 4 * (edge.refFrame[varRefIdx] != var1 ? 1 : 0);
+            return 3 * (edge.refFrame[0] != var1 ? 1 : 0);
+        }
+        return 2;
+    }
+
+    private int singleRefP1Context() {
+        if (above != null && left != null) {
+            boolean aboveIntra = !above.isInter();
+            boolean leftIntra = !left.isInter();
+            if (aboveIntra && leftIntra)
+                return 2;
+            if (aboveIntra || leftIntra) {
+                BlockInfo edge = aboveIntra ? left : above;
+                if (!edge.isCompound())
+                    return 4 * (edge.refFrame[0] == LAST_FRAME ? 1 : 0);
+                return 1 + (edge.refFrame[0] == LAST_FRAME || edge.refFrame[1] == LAST_FRAME ? 1 : 0);
+            }
+            int above0 = above.refFrame[0];
+            int above1 = above.refFrame[1];
+            int left0 = left.refFrame[0];
+            int left1 = left.refFrame[1];
+            if (above.isCompound() && left.isCompound())
+                return 1 + (above0 == LAST_FRAME || above1 == LAST_FRAME || left0 == LAST_FRAME
+                        || left1 == LAST_FRAME ? 1 : 0);
+            if (above.isCompound() || left.isCompound()) {
+                int rfs = !above.isCompound() ? above0 : left0;
+                int crf1 = above.isCompound() ? above0 : left0;
+                int crf2 = above.isCompound() ? above1 : left1;
+                if (rfs == LAST_FRAME)
+                    return 3 + (crf1 == LAST_FRAME || crf2 == LAST_FRAME ? 1 : 0);
+                return crf1 == LAST_FRAME || crf2 == LAST_FRAME ? 1 : 0;
+            }
+            return 2 * (above0 == LAST_FRAME ? 1 : 0) + 2 * (left0 == LAST_FRAME ? 1 : 0);
+        } else if (above != null || left != null) {
+            BlockInfo edge = above != null ? above : left;
+            if (!edge.isInter())
+                return 2;
+            if (!edge.isCompound())
+                return 4 * (edge.refFrame[0] == LAST_FRAME ? 1 : 0);
+            return 1 + (edge.refFrame[0] == LAST_FRAME || edge.refFrame[1] == LAST_FRAME ? 1 : 0);
+        }
+        return 2;
+    }
+
+    private int singleRefP2Context() {
+        if (above != null && left != null) {
+            boolean aboveIntra = !above.isInter();
+            boolean leftIntra = !left.isInter();
+            if (aboveIntra && leftIntra)
+                return 2;
+            if (aboveIntra || leftIntra) {
+                BlockInfo edge = aboveIntra ? left : above;
+                if (!edge.isCompound()) {
+                    if (edge.refFrame[0] == LAST_FRAME)
+                        return 3;
+                    return 4 * (edge.refFrame[0] == GOLDEN_FRAME ? 1 : 0);
+                }
+                return 1 + 2 * (edge.refFrame[0] == GOLDEN_FRAME || edge.refFrame[1] == GOLDEN_FRAME ? 1 : 0);
+            }
+            int above0 = above.refFrame[0];
+            int above1 = above.refFrame[1];
+            int left0 = left.refFrame[0];
+            int left1 = left.refFrame[1];
+            if (above.isCompound() && left.isCompound()) {
+                if (above0 == left0 && above1 == left1)
+                    return 3 * (above0 == GOLDEN_FRAME || above1 == GOLDEN_FRAME || left0 == GOLDEN_FRAME
+                            || left1 == GOLDEN_FRAME ? 1 : 0);
+                return 2;
+            }
+            if (above.isCompound() || left.isCompound()) {
+                int rfs = !above.isCompound() ? above0 : left0;
+                int crf1 = above.isCompound() ? above0 : left0;
+                int crf2 = above.isCompound() ? above1 : left1;
+                int golden = crf1 == GOLDEN_FRAME || crf2 == GOLDEN_FRAME ? 1 : 0;
+                if (rfs == GOLDEN_FRAME)
+                    return 3 + golden;
+                if (rfs == ALTREF_FRAME)
+                    return golden;
+                return 1 + 2 * golden;
+            }
+            if (above0 == LAST_FRAME && left0 == LAST_FRAME)
+                return 3;
+            if (above0 == LAST_FRAME || left0 == LAST_FRAME) {
+                int edge0 = above0 == LAST_FRAME ? left0 : above0;
+                return 4 * (edge0 == GOLDEN_FRAME ? 1 : 0);
+            }
+            return 2 * (above0 == GOLDEN_FRAME ? 1 : 0) + 2 * (left0 == GOLDEN_FRAME ? 1 : 0);
+        } else if (above != null || left != null) {
+            BlockInfo edge = above != null ? above : left;
+            if (!edge.isInter() || (edge.refFrame[0] == LAST_FRAME && !edge.isCompound()))
+                return 2;
+            if (!edge.isCompound())
+                return 4 * (edge.refFrame[0] == GOLDEN_FRAME ? 1 : 0);
+            return 3 * (edge.refFrame[0] == GOLDEN_FRAME || edge.refFrame[1] == GOLDEN_FRAME ? 1 : 0);
+        }
+        return 2;
+    }
+
+    private boolean isInside(int miRow, int miCol, int[] pos) {
+        int row = miRow + pos[0];
+        int col = miCol + pos[1];
+        return row >= 0 && col >= miColStart && row < fs.miRows && col < miColEnd;
+    }
+
+    /**
+     * Adds a candidate to the motion vector list unless it repeats the first
+     * one, true when the list is full.
+     */
+    private boolean addMv(int[] list, int mv) {
+        if (refMvCount == 0) {
+            list[refMvCount++] = mv;
+            return false;
+        }
+        if (mv != list[0]) {
+            list[1] = mv;
+            refMvCount = 2;
+            return true;
+        }
+        return false;
+    }
+
+    private int scaleMv(int mv, int candRef, int refFrame) {
+        if (hdr.refFrameSignBias[candRef] != hdr.refFrameSignBias[refFrame])
+            return BlockInfo.mv(-BlockInfo.mvRow(mv), -BlockInfo.mvCol(mv));
+        return mv;
+    }
+
+    /**
+     * Collects the two motion vector candidates of the block (or of its 4x4
+     * block 'block') from the neighbours and the previous frame.
+     *
+     * @return the inter mode context of the block
+     */
+    private int findMvRefs(BlockInfo mi, int refFrame, int block, int miRow, int miCol, int[] list) {
+        int[] search = mv_ref_blocks[mi.sbType];
+        list[0] = 0;
+        list[1] = 0;
+        refMvCount = 0;
+        int contextCounter = 0;
+        boolean differentRefFound = false;
+        int prev = ((miRow * fs.miCols) + miCol) << 1;
+
+        search: {
+            for (int i = 0; i < 2; i++) {
+                int[] pos = MV_REF_POS[search[i]];
+                if (!isInside(miRow, miCol, pos))
+                    continue;
+                BlockInfo cand = fs.mi[(miRow + pos[0]) * fs.miStride + miCol + pos[1]];
+                contextCounter += MODE_2_COUNTER[cand.mode];
+                differentRefFound = true;
+                if (cand.refFrame[0] == refFrame) {
+                    if (addMv(list, subBlockMv(cand, 0, pos[1], block)))
+                        break search;
+                } else if (cand.refFrame[1] == refFrame) {
+                    if (addMv(list, subBlockMv(cand, 1, pos[1], block)))
+                        break search;
+                }
+            }
+            for (int i = 2; i < MVREF_NEIGHBOURS; i++) {
+                int[] pos = MV_REF_POS[search[i]];
+                if (!isInside(miRow, miCol, pos))
+                    continue;
+                BlockInfo cand = fs.mi[(miRow + pos[0]) * fs.miStride + miCol + pos[1]];
+                differentRefFound = true;
+                if (cand.refFrame[0] == refFrame) {
+                    if (addMv(list, cand.mv[0]))
+                        break search;
+                } else if (cand.refFrame[1] == refFrame) {
+                    if (addMv(list, cand.mv[1]))
+                        break search;
+                }
+            }
+            if (fs.usePrevFrameMvs) {
+                if (fs.prevMvRefs[prev] == refFrame) {
+                    if (addMv(list, fs.prevMvs[prev]))
+                        break search;
+                } else if (fs.prevMvRefs[prev + 1] == refFrame) {
+                    if (addMv(list, fs.prevMvs[prev + 1]))
+                        break search;
+                }
+            }
+            if (differentRefFound) {
+                for (int i = 0; i < MVREF_NEIGHBOURS; i++) {
+                    int[] pos = MV_REF_POS[search[i]];
+                    if (!isInside(miRow, miCol, pos))
+                        continue;
+                    BlockInfo cand = fs.mi[(miRow + pos[0]) * fs.miStride + miCol + pos[1]];
+                    if (!cand.isInter())
+                        continue;
+                    if (cand.refFrame[0] != refFrame) {
+                        if (addMv(list, scaleMv(cand.mv[0], cand.refFrame[0], refFrame)))
+                            break search;
+                    }
+                    if (cand.isCompound() && cand.refFrame[1] != refFrame && cand.mv[1] != cand.mv[0]) {
+                        if (addMv(list, scaleMv(cand.mv[1], cand.refFrame[1], refFrame)))
+                            break search;
+                    }
+                }
+            }
+            if (fs.usePrevFrameMvs) {
+                int ref0 = fs.prevMvRefs[prev];
+                int ref1 = fs.prevMvRefs[prev + 1];
+                if (ref0 != refFrame && ref0 > INTRA_FRAME) {
+                    if (addMv(list, scaleMv(fs.prevMvs[prev], ref0, refFrame)))
+                        break search;
+                }
+                if (ref1 > INTRA_FRAME && ref1 != refFrame && fs.prevMvs[prev + 1] != fs.prevMvs[prev]) {
+                    if (addMv(list, scaleMv(fs.prevMvs[prev + 1], ref1, refFrame)))
+                        break search;
+                }
+            }
+        }
+
+        for (int i = 0; i < MAX_MV_REF_CANDIDATES; i++)
+            list[i] = clampMv(list[i], MV_BORDER);
+        return COUNTER_TO_CONTEXT[contextCounter];
+    }
+
+    private static int subBlockMv(BlockInfo cand, int which, int searchCol, int block) {
+        if (block >= 0 && cand.sbType < BLOCK_8X8)
+            return cand.bMvs[IDX_N_COLUMN_TO_SUBBLOCK[block][searchCol == 0 ? 1 : 0]][which];
+        return cand.mv[which];
+    }
+
+    private int clampMv(int mv, int border) {
+        int row = BlockInfo.mvRow(mv);
+        int col = BlockInfo.mvCol(mv);
+        col = Math.max(toLeftEdge - border, Math.min(toRightEdge + border, col));
+        row = Math.max(toTopEdge - border, Math.min(toBottomEdge + border, row));
+        return BlockInfo.mv(row, col);
+    }
+
+    private void findBestRefMvs(int[] list) {
+        for (int i = 0; i < MAX_MV_REF_CANDIDATES; i++) {
+            int mv = list[i];
+            if (!(hdr.allowHighPrecisionMv && useMvHp(mv))) {
+                int row = BlockInfo.mvRow(mv);
+                int col = BlockInfo.mvCol(mv);
+                if ((row & 1) != 0)
+                    row += row > 0 ? -1 : 1;
+                if ((col & 1) != 0)
+                    col += col > 0 ? -1 : 1;
+                mv = BlockInfo.mv(row, col);
+            }
+            list[i] = clampMv(mv, MV_MARGIN);
+        }
+    }
+
+    private void appendSub8x8MvsForIdx(BlockInfo mi, int block, int ref, int miRow, int miCol) {
+        int[] list = new int[2];
+        findMvRefs(mi, mi.refFrame[ref], block, miRow, miCol, list);
+        int nearest;
+        int near = 0;
+        switch (block) {
+        case 0:
+            nearest = list[0];
+            near = list[1];
+            break;
+        case 1:
+        case 2:
+            nearest = mi.bMvs[0][ref];
+            for (int n = 0; n < MAX_MV_REF_CANDIDATES; n++) {
+                if (nearest != list[n]) {
+                    near = list[n];
+                    break;
+                }
+            }
+            break;
+        default:
+            int[] candidates = { mi.bMvs[1][ref], mi.bMvs[0][ref], list[0], list[1] };
+            nearest = mi.bMvs[2][ref];
+            for (int n = 0; n < candidates.length; n++) {
+                if (nearest != candidates[n]) {
+                    near = candidates[n];
+                    break;
+                }
+            }
+        }
+        nearestSub8x8[ref] = nearest;
+        nearSub8x8[ref] = near;
+    }
+
+    private void resetSkipContext(int miRow, int miCol, int bwl, int bhl) {
+        for (int plane = 0; plane < 3; plane++) {
+            int ss = plane == 0 ? 0 : 1;
+            int n4w = (1 << bwl) >> ss;
+            int n4h = (1 << bhl) >> ss;
+            int ax = (miCol << 1) >> ss;
+            int ly = ((miRow & 7) << 1) >> ss;
+            for (int i = 0; i < n4w; i++)
+                fs.aboveNonzero[plane][ax + i] = 0;
+            for (int i = 0; i < n4h; i++)
+                leftNonzero[plane][ly + i] = 0;
+        }
+    }
+
+    private void reconstructIntra(BlockInfo mi, int plane, int miRow, int miCol, int bwl, int bhl) {
+        int ss = plane == 0 ? 0 : 1;
+        int txSize = plane == 0 ? mi.txSize : uv_txsize_lookup[mi.sbType][mi.txSize][1][1];
+        int n4w = (1 << bwl) >> ss;
+        int n4h = (1 << bhl) >> ss;
+        int maxW = n4w + (toRightEdge >= 0 ? 0 : toRightEdge >> (5 + ss));
+        int maxH = n4h + (toBottomEdge >= 0 ? 0 : toBottomEdge >> (5 + ss));
+        int step = 1 << txSize;
+
+        Picture cur = fs.cur;
+        byte[] buf = cur.getPlaneData(plane);
+        int stride = cur.getPlaneWidth(plane);
+        int frameW = (fs.miCols << 3) >> ss;
+        int frameH = (fs.miRows << 3) >> ss;
+        int bx = (miCol << 3) >> ss;
+        int by = (miRow << 3) >> ss;
+
+        for (int row = 0; row < maxH; row += step) {
+            for (int col = 0; col < maxW; col += step) {
+                int mode;
+                if (plane != 0)
+                    mode = mi.uvMode;
+                else if (mi.sbType < BLOCK_8X8)
+                    mode = mi.bModes[(row << 1) + col];
+                else
+                    mode = mi.mode;
+                int x0 = bx + (col << 2);
+                int y0 = by + (row << 2);
+                intraPred.predict(mode, txSize, buf, stride, x0, y0, frameW, frameH, row > 0 || above != null,
+                        col > 0 || left != null, (col + step) < n4w);
+                if (!mi.skip) {
+                    int txType = plane != 0 || hdr.lossless ? DCT_DCT : intra_mode_to_tx_type_lookup[mode];
+                    int eob = decodeBlockTokens(mi, plane, txSize, txType, miRow, miCol, row, col, maxW, maxH);
+                    if (eob > 0)
+                        inverseTransform(txSize, txType, eob, buf, y0 * stride + x0, stride);
+                }
+            }
+        }
+    }
+
+    private int reconstructInter(BlockInfo mi, int plane, int miRow, int miCol, int bwl, int bhl) {
+        int ss = plane == 0 ? 0 : 1;
+        int txSize = plane == 0 ? mi.txSize : uv_txsize_lookup[mi.sbType][mi.txSize][1][1];
+        int n4w = (1 << bwl) >> ss;
+        int n4h = (1 << bhl) >> ss;
+        int maxW = n4w + (toRightEdge >= 0 ? 0 : toRightEdge >> (5 + ss));
+        int maxH = n4h + (toBottomEdge >= 0 ? 0 : toBottomEdge >> (5 + ss));
+        int step = 1 << txSize;
+
+        Picture cur = fs.cur;
+        byte[] buf = cur.getPlaneData(plane);
+        int stride = cur.getPlaneWidth(plane);
+        int bx = (miCol << 3) >> ss;
+        int by = (miRow << 3) >> ss;
+
+        int eobTotal = 0;
+        for (int row = 0; row < maxH; row += step) {
+            for (int col = 0; col < maxW; col += step) {
+                int eob = decodeBlockTokens(mi, plane, txSize, DCT_DCT, miRow, miCol, row, col, maxW, maxH);
+                if (eob > 0) {
+                    int x0 = bx + (col << 2);
+                    int y0 = by + (row << 2);
+                    inverseTransform(txSize, DCT_DCT, eob, buf, y0 * stride + x0, stride);
+                }
+                eobTotal += eob;
+            }
+        }
+        return eobTotal;
+    }
+
+    private void inverseTransform(int txSize, int txType, int eob, byte[] buf, int off, int stride) {
+        invTransform.inverse(coeffs, txSize, txSize == TX_32X32 ? DCT_DCT : txType, hdr.lossless, buf, off, stride);
+        int n = 16 << (txSize << 1);
+        if (eob == n) {
+            java.util.Arrays.fill(coeffs, 0, n, 0);
+        } else {
+            int[] scan = Scan.vp9_scan_orders[txSize][txType][0];
+            for (int i = 0; i < eob; i++)
+                coeffs[scan[i]] = 0;
+        }
+    }
+
+    /**
+     * Reads the coefficient tokens of a transform block into 'coeffs',
+     * dequantized, and updates the non-zero contexts.
+     *
+     * @return the number of the coefficients read in the scan order
+     */
+    private int decodeBlockTokens(BlockInfo mi, int plane, int txSize, int txType, int miRow, int miCol, int row,
+            int col, int maxW, int maxH) {
+        int ss = plane == 0 ? 0 : 1;
+        byte[] a = fs.aboveNonzero[plane];
+        byte[] l = leftNonzero[plane];
+        int ax = ((miCol << 1) >> ss) + col;
+        int ly = (((miRow & 7) << 1) >> ss) + row;
+        int step = 1 << txSize;
+
+        int aNz = 0;
+        int lNz = 0;
+        for (int i = 0; i < step; i++) {
+            aNz |= a[ax + i];
+            lNz |= l[ly + i];
+        }
+        int ctx = aNz + lNz;
+
+        int[][] scanOrder = Scan.vp9_scan_orders[txSize][txType];
+        int eob = decodeCoefs(plane, txSize, mi.isInter(), mi.segmentId, scanOrder[0], scanOrder[2], ctx);
+
+        byte nz = (byte) (eob > 0 ? 1 : 0);
+        int aLimit = toRightEdge < 0 ? maxW - col : step;
+        int lLimit = toBottomEdge < 0 ? maxH - row : step;
+        for (int i = 0; i < step; i++) {
+            a[ax + i] = i < aLimit ? nz : 0;
+            l[ly + i] = i < lLimit ? nz : 0;
+        }
+        return eob;
+    }
+
+    private int decodeCoefs(int plane, int txSize, boolean inter, int segmentId, int[] scan, int[] nb, int ctx) {
+        int type = plane > 0 ? 1 : 0;
+        int ref = inter ? 1 : 0;
+        short[][][] probs = fc.coefProbs[txSize][type][ref];
+        int[][][] coefCounts = counts.coef[txSize][type][ref];
+        int[][] eobBranch = counts.eobBranch[txSize][type][ref];
+        int[] bands = txSize == TX_4X4 ? coefband_4x4 : coefband_8x8plus;
+        int[] dq = plane == 0 ? fs.yDequant[segmentId] : fs.uvDequant[segmentId];
+        int dqShift = txSize == TX_32X32 ? 1 : 0;
+        int maxEob = 16 << (txSize << 1);
+        int[] tokenCache = this.tokenCache;
+        int[] coeffs = this.coeffs;
+
+        int c = 0;
+        int dqv = dq[0];
+        while (c < maxEob) {
+            int band = bands[c];
+            short[] prob = probs[band][ctx];
+            eobBranch[band][ctx]++;
+            if (r.readBit(prob[0]) == 0) {
+                coefCounts[band][ctx][FrameCounts.EOB_MODEL_TOKEN]++;
+                break;
+            }
+            while (r.readBit(prob[1]) == 0) {
+                coefCounts[band][ctx][ZERO_TOKEN]++;
+                dqv = dq[1];
+                tokenCache[scan[c]] = 0;
+                ++c;
+                if (c >= maxEob)
+                    return c;
+                ctx = (1 + tokenCache[nb[2 * c]] + tokenCache[nb[2 * c + 1]]) >> 1;
+                band = bands[c];
+                prob = probs[band][ctx];
+            }
+            int token;
+            int val;
+            if (r.readBit(prob[2]) == 0) {
+                coefCounts[band][ctx][ONE_TOKEN]++;
+                token = ONE_TOKEN;
+                val = 1;
+            } else {
+                coefCounts[band][ctx][TWO_TOKEN]++;
+                token = r.readTree(TOKEN_TREE, PARETO_TABLE[prob[2] - 1]);
+                if (token < DCT_VAL_CAT1) {
+                    val = token;
+                } else {
+                    int[] eb = extra_bits[token];
+                    int[] catProbs = cat_probs[eb[0]];
+                    val = 0;
+                    for (int i = 0; i < eb[1]; i++)
+                        val = (val << 1) | r.readBit(catProbs[i]);
+                    val += eb[2];
+                }
+            }
+            int v = (val * dqv) >> dqShift;
+            coeffs[scan[c]] = r.readBitEq() == 1 ? -v : v;
+            tokenCache[scan[c]] = ENERGY_CLASS[token];
+            ++c;
+            ctx = (1 + tokenCache[nb[2 * c]] + tokenCache[nb[2 * c + 1]]) >> 1;
+            dqv = dq[1];
+        }
+        return c;
+    }
+
+    private void predictInter(BlockInfo mi, int plane, int miRow, int miCol, int bwl, int bhl) {
+        int ss = plane == 0 ? 0 : 1;
+        int n4w = (1 << bwl) >> ss;
+        int n4h = (1 << bhl) >> ss;
+        int bx = (miCol << 3) >> ss;
+        int by = (miRow << 3) >> ss;
+        Picture cur = fs.cur;
+        byte[] dst = cur.getPlaneData(plane);
+        int dstStride = cur.getPlaneWidth(plane);
+
+        for (int ref = 0; ref < 1 + (mi.isCompound() ? 1 : 0); ref++) {
+            int refFrame = mi.refFrame[ref];
+            Picture refPic = fs.refs[refFrame];
+            if (refPic == null)
+                throw new RuntimeException("VP9 block refers to a missing reference frame");
+            if (fs.refWidths[refFrame] != hdr.width || fs.refHeights[refFrame] != hdr.height)
+                throw new RuntimeException("Scaled VP9 reference frames are not supported");
+            byte[] src = refPic.getPlaneData(plane);
+            int srcStride = refPic.getPlaneWidth(plane);
+            int refW = (hdr.width + ss) >> ss;
+            int refH = (hdr.height + ss) >> ss;
+            boolean average = ref == 1;
+
+            if (mi.sbType < BLOCK_8X8) {
+                for (int y = 0; y < n4h; y++) {
+                    for (int x = 0; x < n4w; x++) {
+                        int mv = plane == 0 ? mi.bMvs[y * 2 + x][ref] : averageMv(mi, ref);
+                        int px = bx + 4 * x;
+                        int py = by + 4 * y;
+                        interPred.predict(src, srcStride, refW, refH, px, py, (BlockInfo.mvRow(mv) * 2) >> ss,
+                                (BlockInfo.mvCol(mv) * 2) >> ss, 4, 4, mi.interpFilter, dst, py * dstStride + px,
+                                dstStride, average);
+                    }
+                }
+            } else {
+                int mv = mi.mv[ref];
+                interPred.predict(src, srcStride, refW, refH, bx, by, (BlockInfo.mvRow(mv) * 2) >> ss,
+                        (BlockInfo.mvCol(mv) * 2) >> ss, n4w << 2, n4h << 2, mi.interpFilter, dst,
+                        by * dstStride + bx, dstStride, average);
+            }
+        }
+    }
+
+    /**
+     * The motion vector of the 4x4 chroma block of a sub8x8 block, the average
+     * of the four luma ones
+     */
+    private static int averageMv(BlockInfo mi, int ref) {
+        int row = 0;
+        int col = 0;
+        for (int i = 0; i < 4; i++) {
+            row += BlockInfo.mvRow(mi.bMvs[i][ref]);
+            col += BlockInfo.mvCol(mi.bMvs[i][ref]);
+        }
+        return BlockInfo.mv(roundQ4(row), roundQ4(col));
+    }
+
+    private static int roundQ4(int v) {
+        return (v < 0 ? v - 2 : v + 2) / 4;
+    }
+
+    private static short[] toShort(int[] a) {
+        short[] s = new short[a.length];
+        for (int i = 0; i < a.length; i++)
+            s[i] = (short) a[i];
+        return s;
+    }
+}
@@ -0,0 +1,406 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.KEY_FRAME;
+import static org.jcodec.codecs.vpx.vp9.Consts.LAST_FRAME;
+import static org.jcodec.codecs.vpx.vp9.Consts.NUM_REF_FRAMES;
+import static org.jcodec.codecs.vpx.vp9.Consts.REFS_PER_FRAME;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.jcodec.codecs.vpx.vp8.data.RowSync;
+import org.jcodec.codecs.vpx.vp8.data.Wavefront;
+import org.jcodec.common.UsedViaReflection;
+import org.jcodec.common.VideoCodecMeta;
+import org.jcodec.common.VideoDecoder;
+import org.jcodec.common.WorkerPool;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.jcodec.common.model.Rect;
+import org.jcodec.common.model.Size;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * VP9 profile 0 (8 bit, 4:2:0) decoder.
+ *
+ * The tile columns of a frame are decoded in parallel, one task per tile
+ * column, and the loop filter runs on the superblock rows as soon as the
+ * superblocks it touches are decoded. Scaled reference frames are not
+ * supported.
+ *
+ * @author The JCodec project
+ *
+ */
+public class VP9Decoder extends VideoDecoder {
+    private static final int FRAME_CONTEXTS = 4;
+
+    private final Picture[] refSlots = new Picture[NUM_REF_FRAMES];
+    private final int[] slotWidths = new int[NUM_REF_FRAMES];
+    private final int[] slotHeights = new int[NUM_REF_FRAMES];
+    private final FrameContext[] contexts = new FrameContext[FRAME_CONTEXTS];
+    private final FrameState fs = new FrameState();
+    private final List<Picture> buffers = new ArrayList<Picture>();
+
+    private FrameHeader prevHdr = new FrameHeader();
+    private boolean decodedAny;
+    private int lastWidth;
+    private int lastHeight;
+    private boolean lastShowFrame;
+    private int lastFrameType = KEY_FRAME;
+
+    // the size of the last picture returned by decodeOne
+    private int outWidth;
+    private int outHeight;
+
+    private ExecutorService tp;
+    private boolean threaded;
+
+    public VP9Decoder() {
+        for (int i = 0; i < FRAME_CONTEXTS; i++)
+            contexts[i] = FrameContext.createDefault();
+        this.threaded = Runtime.getRuntime().availableProcessors() > 1;
+        tp = WorkerPool.getInstance().newJob(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The most tile columns and loop filter rows processed at once, 1 decodes
+     * the frames on the calling thread.
+     *
+     * @param maxThreads
+     */
+    public void setMaxThreads(int maxThreads) {
+        tp = WorkerPool.getInstance().newJob(maxThreads);
+        threaded = maxThreads > 1;
+    }
+
+    @Override
+    public Picture decodeFrame(ByteBuffer data, byte[][] buffer) {
+        Picture shown = null;
+        int width = 0;
+        int height = 0;
+        for (ByteBuffer frame : splitSuperframe(data)) {
+            Picture pic = decodeOne(frame);
+            if (pic != null) {
+                shown = pic;
+                width = outWidth;
+                height = outHeight;
+            }
+        }
+        if (shown == null)
+            return null;
+        return output(shown, width, height, buffer);
+    }
+
+    /**
+     * A superframe packs several frames, usually a hidden one followed by a
+     * shown one, and ends with an index of their sizes.
+     */
+    static List<ByteBuffer> splitSuperframe(ByteBuffer data) {
+        List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        int pos = data.position();
+        int size = data.remaining();
+        int marker = size > 0 ? data.get(pos + size - 1) & 0xff : 0;
+        if ((marker & 0xe0) == 0xc0) {
+            int count = (marker & 7) + 1;
+            int mag = ((marker >> 3) & 3) + 1;
+            int indexSize = 2 + mag * count;
+            if (size >= indexSize && (data.get(pos + size - indexSize) & 0xff) == marker) {
+                int idx = pos + size - indexSize + 1;
+                int off = pos;
+                for (int i = 0; i < count; i++) {
+                    int frameSize = 0;
+                    for (int b = 0; b < mag; b++)
+                        frameSize |= (data.get(idx++) & 0xff) << (b << 3);
+                    if (frameSize > 0) {
+                        ByteBuffer frame = data.duplicate();
+                        frame.position(off);
+                        frame.limit(off + frameSize);
+                        frames.add(frame);
+                    }
+                    off += frameSize;
+                }
+                return frames;
+            }
+        }
+        frames.add(data.duplicate());
+        return frames;
+    }
+
+    /**
+     * Decodes one frame
+     *
+     * @return the picture to show or null if the frame is hidden
+     */
+    private Picture decodeOne(ByteBuffer bb) {
+        FrameHeader hdr = new FrameHeader(prevHdr);
+        hdr.readUncompressedHeader(bb, slotWidths, slotHeights);
+        if (hdr.showExistingFrame) {
+            Picture pic = refSlots[hdr.frameToShowMapIdx];
+            if (pic == null)
+                throw new RuntimeException("VP9 frame shows an empty reference slot");
+            outWidth = slotWidths[hdr.frameToShowMapIdx];
+            outHeight = slotHeights[hdr.frameToShowMapIdx];
+            return pic;
+        }
+        int width = hdr.getWidth();
+        int height = hdr.getHeight();
+
+        if (!hdr.isIntraOnly()) {
+            for (int i = 0; i < REFS_PER_FRAME; i++) {
+                int slot = hdr.refFrameIdx[i];
+                if (refSlots[slot] == null)
+                    throw new RuntimeException("VP9 frame refers to an empty reference slot");
+                fs.refs[LAST_FRAME + i] = refSlots[slot];
+                fs.refWidths[LAST_FRAME + i] = slotWidths[slot];
+                fs.refHeights[LAST_FRAME + i] = slotHeights[slot];
+            }
+        }
+
+        if (hdr.resetProbs) {
+            if (hdr.isKeyFrame() || hdr.errorResilientMode || hdr.resetFrameContext == 3) {
+                for (int i = 0; i < FRAME_CONTEXTS; i++)
+                    contexts[i] = FrameContext.createDefault();
+            } else if (hdr.resetFrameContext == 2) {
+                contexts[hdr.frameContextIdx] = FrameContext.createDefault();
+            }
+            hdr.frameContextIdx = 0;
+        }
+        FrameContext fc = contexts[hdr.frameContextIdx].copy();
+        hdr.readCompressedHeader(NIOUtils.read(bb, hdr.compressedHeaderSize), fc);
+
+        Picture cur = getBuffer(width, height);
+        fs.init(hdr, fc, cur);
+        if (hdr.resetProbs)
+            fs.clearSegMaps();
+        fs.usePrevFrameMvs = decodedAny && !hdr.errorResilientMode && width == lastWidth && height == lastHeight
+                && lastShowFrame;
+
+        FrameCounts counts = decodeTiles(hdr, bb);
+
+        if (!hdr.errorResilientMode && !hdr.frameParallelDecodingMode) {
+            FrameContext pre = contexts[hdr.frameContextIdx];
+            fc.adaptCoefProbs(pre, counts, hdr.txMode, !hdr.isIntraOnly() && lastFrameType == KEY_FRAME);
+            if (!hdr.isIntraOnly()) {
+                fc.adaptModeProbs(pre, counts, hdr.switchableInterp, hdr.txMode);
+                fc.adaptMvProbs(pre, counts, hdr.allowHighPrecisionMv);
+            }
+        }
+        if (hdr.refreshFrameContext)
+            contexts[hdr.frameContextIdx] = fc;
+
+        for (int i = 0; i < NUM_REF_FRAMES; i++) {
+            if ((hdr.refreshFrameFlags & (1 << i)) != 0) {
+                refSlots[i] = cur;
+                slotWidths[i] = width;
+                slotHeights[i] = height;
+            }
+        }
+        fs.swapPrevious(hdr.segmentationEnabled);
+        decodedAny = true;
+        lastWidth = width;
+        lastHeight = height;
+        lastShowFrame = hdr.showFrame;
+        lastFrameType = hdr.frameType;
+        prevHdr = hdr;
+
+        outWidth = width;
+        outHeight = height;
+        return hdr.showFrame ? cur : null;
+    }
+
+    /**
+     * A picture buffer for the new frame that none of the reference slots
+     * holds, the buffers are 64 pixel aligned so that the blocks never go past
+     * them.
+     */
+    private Picture getBuffer(int width, int height) {
+        int alignedW = (width + 63) & ~63;
+        int alignedH = (height + 63) & ~63;
+        for (Picture pic : buffers) {
+            if (pic.getWidth() == alignedW && pic.getHeight() == alignedH && !isReferenced(pic))
+                return pic;
+        }
+        for (int i = 0; i < buffers.size(); i++) {
+            if (!isReferenced(buffers.get(i)))
+                buffers.remove(i--);
+        }
+        Picture pic = Picture.create(alignedW, alignedH, ColorSpace.YUV420);
+        buffers.add(pic);
+        return pic;
+    }
+
+    private boolean isReferenced(Picture pic) {
+        for (int i = 0; i < NUM_REF_FRAMES; i++) {
+            if (refSlots[i] == pic)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Splits the tile data and decodes the tiles, in parallel when threaded.
+     *
+     * @return the symbol counts of all the tiles
+     */
+    private FrameCounts decodeTiles(FrameHeader hdr, ByteBuffer bb) {
+        int tileCols = 1 << hdr.tileColsLog2;
+        int tileRows = 1 << hdr.tileRowsLog2;
+        ByteBuffer[][] tiles = new ByteBuffer[tileRows][tileCols];
+        for (int tr = 0; tr < tileRows; tr++) {
+            for (int tc = 0; tc < tileCols; tc++) {
+                boolean last = tr == tileRows - 1 && tc == tileCols - 1;
+                int size = last ? bb.remaining()
+                        : (bb.get() & 0xff) << 24 | (bb.get() & 0xff) << 16 | (bb.get() & 0xff) << 8 | (bb.get() & 0xff);
+                if (size > bb.remaining())
+                    throw new RuntimeException("Invalid VP9 tile size");
+                tiles[tr][tc] = NIOUtils.read(bb, size);
+            }
+        }
+
+        int miCols = hdr.getMiCols();
+        int miRows = hdr.getMiRows();
+        int[] tileRowStart = new int[tileRows + 1];
+        for (int tr = 0; tr <= tileRows; tr++)
+            tileRowStart[tr] = FrameHeader.tileOffset(tr, miRows, hdr.tileRowsLog2);
+        int[] tileColStart = new int[tileCols + 1];
+        TileDecoder[] decoders = new TileDecoder[tileCols];
+        for (int tc = 0; tc <= tileCols; tc++)
+            tileColStart[tc] = FrameHeader.tileOffset(tc, miCols, hdr.tileColsLog2);
+        for (int tc = 0; tc < tileCols; tc++)
+            decoders[tc] = new TileDecoder(fs, tileColStart[tc], tileColStart[tc + 1]);
+
+        LoopFilter lf = hdr.filterLevel != 0 ? new LoopFilter(hdr) : null;
+        if (threaded)
+            decodeTilesParallel(tiles, decoders, tileRowStart, tileColStart, lf, hdr.getSbRows(), hdr.getSbCols());
+        else
+            decodeTilesSerial(tiles, decoders, tileRowStart, lf, hdr.getSbRows(), hdr.getSbCols());
+
+        FrameCounts counts = decoders[0].counts;
+        for (int tc = 1; tc < tileCols; tc++)
+            counts.add(decoders[tc].counts);
+        return counts;
+    }
+
+    private void decodeTilesSerial(ByteBuffer[][] tiles, TileDecoder[] decoders, int[] tileRowStart, LoopFilter lf,
+            int sbRows, int sbCols) {
+        for (int tr = 0; tr < tiles.length; tr++) {
+            for (int tc = 0; tc < decoders.length; tc++)
+                decoders[tc].decodeTile(tiles[tr][tc], tileRowStart[tr], tileRowStart[tr + 1], new RowSync(sbRows));
+        }
+        for (int sbRow = 0; lf != null && sbRow < sbRows; sbRow++) {
+            for (int sbCol = 0; sbCol < sbCols; sbCol++)
+                lf.filterSuperblock(fs, sbRow << 3, sbCol << 3);
+        }
+    }
+
+    /**
+     * Decodes every tile column in a task of its own, the tile columns never
+     * wait for each other. The loop filter follows them as a wavefront.
+     */
+    private void decodeTilesParallel(final ByteBuffer[][] tiles, final TileDecoder[] decoders,
+            final int[] tileRowStart, final int[] tileColStart, final LoopFilter lf, final int sbRows,
+            int sbCols) {
+        int tileCols = decoders.length;
+        // superblocks decoded per row, counted separately in every tile column
+        final RowSync[] decoded = new RowSync[tileCols];
+        for (int tc = 0; tc < tileCols; tc++)
+            decoded[tc] = new RowSync(sbRows);
+
+        Wavefront wavefront = new Wavefront(tp);
+        for (int tileCol = 0; tileCol < tileCols; tileCol++) {
+            final int tc = tileCol;
+            wavefront.submit(new Runnable() {
+                public void run() {
+                    try {
+                        for (int tr = 0; tr < tiles.length; tr++)
+                            decoders[tc].decodeTile(tiles[tr][tc], tileRowStart[tr], tileRowStart[tr + 1],
+                                    decoded[tc]);
+                    } finally {
+                        for (int row = 0; row < sbRows; row++)
+                            decoded[tc].setRowDone(row);
+                    }
+                }
+            });
+        }
+        if (lf != null) {
+            Wavefront.Progress allDecoded = new Wavefront.Progress() {
+                public void waitForMbs(int sbRow, int upTo) {
+                    waitForDecoded(decoded, tileColStart, sbRow, upTo);
+                }
+            };
+            wavefront.submitBlocks(sbRows, sbCols, 0, allDecoded, new Wavefront.BlockTask() {
+                public void run(int sbRow, int sbCol) {
+                    lf.filterSuperblock(fs, sbRow << 3, sbCol << 3);
+                }
+            });
+        }
+        wavefront.join();
+    }
+
+    /**
+     * Waits until the superblocks of the row are decoded from the left edge of
+     * the frame up to the superblock column 'upTo'.
+     */
+    private static void waitForDecoded(RowSync[] decoded, int[] tileColStart, int sbRow, int upTo) {
+        for (int tc = 0; tc < decoded.length; tc++) {
+            int start = tileColStart[tc] >> 3;
+            if (start >= upTo)
+                break;
+            int end = (tileColStart[tc + 1] + 7) >> 3;
+            decoded[tc].waitForMbs(sbRow, Math.min(end, upTo) - start);
+        }
+    }
+
+    /**
+     * Copies the visible part of the frame to the caller's buffer, the planes
+     * are reallocated when the buffer is too small.
+     */
+    private static Picture output(Picture pic, int width, int height, byte[][] buffer) {
+        int w = (width + 1) & ~1;
+        int h = (height + 1) & ~1;
+        int lumaSize = w * h;
+        int chromaSize = lumaSize >> 2;
+        byte[][] data = buffer;
+        if (data == null || data.length < 3 || data[0].length < lumaSize || data[1].length < chromaSize
+                || data[2].length < chromaSize)
+            data = new byte[][] { new byte[lumaSize], new byte[chromaSize], new byte[chromaSize] };
+
+        for (int plane = 0; plane < 3; plane++) {
+            int pw = plane == 0 ? w : w >> 1;
+            int ph = plane == 0 ? h : h >> 1;
+            byte[] src = pic.getPlaneData(plane);
+            int srcStride = pic.getPlaneWidth(plane);
+            for (int y = 0; y < ph; y++)
+                System.arraycopy(src, y * srcStride, data[plane], y * pw, pw);
+        }
+        Rect crop = w != width || h != height ? new Rect(0, 0, width, height) : null;
+        return new Picture(w, h, data, null, ColorSpace.YUV420, 0, crop);
+    }
+
+    @UsedViaReflection
+    public static int probe(ByteBuffer data) {
+        if (data.remaining() < 4)
+            return 0;
+        int b0 = data.get(data.position()) & 0xff;
+        // frame marker, profile 0, not show existing frame, key frame
+        if ((b0 & 0xfc) != 0x80)
+            return 0;
+        if ((data.get(data.position() + 1) & 0xff) == 0x49 && (data.get(data.position() + 2) & 0xff) == 0x83
+                && (data.get(data.position() + 3) & 0xff) == 0x42)
+            return 100;
+        return 0;
+    }
+
+    @Override
+    public VideoCodecMeta getCodecMeta(ByteBuffer frame) {
+        FrameHeader hdr = new FrameHeader();
+        hdr.readUncompressedHeader(splitSuperframe(frame).get(0), slotWidths.clone(), slotHeights.clone());
+        return VideoCodecMeta.createSimpleVideoCodecMeta(new Size(hdr.getWidth(), hdr.getHeight()),
+                ColorSpace.YUV420);
+    }
+}
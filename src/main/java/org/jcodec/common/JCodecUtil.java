@@ -4,6 +4,7 @@ import static org.jcodec.common.Codec.AAC;
 import static org.jcodec.common.Codec.JPEG;
 import static org.jcodec.common.Codec.MPEG2;
 import static org.jcodec.common.Codec.VP8;
+import static org.jcodec.common.Codec.VP9;
 import static org.jcodec.common.Format.DASH;
 import static org.jcodec.common.Format.DASHURL;
 import static org.jcodec.common.Format.IMG;
@@ -33,6 +34,7 @@ import org.jcodec.codecs.mpeg4.MPEG4Decoder;
 import org.jcodec.codecs.ppm.PPMEncoder;
 import org.jcodec.codecs.prores.ProresDecoder;
 import org.jcodec.codecs.vpx.VP8Decoder;
+import org.jcodec.codecs.vpx.vp9.VP9Decoder;
 import org.jcodec.codecs.wav.WavDemuxer;
 import org.jcodec.common.Tuple._2;
 import org.jcodec.common.io.FileChannelWrapper;
@@ -70,6 +72,7 @@ public class JCodecUtil {
 
     static {
         decoders.put(VP8, VP8Decoder.class);
+        decoders.put(VP9, VP9Decoder.class);
         decoders.put(Codec.PRORES, ProresDecoder.class);
         decoders.put(MPEG2, MPEGDecoder.class);
         decoders.put(Codec.H264, H264Decoder.class);
@@ -278,6 +281,8 @@ public class JCodecUtil {
             return new MPEGDecoder();
         } else if (VP8 == codec) {
             return new VP8Decoder();
+        } else if (VP9 == codec) {
+            return new VP9Decoder();
         } else if (JPEG == codec) {
             return new JpegDecoder();
         } else {
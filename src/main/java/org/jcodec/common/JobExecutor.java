@@ -0,0 +1,128 @@
+package org.jcodec.common;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Executor of one job on a shared pool. Keeps at most maxParallelism tasks of
+ * the job on the pool, the rest waits in the job's own queue in the order of
+ * submission.
+ *
+ * Shutting it down doesn't affect the pool, only the new tasks are rejected.
+ *
+ * @author The JCodec project
+ *
+ */
+public class JobExecutor extends AbstractExecutorService {
+    private Executor pool;
+    private int maxParallelism;
+    private LinkedList<Runnable> queue;
+    private int running;
+    private boolean shutdown;
+
+    public JobExecutor(Executor pool, int maxParallelism) {
+        this.pool = pool;
+        this.maxParallelism = maxParallelism;
+        this.queue = new LinkedList<Runnable>();
+    }
+
+    public void execute(Runnable command) {
+        synchronized (this) {
+            if (shutdown)
+                throw new RejectedExecutionException("Job is shut down");
+            if (running >= maxParallelism) {
+                queue.add(command);
+                return;
+            }
+            running++;
+        }
+        pool.execute(new Task(command));
+    }
+
+    private class Task implements Runnable {
+        private Runnable command;
+
+        public Task(Runnable command) {
+            this.command = command;
+        }
+
+        public void run() {
+            try {
+                command.run();
+            } finally {
+                next();
+            }
+        }
+    }
+
+    private void next() {
+        Runnable command;
+        synchronized (this) {
+            command = queue.poll();
+            if (command == null) {
+                running--;
+                notifyAll();
+                return;
+            }
+        }
+        pool.execute(new Task(command));
+    }
+
+    /**
+     * @return Number of the tasks of this job waiting for their turn
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return Number of the tasks of this job on the pool
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    public List<Runnable> shutdownNow() {
+        List<Runnable> result;
+        synchronized (this) {
+            shutdown = true;
+            result = new LinkedList<Runnable>(queue);
+            queue.clear();
+        }
+        return result;
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    public synchronized boolean isTerminated() {
+        return shutdown && running == 0;
+    }
+
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+}
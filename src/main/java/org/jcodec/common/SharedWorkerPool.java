@@ -0,0 +1,94 @@
+package org.jcodec.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Default worker pool, a fixed number of daemon threads fed from one unbounded
+ * queue shared by all the jobs. Idle threads time out so a process that is
+ * not decoding anything doesn't keep them around.
+ *
+ * @author The JCodec project
+ *
+ */
+public class SharedWorkerPool extends WorkerPool {
+    private ThreadPoolExecutor executor;
+
+    public SharedWorkerPool(int nThreads) {
+        this(createExecutor(nThreads));
+    }
+
+    /**
+     * Wraps an application managed executor.
+     *
+     * @param executor
+     */
+    public SharedWorkerPool(ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Pool for the jobs that block on I/O (network downloads), a thread is
+     * started for every task that finds no idle one. Keeps the blocked tasks
+     * away from the processor sized pool the codecs run on.
+     *
+     * @return
+     */
+    public static SharedWorkerPool createIoPool() {
+        return new SharedWorkerPool(new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), daemonThreads("jcodec-io-")));
+    }
+
+    private static ThreadPoolExecutor createExecutor(int nThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), daemonThreads("jcodec-worker-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger threadNo = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                t.setName(prefix + threadNo.incrementAndGet());
+                return t;
+            }
+        };
+    }
+
+    @Override
+    public ExecutorService newJob(int maxParallelism) {
+        return new JobExecutor(executor, Math.max(1, Math.min(maxParallelism, executor.getMaximumPoolSize())));
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return executor.getCompletedTaskCount();
+    }
+}
@@ -0,0 +1,145 @@
+package org.jcodec.common;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * A source of worker threads for the codecs, demuxers and streaming
+ * components. Instead of creating thread pools of their own they borrow an
+ * executor for their job from the process-wide worker pool, the executor
+ * limits how many tasks of this job may run at once.
+ *
+ * The default implementation is a SharedWorkerPool sized to the number of
+ * processors, an application may plug in its own pool with setInstance. The
+ * jobs that block on I/O take their executors from the separate, unbounded
+ * I/O pool instead so they can't hold up the codecs.
+ *
+ * @author The JCodec project
+ *
+ */
+public abstract class WorkerPool {
+    private static volatile WorkerPool instance;
+    private static volatile WorkerPool ioInstance;
+
+    public static WorkerPool getInstance() {
+        WorkerPool pool = instance;
+        if (pool == null) {
+            synchronized (WorkerPool.class) {
+                if (instance == null)
+                    instance = new SharedWorkerPool(Runtime.getRuntime().availableProcessors());
+                pool = instance;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Replaces the process-wide worker pool. The jobs created before this call
+     * keep using the previous pool.
+     *
+     * @param pool
+     */
+    public static void setInstance(WorkerPool pool) {
+        instance = pool;
+    }
+
+    /**
+     * The pool for the jobs that spend their time blocked on I/O, such as the
+     * fragment downloads of a streaming demuxer.
+     *
+     * @return
+     */
+    public static WorkerPool getIoInstance() {
+        WorkerPool pool = ioInstance;
+        if (pool == null) {
+            synchronized (WorkerPool.class) {
+                if (ioInstance == null)
+                    ioInstance = SharedWorkerPool.createIoPool();
+                pool = ioInstance;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Replaces the process-wide I/O pool. The jobs created before this call
+     * keep using the previous pool.
+     *
+     * @param pool
+     */
+    public static void setIoInstance(WorkerPool pool) {
+        ioInstance = pool;
+    }
+
+    /**
+     * Creates an executor for one job (a decoder, a demuxer track). The
+     * executor doesn't own any threads, at most maxParallelism of its tasks are
+     * running on the pool at the same time, the rest is queued in the job.
+     *
+     * @param maxParallelism
+     * @return
+     */
+    public abstract ExecutorService newJob(int maxParallelism);
+
+    /**
+     * @return Number of the tasks waiting for a free worker
+     */
+    public abstract int getQueueDepth();
+
+    /**
+     * @return Number of the workers currently running a task
+     */
+    public abstract int getActiveCount();
+
+    /**
+     * @return Number of the workers in this pool
+     */
+    public abstract int getPoolSize();
+
+    /**
+     * @return Number of tasks completed since the pool was created
+     */
+    public abstract long getCompletedTaskCount();
+
+    /**
+     * @return Fraction of the workers currently busy, 0 to 1
+     */
+    public float getUtilization() {
+        int size = getPoolSize();
+        return size == 0 ? 0 : (float) getActiveCount() / size;
+    }
+
+    /**
+     * Waits for the result of a task submitted to a job. If no worker has
+     * picked the task up yet it is run on the calling thread, so the jobs that
+     * are themselves running on the pool (transcode inside of a streaming
+     * request) never wait for a worker that will not come. The task run this
+     * way doesn't count towards the parallelism limit of its job.
+     *
+     * @param future
+     * @return
+     */
+    public static <T> T join(Future<T> future) {
+        if (!future.isDone() && future instanceof RunnableFuture) {
+            // No-op if the task has already been started by a worker
+            ((RunnableFuture<T>) future).run();
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -17,12 +17,12 @@ public class BitReader {
         return r;
     }
 
-    private int deficit = -1;
-    private int curInt = -1;
-    private ByteBuffer bb;
-    private int initPos;
+    int deficit = -1;
+    int curInt = -1;
+    ByteBuffer bb;
+    int initPos;
 
-    private BitReader(ByteBuffer bb) {
+    BitReader(ByteBuffer bb) {
         this.bb = bb;
         this.initPos = bb.position();
     }
@@ -35,7 +35,7 @@ public class BitReader {
         return fork;
     }
 
-    public final int readInt() {
+    public int readInt() {
         if (((java.nio.Buffer)bb).remaining() >= 4) {
             deficit -= 32;
             return ((bb.get() & 0xff) << 24) | ((bb.get() & 0xff) << 16) | ((bb.get() & 0xff) << 8) | (bb.get() & 0xff);
@@ -101,12 +101,12 @@ public class BitReader {
     }
 
     public boolean moreData() {
-        int remaining = ((java.nio.Buffer)bb).remaining() + 4 - ((deficit + 7) >> 3);
+        int remaining = bytesLeft() + 4 - ((deficit + 7) >> 3);
         return remaining > 1 || (remaining == 1 && curInt != 0);
     }
 
     public int remaining() {
-        return (((java.nio.Buffer)bb).remaining() << 3) + 32 - deficit;
+        return (bytesLeft() << 3) + 32 - deficit;
     }
 
     public final boolean isByteAligned() {
@@ -120,9 +120,7 @@ public class BitReader {
             left -= 32 - deficit;
             deficit = 32;
             if (left > 31) {
-                int skip = Math.min(left >> 3, ((java.nio.Buffer)bb).remaining());
-                ((java.nio.Buffer)bb).position(((java.nio.Buffer)bb).position() + skip);
-                left -= skip << 3;
+                left -= skipBytes(left >> 3) << 3;
             }
             curInt = readInt();
         }
@@ -202,11 +200,11 @@ public class BitReader {
         return res;
     }
 
-    private int nextIgnore16() {
+    int nextIgnore16() {
         return ((java.nio.Buffer)bb).remaining() > 1 ? bb.getShort() & 0xffff : (((java.nio.Buffer)bb).hasRemaining() ? ((bb.get() & 0xff) << 8) : 0);
     }
 
-    private int nextIgnore() {
+    int nextIgnore() {
         return ((java.nio.Buffer)bb).hasRemaining() ? bb.get() & 0xff : 0;
     }
 
@@ -215,16 +213,15 @@ public class BitReader {
     }
 
     public boolean lastByte() {
-        return ((java.nio.Buffer)bb).remaining() + 4 - (deficit >> 3) <= 1;
+        return bytesLeft() + 4 - (deficit >> 3) <= 1;
     }
 
     public void terminate() {
-        int putBack = (32 - deficit) >> 3;
-        ((java.nio.Buffer)bb).position(((java.nio.Buffer)bb).position() - putBack);
+        putBack((32 - deficit) >> 3);
     }
 
     public int position() {
-        return ((((java.nio.Buffer)bb).position() - initPos - 4) << 3) + deficit;
+        return ((bytesRead() - 4) << 3) + deficit;
     }
 
     /**
@@ -232,7 +229,38 @@ public class BitReader {
      * byte unread byte
      */
     public void stop() {
-        ((java.nio.Buffer)bb).position(((java.nio.Buffer)bb).position() - ((32 - deficit) >> 3));
+        putBack((32 - deficit) >> 3);
+    }
+
+    /**
+     * Number of the bytes of the underlying buffer that were not loaded yet
+     */
+    int bytesLeft() {
+        return ((java.nio.Buffer)bb).remaining();
+    }
+
+    /**
+     * Number of the bytes loaded from the underlying buffer so far
+     */
+    int bytesRead() {
+        return ((java.nio.Buffer)bb).position() - initPos;
+    }
+
+    /**
+     * Skips up to n bytes of the underlying buffer, returns the number of the
+     * bytes actually skipped
+     */
+    int skipBytes(int n) {
+        int skip = Math.min(n, ((java.nio.Buffer)bb).remaining());
+        ((java.nio.Buffer)bb).position(((java.nio.Buffer)bb).position() + skip);
+        return skip;
+    }
+
+    /**
+     * Moves the underlying buffer back by n loaded bytes
+     */
+    void putBack(int n) {
+        ((java.nio.Buffer)bb).position(((java.nio.Buffer)bb).position() - n);
     }
 
     public int checkAllBits() {
@@ -0,0 +1,155 @@
+package org.jcodec.common.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Bit reader over the payload of an H.264 NAL unit as it is in the stream. The
+ * emulation prevention bytes ( the 0x03 in 00 00 03 ) are skipped as the bytes
+ * are loaded, so the NAL unit doesn't need to be unescaped first and the
+ * underlying buffer is never modified.
+ *
+ * @author The JCodec project
+ *
+ */
+public class NALBitReader extends BitReader {
+    // The end of the NAL unit where the emulation prevention bytes are counted
+    // so that remaining() is exact
+    private static final int TAIL = 16;
+
+    public static NALBitReader createNALBitReader(ByteBuffer bb) {
+        NALBitReader r = new NALBitReader(bb);
+        r.curInt = r.readInt();
+        r.deficit = 0;
+        return r;
+    }
+
+    // The last two bytes loaded from the buffer including the emulation
+    // prevention ones, the bytes before the start count as non-zero
+    private int last2 = 0xffff;
+    private int skipped;
+
+    private NALBitReader(ByteBuffer bb) {
+        super(bb);
+    }
+
+    @Override
+    public BitReader fork() {
+        NALBitReader fork = new NALBitReader(this.bb.duplicate());
+        fork.initPos = this.initPos;
+        fork.curInt = this.curInt;
+        fork.deficit = this.deficit;
+        fork.last2 = this.last2;
+        fork.skipped = this.skipped;
+        return fork;
+    }
+
+    @Override
+    public int readInt() {
+        if (((java.nio.Buffer)bb).remaining() >= 4) {
+            int b0 = bb.get() & 0xff, b1 = bb.get() & 0xff, b2 = bb.get() & 0xff, b3 = bb.get() & 0xff;
+            if (b0 != 3 && b1 != 3 && b2 != 3 && b3 != 3) {
+                deficit -= 32;
+                last2 = (b2 << 8) | b3;
+                return (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+            }
+            ((java.nio.Buffer)bb).position(((java.nio.Buffer)bb).position() - 4);
+        }
+        int res = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = nextByte();
+            res <<= 8;
+            if (b != -1) {
+                res |= b;
+                deficit -= 8;
+            }
+        }
+        return res;
+    }
+
+    @Override
+    int nextIgnore16() {
+        return (nextIgnore() << 8) | nextIgnore();
+    }
+
+    @Override
+    int nextIgnore() {
+        int b = nextByte();
+        return b == -1 ? 0 : b;
+    }
+
+    /**
+     * Loads the next byte of the payload, -1 at the end of the buffer
+     */
+    private int nextByte() {
+        if (!bb.hasRemaining())
+            return -1;
+        int b = bb.get() & 0xff;
+        if (b == 3 && last2 == 0) {
+            last2 = 3;
+            skipped++;
+            if (!bb.hasRemaining())
+                return -1;
+            b = bb.get() & 0xff;
+        }
+        last2 = ((last2 << 8) | b) & 0xffff;
+        return b;
+    }
+
+    /**
+     * The emulation prevention bytes ahead are only counted near the end of
+     * the NAL unit, further away the result is larger by their number.
+     */
+    @Override
+    int bytesLeft() {
+        int pos = ((java.nio.Buffer)bb).position();
+        int limit = ((java.nio.Buffer)bb).limit();
+        if (limit - pos > TAIL)
+            return limit - pos;
+        int left = 0;
+        for (int i = pos; i < limit; i++) {
+            if (!isEmulationPrevention(i))
+                left++;
+        }
+        return left;
+    }
+
+    @Override
+    int bytesRead() {
+        return super.bytesRead() - skipped;
+    }
+
+    @Override
+    int skipBytes(int n) {
+        int i = 0;
+        for (; i < n; i++) {
+            if (nextByte() == -1)
+                break;
+        }
+        return i;
+    }
+
+    @Override
+    void putBack(int n) {
+        int pos = ((java.nio.Buffer)bb).position();
+        for (int i = 0; i < n; i++) {
+            while (isEmulationPrevention(pos - 1)) {
+                pos--;
+                skipped--;
+            }
+            pos--;
+        }
+        ((java.nio.Buffer)bb).position(pos);
+        last2 = (byteAt(pos - 2) << 8) | byteAt(pos - 1);
+    }
+
+    private boolean isEmulationPrevention(int i) {
+        return byteAt(i) == 3 && byteAt(i - 1) == 0 && byteAt(i - 2) == 0;
+    }
+
+    private int byteAt(int i) {
+        return i < initPos ? 0xff : bb.get(i) & 0xff;
+    }
+}
@@ -39,6 +39,9 @@ public class VLC {
     private int[] values;
     private int[] valueSizes;
 
+    int[] lookup;
+    private int lookupBits;
+
     public VLC(int[] codes, int[] codeSizes) {
         this.codes = codes;
         this.codeSizes = codeSizes;
@@ -134,6 +137,85 @@ public class VLC {
         return code;
     }
 
+    /**
+     * Builds a multi-level lookup table that resolves a complete code with one
+     * peek in the common case. The first level is indexed by the next rootBits
+     * bits of the stream, each entry holds the value and the length of the
+     * code these bits start with. The codes longer than rootBits continue to
+     * the second level tables indexed by the bits that follow and so on.
+     * 
+     * An entry is either (value << 8) | length, or (offset << 8) | 0x80 | bits
+     * pointing to the next level table of 1 << bits entries, or 0 for an
+     * invalid prefix.
+     * 
+     * @param symbols
+     *            The value for each code
+     * @param rootBits
+     *            Number of bits resolved by the first level table
+     */
+    void buildLookup(int[] symbols, int rootBits) {
+        int maxLen = 0;
+        for (int i = 0; i < codeSizes.length; i++) {
+            // The value has to fit into the upper 24 bits of an entry
+            if (symbols[i] >= (1 << 23) || symbols[i] < -(1 << 23))
+                return;
+            maxLen = Math.max(maxLen, codeSizes[i]);
+        }
+        if (maxLen == 0)
+            return;
+        lookupBits = Math.min(rootBits, maxLen);
+        IntArrayList table = IntArrayList.createIntArrayList();
+        buildLookupLevel(table, symbols, 0, 0, lookupBits);
+        lookup = table.toArray();
+    }
+
+    private int buildLookupLevel(IntArrayList table, int[] symbols, int prefix, int prefLen, int bits) {
+        int start = table.size();
+        int size = 1 << bits;
+        table.fill(start, start + size, 0);
+        int[] longest = new int[size];
+        for (int i = 0; i < codeSizes.length; i++) {
+            if (codeSizes[i] <= prefLen || (prefLen > 0 && (codes[i] >>> (32 - prefLen)) != prefix))
+                continue;
+            int ind = (codes[i] << prefLen) >>> (32 - bits);
+            int len = codeSizes[i] - prefLen;
+            if (len <= bits) {
+                for (int k = 0; k < (1 << (bits - len)); k++)
+                    table.set(start + ind + k, (symbols[i] << 8) | len);
+            } else {
+                longest[ind] = Math.max(longest[ind], len - bits);
+            }
+        }
+        for (int ind = 0; ind < size; ind++) {
+            if (longest[ind] == 0)
+                continue;
+            int off = buildLookupLevel(table, symbols, (prefix << bits) | ind, prefLen + bits, longest[ind]);
+            table.set(start + ind, (off << 8) | 0x80 | longest[ind]);
+        }
+        return start;
+    }
+
+    boolean hasLookup() {
+        return lookup != null;
+    }
+
+    /**
+     * Reads a code using the lookup table built by buildLookup.
+     */
+    final int readLookup(BitReader _in) {
+        int bits = lookupBits;
+        int entry = lookup[_in.checkNBit(bits)];
+        while ((entry & 0x80) != 0) {
+            _in.skip(bits);
+            bits = entry & 0x7f;
+            entry = lookup[(entry >> 8) + _in.checkNBit(bits)];
+        }
+        if (entry == 0)
+            throw new RuntimeException("Invalid code prefix " + binary(_in.checkNBit(bits), bits));
+        _in.skip(entry & 0x7f);
+        return entry >> 8;
+    }
+
     private static String binary(int string, int len) {
         char[] symb = new char[len];
         for (int i = 0; i < len; i++) {
@@ -14,6 +14,8 @@ import org.jcodec.common.IntIntMap;
  * 
  */
 public class VLCBuilder {
+    // Codes of up to this many bits are resolved with one table lookup
+    private static final int LOOKUP_BITS = 9;
 
     public static VLCBuilder createVLCBuilder(int[] codes, int[] lens, int[] vals) {
         VLCBuilder b = new VLCBuilder();
@@ -52,8 +54,10 @@ public class VLCBuilder {
 
     public VLC getVLC() {
         final VLCBuilder self = this;
-        return new VLC(codes.toArray(), codesSizes.toArray()) {
+        VLC vlc = new VLC(codes.toArray(), codesSizes.toArray()) {
             public int readVLC(BitReader _in) {
+                if (hasLookup())
+                    return readLookup(_in);
                 return self.inverse.get(super.readVLC(_in));
             }
             
@@ -65,5 +69,10 @@ public class VLCBuilder {
                 super.writeVLC(out, self.forward.get(code));
             }
         };
+        int[] symbols = new int[codes.size()];
+        for (int i = 0; i < symbols.length; i++)
+            symbols[i] = inverse.get(i);
+        vlc.buildLookup(symbols, LOOKUP_BITS);
+        return vlc;
     }
 }
\ No newline at end of file
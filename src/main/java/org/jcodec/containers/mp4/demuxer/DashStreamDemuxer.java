@@ -16,9 +16,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
 
 import org.jcodec.api.JCodecException;
 import org.jcodec.common.Demuxer;
@@ -26,6 +24,7 @@ import org.jcodec.common.DemuxerTrack;
 import org.jcodec.common.DemuxerTrackMeta;
 import org.jcodec.common.SeekableDemuxerTrack;
 import org.jcodec.common.TrackType;
+import org.jcodec.common.WorkerPool;
 import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.model.Packet;
 import org.jcodec.containers.mp4.MP4Packet;
@@ -90,13 +89,8 @@ public class DashStreamDemuxer implements Demuxer {
             this.url = url;
             this.period = period;
             this.adaptationSet = adaptationSet;
-            this.threadPool = Executors.newFixedThreadPool(INIT_SIZE, new ThreadFactory() {
-                public Thread newThread(Runnable r) {
-                    Thread t = Executors.defaultThreadFactory().newThread(r);
-                    t.setDaemon(true);
-                    return t;
-                }
-            });
+            // The downloads block on the network, they get their own threads
+            this.threadPool = WorkerPool.getIoInstance().newJob(INIT_SIZE);
             if (adaptationSet.representations.size() > 0) {
                 MPDModel.Representation rprz = adaptationSet.representations.get(0);
                 selectedRprz = rprz.id;
@@ -236,4 +236,23 @@ public class Utils {
         }
         return pic;
     }
+
+    /**
+     * A smooth pattern moving right by two pixels a frame, a different pattern
+     * for each scene
+     */
+    public static void fillMoving(Picture picture, int n, int scene) {
+        for (int p = 0; p < picture.getColor().nComp; p++) {
+            byte[] data = picture.getPlaneData(p);
+            int pw = picture.getPlaneWidth(p);
+            int ph = picture.getPlaneHeight(p);
+            int shift = p == 0 ? 2 * n : n;
+            for (int y = 0; y < ph; y++) {
+                for (int x = 0; x < pw; x++) {
+                    data[y * pw + x] = (byte) (60 * Math.sin((x - shift) / (9.0 - scene * 5))
+                            * Math.cos(y / (7.0 - scene * 4) + scene));
+                }
+            }
+        }
+    }
 }
@@ -5,20 +5,25 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 
 import org.jcodec.Utils;
 import org.jcodec.api.transcode.filters.ScaleFilter;
 import org.jcodec.common.Codec;
+import org.jcodec.common.DemuxerTrack;
 import org.jcodec.common.Format;
 import org.jcodec.common.JCodecUtil;
 import org.jcodec.common.io.ByteBufferSeekableByteChannel;
 import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Packet;
 import org.jcodec.common.model.Picture;
 import org.jcodec.common.model.Rational;
 import org.jcodec.common.model.Size;
+import org.jcodec.containers.mp4.demuxer.MP4Demuxer;
 import org.jcodec.platform.Platform;
 import org.jcodec.scale.AWTUtil;
 import org.jcodec.scale.ColorUtil;
@@ -83,6 +88,75 @@ public class SequenceEncoderTest {
         Assert.assertTrue("", temp.length() >= 128);
     }
 
+    @Test
+    public void testIntraOnly() throws IOException, JCodecException {
+        File temp = File.createTempFile("temp-file-name", ".mp4");
+        SequenceEncoder sequenceEncoder = new SequenceEncoder(NIOUtils.writableChannel(temp), Rational.ONE, Format.MOV,
+                Codec.H264, null);
+        Map<String, String> opts = new HashMap<String, String>();
+        opts.put("h264", "intraOnly:true,maxThreads:4");
+        sequenceEncoder.configureCodec(opts);
+
+        Picture[] pictures = new Picture[10];
+        for (int i = 0; i < pictures.length; i++) {
+            pictures[i] = Picture.create(64, 64, ColorSpace.RGB);
+            fillGradient(pictures[i], i * 30);
+            sequenceEncoder.encodeNativeFrame(pictures[i]);
+        }
+        sequenceEncoder.finish();
+
+        // All the frames in the order they came in
+        FrameGrab grab = FrameGrab.createFrameGrab(NIOUtils.readableChannel(temp));
+        Picture rgb = Picture.create(64, 64, ColorSpace.RGB);
+        for (int i = 0; i < pictures.length; i++) {
+            Picture yuv = grab.getNativeFrame();
+            Assert.assertNotNull("Frame " + i, yuv);
+            ColorUtil.getTransform(yuv.getColor(), ColorSpace.RGB).transform(yuv, rgb);
+            Assert.assertTrue("Frame " + i, Utils.picturesRoughlyEqual(pictures[i], rgb, 20));
+        }
+        Assert.assertNull(grab.getNativeFrame());
+        Platform.deleteFile(temp);
+    }
+
+    @Test
+    public void testBFrames() throws IOException, JCodecException {
+        File temp = File.createTempFile("temp-file-name", ".mp4");
+        SequenceEncoder sequenceEncoder = new SequenceEncoder(NIOUtils.writableChannel(temp), Rational.ONE, Format.MOV,
+                Codec.H264, null);
+        Map<String, String> opts = new HashMap<String, String>();
+        opts.put("h264", "bFrames:2");
+        sequenceEncoder.configureCodec(opts);
+
+        Picture[] pictures = new Picture[10];
+        for (int i = 0; i < pictures.length; i++) {
+            pictures[i] = Picture.create(64, 64, ColorSpace.RGB);
+            fillGradient(pictures[i], i * 2);
+            sequenceEncoder.encodeNativeFrame(pictures[i]);
+        }
+        sequenceEncoder.finish();
+
+        // All the frames in the coding order, each with the pts of its picture
+        DemuxerTrack track = MP4Demuxer.createMP4Demuxer(NIOUtils.readableChannel(temp)).getVideoTrack();
+        FrameGrab grab = FrameGrab.createFrameGrab(NIOUtils.readableChannel(temp));
+        Picture rgb = Picture.create(64, 64, ColorSpace.RGB);
+        boolean[] seen = new boolean[pictures.length];
+        boolean reordered = false;
+        Packet packet;
+        for (int i = 0; (packet = track.nextFrame()) != null; i++) {
+            int pictureNo = (int) Math.round(packet.getPtsD());
+            reordered |= pictureNo != i;
+            seen[pictureNo] = true;
+            Picture yuv = grab.getNativeFrame();
+            ColorUtil.getTransform(yuv.getColor(), ColorSpace.RGB).transform(yuv, rgb);
+            Assert.assertTrue("Frame " + pictureNo, Utils.picturesRoughlyEqual(pictures[pictureNo], rgb, 20));
+        }
+        Assert.assertNull(grab.getNativeFrame());
+        for (int i = 0; i < pictures.length; i++)
+            Assert.assertTrue("Frame " + i, seen[i]);
+        Assert.assertTrue(reordered);
+        Platform.deleteFile(temp);
+    }
+
     private void fillGradient(Picture picture, int ind) {
         for (int comp = 0; comp < picture.getData().length; comp++) {
             byte[] planeData = picture.getPlaneData(comp);
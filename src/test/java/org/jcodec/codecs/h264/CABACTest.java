@@ -1,6 +1,10 @@
 package org.jcodec.codecs.h264;
 import static org.jcodec.codecs.h264.H264Const.PartPred.L0;
 
+import java.nio.ByteBuffer;
+
+import org.jcodec.codecs.common.biari.MDecoder;
+import org.jcodec.codecs.common.biari.MEncoder;
 import org.jcodec.codecs.h264.io.CABAC;
 import org.jcodec.codecs.h264.io.model.MBType;
 import org.jcodec.codecs.h264.io.model.SliceType;
@@ -44,6 +48,58 @@ public class CABACTest {
         CABAC cabac = new CABAC(2);
         MockMDecoder m = new MockMDecoder(new int[] { 0, 0, 1 }, new int[] { 14, 15, 16 });
         Assert.assertEquals(3, cabac.readMBTypeP(m));
+
+        MockMEncoder e = new MockMEncoder(new int[] { 0, 0, 1 }, new int[] { 14, 15, 16 });
+        cabac.writeMBTypeP(e, 3);
+
+        e = new MockMEncoder(new int[] { 0, 0, 0 }, new int[] { 14, 15, 16 });
+        cabac.writeMBTypeP(e, 0);
+
+        // I_NxN
+        m = new MockMDecoder(new int[] { 1, 0 }, new int[] { 14, 17 });
+        Assert.assertEquals(5, cabac.readMBTypeP(m));
+        e = new MockMEncoder(new int[] { 1, 0 }, new int[] { 14, 17 });
+        cabac.writeMBTypeP(e, 5);
+
+        // I_16x16_2_1_1
+        m = new MockMDecoder(new int[] { 1, 1, 0, 1, 1, 0, 1, 0 }, new int[] { 14, 17, -2, 18, 19, 19, 20, 20 });
+        Assert.assertEquals(24, cabac.readMBTypeP(m));
+        e = new MockMEncoder(new int[] { 1, 1, 0, 1, 1, 0, 1, 0 }, new int[] { 14, 17, -2, 18, 19, 19, 20, 20 });
+        cabac.writeMBTypeP(e, 24);
+
+        // I_16x16_3_0_0
+        m = new MockMDecoder(new int[] { 1, 1, 0, 0, 0, 1, 1 }, new int[] { 14, 17, -2, 18, 19, 20, 20 });
+        Assert.assertEquals(9, cabac.readMBTypeP(m));
+        e = new MockMEncoder(new int[] { 1, 1, 0, 0, 0, 1, 1 }, new int[] { 14, 17, -2, 18, 19, 20, 20 });
+        cabac.writeMBTypeP(e, 9);
+    }
+
+    @Test
+    public void testMBTypeB() {
+        CABAC cabac = new CABAC(2);
+        // B_Direct_16x16
+        MockMDecoder m = new MockMDecoder(new int[] { 0 }, new int[] { 27 });
+        Assert.assertEquals(0, cabac.readMBTypeB(m, null, null, false, false));
+        MockMEncoder e = new MockMEncoder(new int[] { 0 }, new int[] { 27 });
+        cabac.writeMBTypeB(e, null, null, false, false, 0);
+
+        // B_L1_16x16, the left neighbour is not direct
+        m = new MockMDecoder(new int[] { 1, 0, 1 }, new int[] { 28, 30, 32 });
+        Assert.assertEquals(2, cabac.readMBTypeB(m, MBType.B_L0_16x16, MBType.B_Direct_16x16, true, true));
+        e = new MockMEncoder(new int[] { 1, 0, 1 }, new int[] { 28, 30, 32 });
+        cabac.writeMBTypeB(e, MBType.B_L0_16x16, MBType.B_Direct_16x16, true, true, 2);
+
+        // B_Bi_16x16
+        m = new MockMDecoder(new int[] { 1, 1, 0, 0, 0, 0 }, new int[] { 27, 30, 31, 32, 32, 32 });
+        Assert.assertEquals(3, cabac.readMBTypeB(m, null, null, false, false));
+        e = new MockMEncoder(new int[] { 1, 1, 0, 0, 0, 0 }, new int[] { 27, 30, 31, 32, 32, 32 });
+        cabac.writeMBTypeB(e, null, null, false, false, 3);
+
+        // I_NxN
+        m = new MockMDecoder(new int[] { 1, 1, 1, 1, 0, 1, 0 }, new int[] { 29, 30, 31, 32, 32, 32, 32 });
+        Assert.assertEquals(23, cabac.readMBTypeB(m, MBType.B_Bi_16x16, MBType.B_L0_16x16, true, true));
+        e = new MockMEncoder(new int[] { 1, 1, 1, 1, 0, 1, 0 }, new int[] { 29, 30, 31, 32, 32, 32, 32 });
+        cabac.writeMBTypeB(e, MBType.B_Bi_16x16, MBType.B_L0_16x16, true, true, 23);
     }
 
     @Test
@@ -61,18 +117,27 @@ public class CABACTest {
         new CABAC(1).writeIntraChromaPredMode(e, 0, null, null, false, false, 3);
     }
 
-    public void _testMBQpDelta() {
+    @Test
+    public void testMBQpDelta() {
         MockMDecoder m = new MockMDecoder(new int[] { 0 }, new int[] { 60 });
         Assert.assertEquals(0, new CABAC(1).readMBQpDelta(m, null));
 
         m = new MockMDecoder(new int[] { 1, 1, 1, 1, 1, 1, 0 }, new int[] { 60, 62, 63, 63, 63, 63, 63 });
-        Assert.assertEquals(6, new CABAC(1).readMBQpDelta(m, null));
+        Assert.assertEquals(-3, new CABAC(1).readMBQpDelta(m, null));
 
         MockMEncoder e = new MockMEncoder(new int[] { 0 }, new int[] { 60 });
         new CABAC(1).writeMBQpDelta(e, null, 0);
 
         e = new MockMEncoder(new int[] { 1, 1, 1, 1, 1, 1, 0 }, new int[] { 60, 62, 63, 63, 63, 63, 63 });
-        new CABAC(1).writeMBQpDelta(e, null, 6);
+        new CABAC(1).writeMBQpDelta(e, null, -3);
+
+        e = new MockMEncoder(new int[] { 1, 0 }, new int[] { 60, 62 });
+        new CABAC(1).writeMBQpDelta(e, null, 1);
+
+        // The previous macroblock had a non-zero delta
+        CABAC cabac = new CABAC(1);
+        cabac.writeMBQpDelta(new MockMEncoder(new int[] { 1, 1, 0 }, new int[] { 60, 62, 63 }), MBType.I_16x16, -1);
+        cabac.writeMBQpDelta(new MockMEncoder(new int[] { 0 }, new int[] { 61 }), MBType.I_16x16, 0);
     }
 
     @Test
@@ -145,6 +210,57 @@ public class CABACTest {
                 cabac.readMVD(m, 1, true, true, MBType.P_8x8, MBType.P_8x8, L0, L0, L0, 0, 2, 2, 2, 2, 0));
     }
 
+    @Test
+    public void testWriteMVD() {
+        CABAC cabac = new CABAC(2);
+        cabac.writeMVD(new MockMEncoder(new int[] { 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 1, 0, 1, 1, 0 }, new int[] { 40,
+                43, 44, 45, 46, 46, 46, 46, 46, -1, -1, -1, -1, -1, -1, -1 }), 0, false, false, null, null, L0, L0, L0,
+                0, 0, 0, 2, 1, 0, 28);
+        cabac.writeMVD(new MockMEncoder(new int[] { 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 1, 1, 1, 1, 1, 0 }, new int[] {
+                47, 50, 51, 52, 53, 53, 53, 53, 53, -1, -1, -1, -1, -1, -1, -1, -1, -1 }), 1, false, false, null, null,
+                L0, L0, L0, 0, 0, 0, 2, 1, 0, 64);
+        // The top neighbour's 64 is over 32
+        cabac.writeMVD(new MockMEncoder(new int[] { 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 1, 1, 1, 1 }, new int[] {
+                49, 50, 51, 52, 53, 53, 53, 53, 53, -1, -1, -1, -1, -1, -1, -1, -1, -1 }), 1, false, true, null,
+                MBType.P_8x8, L0, L0, L0, 0, 0, 1, 2, 1, 0, -40);
+        cabac.writeMVD(new MockMEncoder(new int[] { 1, 1, 1, 1, 0, 0 }, new int[] { 41, 43, 44, 45, 46, -1 }), 0, true,
+                false, MBType.P_8x8, null, L0, L0, L0, 0, 2, 0, 1, 2, 0, 4);
+        // The top neighbour's 28 is between 3 and 32
+        cabac.writeMVD(new MockMEncoder(new int[] { 0 }, new int[] { 41 }), 0, false, true, null, MBType.P_8x8, L0, L0,
+                L0, 0, 0, 2, 2, 2, 0, 0);
+    }
+
+    @Test
+    public void testCodedBlockPattern() {
+        int[] cbps = { 0, 1, 15, 47, 0x1a, 0x25 };
+        int[][] cm = new int[2][1024];
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        MEncoder e = new MEncoder(buf, cm);
+        new CABAC(2).initModels(cm, SliceType.P, 0, 26);
+        CABAC cabac = new CABAC(2);
+        for (int n = 0; n < 4; n++) {
+            for (int cbp : cbps)
+                cabac.writeCodedBlockPattern(e, (n & 1) != 0, (n & 2) != 0, 0x2d, 0x13, MBType.P_16x16, null, cbp);
+        }
+        e.encodeBinFinal(1);
+        e.finishEncoding();
+        buf.flip();
+
+        cm = new int[2][1024];
+        cabac = new CABAC(2);
+        cabac.initModels(cm, SliceType.P, 0, 26);
+        MDecoder m = new MDecoder(buf, cm);
+        for (int n = 0; n < 4; n++) {
+            for (int cbp : cbps) {
+                // Both bins of the chroma pattern are set in the decoded one for 2
+                int expected = (cbp >> 4) == 2 ? cbp | 0x10 : cbp;
+                Assert.assertEquals(expected, cabac.codedBlockPatternIntra(m, (n & 1) != 0, (n & 2) != 0, 0x2d, 0x13,
+                        MBType.P_16x16, null));
+            }
+        }
+        Assert.assertEquals(1, m.decodeFinalBin());
+    }
+
     @Test
     public void testMBSkipFlag() {
         CABAC cabac = new CABAC(2);
@@ -159,6 +275,11 @@ public class CABACTest {
 
         m = new MockMDecoder(new int[] { 0 }, new int[] { 13 });
         Assert.assertEquals(false, cabac.readMBSkipFlag(m, SliceType.P, true, true, 1));
+
+        cabac = new CABAC(2);
+        cabac.writeMBSkipFlag(new MockMEncoder(new int[] { 1 }, new int[] { 11 }), SliceType.P, false, false, 0, true);
+        cabac.writeMBSkipFlag(new MockMEncoder(new int[] { 0 }, new int[] { 11 }), SliceType.P, true, false, 1, false);
+        cabac.writeMBSkipFlag(new MockMEncoder(new int[] { 1 }, new int[] { 12 }), SliceType.P, true, true, 0, true);
     }
 
     @Test
@@ -0,0 +1,309 @@
+package org.jcodec.codecs.h264;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jcodec.codecs.h264.H264Utils.MvList2D;
+import org.jcodec.codecs.h264.io.model.Frame;
+import org.jcodec.codecs.h264.io.model.MBType;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Packet;
+import org.jcodec.common.model.Picture;
+import org.junit.Test;
+
+public class H264DecoderTest {
+
+    @Test
+    public void testFrameThreadsBitExact() throws IOException {
+        String[] streams = { "src/test/resources/h264/seq_reorder/test.264", "src/test/resources/h264/test_cat1.h264",
+                "src/test/resources/h264/cabac/test_long_term_cabac.264",
+                "src/test/resources/h264/cavlc/test_bi_mix_ref_cavlc.264" };
+        for (String stream : streams) {
+            List<Picture> expected = decode(stream, new H264Decoder());
+            for (int frameThreads = 2; frameThreads <= 4; frameThreads++) {
+                H264Decoder decoder = new H264Decoder();
+                decoder.setFrameThreads(frameThreads);
+                assertSamePictures(stream, expected, decode(stream, decoder));
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedDeblockingBitExact() throws IOException {
+        String[] streams = { "src/test/resources/h264/seq_flat_10slices/test.264",
+                "src/test/resources/h264/seq_interleaved/test.264", "src/test/resources/h264/seq_dispersed/test.264",
+                "src/test/resources/h264/test_cat2.h264" };
+        for (String stream : streams) {
+            List<Picture> expected = decode(stream, new H264Decoder());
+            H264Decoder decoder = new H264Decoder();
+            decoder.setPipelinedDeblocking(true);
+            assertSamePictures(stream, expected, decode(stream, decoder));
+        }
+    }
+
+    @Test
+    public void testSkipFrame() throws IOException {
+        String stream = "src/test/resources/h264/seq_poc0/test.264";
+        List<Picture> all = decode(stream, new H264Decoder());
+
+        // The frames that are left are exactly the same
+        H264Decoder decoder = new H264Decoder();
+        decoder.setSkipFrame(H264Decoder.Discard.NONREF);
+        List<Picture> ref = decode(stream, decoder);
+        assertEquals(all.size() / 2 + 1, ref.size());
+        assertSamePictures(stream, byPOC(all, ref), ref);
+
+        decoder = new H264Decoder();
+        decoder.setSkipFrame(H264Decoder.Discard.NONINTRA);
+        List<Picture> intra = decode(stream, decoder);
+        assertEquals(1, intra.size());
+        assertSamePictures(stream, byPOC(all, intra), intra);
+
+        decoder = new H264Decoder();
+        decoder.setSkipFrame(H264Decoder.Discard.ALL);
+        assertEquals(0, decode(stream, decoder).size());
+    }
+
+    @Test
+    public void testSkipLoopFilter() throws IOException {
+        String stream = "src/test/resources/h264/seq_poc0/test.264";
+        List<Picture> all = decode(stream, new H264Decoder());
+        H264Decoder decoder = new H264Decoder();
+        decoder.setSkipFrame(H264Decoder.Discard.NONREF);
+        List<Picture> ref = decode(stream, decoder);
+
+        decoder = new H264Decoder();
+        decoder.setSkipLoopFilter(H264Decoder.Discard.NONREF);
+        List<Picture> unfiltered = decode(stream, decoder);
+        assertEquals(all.size(), unfiltered.size());
+
+        // The reference frames are still filtered
+        assertSamePictures(stream, ref, byPOC(unfiltered, ref));
+        int differ = 0;
+        for (int i = 0; i < all.size(); i++) {
+            if (!Arrays.equals(all.get(i).getPlaneData(0), unfiltered.get(i).getPlaneData(0)))
+                differ++;
+        }
+        assertEquals(all.size() - ref.size(), differ);
+    }
+
+    @Test
+    public void testDownscale() throws IOException {
+        String[] streams = { "src/test/resources/h264/seq_poc0/test.264",
+                "src/test/resources/h264/cavlc/test_bi_mix_ref_cavlc.264" };
+        for (String stream : streams) {
+            List<Picture> full = decode(stream, new H264Decoder());
+            for (int scale = 2; scale <= 4; scale <<= 1) {
+                H264Decoder decoder = new H264Decoder();
+                decoder.setDownscale(scale);
+                List<Picture> small = decode(stream, decoder);
+                assertEquals(full.size(), small.size());
+                for (int i = 0; i < full.size(); i++) {
+                    Picture expected = full.get(i);
+                    Picture actual = small.get(i);
+                    assertEquals(expected.getWidth() / scale, actual.getWidth());
+                    assertEquals(expected.getHeight() / scale, actual.getHeight());
+                    assertEquals(expected.getCroppedWidth() / scale, actual.getCroppedWidth());
+                    double psnr = psnr(expected, actual, scale);
+                    assertTrue(stream + ", frame " + i + ": " + psnr, psnr > 25);
+                }
+
+                // Drift doesn't depend on the threading
+                decoder = new H264Decoder();
+                decoder.setDownscale(scale);
+                decoder.setFrameThreads(3);
+                assertSamePictures(stream, small, decode(stream, decoder));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDownscaleUnsupported() {
+        new H264Decoder().setDownscale(3);
+    }
+
+    /**
+     * PSNR of the luma of a downscaled picture against the box-filtered full
+     * resolution one
+     */
+    private static double psnr(Picture full, Picture small, int scale) {
+        byte[] src = full.getPlaneData(0);
+        byte[] dst = small.getPlaneData(0);
+        long se = 0;
+        for (int y = 0; y < small.getHeight(); y++) {
+            for (int x = 0; x < small.getWidth(); x++) {
+                int sum = 0;
+                for (int j = 0; j < scale; j++)
+                    for (int i = 0; i < scale; i++)
+                        sum += src[(y * scale + j) * full.getWidth() + x * scale + i];
+                int diff = sum / (scale * scale) - dst[y * small.getWidth() + x];
+                se += diff * diff;
+            }
+        }
+        double mse = Math.max((double) se / (small.getWidth() * small.getHeight()), 1e-3);
+        return 10 * Math.log10(255 * 255 / mse);
+    }
+
+    @Test
+    public void testSyntaxOnly() throws IOException {
+        String[] streams = { "src/test/resources/h264/seq_reorder/test.264", "src/test/resources/h264/test_cat1.h264",
+                "src/test/resources/h264/cabac/test_long_term_cabac.264",
+                "src/test/resources/h264/cavlc/test_bi_mix_ref_cavlc.264" };
+        for (String stream : streams) {
+            H264Decoder decoder = new H264Decoder();
+            MBInfoCollector expected = new MBInfoCollector();
+            decoder.setMBInfoListener(expected);
+            decode(stream, decoder);
+
+            decoder = new H264Decoder();
+            decoder.setSyntaxOnly(true);
+            MBInfoCollector actual = new MBInfoCollector();
+            decoder.setMBInfoListener(actual);
+            decode(stream, decoder);
+
+            assertEquals(stream, expected.mbTypes.size(), actual.mbTypes.size());
+            for (int i = 0; i < expected.mbTypes.size(); i++) {
+                assertArrayEquals(stream + ", frame " + i, expected.mbTypes.get(i), actual.mbTypes.get(i));
+                assertArrayEquals(stream + ", frame " + i, expected.mbQps.get(i), actual.mbQps.get(i));
+                assertArrayEquals(stream + ", frame " + i, expected.mvs.get(i), actual.mvs.get(i));
+            }
+        }
+    }
+
+    private static class MBInfoCollector implements H264Decoder.MBInfoListener {
+        private List<MBType[]> mbTypes = new ArrayList<MBType[]>();
+        private List<int[]> mbQps = new ArrayList<int[]>();
+        private List<int[]> mvs = new ArrayList<int[]>();
+
+        public void frameParsed(Frame frame, MBType[] mbTypes, int[] mbQps) {
+            this.mbTypes.add(mbTypes.clone());
+            this.mbQps.add(mbQps.clone());
+            MvList2D mvList = frame.getMvs();
+            int[] mvs = new int[mvList.getWidth() * mvList.getHeight() * 2];
+            for (int blkY = 0, i = 0; blkY < mvList.getHeight(); blkY++) {
+                for (int blkX = 0; blkX < mvList.getWidth(); blkX++) {
+                    mvs[i++] = mvList.getMv(blkX, blkY, 0);
+                    mvs[i++] = mvList.getMv(blkX, blkY, 1);
+                }
+            }
+            this.mvs.add(mvs);
+        }
+    }
+
+    private static List<Picture> byPOC(List<Picture> all, List<Picture> subset) {
+        List<Picture> result = new ArrayList<Picture>();
+        for (Picture pic : subset) {
+            for (Picture candidate : all) {
+                if (((Frame) candidate).getPOC() == ((Frame) pic).getPOC())
+                    result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testPacketNotModified() throws IOException {
+        // Both have emulation prevention bytes in the slice data
+        String[] streams = { "src/test/resources/h264/test_cat1.h264",
+                "src/test/resources/h264/cabac/i8x8/64x64_1.264" };
+        for (String stream : streams) {
+            List<Picture> expected = decode(stream, new H264Decoder());
+
+            BufferH264ES es = new BufferH264ES(NIOUtils.fetchFromFile(new File(stream)));
+            H264Decoder decoder = new H264Decoder();
+            List<Picture> actual = new ArrayList<Picture>();
+            Packet packet;
+            while ((packet = es.nextFrame()) != null) {
+                ByteBuffer data = packet.getData();
+                ByteBuffer copy = NIOUtils.clone(data);
+                Picture buf = Picture.create(1920, 1088, ColorSpace.YUV420);
+                Picture pic = decoder.decodeFrame(data.duplicate(), buf.getData());
+                assertEquals(stream, copy, data);
+                if (pic != null)
+                    actual.add(pic);
+            }
+            assertSamePictures(stream, expected, actual);
+        }
+    }
+
+    @Test
+    public void testSteadyStateAllocation() throws IOException {
+        ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+        if (!(mxBean instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) mxBean;
+        if (!threadBean.isThreadAllocatedMemorySupported())
+            return;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        String[] streams = { "src/test/resources/h264/test_cat1.h264", "src/test/resources/h264/seq_reorder/test.264" };
+        for (String stream : streams) {
+            List<ByteBuffer> packets = new ArrayList<ByteBuffer>();
+            BufferH264ES es = new BufferH264ES(NIOUtils.fetchFromFile(new File(stream)));
+            Packet packet;
+            while ((packet = es.nextFrame()) != null)
+                packets.add(NIOUtils.clone(packet.getData()));
+
+            H264Decoder decoder = new H264Decoder();
+            // Keep all the work on this thread so that it's counted
+            decoder.setMaxThreads(1);
+            Picture buf = Picture.create(1920, 1088, ColorSpace.YUV420);
+            Picture pic = null;
+            // The first pass fills up the pools
+            for (ByteBuffer p : packets)
+                pic = decoder.decodeFrame(p.duplicate(), buf.getData());
+
+            long threadId = Thread.currentThread().getId();
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            for (ByteBuffer p : packets)
+                decoder.decodeFrame(p.duplicate(), buf.getData());
+            long perFrame = (threadBean.getThreadAllocatedBytes(threadId) - before) / packets.size();
+
+            // Only the per slice bookkeeping is allocated, nothing
+            // proportional to the size of the frame
+            int frameSize = pic.getWidth() * pic.getHeight();
+            assertTrue(stream + ": " + perFrame + " bytes per frame", perFrame < frameSize / 8);
+        }
+    }
+
+    static void assertSamePictures(String stream, List<Picture> expected, List<Picture> actual) {
+        assertEquals(stream, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            for (int c = 0; c < 3; c++) {
+                assertArrayEquals(stream + ", frame " + i, expected.get(i).getPlaneData(c),
+                        actual.get(i).getPlaneData(c));
+            }
+        }
+    }
+
+    static List<Picture> decode(String stream, H264Decoder decoder) throws IOException {
+        BufferH264ES es = new BufferH264ES(NIOUtils.fetchFromFile(new File(stream)));
+        List<Picture> result = new ArrayList<Picture>();
+        Packet packet;
+        while ((packet = es.nextFrame()) != null) {
+            Picture buf = Picture.create(1920, 1088, ColorSpace.YUV420);
+            Picture pic = decoder.decodeFrame(packet.getData(), buf.getData());
+            if (pic != null)
+                result.add(pic);
+        }
+        Picture pic;
+        do {
+            Picture buf = Picture.create(1920, 1088, ColorSpace.YUV420);
+            pic = decoder.flush(buf.getData());
+            if (pic != null)
+                result.add(pic);
+        } while (pic != null);
+        return result;
+    }
+}
@@ -1,20 +1,39 @@
 package org.jcodec.codecs.h264;
 
+import static org.jcodec.Utils.fillMoving;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
+import org.jcodec.codecs.h264.decode.SliceHeaderReader;
+import org.jcodec.codecs.h264.encode.DumbRateControl;
 import org.jcodec.codecs.h264.encode.H264FixedRateControl;
+import org.jcodec.codecs.h264.encode.H264Preset;
+import org.jcodec.codecs.h264.encode.RateControl;
 import org.jcodec.codecs.h264.io.model.Frame;
+import org.jcodec.codecs.h264.io.model.NALUnit;
+import org.jcodec.codecs.h264.io.model.NALUnitType;
+import org.jcodec.codecs.h264.io.model.PictureParameterSet;
+import org.jcodec.codecs.h264.io.model.SeqParameterSet;
+import org.jcodec.codecs.h264.io.model.SliceHeader;
+import org.jcodec.codecs.h264.io.model.SliceType;
 import org.jcodec.common.VideoEncoder.EncodedFrame;
+import org.jcodec.common.io.BitReader;
+import org.jcodec.common.io.NALBitReader;
+import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Packet;
 import org.jcodec.common.model.Picture;
 import org.jcodec.scale.AWTUtil;
+import org.jcodec.scale.ColorUtil;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 
 public class H264EncoderTest {
@@ -99,6 +118,404 @@ public class H264EncoderTest {
         }
     }
 
+    @Test
+    public void testEncodeDecodeSlices() {
+        int w = 320;
+        int h = 240;
+
+        H264Encoder encoder = H264Encoder.createH264Encoder();
+        encoder.setNumSlices(4);
+        encoder.setKeyInterval(5);
+        // Throws if the decoded picture differs from the reconstruction
+        encoder.setEncDecMismatch(true);
+        H264Decoder decoder = new H264Decoder();
+        Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+        Picture out = Picture.create(w, h, ColorSpace.YUV420J);
+
+        for (int i = 0; i < 10; i++) {
+            fillImage(w, h, i, picture);
+
+            EncodedFrame encodedFrame = encoder.encodeFrame(picture, ByteBuffer.allocate(w * h * 3));
+            Frame decodeFrame = decoder.decodeFrame(encodedFrame.getData(), out.getData());
+
+            // Less prediction at the top of the slices
+            assertByteArrayApproximatelyEquals(picture.getData()[0], decodeFrame.getData()[0], 16);
+            assertByteArrayApproximatelyEquals(picture.getData()[1], decodeFrame.getData()[1], 16);
+            assertByteArrayApproximatelyEquals(picture.getData()[2], decodeFrame.getData()[2], 16);
+        }
+    }
+
+    @Test
+    public void testWavefrontSameAsSerial() {
+        int w = 320;
+        int h = 240;
+
+        H264Encoder serial = H264Encoder.createH264Encoder();
+        H264Encoder wavefront = H264Encoder.createH264Encoder();
+        wavefront.setWavefront(true);
+        wavefront.setMaxThreads(4);
+        Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+
+        for (int i = 0; i < 6; i++) {
+            fillImage(w, h, i, picture);
+
+            ByteBuffer expected = serial.encodeFrame(picture, ByteBuffer.allocate(w * h * 3)).getData();
+            ByteBuffer actual = wavefront.encodeFrame(picture, ByteBuffer.allocate(w * h * 3)).getData();
+            Assert.assertEquals("Frame " + i, expected, actual);
+        }
+    }
+
+    @Test
+    public void testEncodeDecodePresets() {
+        int w = 320;
+        int h = 240;
+        for (H264Preset preset : H264Preset.values()) {
+            H264Encoder encoder = H264Encoder.createH264Encoder();
+            encoder.setPreset(preset);
+            encoder.setKeyInterval(5);
+            encoder.setEncDecMismatch(true);
+            H264Decoder decoder = new H264Decoder();
+            Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+            Picture out = Picture.create(w, h, ColorSpace.YUV420J);
+
+            for (int i = 0; i < 6; i++) {
+                fillImage(w, h, i, picture);
+
+                EncodedFrame encodedFrame = encoder.encodeFrame(picture, ByteBuffer.allocate(w * h * 3));
+                Frame decodeFrame = decoder.decodeFrame(encodedFrame.getData(), out.getData());
+
+                // RDO trades some distortion for the bits
+                assertByteArrayApproximatelyEquals(picture.getData()[0], decodeFrame.getData()[0], 16);
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeDecodeCabac() {
+        int w = 320;
+        int h = 240;
+        for (H264Preset preset : H264Preset.values()) {
+            H264Encoder cavlc = H264Encoder.createH264Encoder();
+            H264Encoder cabac = H264Encoder.createH264Encoder(true);
+            H264Encoder[] encoders = new H264Encoder[] { cavlc, cabac };
+            for (H264Encoder encoder : encoders) {
+                encoder.setPreset(preset);
+                encoder.setKeyInterval(5);
+                encoder.setNumSlices(preset.ordinal() % 3 + 1);
+                encoder.setWavefront(preset.ordinal() % 2 == 1);
+            }
+            cabac.setEncDecMismatch(true);
+            H264Decoder decoder = new H264Decoder();
+            Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+            Picture out = Picture.create(w, h, ColorSpace.YUV420J);
+
+            int cavlcSize = 0;
+            int cabacSize = 0;
+            for (int i = 0; i < 6; i++) {
+                fillImage(w, h, i, picture);
+
+                cavlcSize += cavlc.encodeFrame(picture, ByteBuffer.allocate(w * h * 3)).getData().remaining();
+                EncodedFrame encodedFrame = cabac.encodeFrame(picture, ByteBuffer.allocate(w * h * 3));
+                cabacSize += encodedFrame.getData().remaining();
+                Frame decodeFrame = decoder.decodeFrame(encodedFrame.getData(), out.getData());
+
+                assertByteArrayApproximatelyEquals(picture.getData()[0], decodeFrame.getData()[0], 16);
+            }
+            // The same macroblocks, only the entropy coding differs
+            Assert.assertTrue(preset + ": " + cabacSize + " vs " + cavlcSize, cabacSize < cavlcSize);
+        }
+    }
+
+    @Test
+    public void testEncodeDecodeCabacRateControl() {
+        int w = 320;
+        int h = 240;
+        H264Encoder encoder = new H264Encoder(new H264FixedRateControl(4), true);
+        encoder.setEncDecMismatch(true);
+        H264Decoder decoder = new H264Decoder();
+        Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+        Picture out = Picture.create(w, h, ColorSpace.YUV420J);
+
+        for (int i = 0; i < 6; i++) {
+            fillImage(w, h, i, picture);
+
+            EncodedFrame encodedFrame = encoder.encodeFrame(picture, ByteBuffer.allocate(w * h * 3));
+            assertNotNull(decoder.decodeFrame(encodedFrame.getData(), out.getData()));
+        }
+    }
+
+    @Test
+    public void testEncodeDecodeBFrames() {
+        int w = 320;
+        int h = 240;
+        int nFrames = 12;
+        H264Preset[] presets = new H264Preset[] { H264Preset.ULTRAFAST, H264Preset.FAST, H264Preset.SLOW };
+        for (int cabac = 0; cabac < 2; cabac++) {
+            for (H264Preset preset : presets) {
+                H264Encoder encoder = H264Encoder.createH264Encoder(cabac == 1);
+                encoder.setPreset(preset);
+                encoder.setBFrames(2);
+                encoder.setNumSlices(preset.ordinal() % 2 + 1);
+                encoder.setWavefront(preset == H264Preset.FAST);
+                // Throws if the decoded picture differs from the reconstruction
+                encoder.setEncDecMismatch(true);
+                Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+
+                List<EncodedFrame> frames = new ArrayList<EncodedFrame>();
+                for (int i = 0; i < nFrames; i++) {
+                    // The scene changes half way
+                    fillMoving(picture, i, i < nFrames / 2 ? 0 : 1);
+                    EncodedFrame frame = encoder.encodeFrame(picture, ByteBuffer.allocate(w * h * 3));
+                    if (frame.getData().hasRemaining())
+                        frames.add(frame);
+                }
+                EncodedFrame frame;
+                while ((frame = encoder.flush(ByteBuffer.allocate(w * h * 3))) != null)
+                    frames.add(frame);
+
+                Assert.assertEquals(preset.toString(), nFrames, frames.size());
+                int keyFrames = 0;
+                for (EncodedFrame encodedFrame : frames) {
+                    if (encodedFrame.isKeyFrame())
+                        keyFrames++;
+                }
+                // The first frame and the scene cut
+                Assert.assertEquals(preset.toString(), 2, keyFrames);
+            }
+        }
+    }
+
+    @Test
+    public void testBFramesFrameNum() {
+        int w = 320;
+        int h = 240;
+        int nFrames = 12;
+        H264Encoder encoder = H264Encoder.createH264Encoder();
+        encoder.setBFrames(2);
+        Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+        List<EncodedFrame> frames = new ArrayList<EncodedFrame>();
+        for (int i = 0; i < nFrames; i++) {
+            fillMoving(picture, i, i < nFrames / 2 ? 0 : 1);
+            EncodedFrame frame = encoder.encodeFrame(picture, ByteBuffer.allocate(w * h * 3));
+            if (frame.getData().hasRemaining())
+                frames.add(frame);
+        }
+        EncodedFrame frame;
+        while ((frame = encoder.flush(ByteBuffer.allocate(w * h * 3))) != null)
+            frames.add(frame);
+
+        // 7.4.3: without the gaps in frame_num the picture after a reference
+        // picture has the frame_num one more than it
+        int prevRefFrameNum = 0;
+        int bFrames = 0;
+        for (FirstSlice slice : readFirstSlices(frames)) {
+            if (slice.nu.type == NALUnitType.IDR_SLICE)
+                Assert.assertEquals(0, slice.sh.frameNum);
+            else
+                Assert.assertEquals(prevRefFrameNum + 1, slice.sh.frameNum);
+            if (slice.nu.nal_ref_idc != 0)
+                prevRefFrameNum = slice.sh.frameNum;
+            if (slice.sh.sliceType == SliceType.B)
+                bFrames++;
+        }
+        Assert.assertTrue(bFrames > 0);
+    }
+
+    @Test
+    public void testBFramesQpAboveP() {
+        int w = 320;
+        int h = 240;
+        int nFrames = 9;
+        RateControl[] rcs = new RateControl[] { new DumbRateControl(), new H264FixedRateControl(4) };
+        for (RateControl rc : rcs) {
+            H264Encoder encoder = new H264Encoder(rc, false);
+            encoder.setBFrames(2);
+            Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+            List<EncodedFrame> frames = new ArrayList<EncodedFrame>();
+            for (int i = 0; i < nFrames; i++) {
+                fillMoving(picture, i, 0);
+                EncodedFrame frame = encoder.encodeFrame(picture, ByteBuffer.allocate(w * h * 3));
+                if (frame.getData().hasRemaining())
+                    frames.add(frame);
+            }
+            EncodedFrame frame;
+            while ((frame = encoder.flush(ByteBuffer.allocate(w * h * 3))) != null)
+                frames.add(frame);
+
+            int maxPQp = -1;
+            int minBQp = 52;
+            for (FirstSlice slice : readFirstSlices(frames)) {
+                if (slice.sh.sliceType == SliceType.P)
+                    maxPQp = Math.max(maxPQp, slice.qp);
+                else if (slice.sh.sliceType == SliceType.B)
+                    minBQp = Math.min(minBQp, slice.qp);
+            }
+            String name = rc.getClass().getSimpleName();
+            Assert.assertTrue(name, maxPQp >= 0 && minBQp <= 51);
+            Assert.assertTrue(name + ": B " + minBQp + ", P " + maxPQp, minBQp >= maxPQp);
+        }
+    }
+
+    @Test
+    public void testIntraOnlySameAsSerial() {
+        int w = 320;
+        int h = 240;
+        int nFrames = 8;
+
+        H264Encoder serial = H264Encoder.createH264Encoder(true);
+        serial.setKeyInterval(1);
+        serial.setNumSlices(2);
+        H264Encoder intraOnly = H264Encoder.createH264Encoder(true);
+        intraOnly.setIntraOnly(true);
+        intraOnly.setNumSlices(2);
+        intraOnly.setMaxThreads(3);
+        intraOnly.setEncDecMismatch(true);
+        Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+
+        List<ByteBuffer> expected = new ArrayList<ByteBuffer>();
+        List<ByteBuffer> actual = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < nFrames; i++) {
+            fillMoving(picture, i, i % 2);
+            expected.add(serial.encodeFrame(picture, ByteBuffer.allocate(w * h * 3)).getData());
+            EncodedFrame frame = intraOnly.encodeFrame(picture, ByteBuffer.allocate(w * h * 3));
+            if (frame.getData().hasRemaining()) {
+                Assert.assertTrue(frame.isKeyFrame());
+                actual.add(frame.getData());
+            }
+        }
+        // The window of the frames in flight
+        Assert.assertEquals(nFrames - 2, actual.size());
+        EncodedFrame frame;
+        while ((frame = intraOnly.flush(ByteBuffer.allocate(w * h * 3))) != null)
+            actual.add(frame.getData());
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testIntraOnlyFrameBoundaries() {
+        int w = 320;
+        int h = 240;
+        int nFrames = 5;
+        H264Encoder encoder = H264Encoder.createH264Encoder();
+        encoder.setIntraOnly(true);
+        encoder.setMaxThreads(2);
+        Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+        ByteBuffer stream = ByteBuffer.allocate(nFrames * w * h * 3);
+        for (int i = 0; i < nFrames; i++) {
+            fillMoving(picture, i, 0);
+            stream.put(encoder.encodeFrame(picture, ByteBuffer.allocate(w * h * 3)).getData());
+        }
+        EncodedFrame frame;
+        while ((frame = encoder.flush(ByteBuffer.allocate(w * h * 3))) != null)
+            stream.put(frame.getData());
+        stream.flip();
+
+        // The consecutive IDRs are told apart by their idr_pic_id
+        BufferH264ES es = new BufferH264ES(stream);
+        int count = 0;
+        while (es.nextFrame() != null)
+            count++;
+        Assert.assertEquals(nFrames, count);
+    }
+
+    @Test
+    public void testBFramesSmaller() {
+        int w = 320;
+        int h = 240;
+        Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+        int[] size = new int[2];
+        for (int b = 0; b < 2; b++) {
+            H264Encoder encoder = H264Encoder.createH264Encoder();
+            encoder.setBFrames(b * 2);
+            for (int i = 0; i < 10; i++) {
+                fillMoving(picture, i, 0);
+                size[b] += encoder.encodeFrame(picture, ByteBuffer.allocate(w * h * 3)).getData().remaining();
+            }
+            EncodedFrame frame;
+            while ((frame = encoder.flush(ByteBuffer.allocate(w * h * 3))) != null)
+                size[b] += frame.getData().remaining();
+        }
+        Assert.assertTrue(size[1] + " vs " + size[0], size[1] < size[0]);
+    }
+
+    @Test
+    public void testEarlySkip() {
+        int w = 320;
+        int h = 240;
+        Picture picture = Picture.create(w, h, ColorSpace.YUV420J);
+        byte[][] data = picture.getData();
+        for (int p = 0; p < 3; p++) {
+            int pw = picture.getPlaneWidth(p);
+            for (int i = 0; i < data[p].length; i++)
+                data[p][i] = (byte) ((i % pw + i / pw) / 4 - 64);
+        }
+
+        int[] pSize = new int[2];
+        for (int skip = 0; skip < 2; skip++) {
+            H264Encoder encoder = H264Encoder.createH264Encoder();
+            encoder.setEarlySkip(skip == 1);
+            encoder.setEncDecMismatch(true);
+            H264Decoder decoder = new H264Decoder();
+            Picture out = Picture.create(w, h, ColorSpace.YUV420J);
+            for (int i = 0; i < 3; i++) {
+                EncodedFrame encodedFrame = encoder.encodeFrame(picture, ByteBuffer.allocate(w * h * 3));
+                if (i > 0)
+                    pSize[skip] += encodedFrame.getData().remaining();
+                Frame decodeFrame = decoder.decodeFrame(encodedFrame.getData(), out.getData());
+                assertByteArrayApproximatelyEquals(picture.getData()[0], decodeFrame.getData()[0], 16);
+            }
+        }
+        // Static content, next to nothing is coded in the P frames
+        Assert.assertTrue(pSize[0] + " vs " + pSize[1], pSize[1] * 4 < pSize[0]);
+    }
+
+    /**
+     * Prints the speed, the luma PSNR and the bitrate of each preset
+     */
+    @Test
+    @Ignore
+    public void testPresetPerformance() throws IOException {
+        List<Picture> pics = new ArrayList<Picture>();
+        BufferH264ES es = new BufferH264ES(NIOUtils.fetchFromFile(new File("src/test/resources/h264/test_cat1.h264")));
+        H264Decoder source = new H264Decoder();
+        Packet packet;
+        while ((packet = es.nextFrame()) != null && pics.size() < 30) {
+            Frame frame = source.decodeFrame(packet.getData(), Picture.create(1920, 1088, ColorSpace.YUV420).getData());
+            Picture pic = Picture.create(frame.getWidth(), frame.getHeight(), ColorSpace.YUV420J);
+            ColorUtil.getTransform(frame.getColor(), ColorSpace.YUV420J).transform(frame, pic);
+            pics.add(pic);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (H264Preset preset : H264Preset.values()) {
+                H264Encoder encoder = H264Encoder.createH264Encoder();
+                encoder.setPreset(preset);
+                List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+                long start = System.nanoTime();
+                for (Picture pic : pics) {
+                    ByteBuffer buf = ByteBuffer.allocate(pic.getWidth() * pic.getHeight() * 3);
+                    frames.add(encoder.encodeFrame(pic, buf).getData());
+                }
+                long time = System.nanoTime() - start;
+
+                H264Decoder decoder = new H264Decoder();
+                long size = 0;
+                double se = 0;
+                for (int i = 0; i < pics.size(); i++) {
+                    Picture pic = pics.get(i);
+                    size += frames.get(i).remaining();
+                    Frame dec = decoder.decodeFrame(frames.get(i), pic.createCompatible().getData());
+                    byte[] a = pic.getPlaneData(0);
+                    byte[] b = dec.getPlaneData(0);
+                    for (int j = 0; j < a.length; j++)
+                        se += (a[j] - b[j]) * (a[j] - b[j]);
+                }
+                double psnr = 10 * Math.log10(255. * 255. * pics.size() * pics.get(0).getPlaneData(0).length / se);
+                System.out.println(String.format("%-10s %6.2f fps %6.2f dB %8d bytes", preset,
+                        pics.size() * 1e9 / time, psnr, size));
+            }
+        }
+    }
+
     private static void assertByteArrayApproximatelyEquals(byte[] ref, byte[] dec, int threash) {
         int maxDiff = 0;
         for (int i = 0; i < ref.length; i++) {
@@ -133,4 +550,43 @@ public class H264EncoderTest {
         ByteBuffer buf = ByteBuffer.allocate(picture.getWidth() * picture.getHeight());
         encoder.encodeFrame(picture, buf);
     }
+
+    private static class FirstSlice {
+        private NALUnit nu;
+        private SliceHeader sh;
+        private int qp;
+
+        public FirstSlice(NALUnit nu, SliceHeader sh, int qp) {
+            this.nu = nu;
+            this.sh = sh;
+            this.qp = qp;
+        }
+    }
+
+    /**
+     * Reads the NAL unit header and the slice header of the first slice of
+     * each frame
+     */
+    private static List<FirstSlice> readFirstSlices(List<EncodedFrame> frames) {
+        SeqParameterSet sps = null;
+        PictureParameterSet pps = null;
+        List<FirstSlice> result = new ArrayList<FirstSlice>();
+        for (EncodedFrame frame : frames) {
+            for (ByteBuffer nal : H264Utils.splitFrame(frame.getData().duplicate())) {
+                NALUnit nu = NALUnit.read(nal);
+                if (nu.type == NALUnitType.SPS) {
+                    sps = H264Utils.readSPS(nal);
+                } else if (nu.type == NALUnitType.PPS) {
+                    pps = H264Utils.readPPS(nal);
+                } else if (nu.type == NALUnitType.IDR_SLICE || nu.type == NALUnitType.NON_IDR_SLICE) {
+                    BitReader in = NALBitReader.createNALBitReader(nal);
+                    SliceHeader sh = SliceHeaderReader.readPart1(in);
+                    SliceHeaderReader.readPart2(sh, nu, sps, pps, in);
+                    result.add(new FirstSlice(nu, sh, 26 + pps.picInitQpMinus26 + sh.sliceQpDelta));
+                    break;
+                }
+            }
+        }
+        return result;
+    }
 }
@@ -122,6 +122,44 @@ public class H264UtilsTest {
         Assert.assertEquals(-1, pair.mv1R(0));
     }
     
+    @Test
+    public void testColocatedMvs() {
+        H264Utils.MvList2D mvs = new H264Utils.MvList2D(8, 4);
+        for (int blkY = 0; blkY < 4; blkY++) {
+            for (int blkX = 0; blkX < 8; blkX++) {
+                if ((blkX & 1) == 0)
+                    mvs.setMv(blkX, blkY, 0, Mv.packMv(blkX, blkY, 2));
+                if (blkY > 1)
+                    mvs.setMv(blkX, blkY, 1, Mv.packMv(-blkX, -blkY, 3));
+            }
+        }
+
+        for (boolean direct8x8 : new boolean[] { false, true }) {
+            H264Utils.ColocatedMvs col = new H264Utils.ColocatedMvs(8, 4, direct8x8);
+            col.saveMacroblock(mvs, 1, 0);
+            for (int blkY = 0; blkY < 4; blkY++) {
+                for (int blkX = 4; blkX < 8; blkX++) {
+                    // Only the corners are kept with the inference
+                    int srcX = direct8x8 ? (blkX < 6 ? 4 : 7) : blkX;
+                    int srcY = direct8x8 ? (blkY < 2 ? 0 : 3) : blkY;
+                    int mv = col.getMv(blkX, blkY);
+                    if ((srcX & 1) == 0) {
+                        Assert.assertEquals(srcX, Mv.mvX(mv));
+                        Assert.assertEquals(0, H264Utils.ColocatedMvs.refList(mv));
+                        Assert.assertEquals(2, H264Utils.ColocatedMvs.refIdx(mv));
+                    } else if (srcY > 1) {
+                        Assert.assertEquals(-srcX, Mv.mvX(mv));
+                        Assert.assertEquals(-srcY, Mv.mvY(mv));
+                        Assert.assertEquals(1, H264Utils.ColocatedMvs.refList(mv));
+                        Assert.assertEquals(3, H264Utils.ColocatedMvs.refIdx(mv));
+                    } else {
+                        Assert.assertEquals(-1, H264Utils.ColocatedMvs.refIdx(mv));
+                    }
+                }
+            }
+        }
+    }
+
     @Test
     public void testMvList2D() {
         H264Utils.MvList2D pair = new H264Utils.MvList2D(2, 2);
@@ -6,6 +6,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 public class MDecoderTest {
 
@@ -93,6 +94,60 @@ public class MDecoderTest {
         }
     }
 
+    @Test
+    public void testDecodeBinsBypass() {
+        Random random = new Random(42);
+        byte[] data = new byte[4096];
+        random.nextBytes(data);
+        data[0] &= 0x7f;
+        int[][] cm = new int[2][1024];
+        new CABAC(1).initModels(cm, SliceType.I, 0, 34);
+        int[][] cm2 = new int[2][1024];
+        new CABAC(1).initModels(cm2, SliceType.I, 0, 34);
+
+        MDecoder expected = new MDecoder(ByteBuffer.wrap(data), cm);
+        MDecoder actual = new MDecoder(ByteBuffer.wrap(data), cm2);
+        for (int i = 0; i < 2000; i++) {
+            int ctx = 60 + random.nextInt(400);
+            Assert.assertEquals("Bin " + i, expected.decodeBin(ctx), actual.decodeBin(ctx));
+
+            int n = 1 + random.nextInt(16);
+            int bins = 0;
+            for (int j = 0; j < n; j++)
+                bins = (bins << 1) | expected.decodeBinBypass();
+            Assert.assertEquals("Bypass " + i, bins, actual.decodeBinsBypass(n));
+        }
+    }
+
+    @Test
+    public void testEscaped() {
+        Random random = new Random(42);
+        byte[] data = new byte[4096];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (random.nextBoolean() ? random.nextInt(4) : random.nextInt(256));
+        data[0] = 0x25;
+        ByteBuffer escaped = ByteBuffer.allocate(data.length * 2);
+        H264Utils.escapeNAL(ByteBuffer.wrap(data), escaped);
+        escaped.flip();
+        // The header before the CABAC data
+        escaped.get();
+        ByteBuffer plain = ByteBuffer.wrap(data);
+        plain.get();
+
+        int[][] cm = new int[2][1024];
+        new CABAC(1).initModels(cm, SliceType.I, 0, 34);
+        int[][] cm2 = new int[2][1024];
+        new CABAC(1).initModels(cm2, SliceType.I, 0, 34);
+        MDecoder expected = new MDecoder(plain, cm);
+        MDecoder actual = new MDecoder(escaped, cm2, true);
+        for (int i = 0; i < 4000; i++) {
+            int ctx = 60 + random.nextInt(400);
+            Assert.assertEquals("Bin " + i, expected.decodeBin(ctx), actual.decodeBin(ctx));
+            Assert.assertEquals("Bypass " + i, expected.decodeBinBypass(), actual.decodeBinBypass());
+        }
+        Assert.assertEquals(plain.hasRemaining(), escaped.hasRemaining());
+    }
+
     byte[] shortArray2ByteArray(short[] src) {
         byte[] result = new byte[src.length];
         for (int i = 0; i < src.length; i++) {
@@ -38,4 +38,12 @@ public class MockMDecoder extends MDecoder {
         Assert.assertEquals(m[pos], -1);
         return out[pos++];
     }
+
+    @Override
+    public int decodeBinsBypass(int n) {
+        int val = 0;
+        for (int i = 0; i < n; i++)
+            val = (val << 1) | decodeBinBypass();
+        return val;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package org.jcodec.codecs.h264.decode;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.jcodec.codecs.h264.io.model.Frame;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class BlockInterpolatorTest {
+
+    @Test
+    public void testPaddedSameAsClipped() {
+        Random rnd = new Random(42);
+        Frame plain = randomFrame(rnd, 64, 48);
+        Frame padded = Frame.createFrame(plain, Frame.PADDING);
+        padded.copyFromFrame(plain);
+        padded.extendEdges(0, 20);
+        padded.extendEdges(20, 48);
+
+        BlockInterpolator interpolator = new BlockInterpolator();
+        Picture expected = Picture.create(16, 16, ColorSpace.YUV420);
+        Picture actual = Picture.create(16, 16, ColorSpace.YUV420);
+        int[][] sizes = { { 16, 16 }, { 16, 8 }, { 8, 16 }, { 8, 8 }, { 8, 4 }, { 4, 8 }, { 4, 4 } };
+        for (int i = 0; i < 10000; i++) {
+            int[] size = sizes[rnd.nextInt(sizes.length)];
+            // Up to twice the border out of the picture
+            int x = rnd.nextInt((64 + 4 * Frame.PADDING) << 2) - (2 * Frame.PADDING << 2);
+            int y = rnd.nextInt((48 + 4 * Frame.PADDING) << 2) - (2 * Frame.PADDING << 2);
+            interpolator.getBlockLuma(plain, expected, 0, x, y, size[0], size[1]);
+            interpolator.getBlockLuma(padded, actual, 0, x, y, size[0], size[1]);
+            assertArrayEquals(expected.getPlaneData(0), actual.getPlaneData(0));
+
+            for (int comp = 1; comp < 3; comp++) {
+                interpolator.getBlockChroma(plain, expected, comp, 0, x, y, size[0] >> 1, size[1] >> 1);
+                interpolator.getBlockChroma(padded, actual, comp, 0, x, y, size[0] >> 1, size[1] >> 1);
+                assertArrayEquals(expected.getPlaneData(comp), actual.getPlaneData(comp));
+            }
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testPaddedPerformance() {
+        Random rnd = new Random(42);
+        Frame plain = randomFrame(rnd, 352, 288);
+        Frame padded = Frame.createFrame(plain, Frame.PADDING);
+        padded.copyFromFrame(plain);
+        padded.extendEdges(0, 288);
+
+        int[] mvs = new int[1 << 16];
+        for (int i = 0; i < mvs.length; i += 2) {
+            // The blocks along the edges of the picture, the motion reaching
+            // into the border
+            mvs[i] = rnd.nextBoolean() ? rnd.nextInt(40) - 24 : 352 - 32 + rnd.nextInt(40);
+            mvs[i + 1] = rnd.nextInt(288 + 32) - 16;
+            mvs[i] = (mvs[i] << 2) + rnd.nextInt(4);
+            mvs[i + 1] = (mvs[i + 1] << 2) + rnd.nextInt(4);
+        }
+        BlockInterpolator interpolator = new BlockInterpolator();
+        Picture out = Picture.create(16, 16, ColorSpace.YUV420);
+        for (int round = 0; round < 10; round++) {
+            for (Frame frame : new Frame[] { plain, padded }) {
+                long start = System.nanoTime();
+                for (int rep = 0; rep < 10; rep++) {
+                    for (int i = 0; i < mvs.length; i += 2) {
+                        interpolator.getBlockLuma(frame, out, 0, mvs[i], mvs[i + 1], 16, 16);
+                        interpolator.getBlockChroma(frame, out, 1, 0, mvs[i], mvs[i + 1], 8, 8);
+                        interpolator.getBlockChroma(frame, out, 2, 0, mvs[i], mvs[i + 1], 8, 8);
+                    }
+                }
+                System.out.println((frame == plain ? "clipped: " : "padded: ") + (System.nanoTime() - start) / 1000000
+                        + "ms");
+            }
+        }
+    }
+
+    private static Frame randomFrame(Random rnd, int width, int height) {
+        Picture pic = Picture.create(width, height, ColorSpace.YUV420);
+        for (int c = 0; c < 3; c++) {
+            byte[] plane = pic.getPlaneData(c);
+            for (int i = 0; i < plane.length; i++)
+                plane[i] = (byte) (rnd.nextInt(256) - 128);
+        }
+        return new Frame(width, height, pic.getData(), ColorSpace.YUV420, null, 0, null, null, null, 0);
+    }
+}
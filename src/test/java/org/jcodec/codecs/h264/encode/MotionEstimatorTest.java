@@ -2,8 +2,12 @@ package org.jcodec.codecs.h264.encode;
 
 import org.jcodec.Utils;
 import org.jcodec.codecs.h264.decode.BlockInterpolator;
+import org.jcodec.codecs.h264.io.model.SeqParameterSet;
+import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Picture;
+import org.jcodec.common.tools.MathUtil;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 
 public class MotionEstimatorTest {
@@ -25,4 +29,80 @@ public class MotionEstimatorTest {
             }
         }
     }
+
+    @Test
+    public void testMotionSearch() {
+        Picture ref = sinePic(128, 128);
+        Picture pic = Picture.create(128, 128, ColorSpace.YUV420J);
+        SeqParameterSet sps = sps(128, 128);
+        int[][] shifts = { { 0, 0 }, { 3, -2 }, { -4, 1 }, { 2, 4 }, { -1, -3 } };
+        for (MotionSearch search : MotionSearch.values()) {
+            for (int hierarchical = 0; hierarchical < 2; hierarchical++) {
+                Picture lowRes = hierarchical == 1 ? MotionEstimator.downscale(ref) : null;
+                for (int[] shift : shifts) {
+                    shift(ref, pic, shift[0], shift[1]);
+                    MotionEstimator estimator = new MotionEstimator(ref, sps, 16, search, null, lowRes);
+                    int[] mv = estimator.mvEstimate(pic, 3, 3);
+                    String msg = search + (lowRes != null ? " hierarchical" : "") + " " + shift[0] + "," + shift[1];
+                    Assert.assertEquals(msg, shift[0] << 2, mv[0]);
+                    Assert.assertEquals(msg, shift[1] << 2, mv[1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testMotionSearchPerformance() {
+        Picture ref = Utils.buildSmoothRandomPic(640, 480, 50, 0.2);
+        Picture pic = Picture.create(640, 480, ColorSpace.YUV420J);
+        shift(ref, pic, 5, -3);
+        SeqParameterSet sps = sps(640, 480);
+        for (int round = 0; round < 5; round++) {
+            for (MotionSearch search : MotionSearch.values()) {
+                long start = System.nanoTime();
+                for (int rep = 0; rep < 10; rep++) {
+                    MotionEstimator estimator = new MotionEstimator(ref, sps, 32, search, null, null);
+                    for (int mbY = 0; mbY < 30; mbY++) {
+                        for (int mbX = 0; mbX < 40; mbX++) {
+                            int[] mv = estimator.mvEstimate(pic, mbX, mbY);
+                            estimator.mvSave(mbX, mbY, new int[] { mv[0], mv[1], 0 });
+                        }
+                    }
+                }
+                System.out.println(search + ": " + (System.nanoTime() - start) / 1000000 + "ms");
+            }
+        }
+    }
+
+    private static SeqParameterSet sps(int width, int height) {
+        SeqParameterSet sps = new SeqParameterSet();
+        sps.picWidthInMbsMinus1 = (width >> 4) - 1;
+        sps.picHeightInMapUnitsMinus1 = (height >> 4) - 1;
+        return sps;
+    }
+
+    private static Picture sinePic(int width, int height) {
+        Picture pic = Picture.create(width, height, ColorSpace.YUV420J);
+        byte[] luma = pic.getPlaneData(0);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++)
+                luma[y * width + x] = (byte) (64 * Math.sin(x * 0.15) + 60 * Math.cos(y * 0.12));
+        }
+        return pic;
+    }
+
+    /**
+     * The luma of the picture moved so that the motion vector is dx, dy
+     */
+    private static void shift(Picture ref, Picture pic, int dx, int dy) {
+        int width = ref.getPlaneWidth(0);
+        int height = ref.getPlaneHeight(0);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pic.getPlaneData(0)[y * width + x] = ref.getPlaneData(0)[MathUtil.clip(y + dy, 0, height - 1) * width
+                        + MathUtil.clip(x + dx, 0, width - 1)];
+            }
+        }
+    }
 }
@@ -2,6 +2,7 @@ package org.jcodec.codecs.vp8;
 
 import org.jcodec.Utils;
 import org.jcodec.codecs.vpx.VP8Decoder;
+import org.jcodec.codecs.vpx.VP8Encoder;
 import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Picture;
@@ -39,6 +40,35 @@ public class VP8DecoderTest {
 		AWTUtil.writePNG(decoded, Utils.tildeExpand("~/decoded.pic.png"));
 	}
 
+	@Test
+	public void testPartitionsThreaded() throws Exception {
+		// The encoder puts the tokens into 8 partitions
+		Picture pic = Picture.create(176, 144, ColorSpace.YUV420);
+		for (int p = 0; p < 3; p++) {
+			byte[] data = pic.getPlaneData(p);
+			int w = pic.getPlaneWidth(p);
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) (((i % w) * 5 + (i / w) * 3 + ((i * 7919) % 23)) % 256 - 128);
+		}
+		VP8Encoder enc = new VP8Encoder((short) 30);
+		ByteBuffer frame = enc.encodeFrame(pic, ByteBuffer.allocate(176 * 144 * 3)).getData();
+
+		VP8Decoder serial = new VP8Decoder();
+		serial.setMaxThreads(1);
+		Picture expected = serial.decodeFrame(frame.duplicate(), Picture.create(176, 144, ColorSpace.YUV420).getData());
+		VP8Decoder threaded = new VP8Decoder();
+		threaded.setMaxThreads(4);
+		Picture actual = threaded.decodeFrame(frame.duplicate(), Picture.create(176, 144, ColorSpace.YUV420).getData());
+
+		for (int p = 0; p < 3; p++)
+			Assert.assertArrayEquals(expected.getPlaneData(p), actual.getPlaneData(p));
+		long se = 0;
+		byte[] src = pic.getPlaneData(0), dec = expected.getPlaneData(0);
+		for (int i = 0; i < src.length; i++)
+			se += (src[i] - dec[i]) * (src[i] - dec[i]);
+		Assert.assertTrue(10 * Math.log10(255.0 * 255 * src.length / se) > 30);
+	}
+
 	public void pysch() throws Exception {
 		int mbWidth = 4;
 		int mbHeight = 2;
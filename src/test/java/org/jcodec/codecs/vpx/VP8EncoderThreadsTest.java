@@ -0,0 +1,122 @@
+package org.jcodec.codecs.vpx;
+
+import static org.jcodec.Utils.fillMoving;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jcodec.codecs.vpx.vp8.data.YV12buffer;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.FullAccessIntArrPointer;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.junit.Test;
+
+public class VP8EncoderThreadsTest {
+    private static final int WIDTH = 176;
+    private static final int HEIGHT = 144;
+    private static final int FRAMES = 8;
+    // Realtime with a pinned speed, the automatic one depends on the timing
+    private static final int CPU_USED = -4;
+
+    @Test
+    public void testThreadsSameAsSerial() {
+        List<Picture> pics = createPictures();
+        List<byte[]> serial = encode(pics, 1);
+        for (int threads : new int[] { 2, 4 }) {
+            List<byte[]> threaded = encode(pics, threads);
+            for (int i = 0; i < FRAMES; i++)
+                assertArrayEquals(threads + " threads, frame " + i, serial.get(i), threaded.get(i));
+        }
+
+        Picture dec = Picture.create(WIDTH, HEIGHT, ColorSpace.YUV420);
+        new VP8Decoder().decodeFrame(ByteBuffer.wrap(serial.get(0)), dec.getData());
+        assertTrue(psnr(pics.get(0).getPlaneData(0), dec.getPlaneData(0)) > 40);
+    }
+
+    @Test
+    public void testThreadsLoopFilteredReconstruction() {
+        List<Picture> pics = createPictures();
+        VP8Encoder serial = createEncoder(1);
+        VP8Encoder threaded = createEncoder(4);
+        ByteBuffer buf = ByteBuffer.allocate(WIDTH * HEIGHT * 3);
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] expected = toArray(serial.encodeFrame(pics.get(i), buf).getData());
+            byte[] actual = toArray(threaded.encodeFrame(pics.get(i), buf).getData());
+            assertArrayEquals("frame " + i, expected, actual);
+            // The loop filter rows ran in parallel on one side only
+            Picture s = getReconstruction(serial);
+            Picture t = getReconstruction(threaded);
+            for (int p = 0; p < 3; p++)
+                assertArrayEquals("frame " + i + ", plane " + p, s.getPlaneData(p), t.getPlaneData(p));
+        }
+    }
+
+    private static VP8Encoder createEncoder(int threads) {
+        VP8Encoder enc = new VP8Encoder((short) 30);
+        enc.setThreads(threads);
+        enc.setCpuUsed(CPU_USED);
+        return enc;
+    }
+
+    private static byte[] toArray(ByteBuffer out) {
+        byte[] frame = new byte[out.remaining()];
+        out.get(frame);
+        return frame;
+    }
+
+    /**
+     * The loop filtered frame the encoder predicts the next one from
+     */
+    private static Picture getReconstruction(VP8Encoder enc) {
+        YV12buffer recon = enc.ctx.cpi.common.frame_to_show;
+        Picture pic = Picture.create(WIDTH, HEIGHT, ColorSpace.YUV420);
+        copyPlane(recon.y_buffer, recon.y_stride, pic, 0);
+        copyPlane(recon.u_buffer, recon.uv_stride, pic, 1);
+        copyPlane(recon.v_buffer, recon.uv_stride, pic, 2);
+        return pic;
+    }
+
+    private static void copyPlane(FullAccessIntArrPointer src, int stride, Picture pic, int plane) {
+        byte[] data = pic.getPlaneData(plane);
+        int pw = pic.getPlaneWidth(plane);
+        int ph = pic.getPlaneHeight(plane);
+        for (int y = 0; y < ph; y++) {
+            for (int x = 0; x < pw; x++) {
+                data[y * pw + x] = (byte) (src.getRel(y * stride + x) - VP8Encoder.INT_TO_BYTE_OFFSET);
+            }
+        }
+    }
+
+    private static List<byte[]> encode(List<Picture> pics, int threads) {
+        VP8Encoder enc = createEncoder(threads);
+        ByteBuffer buf = ByteBuffer.allocate(WIDTH * HEIGHT * 3);
+        List<byte[]> frames = new ArrayList<byte[]>();
+        for (Picture pic : pics) {
+            frames.add(toArray(enc.encodeFrame(pic, buf).getData()));
+        }
+        return frames;
+    }
+
+    /**
+     * A moving pattern with a scene change half way
+     */
+    private static List<Picture> createPictures() {
+        List<Picture> pics = new ArrayList<Picture>();
+        for (int n = 0; n < FRAMES; n++) {
+            Picture pic = Picture.create(WIDTH, HEIGHT, ColorSpace.YUV420);
+            fillMoving(pic, n, n < FRAMES / 2 ? 0 : 1);
+            pics.add(pic);
+        }
+        return pics;
+    }
+
+    private static double psnr(byte[] src, byte[] dec) {
+        long se = 0;
+        for (int i = 0; i < src.length; i++)
+            se += (src[i] - dec[i]) * (src[i] - dec[i]);
+        return 10 * Math.log10(255.0 * 255 * src.length / Math.max(se, 1));
+    }
+}
@@ -0,0 +1,193 @@
+package org.jcodec.codecs.vpx.vp8;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.jcodec.codecs.vpx.vp8.data.VarianceFNs;
+import org.jcodec.codecs.vpx.vp8.data.VarianceResults;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.FullAccessIntArrPointer;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.PositionableIntArrPointer;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.ReadOnlyIntArrPointer;
+import org.jcodec.codecs.vpx.vp8.subpixfns.BilinearPredict;
+import org.jcodec.codecs.vpx.vp8.subpixfns.SixtapPredict;
+import org.jcodec.codecs.vpx.vp8.subpixfns.SubpixFN;
+import org.junit.Test;
+
+/**
+ * Runs the array kernels and the pointer kernels they replaced on the same
+ * random blocks, the results must be the same.
+ */
+public class ArrayKernelsTest {
+    private static final int STRIDE = 64;
+    private static final int ROWS = 48;
+    private static final int BLOCKS = 200;
+    private static final int[][] SIZES = { { 16, 16 }, { 16, 8 }, { 8, 16 }, { 8, 8 }, { 4, 4 } };
+
+    private static final VarianceFNs.SDF[] SAD = { Sad.vpx_sad16x16, Sad.vpx_sad16x8, Sad.vpx_sad8x16, Sad.vpx_sad8x8,
+            Sad.vpx_sad4x4 };
+    private static final VarianceFNs.SDXF[] SADX3 = { Sad.vpx_sad16x16x3, Sad.vpx_sad16x8x3, Sad.vpx_sad8x16x3,
+            Sad.vpx_sad8x8x3, Sad.vpx_sad4x4x3 };
+    private static final VarianceFNs.SDXF[] SADX8 = { Sad.vpx_sad16x16x8, Sad.vpx_sad16x8x8, Sad.vpx_sad8x16x8,
+            Sad.vpx_sad8x8x8, Sad.vpx_sad4x4x8 };
+    private static final VarianceFNs.SDXF[] SADX4D = { Sad.vpx_sad16x16x4d, Sad.vpx_sad16x8x4d,
+            Sad.vpx_sad8x16x4d, Sad.vpx_sad8x8x4d, Sad.vpx_sad4x4x4d };
+    private static final VarianceFNs.VF[] VARIANCE = { Variance.vpx_variance16x16, Variance.vpx_variance16x8,
+            Variance.vpx_variance8x16, Variance.vpx_variance8x8, Variance.vpx_variance4x4 };
+    private static final VarianceFNs.VF[] MSE = { Variance.vpx_mse16x16, Variance.vpx_mse16x8, Variance.vpx_mse8x16,
+            Variance.vpx_mse8x8, Variance.vpx_mse4x4 };
+
+    private final Random rnd = new Random(42);
+    private final short[] src = randomPlane();
+    private final short[] ref = randomPlane();
+
+    @Test
+    public void testSad() {
+        int[] expected = new int[8];
+        int[] actual = new int[8];
+        for (int i = 0; i < BLOCKS; i++) {
+            PositionableIntArrPointer s = randomBlock(src);
+            PositionableIntArrPointer r = randomBlock(ref);
+            for (int k = 0; k < SIZES.length; k++) {
+                int w = SIZES[k][0], h = SIZES[k][1];
+                assertEquals(PointerKernels.sad(s, STRIDE, r, STRIDE, w, h), SAD[k].call(s, STRIDE, r, STRIDE));
+
+                PointerKernels.sadToArray(s, STRIDE, r, STRIDE, expected, w, h, 3);
+                SADX3[k].call(s, STRIDE, r, STRIDE, actual);
+                assertArrayEquals(expected, actual);
+
+                PointerKernels.sadToArray(s, STRIDE, r, STRIDE, expected, w, h, 8);
+                SADX8[k].call(s, STRIDE, r, STRIDE, actual);
+                assertArrayEquals(expected, actual);
+
+                PointerKernels.sadToArray(s, STRIDE, r, STRIDE, expected, w, h, 4);
+                SADX4D[k].call(s, STRIDE, r, STRIDE, actual);
+                assertArrayEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testVariance() {
+        VarianceResults expected = new VarianceResults();
+        VarianceResults actual = new VarianceResults();
+        for (int i = 0; i < BLOCKS; i++) {
+            PositionableIntArrPointer s = randomBlock(src);
+            PositionableIntArrPointer r = randomBlock(ref);
+            for (int k = 0; k < SIZES.length; k++) {
+                int w = SIZES[k][0], h = SIZES[k][1];
+                PointerKernels.variance(s, STRIDE, r, STRIDE, expected, w, h, false);
+                VARIANCE[k].call(s, STRIDE, r, STRIDE, actual);
+                assertEquals(expected.sse, actual.sse);
+                assertEquals(expected.variance, actual.variance);
+
+                PointerKernels.variance(s, STRIDE, r, STRIDE, expected, w, h, true);
+                MSE[k].call(s, STRIDE, r, STRIDE, actual);
+                assertEquals(expected.sse, actual.sse);
+                assertEquals(expected.variance, actual.variance);
+            }
+            assertEquals(PointerKernels.get4x4sse_cs(s, STRIDE, r, STRIDE),
+                    Variance.vpx_get4x4sse_cs(s, STRIDE, r, STRIDE));
+        }
+    }
+
+    @Test
+    public void testMbSs() {
+        for (int i = 0; i < BLOCKS; i++) {
+            // The residual of a macroblock, -255..255
+            short[] diff = new short[256 + 16];
+            for (int j = 0; j < diff.length; j++)
+                diff[j] = (short) (rnd.nextInt(511) - 255);
+            ReadOnlyIntArrPointer p = new ReadOnlyIntArrPointer(diff, rnd.nextInt(16));
+            assertEquals(PointerKernels.get_mb_ss(p), Variance.vpx_get_mb_ss(p));
+        }
+    }
+
+    @Test
+    public void testSubtract() {
+        for (int i = 0; i < BLOCKS; i++) {
+            ReadOnlyIntArrPointer s = randomBlock(src);
+            ReadOnlyIntArrPointer p = randomBlock(ref);
+            for (int[] size : SIZES) {
+                int w = size[0], h = size[1];
+                FullAccessIntArrPointer expected = new FullAccessIntArrPointer(16 * 16);
+                FullAccessIntArrPointer actual = new FullAccessIntArrPointer(16 * 16);
+                PointerKernels.subtract_block(h, w, expected, 16, s, STRIDE, p, STRIDE);
+                Subtract.vpx_subtract_block(h, w, actual, 16, s, STRIDE, p, STRIDE);
+                assertArrayEquals(expected.getArray(), actual.getArray());
+            }
+        }
+    }
+
+    @Test
+    public void testSubpixelVariance() {
+        VarianceResults expected = new VarianceResults();
+        VarianceResults actual = new VarianceResults();
+        for (int[] size : SIZES) {
+            int w = size[0], h = size[1];
+            SubpixelVariance svf = new SubpixelVariance(w, h);
+            for (int i = 0; i < BLOCKS; i++) {
+                PositionableIntArrPointer s = randomBlock(src);
+                PositionableIntArrPointer r = randomBlock(ref);
+                int xoff = rnd.nextInt(8), yoff = rnd.nextInt(8);
+                PointerKernels.subpixelVariance(s, STRIDE, xoff, yoff, r, STRIDE, expected, w, h);
+                svf.call(s, STRIDE, xoff, yoff, r, STRIDE, actual);
+                assertEquals(expected.sse, actual.sse);
+                assertEquals(expected.variance, actual.variance);
+            }
+        }
+    }
+
+    @Test
+    public void testSixtap() {
+        compare(PointerKernels.Sixtap.get16x16(), SixtapPredict.sixtap.get16x16(), 16, 16);
+        compare(PointerKernels.Sixtap.get8x8(), SixtapPredict.sixtap.get8x8(), 8, 8);
+        compare(PointerKernels.Sixtap.get8x4(), SixtapPredict.sixtap.get8x4(), 8, 4);
+        // The 4x4 one filters from the rows left in its buffer by the calls
+        // before, both run the same sequence of calls
+        compare(PointerKernels.Sixtap.get4x4(), SixtapPredict.sixtap.get4x4(), 4, 4);
+    }
+
+    @Test
+    public void testBilinear() {
+        compare(new PointerKernels.Bilinear(16, 16), BilinearPredict.bilinear.get16x16(), 16, 16);
+        compare(new PointerKernels.Bilinear(8, 8), BilinearPredict.bilinear.get8x8(), 8, 8);
+        compare(new PointerKernels.Bilinear(8, 4), BilinearPredict.bilinear.get8x4(), 8, 4);
+        compare(new PointerKernels.Bilinear(4, 4), BilinearPredict.bilinear.get4x4(), 4, 4);
+    }
+
+    private void compare(SubpixFN pointer, SubpixFN array, int w, int h) {
+        for (int i = 0; i < BLOCKS; i++) {
+            ReadOnlyIntArrPointer s = randomBlock(src);
+            int xoff, yoff;
+            do {
+                xoff = rnd.nextInt(8);
+                yoff = rnd.nextInt(8);
+            } while ((xoff | yoff) == 0);
+            int pitch = rnd.nextBoolean() ? w : STRIDE;
+            FullAccessIntArrPointer expected = new FullAccessIntArrPointer(pitch * h);
+            FullAccessIntArrPointer actual = new FullAccessIntArrPointer(pitch * h);
+            pointer.call(s, STRIDE, xoff, yoff, expected, pitch);
+            array.call(s, STRIDE, xoff, yoff, actual, pitch);
+            assertArrayEquals(w + "x" + h + " " + xoff + "," + yoff, expected.getArray(), actual.getArray());
+        }
+    }
+
+    private short[] randomPlane() {
+        short[] plane = new short[STRIDE * ROWS];
+        for (int i = 0; i < plane.length; i++)
+            plane[i] = (short) rnd.nextInt(256);
+        return plane;
+    }
+
+    /**
+     * A block away from the edges by more than the filters and the x8 searches
+     * reach
+     */
+    private PositionableIntArrPointer randomBlock(short[] plane) {
+        int x = 8 + rnd.nextInt(STRIDE - 40);
+        int y = 8 + rnd.nextInt(ROWS - 32);
+        return new PositionableIntArrPointer(plane, y * STRIDE + x);
+    }
+}
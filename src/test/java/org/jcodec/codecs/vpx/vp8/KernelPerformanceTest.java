@@ -0,0 +1,122 @@
+package org.jcodec.codecs.vpx.vp8;
+
+import static org.jcodec.Utils.fillMoving;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.jcodec.codecs.vpx.VP8Encoder;
+import org.jcodec.codecs.vpx.vp8.data.VarianceResults;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.FullAccessIntArrPointer;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.PositionableIntArrPointer;
+import org.jcodec.codecs.vpx.vp8.subpixfns.SixtapPredict;
+import org.jcodec.codecs.vpx.vp8.subpixfns.SubpixFN;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares the throughput of the VP8 encoder kernels working on the arrays
+ * behind the pointers against the pointer kernels they replaced, then measures
+ * the encoder as a whole.
+ */
+public class KernelPerformanceTest {
+    private static final int STRIDE = 64;
+    private static final int BLOCKS = 1 << 16;
+
+    @Test
+    @Ignore
+    public void testKernels() {
+        Random rnd = new Random(42);
+        short[] src = new short[STRIDE * STRIDE];
+        short[] ref = new short[STRIDE * STRIDE];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (short) rnd.nextInt(256);
+            ref[i] = (short) rnd.nextInt(256);
+        }
+        int[] pos = new int[256];
+        for (int i = 0; i < pos.length; i++)
+            pos[i] = (8 + rnd.nextInt(STRIDE - 32)) * STRIDE + 8 + rnd.nextInt(STRIDE - 32);
+
+        for (int round = 0; round < 3; round++) {
+            long sadPointer = sad(src, ref, pos, true);
+            long sadArray = sad(src, ref, pos, false);
+            long varPointer = variance(src, ref, pos, true);
+            long varArray = variance(src, ref, pos, false);
+            long sixtapPointer = sixtap(PointerKernels.Sixtap.get16x16(), src, pos);
+            long sixtapArray = sixtap(SixtapPredict.sixtap.get16x16(), src, pos);
+            System.out.println(String.format(
+                    "sad16x16 pointer: %d blk/s, array: %d blk/s; variance16x16 pointer: %d blk/s, array: %d blk/s; "
+                            + "sixtap16x16 pointer: %d blk/s, array: %d blk/s",
+                    sadPointer, sadArray, varPointer, varArray, sixtapPointer, sixtapArray));
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testEncoder() {
+        Picture[] pics = new Picture[30];
+        for (int i = 0; i < pics.length; i++) {
+            pics[i] = Picture.create(352, 288, ColorSpace.YUV420);
+            fillMoving(pics[i], i, 0);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(352 * 288 * 3);
+        for (int round = 0; round < 3; round++) {
+            VP8Encoder enc = new VP8Encoder((short) 30);
+            enc.setCpuUsed(-4);
+            long start = System.nanoTime();
+            for (Picture pic : pics)
+                enc.encodeFrame(pic, buf);
+            long fps = pics.length * 1000000000L / (System.nanoTime() - start);
+            System.out.println(String.format("encoder: %d fps", fps));
+        }
+    }
+
+    private long sad(short[] src, short[] ref, int[] pos, boolean pointer) {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < BLOCKS; i++) {
+            PositionableIntArrPointer s = new PositionableIntArrPointer(src, pos[i & 255]);
+            PositionableIntArrPointer r = new PositionableIntArrPointer(ref, pos[(i + 1) & 255]);
+            sum += pointer ? PointerKernels.sad(s, STRIDE, r, STRIDE, 16, 16)
+                    : Sad.vpx_sad16x16.call(s, STRIDE, r, STRIDE);
+        }
+        return rate(start, sum);
+    }
+
+    private long variance(short[] src, short[] ref, int[] pos, boolean pointer) {
+        VarianceResults ret = new VarianceResults();
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < BLOCKS; i++) {
+            PositionableIntArrPointer s = new PositionableIntArrPointer(src, pos[i & 255]);
+            PositionableIntArrPointer r = new PositionableIntArrPointer(ref, pos[(i + 1) & 255]);
+            if (pointer)
+                PointerKernels.variance(s, STRIDE, r, STRIDE, ret, 16, 16, false);
+            else
+                Variance.vpx_variance16x16.call(s, STRIDE, r, STRIDE, ret);
+            sum += ret.variance;
+        }
+        return rate(start, sum);
+    }
+
+    private long sixtap(SubpixFN fn, short[] src, int[] pos) {
+        FullAccessIntArrPointer dst = new FullAccessIntArrPointer(16 * 16);
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < BLOCKS; i++) {
+            fn.call(new PositionableIntArrPointer(src, pos[i & 255]), STRIDE, (i & 7) | 1, (i >> 3) & 7, dst, 16);
+            sum += dst.getRel(i & 255);
+        }
+        return rate(start, sum);
+    }
+
+    private static long rate(long start, long sum) {
+        long elapsed = System.nanoTime() - start;
+        // Keeps the results alive
+        if (sum == Long.MIN_VALUE)
+            System.out.println(sum);
+        return BLOCKS * 1000000000L / elapsed;
+    }
+}
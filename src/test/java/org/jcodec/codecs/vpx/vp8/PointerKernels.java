@@ -0,0 +1,207 @@
+package org.jcodec.codecs.vpx.vp8;
+
+import org.jcodec.codecs.vpx.vp8.data.VarianceResults;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.FullAccessIntArrPointer;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.PositionableIntArrPointer;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.ReadOnlyIntArrPointer;
+import org.jcodec.codecs.vpx.vp8.subpixfns.BilinearPredict;
+import org.jcodec.codecs.vpx.vp8.subpixfns.Filter;
+import org.jcodec.codecs.vpx.vp8.subpixfns.SubpixFN;
+
+/**
+ * The VP8 encoder kernels as they were before they worked on the arrays behind
+ * the pointers, every sample read and written through the pointer. The
+ * reference the array kernels are checked and timed against.
+ */
+class PointerKernels {
+
+    static int sad(PositionableIntArrPointer src_ptr, int src_stride, PositionableIntArrPointer ref_ptr,
+            int ref_stride, int width, int height) {
+        int sad = 0;
+        for (int y = 0; y < height; y++) {
+            final int basesrc = y * src_stride;
+            final int refsrc = y * ref_stride;
+            for (int x = 0; x < width; x++)
+                sad += Math.abs(src_ptr.getRel(basesrc + x) - ref_ptr.getRel(refsrc + x));
+        }
+        return sad;
+    }
+
+    static void sadToArray(PositionableIntArrPointer src_ptr, int src_stride, PositionableIntArrPointer ref_ptr,
+            int ref_stride, int[] sad_array, int width, int height, int k) {
+        for (int i = 0; i < k; i++) {
+            sad_array[i] = sad(src_ptr, src_stride, PositionableIntArrPointer.makePositionableAndInc(ref_ptr, i),
+                    ref_stride, width, height);
+        }
+    }
+
+    static void variance(PositionableIntArrPointer src_ptr, int src_stride, PositionableIntArrPointer ref_ptr,
+            int ref_stride, VarianceResults ret, int w, int h, boolean mse) {
+        long sum = 0;
+        ret.sse = 0;
+        for (int i = 0; i < h; ++i) {
+            final int baseSrc = i * src_stride;
+            final int baseRef = i * ref_stride;
+            for (int j = 0; j < w; ++j) {
+                final int diff = src_ptr.getRel(baseSrc + j) - ref_ptr.getRel(baseRef + j);
+                sum += diff;
+                ret.sse += diff * diff;
+            }
+        }
+        ret.variance = mse ? Long.MAX_VALUE : ret.sse - sum * sum / (w * h);
+    }
+
+    static int get_mb_ss(ReadOnlyIntArrPointer src_ptr) {
+        int sum = 0;
+        for (int i = 0; i < 256; ++i) {
+            final int t = src_ptr.getRel(i);
+            sum += t * t;
+        }
+        return sum;
+    }
+
+    static int get4x4sse_cs(PositionableIntArrPointer src_ptr, int src_stride, PositionableIntArrPointer ref_ptr,
+            int ref_stride) {
+        VarianceResults sse = new VarianceResults();
+        variance(src_ptr, src_stride, ref_ptr, ref_stride, sse, 4, 4, true);
+        return sse.sse;
+    }
+
+    static void subtract_block(int rows, int cols, FullAccessIntArrPointer diff_ptr, int diff_stride,
+            ReadOnlyIntArrPointer src_ptr, int src_stride, ReadOnlyIntArrPointer pred_ptr, int pred_stride) {
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0, diff = r * diff_stride, src = r * src_stride,
+                    pred = r * pred_stride; c < cols; c++, diff++, src++, pred++) {
+                diff_ptr.setRel(diff, (short) (src_ptr.getRel(src) - pred_ptr.getRel(pred)));
+            }
+        }
+    }
+
+    static void var_filter_block2d_bil(PositionableIntArrPointer src_ptr, FullAccessIntArrPointer ref_ptr,
+            int src_pixels_per_line, int pixel_step, int output_height, int output_width, int[] filter) {
+        int baseSrc = 0, baseRef = 0;
+        for (int i = 0; i < output_height; ++i) {
+            final int basePS = baseSrc + pixel_step;
+            for (int j = 0; j < output_width; ++j) {
+                ref_ptr.setRel(baseRef + j, (short) (CommonUtils.roundPowerOfTwo(
+                        (int) src_ptr.getRel(baseSrc + j) * filter[0] + (int) src_ptr.getRel(basePS + j) * filter[1],
+                        SubpixelVariance.FILTER_BITS)));
+            }
+            baseSrc += src_pixels_per_line;
+            baseRef += output_width;
+        }
+    }
+
+    static void subpixelVariance(PositionableIntArrPointer src_ptr, int src_stride, int xoff, int yoff,
+            PositionableIntArrPointer ref_ptr, int ref_stride, VarianceResults sse, int w, int h) {
+        FullAccessIntArrPointer biliX = new FullAccessIntArrPointer((h + 1) * w);
+        FullAccessIntArrPointer biliY = new FullAccessIntArrPointer(h * w);
+        var_filter_block2d_bil(src_ptr, biliX, src_stride, 1, h + 1, w, BilinearPredict.vp8_bilinear_filters[xoff]);
+        var_filter_block2d_bil(biliX, biliY, w, w, h, w, BilinearPredict.vp8_bilinear_filters[yoff]);
+        variance(biliY, w, ref_ptr, ref_stride, sse, w, h, false);
+    }
+
+    abstract static class PointerFilter implements SubpixFN {
+        void filter_block2d_single_pass(ReadOnlyIntArrPointer srcp, FullAccessIntArrPointer output_ptr,
+                int output_pitch, int src_pixels_per_line, int pixel_step, int output_height, int output_width,
+                int[] vp8_filter) {
+            final PositionableIntArrPointer src_ptr = PositionableIntArrPointer.makePositionable(srcp);
+            for (int i = 0; i < output_height; ++i) {
+                final int outbase = i * output_pitch;
+                for (int j = 0; j < output_width; ++j) {
+                    output_ptr.setRel(outbase + j, applyFilterCore(src_ptr, pixel_step, vp8_filter));
+                    src_ptr.inc();
+                }
+                src_ptr.incBy(src_pixels_per_line - output_width);
+            }
+        }
+
+        abstract short applyFilterCore(ReadOnlyIntArrPointer src_ptr, int pixel_step, int[] vp8_filter);
+    }
+
+    static final int[][] vp8_sub_pel_filters = { { 0, 0, 128, 0, 0, 0 }, { 0, -6, 123, 12, -1, 0 },
+            { 2, -11, 108, 36, -8, 1 }, { 0, -9, 93, 50, -6, 0 }, { 3, -16, 77, 77, -16, 3 },
+            { 0, -6, 50, 93, -9, 0 }, { 1, -8, 36, 108, -11, 2 }, { 0, -1, 12, 123, -6, 0 }, };
+
+    /**
+     * Same sizes as SixtapPredict.sixtap hands out, 16x16, 8x8, 8x4 and 4x4
+     */
+    static class Sixtap extends PointerFilter {
+        private final int width, height, vfOnlyHeight, vfFdataShift;
+        private int[] HFilter, VFilter;
+        private final FullAccessIntArrPointer FData;
+
+        Sixtap(int fdatasize, int height, int width, int vfH) {
+            this.width = width;
+            this.height = height;
+            this.vfOnlyHeight = vfH;
+            this.vfFdataShift = width << 1;
+            FData = new FullAccessIntArrPointer(fdatasize);
+        }
+
+        static Sixtap get16x16() {
+            return new Sixtap(21 * 24, 21, 16, 16);
+        }
+
+        static Sixtap get8x8() {
+            return new Sixtap(13 * 16, 13, 8, 8);
+        }
+
+        static Sixtap get8x4() {
+            return new Sixtap(13 * 16, 9, 8, 4);
+        }
+
+        static Sixtap get4x4() {
+            return new Sixtap(9 * 4, 4, 4, 4);
+        }
+
+        @Override
+        short applyFilterCore(ReadOnlyIntArrPointer src_ptr, int pixel_step, int[] vp8_filter) {
+            int Temp = 0;
+            for (int k = -2, fi = 0; k < 4; k++, fi++) {
+                Temp += src_ptr.getRel(k * pixel_step) * vp8_filter[fi];
+            }
+            Temp += Filter.VP8_FILTER_WEIGHT >> 1;
+            return CommonUtils.clipPixel((short) (Temp >> Filter.VP8_FILTER_SHIFT));
+        }
+
+        @Override
+        public void call(ReadOnlyIntArrPointer src_ptr, int src_pixels_per_line, int xoffset, int yoffset,
+                FullAccessIntArrPointer output_ptr, int output_pitch) {
+            HFilter = vp8_sub_pel_filters[xoffset];
+            VFilter = vp8_sub_pel_filters[yoffset];
+            FData.rewind();
+            filter_block2d_single_pass(
+                    PositionableIntArrPointer.makePositionableAndInc(src_ptr, -(2 * src_pixels_per_line)), FData,
+                    width, src_pixels_per_line, 1, height, width, HFilter);
+            FData.incBy(vfFdataShift);
+            filter_block2d_single_pass(FData, output_ptr, output_pitch, width, width, vfOnlyHeight, width, VFilter);
+        }
+    }
+
+    static class Bilinear extends PointerFilter {
+        private final int width, height;
+        private final FullAccessIntArrPointer FData = new FullAccessIntArrPointer(17 * 16);
+
+        Bilinear(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        short applyFilterCore(ReadOnlyIntArrPointer src_ptr, int pixel_step, int[] vp8_filter) {
+            return (short) (((src_ptr.get() * vp8_filter[0]) + (src_ptr.getRel(1) * vp8_filter[1])
+                    + (Filter.VP8_FILTER_WEIGHT >> 1)) >> Filter.VP8_FILTER_SHIFT);
+        }
+
+        @Override
+        public void call(ReadOnlyIntArrPointer src_ptr, int src_pitch, int xoffset, int yoffset,
+                FullAccessIntArrPointer dst_ptr, int dst_pitch) {
+            int[] HFilter = BilinearPredict.vp8_bilinear_filters[xoffset];
+            int[] VFilter = BilinearPredict.vp8_bilinear_filters[yoffset];
+            FData.rewind();
+            filter_block2d_single_pass(src_ptr, FData, width, width, src_pitch, height + 1, width, HFilter);
+            filter_block2d_single_pass(FData, dst_ptr, width, width, dst_pitch, height, width, VFilter);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package org.jcodec.codecs.vpx.vp9;
+
+import static org.jcodec.codecs.vpx.vp9.Consts.BOTH_PREDICTED;
+import static org.jcodec.codecs.vpx.vp9.Consts.CS_BT_601;
+import static org.jcodec.codecs.vpx.vp9.Consts.DC_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.H_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.TM_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.TREE_INTRA_MODE;
+import static org.jcodec.codecs.vpx.vp9.Consts.V_PRED;
+import static org.jcodec.codecs.vpx.vp9.Consts.ZERO_PLUS_PREDICTED;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jcodec.codecs.vpx.vp8.BoolEncoder;
+import org.jcodec.codecs.vpx.vp8.pointerhelper.FullAccessIntArrPointer;
+import org.jcodec.common.DemuxerTrack;
+import org.jcodec.common.io.BitWriter;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.model.Packet;
+import org.jcodec.common.model.Picture;
+import org.jcodec.common.tools.MD5;
+import org.jcodec.containers.mkv.demuxer.MKVDemuxer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VP9DecoderTest {
+    private static final File OUT9_SM = new File("src/test/resources/out9_sm.webm");
+
+    // The narrowest frame that can have 2 tile columns, one superblock row
+    private static final int TILE_W = 512;
+    private static final int TILE_H = 64;
+    // The luma mode of each superblock, the chroma one is the same
+    private static final int[] SB_MODES = { H_PRED, DC_PRED, TM_PRED, V_PRED, H_PRED, H_PRED, DC_PRED, V_PRED };
+    /**
+     * Follows from the edge pixels of the spec: 127 above the frame, 129 left
+     * of the frame and of a tile column. The 5th superblock starts the 2nd tile
+     * column, it would copy the 127 of the V_PRED to its left if the tiles
+     * weren't independent.
+     */
+    private static final int[] SB_PIXELS = { 129, 129, 129, 127, 129, 129, 129, 127 };
+    /**
+     * MD5 of the visible I420 planes of a frame, per-frame the way the libvpx
+     * test vector .md5 files hash them. The stream has key frames at 0 and 128.
+     *
+     * These come from this decoder, the frames checked by eye; there was no
+     * libvpx at hand to produce them. Cross-check with
+     * 'vpxdec --i420 --md5 --limit=N' when updating.
+     */
+    private static final int[] MD5_FRAMES = { 0, 1, 2, 3, 10, 50, 127, 128, 129, 200, 247 };
+    private static final String[] MD5_SUMS = { "f167a982af8f7cefafe87b555e7f1f95",
+            "55d8301a8666578fa25502ef702e66aa", "d1b3e75d684071d8354b29ff56a6ab40",
+            "354ff66a45540c69e6a1307a2df917ea", "92ece185376b32792db1eadc28feacaf",
+            "0678a7051dda86ca3f973d268dd8c50f", "f5770d7cef8bfe587146b21d5fb77aec",
+            "cc58b9394562631a9d9a11210f393151", "b90650116d49c6f99deae799a19bc4d7",
+            "ec1eef304a69d0918b6568abbbaccbd3", "eebe41f306828c23a0de882e70f89095" };
+
+    @Test
+    public void testDecode() throws IOException {
+        List<byte[][]> frames = decode(1);
+        Assert.assertEquals(248, frames.size());
+    }
+
+    @Test
+    public void testFrameMD5() throws IOException {
+        MKVDemuxer demuxer = new MKVDemuxer(NIOUtils.readableChannel(OUT9_SM));
+        DemuxerTrack track = demuxer.getVideoTracks().get(0);
+        VP9Decoder decoder = new VP9Decoder();
+        Packet packet;
+        int frame = 0, checked = 0;
+        while ((packet = track.nextFrame()) != null && checked < MD5_FRAMES.length) {
+            Picture pic = decoder.decodeFrame(packet.getData(), null);
+            if (frame == MD5_FRAMES[checked]) {
+                Assert.assertEquals("frame " + frame, MD5_SUMS[checked], md5I420(pic));
+                checked++;
+            }
+            frame++;
+        }
+        Assert.assertEquals(MD5_FRAMES.length, checked);
+    }
+
+    @Test
+    public void testThreadedMatchesSerial() throws IOException {
+        List<byte[][]> serial = decode(1);
+        List<byte[][]> threaded = decode(4);
+        Assert.assertEquals(serial.size(), threaded.size());
+        for (int i = 0; i < serial.size(); i++) {
+            for (int plane = 0; plane < 3; plane++)
+                Assert.assertArrayEquals("frame " + i, serial.get(i)[plane], threaded.get(i)[plane]);
+        }
+    }
+
+    @Test
+    public void testTileColumns() {
+        byte[] key = writeTileColumnsFrame(true);
+        byte[] inter = writeTileColumnsFrame(false);
+        for (int threads : new int[] { 1, 4 }) {
+            VP9Decoder decoder = new VP9Decoder();
+            decoder.setMaxThreads(threads);
+            assertSuperblocks(decoder.decodeFrame(ByteBuffer.wrap(key), null));
+            // ZEROMV from the key frame
+            assertSuperblocks(decoder.decodeFrame(ByteBuffer.wrap(inter), null));
+        }
+    }
+
+    private static void assertSuperblocks(Picture pic) {
+        Assert.assertEquals(TILE_W, pic.getCroppedWidth());
+        Assert.assertEquals(TILE_H, pic.getCroppedHeight());
+        for (int plane = 0; plane < 3; plane++) {
+            byte[] data = pic.getPlaneData(plane);
+            int pw = pic.getPlaneWidth(plane);
+            int sbSize = plane == 0 ? 64 : 32;
+            for (int y = 0; y < sbSize; y++) {
+                for (int x = 0; x < pw; x++) {
+                    Assert.assertEquals("plane " + plane + " x " + x + " y " + y, SB_PIXELS[x / sbSize] - 128,
+                            data[y * pw + x]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A 512x64 frame with 2 tile columns. Each superblock is one skipped 64x64
+     * block with 4x4 transforms: the key frame one is intra predicted with
+     * SB_MODES, the inter frame one is ZEROMV from LAST. The probabilities are
+     * the defaults, the loop filter is off.
+     */
+    private static byte[] writeTileColumnsFrame(boolean key) {
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        byte[] compressed = writeCompressedHeader(key);
+
+        BitWriter bw = new BitWriter(out);
+        bw.writeNBit(2, 2); // frame_marker
+        bw.writeNBit(0, 2); // profile 0
+        bw.write1Bit(0); // show_existing_frame
+        bw.write1Bit(key ? 0 : 1); // frame_type
+        bw.write1Bit(1); // show_frame
+        bw.write1Bit(0); // error_resilient_mode
+        if (key) {
+            bw.writeNBit(0x498342, 24);
+            bw.writeNBit(CS_BT_601, 3);
+            bw.write1Bit(0); // color_range
+            bw.writeNBit(TILE_W - 1, 16);
+            bw.writeNBit(TILE_H - 1, 16);
+            bw.write1Bit(0); // render_and_frame_size_different
+        } else {
+            bw.writeNBit(0, 2); // reset_frame_context
+            bw.writeNBit(0, 8); // refresh_frame_flags
+            for (int i = 0; i < 3; i++) {
+                bw.writeNBit(0, 3); // ref_frame_idx
+                bw.write1Bit(0); // sign_bias
+            }
+            bw.write1Bit(1); // found_ref, the size of LAST
+            bw.write1Bit(0); // render_and_frame_size_different
+            bw.write1Bit(0); // allow_high_precision_mv
+            bw.write1Bit(0); // is_filter_switchable
+            bw.writeNBit(1, 2); // EIGHTTAP
+        }
+        bw.write1Bit(0); // refresh_frame_context
+        bw.write1Bit(1); // frame_parallel_decoding_mode
+        bw.writeNBit(0, 2); // frame_context_idx
+        bw.writeNBit(0, 6); // filter_level
+        bw.writeNBit(0, 3); // sharpness_level
+        bw.write1Bit(0); // mode_ref_delta_enabled
+        bw.writeNBit(60, 8); // base_q_idx
+        bw.writeNBit(0, 3); // no delta_q
+        bw.write1Bit(0); // segmentation_enabled
+        bw.write1Bit(1); // increment_tile_cols_log2
+        bw.write1Bit(0); // tile_rows_log2
+        bw.writeNBit(compressed.length, 16);
+        bw.flush();
+
+        out.put(compressed);
+        byte[] tile0 = writeTile(key, 0, 4);
+        out.putInt(tile0.length);
+        out.put(tile0);
+        out.put(writeTile(key, 4, 8));
+        out.flip();
+        return NIOUtils.toArray(out);
+    }
+
+    private static byte[] writeCompressedHeader(boolean key) {
+        FullAccessIntArrPointer buf = new FullAccessIntArrPointer(256);
+        BoolEncoder w = new BoolEncoder();
+        w.vp8_start_encode(buf, buf.shallowCopyWithPosInc(255).readOnly());
+        w.vp8_write_bit(false); // marker
+        w.vp8_encode_value(0, 2); // ONLY_4X4
+        w.vp8_write_bit(false); // no 4x4 coefficient probability update
+        /*
+         * No update of the skip probabilities, and for the inter frame of the
+         * inter mode, intra/inter, single reference, y mode, partition and the
+         * motion vector probabilities either
+         */
+        int noUpdates = key ? 3 : 3 + 21 + 4 + 10 + 36 + 48 + 65;
+        for (int i = 0; i < noUpdates; i++)
+            w.vp8_encode_bool(false, 252);
+        w.vp8_stop_encode();
+        return toArray(buf, w.getPos());
+    }
+
+    private static byte[] writeTile(boolean key, int sbStart, int sbEnd) {
+        FullAccessIntArrPointer buf = new FullAccessIntArrPointer(256);
+        BoolEncoder w = new BoolEncoder();
+        w.vp8_start_encode(buf, buf.shallowCopyWithPosInc(255).readOnly());
+        w.vp8_write_bit(false); // marker
+        for (int sb = sbStart; sb < sbEnd; sb++) {
+            // There is no left neighbour at the start of a tile column
+            boolean hasLeft = sb > sbStart;
+            // PARTITION_NONE, context 12 is a 64x64 block with no splits around
+            w.vp8_encode_bool(false, key ? FrameContext.kfPartitionProbs[12][0]
+                    : DecodingContext.defaultPartitionProbs[12][0]);
+            // skip, the context counts the skipped neighbours
+            w.vp8_encode_bool(true, DecodingContext.defaultSkipProb[hasLeft ? 1 : 0]);
+            if (key) {
+                int leftMode = hasLeft ? SB_MODES[sb - 1] : DC_PRED;
+                writeTree(w, TREE_INTRA_MODE, Probabilities.kf_y_mode_probs[DC_PRED][leftMode], SB_MODES[sb]);
+                writeTree(w, TREE_INTRA_MODE, Probabilities.kf_uv_mode_probs[SB_MODES[sb]], SB_MODES[sb]);
+            } else {
+                // is_inter, the context is 0 with no intra neighbours
+                w.vp8_encode_bool(true, DecodingContext.defaultIsInterProbs[0]);
+                // LAST_FRAME, the context is 4 next to a LAST block, 2 alone
+                w.vp8_encode_bool(false, DecodingContext.defaultSingleRefProb[hasLeft ? 4 : 2][0]);
+                // ZEROMV, the left candidate counts only inside the tile
+                w.vp8_encode_bool(false,
+                        DecodingContext.defaultInterModeProbs[hasLeft ? ZERO_PLUS_PREDICTED : BOTH_PREDICTED][0]);
+            }
+        }
+        w.vp8_stop_encode();
+        return toArray(buf, w.getPos());
+    }
+
+    private static void writeTree(BoolEncoder w, short[] tree, int[] probs, int value) {
+        List<Integer> path = new ArrayList<Integer>();
+        findLeaf(tree, 0, value, path);
+        int node = 0;
+        for (int bit : path) {
+            w.vp8_encode_bool(bit == 1, probs[node >> 1]);
+            node = tree[node + bit];
+        }
+    }
+
+    private static boolean findLeaf(short[] tree, int node, int value, List<Integer> path) {
+        for (int bit = 0; bit < 2; bit++) {
+            int child = tree[node + bit];
+            path.add(bit);
+            if (child <= 0 ? -child == value : findLeaf(tree, child, value, path))
+                return true;
+            path.remove(path.size() - 1);
+        }
+        return false;
+    }
+
+    private static byte[] toArray(FullAccessIntArrPointer buf, int size) {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; i++)
+            result[i] = (byte) buf.getRel(i);
+        return result;
+    }
+
+    private static String md5I420(Picture pic) {
+        MessageDigest md5 = MD5.getDigest();
+        for (int plane = 0; plane < 3; plane++) {
+            int w = plane == 0 ? pic.getCroppedWidth() : (pic.getCroppedWidth() + 1) >> 1;
+            int h = plane == 0 ? pic.getCroppedHeight() : (pic.getCroppedHeight() + 1) >> 1;
+            byte[] data = pic.getPlaneData(plane);
+            int stride = pic.getPlaneWidth(plane);
+            byte[] line = new byte[w];
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++)
+                    line[x] = (byte) (data[y * stride + x] + 128);
+                md5.update(line);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md5.digest())
+            sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
+    private static List<byte[][]> decode(int threads) throws IOException {
+        MKVDemuxer demuxer = new MKVDemuxer(NIOUtils.readableChannel(OUT9_SM));
+        DemuxerTrack track = demuxer.getVideoTracks().get(0);
+        VP9Decoder decoder = new VP9Decoder();
+        decoder.setMaxThreads(threads);
+        List<byte[][]> frames = new ArrayList<byte[][]>();
+        Packet packet;
+        while ((packet = track.nextFrame()) != null) {
+            Picture pic = decoder.decodeFrame(packet.getData(), null);
+            Assert.assertEquals(178, pic.getCroppedWidth());
+            Assert.assertEquals(100, pic.getCroppedHeight());
+            frames.add(pic.getData());
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,101 @@
+package org.jcodec.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class WorkerPoolTest {
+
+    @Test
+    public void testJobParallelismCap() throws Exception {
+        WorkerPool pool = new SharedWorkerPool(4);
+        ExecutorService job = pool.newJob(2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(job.submit(new Runnable() {
+                public void run() {
+                    int cur = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), cur));
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                    }
+                    running.decrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        // The job's bookkeeping is updated right after the last task returns
+        job.shutdown();
+        assertTrue(job.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(0, ((JobExecutor) job).getRunning());
+        assertEquals(0, ((JobExecutor) job).getQueueDepth());
+    }
+
+    @Test
+    public void testJoinRunsQueuedTaskInline() throws Exception {
+        WorkerPool pool = new SharedWorkerPool(1);
+        ExecutorService job = pool.newJob(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // Occupies the only worker
+        Future<?> blocker = job.submit(new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        Future<Thread> queued = job.submit(new Callable<Thread>() {
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        });
+        assertEquals(Thread.currentThread(), WorkerPool.join(queued));
+        release.countDown();
+        WorkerPool.join(blocker);
+    }
+
+    @Test
+    public void testIoPoolRunsAllBlockedJobs() throws Exception {
+        assertNotSame(WorkerPool.getInstance(), WorkerPool.getIoInstance());
+        // More blocked downloads than the codec pool has workers
+        int n = Runtime.getRuntime().availableProcessors() + 2;
+        final CountDownLatch started = new CountDownLatch(n);
+        final CountDownLatch release = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < n; i++) {
+            ExecutorService job = WorkerPool.getIoInstance().newJob(1);
+            futures.add(job.submit(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }));
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        for (Future<?> future : futures)
+            future.get();
+    }
+}
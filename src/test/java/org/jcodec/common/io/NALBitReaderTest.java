@@ -0,0 +1,114 @@
+package org.jcodec.common.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.jcodec.codecs.h264.H264Utils;
+import org.junit.Test;
+
+public class NALBitReaderTest {
+
+    @Test
+    public void testSameAsUnescaped() {
+        Random rnd = new Random(42);
+        for (int n = 0; n < 200; n++) {
+            byte[] rbsp = rbsp(rnd, 2 + rnd.nextInt(200));
+            ByteBuffer escaped = escape(rbsp);
+
+            BitReader expected = BitReader.createBitReader(ByteBuffer.wrap(rbsp));
+            BitReader actual = NALBitReader.createNALBitReader(escaped);
+            for (int op = 0; expected.remaining() > 0; op++) {
+                String msg = "Stream " + n + ", op " + op;
+                switch (rnd.nextInt(7)) {
+                case 0:
+                    assertEquals(msg, expected.read1Bit(), actual.read1Bit());
+                    break;
+                case 1:
+                    int bits = rnd.nextInt(33);
+                    assertEquals(msg, expected.readNBit(bits), actual.readNBit(bits));
+                    break;
+                case 2:
+                    bits = 1 + rnd.nextInt(24);
+                    assertEquals(msg, expected.checkNBit(bits), actual.checkNBit(bits));
+                    break;
+                case 3:
+                    bits = rnd.nextInt(80);
+                    assertEquals(msg, expected.skip(bits), actual.skip(bits));
+                    break;
+                case 4:
+                    assertEquals(msg, expected.check16Bits(), actual.check16Bits());
+                    bits = rnd.nextInt(17);
+                    assertEquals(msg, expected.readFast16(bits), actual.readFast16(bits));
+                    break;
+                case 5:
+                    assertEquals(msg, expected.position(), actual.position());
+                    break;
+                default:
+                    assertEquals(msg, expected.moreData(), actual.moreData());
+                    assertEquals(msg, expected.lastByte(), actual.lastByte());
+                    break;
+                }
+                // Exact near the end where the end of slice is checked
+                if (expected.remaining() < 64)
+                    assertEquals(msg, expected.remaining(), actual.remaining());
+            }
+        }
+    }
+
+    @Test
+    public void testTerminate() {
+        Random rnd = new Random(42);
+        for (int n = 0; n < 200; n++) {
+            byte[] rbsp = rbsp(rnd, 8 + rnd.nextInt(200));
+            ByteBuffer escaped = escape(rbsp);
+            ByteBuffer plain = ByteBuffer.wrap(rbsp);
+
+            BitReader expected = BitReader.createBitReader(plain);
+            BitReader actual = NALBitReader.createNALBitReader(escaped);
+            int bits = rnd.nextInt(rbsp.length << 3) & ~7;
+            expected.skip(bits);
+            actual.skip(bits);
+            expected.terminate();
+            actual.terminate();
+
+            // Points to the same byte of the payload
+            assertEquals("Stream " + n, rawPosition(escaped, plain.position()), escaped.position());
+        }
+    }
+
+    private static int rawPosition(ByteBuffer escaped, int pos) {
+        int raw = 0;
+        for (int i = 0; i < pos; i++, raw++) {
+            if (isEmulationPrevention(escaped, raw))
+                raw++;
+        }
+        // The reader stops past the emulation prevention byte
+        if (raw < escaped.limit() && isEmulationPrevention(escaped, raw))
+            raw++;
+        return raw;
+    }
+
+    private static boolean isEmulationPrevention(ByteBuffer escaped, int i) {
+        return i >= 2 && escaped.get(i) == 3 && escaped.get(i - 1) == 0 && escaped.get(i - 2) == 0;
+    }
+
+    /**
+     * Random payload, with the runs of zeros and the small values that need
+     * to be escaped
+     */
+    private static byte[] rbsp(Random rnd, int len) {
+        byte[] rbsp = new byte[len];
+        for (int i = 0; i < len; i++)
+            rbsp[i] = (byte) (rnd.nextBoolean() ? rnd.nextInt(4) : rnd.nextInt(256));
+        return rbsp;
+    }
+
+    private static ByteBuffer escape(byte[] rbsp) {
+        ByteBuffer escaped = ByteBuffer.allocate(rbsp.length * 2);
+        H264Utils.escapeNAL(ByteBuffer.wrap(rbsp), escaped);
+        escaped.flip();
+        return escaped;
+    }
+}
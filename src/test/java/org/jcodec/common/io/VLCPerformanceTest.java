@@ -0,0 +1,92 @@
+package org.jcodec.common.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jcodec.codecs.h264.BufferH264ES;
+import org.jcodec.codecs.h264.H264Const;
+import org.jcodec.codecs.h264.H264Utils;
+import org.jcodec.codecs.h264.decode.FrameReader;
+import org.jcodec.codecs.h264.decode.MBlock;
+import org.jcodec.codecs.h264.decode.SliceReader;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Packet;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares the throughput of the CAVLC slice parsing with the multi-level
+ * lookup tables against the legacy 8 bit per step table walk on the slices of
+ * the CAVLC test streams.
+ */
+public class VLCPerformanceTest {
+
+    private static final String[] STREAMS = { "src/test/resources/h264/test_cat1.h264",
+            "src/test/resources/h264/test_cat2.h264", "src/test/resources/h264/test_cat3.h264",
+            "src/test/resources/h264/iframe_nocabac.264" };
+
+    @Test
+    @Ignore
+    public void testResidualParsing() throws IOException {
+        List<List<ByteBuffer>> frames = new ArrayList<List<ByteBuffer>>();
+        for (String stream : STREAMS) {
+            BufferH264ES es = new BufferH264ES(NIOUtils.fetchFromFile(new File(stream)));
+            Packet packet;
+            while ((packet = es.nextFrame()) != null)
+                frames.add(H264Utils.splitFrame(NIOUtils.clone(packet.getData())));
+        }
+
+        List<VLC> tables = new ArrayList<VLC>();
+        for (VLC vlc : H264Const.CoeffToken) {
+            if (vlc != null)
+                tables.add(vlc);
+        }
+        tables.add(H264Const.coeffTokenChromaDCY420);
+        tables.add(H264Const.coeffTokenChromaDCY422);
+        for (VLC[] vlcs : new VLC[][] { H264Const.run, H264Const.totalZeros4, H264Const.totalZeros8,
+                H264Const.totalZeros16 }) {
+            for (VLC vlc : vlcs)
+                tables.add(vlc);
+        }
+        List<int[]> lookups = new ArrayList<int[]>();
+        for (VLC vlc : tables)
+            lookups.add(vlc.lookup);
+
+        for (int round = 0; round < 3; round++) {
+            for (VLC vlc : tables)
+                vlc.lookup = null;
+            long legacy = parse(frames, 10);
+            for (int i = 0; i < tables.size(); i++)
+                tables.get(i).lookup = lookups.get(i);
+            long lookup = parse(frames, 10);
+            System.out.println(String.format("legacy: %d mb/s, lookup: %d mb/s", legacy, lookup));
+        }
+    }
+
+    private long parse(List<List<ByteBuffer>> frames, int iterations) {
+        MBlock mBlock = new MBlock(ColorSpace.YUV420J);
+        long mbs = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            FrameReader reader = new FrameReader();
+            for (List<ByteBuffer> frame : frames) {
+                List<ByteBuffer> nalUnits = new ArrayList<ByteBuffer>();
+                for (ByteBuffer nalUnit : frame)
+                    nalUnits.add(NIOUtils.clone(nalUnit));
+                List<SliceReader> slices = reader.readFrame(nalUnits);
+                if (slices == null)
+                    continue;
+                for (SliceReader slice : slices) {
+                    while (slice.readMacroblock(mBlock)) {
+                        mBlock.clear();
+                        mbs++;
+                    }
+                }
+            }
+        }
+        return mbs * 1000000000L / (System.nanoTime() - start);
+    }
+}
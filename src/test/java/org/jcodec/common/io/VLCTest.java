@@ -81,4 +81,26 @@ public class VLCTest {
 
         Assert.assertArrayEquals(decoded, actual);
     }
+
+    @Test
+    public void testBuilderLookup() throws IOException {
+        VLCBuilder builder = new VLCBuilder();
+        for (int i = 0; i < codes.length; i++) {
+            builder.set(i * 3 + 50, codes[i]);
+        }
+        VLC vlc = builder.getVLC();
+
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        BitWriter out = new BitWriter(buf);
+        for (int i = codes.length - 1; i >= 0; i--) {
+            vlc.writeVLC(out, i * 3 + 50);
+        }
+        out.flush();
+        buf.flip();
+
+        BitReader _in = BitReader.createBitReader(buf);
+        for (int i = codes.length - 1; i >= 0; i--) {
+            Assert.assertEquals(i * 3 + 50, vlc.readVLC(_in));
+        }
+    }
 }
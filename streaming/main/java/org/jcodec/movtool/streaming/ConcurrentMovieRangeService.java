@@ -3,23 +3,20 @@ import java.lang.IllegalStateException;
 import java.lang.System;
 import java.lang.IllegalArgumentException;
 
+import org.jcodec.common.WorkerPool;
 import org.jcodec.common.io.NIOUtils;
 import org.jcodec.platform.BaseInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.InterruptedException;
-import java.lang.Runnable;
-import java.lang.Thread;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
@@ -36,13 +33,7 @@ public class ConcurrentMovieRangeService {
     private VirtualMovie movie;
 
     public ConcurrentMovieRangeService(VirtualMovie movie, int nThreads) {
-        this.exec = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
-            public Thread newThread(Runnable runnable) {
-                Thread thread = Executors.defaultThreadFactory().newThread(runnable);
-                thread.setDaemon(true);
-                return thread;
-            }
-        });
+        this.exec = WorkerPool.getInstance().newJob(nThreads);
         this.movie = movie;
     }
 